@@ -42,6 +42,8 @@ import se.llbit.chunky.resources.TexturePackLoader;
 import se.llbit.chunky.ui.ChunkyFx;
 import se.llbit.chunky.ui.render.RenderControlsTabTransformer;
 import se.llbit.chunky.block.Block;
+import se.llbit.chunky.map.MapTileExporter;
+import se.llbit.chunky.world.World;
 import se.llbit.json.JsonArray;
 import se.llbit.json.JsonValue;
 import se.llbit.log.Level;
@@ -210,6 +212,9 @@ public class Chunky {
           case SNAPSHOT:
             exitCode = chunky.doSnapshot();
             break;
+          case EXPORT_MAP:
+            exitCode = chunky.doExportMap();
+            break;
           case DEFAULT:
             ChunkyFx.startChunkyUI(chunky);
             break;
@@ -260,6 +265,31 @@ public class Chunky {
     }
   }
 
+  /**
+   * Export map tiles for the selected world.
+   *
+   * @return error code
+   */
+  private int doExportMap() {
+    System.setProperty("java.awt.headless", "true");
+    Log.setReceiver(HEADLESS_LOG_RECEIVER, Level.INFO, Level.WARNING, Level.ERROR);
+    if (options.worldDir == null || !World.isWorldDir(options.worldDir)) {
+      Log.error("A valid world directory must be specified for map export.");
+      return 1;
+    }
+    World world = new World(options.worldDir, false);
+    MapTileExporter exporter = new MapTileExporter(
+        world.getRegionDirectory(options.mapExportDimension), options.mapExportDimension,
+        options.mapExportDir, options.renderThreads, MapTileExporter.DEFAULT_ZOOM_LEVELS);
+    try {
+      exporter.export(new TaskTracker(new ConsoleProgressListener()));
+      return 0;
+    } catch (IOException e) {
+      Log.error("Map export failed: " + e.getMessage());
+      return 1;
+    }
+  }
+
   /**
    * Save a snapshot for a scene.
    *
@@ -19,6 +19,7 @@ package se.llbit.chunky.main;
 import se.llbit.chunky.PersistentSettings;
 import se.llbit.chunky.renderer.RenderConstants;
 import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.chunky.world.World;
 
 import java.io.File;
 
@@ -44,6 +45,12 @@ public class ChunkyOptions {
   /** Ignore scene loading errors when starting a headless render. */
   public boolean force = false;
 
+  /** The output directory for map tile export. */
+  public File mapExportDir = null;
+
+  /** The dimension to export map tiles for. */
+  public int mapExportDimension = World.OVERWORLD_DIMENSION;
+
   private ChunkyOptions() {
   }
 
@@ -21,6 +21,7 @@ import se.llbit.chunky.renderer.ConsoleProgressListener;
 import se.llbit.chunky.renderer.RenderContext;
 import se.llbit.chunky.renderer.scene.Scene;
 import se.llbit.chunky.resources.TexturePackLoader;
+import se.llbit.chunky.world.World;
 import se.llbit.json.JsonNumber;
 import se.llbit.json.JsonObject;
 import se.llbit.json.JsonParser;
@@ -56,6 +57,7 @@ public class CommandLineOptions {
     NOTHING,
     HEADLESS_RENDER,
     SNAPSHOT,
+    EXPORT_MAP,
   }
 
   /**
@@ -77,6 +79,8 @@ public class CommandLineOptions {
           "  -reset <NAME>          reset a global option to its default value",
           "  -reset <NAME> <SCENE>  reset an option for a particular scene",
           "  -download-mc <VERSION> download the given Minecraft version and exit",
+          "  -export-map <DIR>      export map tiles for the selected world to DIR",
+          "  -dimension <NAME>      export the map of the given dimension (see notes)",
           "  -list-scenes           print a list of all scenes in the scene directory",
           "  -merge-dump <SCENE> <PATH>",
           "                         merge a render dump into the given scene",
@@ -86,7 +90,12 @@ public class CommandLineOptions {
           "*OR* the name of a scene relative to the scene directory (excluding extension).",
           "If the scene name is an absolute path then the scene directory will be the",
           "parent directory of the Scene Description File, otherwise the scene directory",
-          "can be overridden temporarily by the -scene-dir option.", "", "Launcher options:",
+          "can be overridden temporarily by the -scene-dir option.", "",
+          "The -export-map command writes surface, biome, and cave map tiles to",
+          "DIR/<layer>/<zoom>/<x>/<y>.png. Only regions that changed since the previous",
+          "export to DIR are rendered again. The -dimension option selects which",
+          "dimension to export: overworld (default), nether, or end.", "",
+          "Launcher options:",
           "  --update              download the latest version of Chunky and exit",
           "  --setup               configure memory limit and Java options for Chunky",
           "  --nolauncher          start Chunky as normal, but without opening launcher",
@@ -235,6 +244,31 @@ public class CommandLineOptions {
       configurationError = true;
     });
 
+    registerOption("-export-map", new Range(1), arguments -> {
+      mode = Mode.EXPORT_MAP;
+      options.mapExportDir = new File(arguments.get(0));
+    }, () -> {
+      System.err.println("You must specify an output directory for the -export-map command!");
+      configurationError = true;
+    });
+
+    registerOption("-dimension", new Range(1), arguments -> {
+      switch (arguments.get(0)) {
+        case "overworld":
+          options.mapExportDimension = World.OVERWORLD_DIMENSION;
+          break;
+        case "nether":
+          options.mapExportDimension = World.NETHER_DIMENSION;
+          break;
+        case "end":
+          options.mapExportDimension = World.END_DIMENSION;
+          break;
+        default:
+          System.err.println("Unknown dimension: " + arguments.get(0));
+          configurationError = true;
+      }
+    });
+
     registerOption("-list-scenes", new Range(0), arguments -> {
       mode = Mode.NOTHING;
       printAvailableScenes();
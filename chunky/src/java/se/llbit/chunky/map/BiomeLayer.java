@@ -22,7 +22,7 @@ import se.llbit.math.ColorUtil;
 
 public class BiomeLayer extends BitmapLayer {
 
-  private final byte[] biomes;
+  final byte[] biomes;
   private final int avgColor;
 
   /**
@@ -30,8 +30,8 @@ import se.llbit.math.ColorUtil;
  * @author Jesper Öqvist <jesper@llbit.se>
  */
 public class BlockLayer extends AbstractLayer {
-  private final byte[] blocks;
-  private final byte[] biomes;
+  final byte[] blocks;
+  final byte[] biomes;
   private final int avgColor;
 
   /**
@@ -60,6 +60,15 @@ public class BlockLayer extends AbstractLayer {
     avgColor = ColorUtil.getRGB(sum);
   }
 
+  /**
+   * Create a block layer from previously extracted layer data.
+   */
+  BlockLayer(int avgColor, byte[] blocks, byte[] biomes) {
+    this.blocks = blocks;
+    this.biomes = biomes;
+    this.avgColor = avgColor;
+  }
+
   /**
    * Render this layer
    */
@@ -23,7 +23,7 @@ import se.llbit.math.QuickMath;
 
 public class CaveLayer extends BitmapLayer {
 
-  private final byte[] caves;
+  final byte[] caves;
   private final int avgColor;
 
   /**
@@ -70,6 +70,18 @@ public class CaveLayer extends BitmapLayer {
     avgColor = color((byte) (luft / (float) (Chunk.X_MAX * Chunk.Z_MAX)));
   }
 
+  /**
+   * Create a cave layer from previously generated cave depths.
+   */
+  CaveLayer(byte[] caves) {
+    this.caves = caves;
+    int luft = 0;
+    for (byte luftspalt : caves) {
+      luft += luftspalt;
+    }
+    avgColor = color((byte) (luft / (float) (Chunk.X_MAX * Chunk.Z_MAX)));
+  }
+
   @Override public int colorAt(int x, int z) {
     return color(caves[x * 16 + z]);
   }
@@ -26,7 +26,6 @@ import se.llbit.chunky.block.Block;
 import se.llbit.chunky.world.ChunkPosition;
 import se.llbit.chunky.world.ChunkView;
 import se.llbit.png.PngFileWriter;
-import se.llbit.util.RingBuffer;
 import se.llbit.util.TaskTracker;
 
 import java.io.File;
@@ -34,8 +33,10 @@ import java.io.IOException;
 import java.nio.IntBuffer;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Keeps a buffered image of rendered map tiles. We only re-render chunks when
@@ -43,16 +44,32 @@ import java.util.Map;
  * outside of the view. Chunks outside the view are rendered so that the
  * rendering and chunk loading delay when panning is minimized.
  *
+ * <p>Tiles that leave the view are kept in a {@link RenderedTileCache} so
+ * that recently visited areas do not have to be redrawn.
+ *
+ * <p>When the view is panned the buffered pixels are shifted by the pan
+ * distance, and only the tiles that were not already in the buffer are
+ * drawn.
+ *
  * @author Jesper Öqvist (jesper@llbit.se)
  */
 public class MapBuffer {
   private static final WritablePixelFormat<IntBuffer> PIXEL_FORMAT =
       PixelFormat.getIntArgbInstance();
 
+  /** Maximum number of pixels in cached tiles outside the view (64 MiB). */
+  private static final long TILE_CACHE_PIXELS = 16 * 1024 * 1024;
+
   private int[] pixels;
   private int width;
   private int height;
 
+  /** Positions of the tiles whose pixels are currently in the buffer. */
+  private final Set<ChunkPosition> buffered = new HashSet<>();
+
+  /** Scaled pixels for the map canvas. */
+  private int[] scaled = new int[0];
+
   private WritableImage image = null;
   private boolean cached = false;
 
@@ -62,7 +79,7 @@ public class MapBuffer {
 
   private ChunkView view = ChunkView.EMPTY;
 
-  private RingBuffer<MapTile> tileCache = new RingBuffer<>(140);
+  private final RenderedTileCache tileCache = new RenderedTileCache(TILE_CACHE_PIXELS);
   private Map<ChunkPosition, MapTile> activeTiles = new HashMap<>();
 
   public MapBuffer() {
@@ -73,7 +90,7 @@ public class MapBuffer {
    * Called when this render buffer should buffer another view.
    */
   public synchronized void updateView(ChunkView newView, WorldMapLoader loader) {
-    boolean rebuild = newView.scale != view.scale || newView.renderer != view.renderer
+    boolean rebuild = newView.renderer != view.renderer
         || (newView.renderer == MapViewMode.LAYER && newView.layer != view.layer);
     if (newView.renderer == MapViewMode.LAYER) {
       if (loader.highlightEnabled() != highlightEnabled
@@ -95,23 +112,37 @@ public class MapBuffer {
       width = newWidth;
       height = newHeight;
       pixels = new int[width * height];
+      buffered.clear();
+    } else if (newView.chunkScale != view.chunkScale) {
+      buffered.clear();
+    } else if (newView.px0 != view.px0 || newView.pz0 != view.pz0) {
+      // The view was panned: keep the pixels that are still in the buffer.
+      shiftPixels(newView.chunkScale * (newView.px0 - view.px0),
+          newView.chunkScale * (newView.pz0 - view.pz0));
+      buffered.removeIf(pos -> !newView.shouldPreload(pos));
     }
     updateActiveTiles(newView, rebuild);
     view = newView;
   }
 
   private synchronized void updateActiveTiles(ChunkView newView, boolean rebuild) {
+    if (rebuild) {
+      tileCache.clear();
+      buffered.clear();
+    }
     Collection<MapTile> discarded = new LinkedList<>();
     for (MapTile tile : activeTiles.values()) {
-      if (!newView.shouldPreload(tile.pos)) {
+      if (tile.scale != newView.chunkScale || !newView.shouldPreload(tile.pos)) {
         discarded.add(tile);
       } else if (rebuild) {
         tile.rebuild(tile.pos, newView);
       }
     }
     for (MapTile tile : discarded) {
-      tileCache.append(tile);
       activeTiles.remove(tile.pos);
+      if (!rebuild) {
+        tileCache.put(tile);
+      }
     }
     int x0, x1, z0, z1;
     if (newView.chunkScale >= 16) {
@@ -135,6 +166,29 @@ public class MapBuffer {
     }
   }
 
+  /**
+   * Move the buffered pixels so that the pixel at (dx, dz) ends up at (0, 0).
+   * Pixels that are moved outside the buffer are discarded, and the newly
+   * exposed part of the buffer is left unchanged.
+   */
+  private void shiftPixels(int dx, int dz) {
+    if (Math.abs(dx) >= width || Math.abs(dz) >= height) {
+      return;
+    }
+    int rowWidth = width - Math.abs(dx);
+    int srcX = Math.max(0, dx);
+    int destX = Math.max(0, -dx);
+    if (dz >= 0) {
+      for (int z = 0; z < height - dz; ++z) {
+        System.arraycopy(pixels, (z + dz) * width + srcX, pixels, z * width + destX, rowWidth);
+      }
+    } else {
+      for (int z = height - 1; z >= -dz; --z) {
+        System.arraycopy(pixels, (z + dz) * width + srcX, pixels, z * width + destX, rowWidth);
+      }
+    }
+  }
+
   /**
    * @return The buffered view
    */
@@ -142,6 +196,20 @@ public class MapBuffer {
     return view;
   }
 
+  /**
+   * Drops cached tiles outside the view that depend on the given chunk.
+   */
+  public void invalidateChunk(ChunkPosition chunk) {
+    tileCache.invalidate(chunk);
+  }
+
+  /**
+   * @return statistics for the cache of tiles outside the view
+   */
+  public String tileCacheStatistics() {
+    return tileCache.toString();
+  }
+
   /**
    * Redraws the given tile.
    */
@@ -149,6 +217,7 @@ public class MapBuffer {
     MapTile tile = activeTiles.get(chunk);
     if (tile != null) {
       tile.draw(this, mapLoader, view);
+      buffered.add(chunk);
       cached = false;
     }
   }
@@ -160,12 +229,13 @@ public class MapBuffer {
     MapTile tile = activeTiles.get(chunk);
     if (tile != null) {
       tile.drawCached(this, mapLoader, view);
+      buffered.add(chunk);
       cached = false;
     }
   }
 
   /**
-   * Redraw all tiles in the current view.
+   * Draw all tiles in the current view that are not already in the buffer.
    * This draws to the map buffer, it does not render to the map canvas.
    */
   public synchronized void redrawView(WorldMapLoader mapLoader) {
@@ -183,23 +253,24 @@ public class MapBuffer {
     }
     for (int x = x0; x <= x1; ++x) {
       for (int z = z0; z <= z1; ++z) {
-        drawTileCached(mapLoader, ChunkPosition.get(x, z));
+        ChunkPosition pos = ChunkPosition.get(x, z);
+        if (!buffered.contains(pos)) {
+          drawTileCached(mapLoader, pos);
+        }
       }
     }
   }
 
   /**
-   * Create a new map tile to use in the map buffer.
-   * This reuses existing map tiles when possible.
+   * Get a map tile to use in the map buffer.
+   * This reuses a previously rendered tile when possible.
    */
   private MapTile newTile(ChunkPosition pos, ChunkView view) {
-    if (tileCache.isEmpty()) {
-      return new MapTile(pos, view);
-    } else {
-      MapTile tile = tileCache.remove();
-      tile.rebuild(pos, view);
-      return tile;
+    MapTile tile = tileCache.take(pos, view.chunkScale);
+    if (tile == null) {
+      tile = new MapTile(pos, view);
     }
+    return tile;
   }
 
   /**
@@ -230,7 +301,9 @@ public class MapBuffer {
       double x0 = view.chunkScale * (view.x0 - view.px0);
       double z0 = view.chunkScale * (view.z0 - view.pz0);
       float diffY = 0;
-      int[] scaled = new int[view.width * view.height];
+      if (scaled.length != view.width * view.height) {
+        scaled = new int[view.width * view.height];
+      }
       int index = 0;
       int sourceX = (int) (0.5 + x0);
       int sourceY = (int) (0.5 + z0);
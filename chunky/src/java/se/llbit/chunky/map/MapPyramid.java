@@ -0,0 +1,179 @@
+/* Copyright (c) 2019 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.map;
+
+import se.llbit.chunky.world.Chunk;
+import se.llbit.chunky.world.ChunkPosition;
+import se.llbit.chunky.world.ChunkView;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Region level of the map tile pyramid.
+ *
+ * <p>The chunk level of the pyramid is the per-chunk layer data stored in
+ * the {@link MapTileCache}. The region level stores the average color of each
+ * chunk in a region, which is what the map draws when zoomed out to one
+ * pixel per chunk. Region tiles are updated incrementally as chunks are
+ * loaded, and are persisted in the map tile cache so that the zoomed-out map
+ * can be drawn without decoding any chunks.
+ *
+ * <p>Each chunk color is stored with the chunk timestamp it was computed
+ * from, so that only changed chunks need to be loaded again.
+ *
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public class MapPyramid {
+
+  /** Color value used for chunks without a known color. */
+  public static final int NO_COLOR = 0;
+
+  /** Maximum number of region tiles kept in memory. */
+  private static final int MAX_TILES = 4096;
+
+  private static final class TileKey {
+    final String layer;
+    final ChunkPosition region;
+
+    TileKey(String layer, ChunkPosition region) {
+      this.layer = layer;
+      this.region = region;
+    }
+
+    @Override public boolean equals(Object obj) {
+      if (!(obj instanceof TileKey)) {
+        return false;
+      }
+      TileKey other = (TileKey) obj;
+      return region == other.region && layer.equals(other.layer);
+    }
+
+    @Override public int hashCode() {
+      return Objects.hash(layer, region.x, region.z);
+    }
+  }
+
+  private static final class RegionTile {
+    final int[] colors = new int[32 * 32];
+    final int[] timestamps = new int[32 * 32];
+  }
+
+  private final MapTileCache storage;
+
+  private final Map<TileKey, RegionTile> tiles =
+      new LinkedHashMap<TileKey, RegionTile>(64, 0.75f, true) {
+        @Override protected boolean removeEldestEntry(Map.Entry<TileKey, RegionTile> eldest) {
+          return size() > MAX_TILES;
+        }
+      };
+
+  /**
+   * @param storage persistent storage for region tiles
+   */
+  public MapPyramid(MapTileCache storage) {
+    this.storage = storage;
+  }
+
+  /**
+   * @return the name of the layer whose average chunk colors are drawn
+   * in the zoomed-out map for the given view
+   */
+  public static String layerName(ChunkView view) {
+    switch (view.renderer) {
+      case LAYER:
+        return layerName(Chunk.BLOCK_LAYER, view.layer);
+      case SURFACE:
+        return layerName(Chunk.SURFACE_LAYER, view.layer);
+      case CAVES:
+        return layerName(Chunk.CAVE_LAYER, view.layer);
+      case AUTO:
+      case BIOMES:
+      default:
+        return layerName(Chunk.BIOME_LAYER, view.layer);
+    }
+  }
+
+  /**
+   * @param layer one of the chunk layer flags
+   * @param layerY the Y coordinate used for the block layer
+   * @return the name used to identify the layer in the pyramid
+   */
+  public static String layerName(int layer, int layerY) {
+    switch (layer) {
+      case Chunk.BLOCK_LAYER:
+        return "layer" + layerY;
+      case Chunk.SURFACE_LAYER:
+        return "surface";
+      case Chunk.CAVE_LAYER:
+        return "caves";
+      case Chunk.BIOME_LAYER:
+      default:
+        return "biomes";
+    }
+  }
+
+  /**
+   * @return the average color of the chunk, or {@link #NO_COLOR} if the
+   * chunk color is not known
+   */
+  public synchronized int chunkColor(String layer, ChunkPosition chunk) {
+    RegionTile tile = getTile(layer, chunk.regionPosition());
+    int index = (chunk.x & 31) + (chunk.z & 31) * 32;
+    return tile.timestamps[index] != 0 ? tile.colors[index] : NO_COLOR;
+  }
+
+  /**
+   * @return {@code true} if the stored chunk color was computed from the
+   * chunk with the given timestamp
+   */
+  public synchronized boolean isCurrent(String layer, ChunkPosition chunk, int timestamp) {
+    if (timestamp == 0) {
+      return false;
+    }
+    RegionTile tile = getTile(layer, chunk.regionPosition());
+    return tile.timestamps[(chunk.x & 31) + (chunk.z & 31) * 32] == timestamp;
+  }
+
+  /**
+   * Update the average color of a chunk.
+   */
+  public void update(String layer, ChunkPosition chunk, int timestamp, int color) {
+    synchronized (this) {
+      RegionTile tile = getTile(layer, chunk.regionPosition());
+      int index = (chunk.x & 31) + (chunk.z & 31) * 32;
+      if (tile.timestamps[index] == timestamp && tile.colors[index] == color) {
+        return;
+      }
+      tile.timestamps[index] = timestamp;
+      tile.colors[index] = color;
+    }
+    storage.storeChunkColor(layer, chunk, timestamp, color);
+  }
+
+  private RegionTile getTile(String layer, ChunkPosition region) {
+    TileKey key = new TileKey(layer, region);
+    RegionTile tile = tiles.get(key);
+    if (tile == null) {
+      tile = new RegionTile();
+      storage.loadChunkColors(layer, region, tile.colors, tile.timestamps);
+      tiles.put(key, tile);
+    }
+    return tile;
+  }
+}
@@ -78,12 +78,23 @@ public class MapTile {
         }
       }
     } else {
+      // Draw the region from the map pyramid, falling back on loaded chunk
+      // colors for chunks that are not in the pyramid yet.
       Region region = mapLoader.getWorld().getRegion(pos);
+      MapPyramid pyramid = mapLoader.getMapPyramid();
+      String layer = MapPyramid.layerName(view);
       int pixelOffset = 0;
       for (int z = 0; z < 32; ++z) {
         for (int x = 0; x < 32; ++x) {
           Chunk chunk = region.getChunk(x, z);
-          pixels[pixelOffset] = view.renderer.getChunkColor(chunk);
+          int color = MapPyramid.NO_COLOR;
+          if (!chunk.isEmpty()) {
+            color = pyramid.chunkColor(layer, chunk.getPosition());
+          }
+          if (color == MapPyramid.NO_COLOR) {
+            color = view.renderer.getChunkColor(chunk);
+          }
+          pixels[pixelOffset] = color;
           if (mapLoader.getChunkSelection().isSelected(chunk.getPosition())) {
             pixels[pixelOffset] = selectionTint(pixels[pixelOffset]);
           }
@@ -0,0 +1,455 @@
+/* Copyright (c) 2019 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.map;
+
+import se.llbit.chunky.PersistentSettings;
+import se.llbit.chunky.resources.TexturePackLoader;
+import se.llbit.chunky.world.Chunk;
+import se.llbit.chunky.world.ChunkPosition;
+import se.llbit.chunky.world.Region;
+import se.llbit.chunky.world.World;
+import se.llbit.log.Log;
+import se.llbit.util.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent cache of decoded map layers.
+ *
+ * <p>The cache stores the per-chunk data needed to redraw the surface, biome,
+ * cave and block layers without decoding the chunk again. There is one cache
+ * file per region and layer. Each file has a fixed-size record for every
+ * chunk in the region, starting with the chunk timestamp from the region file
+ * header. A record is only used if its timestamp matches the current
+ * timestamp of the chunk.
+ *
+ * <p>Cache files are stored in the Chunky cache directory, in a separate
+ * directory for each world, set of resource packs, and dimension. The total size of the cache files
+ * for all worlds is limited: when a new cache file would exceed the limit,
+ * the least recently written cache files are deleted.
+ *
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public class MapTileCache {
+
+  /** Cache format version. Bump this when changing the record layout. */
+  private static final int VERSION = 1;
+
+  private static final int CHUNK_AREA = Chunk.X_MAX * Chunk.Z_MAX;
+
+  private static final int SURFACE_RECORD_SIZE = 4 + CHUNK_AREA * 4 + CHUNK_AREA;
+  private static final int BIOME_RECORD_SIZE = CHUNK_AREA;
+  private static final int CAVE_RECORD_SIZE = CHUNK_AREA;
+  private static final int BLOCK_RECORD_SIZE = 4 + CHUNK_AREA * 2;
+
+  /** Maximum number of cache files kept open at once. */
+  private static final int MAX_OPEN_FILES = 16;
+
+  /** Default maximum total size of the cache files, in bytes. */
+  private static final long DEFAULT_MAX_BYTES = 1L << 30;
+
+  /** A cache which never stores anything. */
+  public static final MapTileCache DISABLED = new MapTileCache(null);
+
+  private final File directory;
+
+  /** The directory containing all cache files that count toward the size limit. */
+  private final File root;
+
+  private final long maxBytes;
+
+  /** Estimated total size of the cache files, or -1 if not yet known. */
+  private long totalBytes = -1;
+
+  private boolean closed = false;
+
+  private final Map<File, RandomAccessFile> openFiles =
+      new LinkedHashMap<File, RandomAccessFile>(MAX_OPEN_FILES, 0.75f, true) {
+        @Override protected boolean removeEldestEntry(Map.Entry<File, RandomAccessFile> eldest) {
+          if (size() > MAX_OPEN_FILES) {
+            closeQuietly(eldest.getValue());
+            return true;
+          }
+          return false;
+        }
+      };
+
+  /**
+   * @param directory the directory to store cache files in, or {@code null}
+   * to disable the cache
+   */
+  public MapTileCache(File directory) {
+    this(directory, directory, DEFAULT_MAX_BYTES);
+  }
+
+  /**
+   * @param directory the directory to store cache files in, or {@code null}
+   * to disable the cache
+   * @param root a directory containing the cache directory, in which the
+   * total size of all cache files is limited
+   * @param maxBytes the maximum total size of the cache files in the root
+   * directory
+   */
+  MapTileCache(File directory, File root, long maxBytes) {
+    this.directory = directory;
+    this.root = root;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Create a cache for the current dimension of a world.
+   */
+  public static MapTileCache forWorld(World world) {
+    File worldDir = world.getWorldDirectory();
+    if (worldDir == null) {
+      return DISABLED;
+    }
+    String key = worldDir.getName() + "-"
+        + Util.cacheEncode(worldDir.getAbsolutePath().hashCode());
+    File root = new File(PersistentSettings.cacheDirectory(), "maptiles");
+    // Map colors depend on the textures, so each set of resource packs gets
+    // separate cache files.
+    File directory = new File(root, String.format("v%d/%s/%s/DIM%d", VERSION, key,
+        TexturePackLoader.getTexturePackIdentity(), world.currentDimension()));
+    return new MapTileCache(directory, root, DEFAULT_MAX_BYTES);
+  }
+
+  /**
+   * Load a cached surface layer.
+   *
+   * @param heights the cached heightmap for the chunk is stored in this array
+   * @return {@code null} if the layer was not cached
+   */
+  public SurfaceLayer loadSurface(ChunkPosition pos, int timestamp, int[] heights) {
+    ByteBuffer record = read("surface", pos, timestamp, SURFACE_RECORD_SIZE);
+    if (record == null) {
+      return null;
+    }
+    int avgColor = record.getInt();
+    int[] bitmap = new int[CHUNK_AREA];
+    for (int i = 0; i < CHUNK_AREA; ++i) {
+      bitmap[i] = record.getInt();
+    }
+    for (int i = 0; i < CHUNK_AREA; ++i) {
+      heights[i] = record.get() & 0xFF;
+    }
+    return new SurfaceLayer(bitmap, avgColor);
+  }
+
+  /**
+   * Store a surface layer together with the heightmap of the chunk.
+   */
+  public void storeSurface(ChunkPosition pos, int timestamp, SurfaceLayer layer, int[] heights) {
+    if (directory == null) {
+      return;
+    }
+    ByteBuffer record = ByteBuffer.allocate(SURFACE_RECORD_SIZE);
+    record.putInt(layer.getAvgColor());
+    for (int color : layer.bitmap) {
+      record.putInt(color);
+    }
+    for (int height : heights) {
+      record.put((byte) height);
+    }
+    write("surface", pos, timestamp, record);
+  }
+
+  /**
+   * Load a cached biome layer.
+   *
+   * @return {@code null} if the layer was not cached
+   */
+  public BiomeLayer loadBiomes(ChunkPosition pos, int timestamp) {
+    ByteBuffer record = read("biomes", pos, timestamp, BIOME_RECORD_SIZE);
+    if (record == null) {
+      return null;
+    }
+    return new BiomeLayer(record.array());
+  }
+
+  public void storeBiomes(ChunkPosition pos, int timestamp, BiomeLayer layer) {
+    if (directory == null) {
+      return;
+    }
+    write("biomes", pos, timestamp, ByteBuffer.wrap(layer.biomes));
+  }
+
+  /**
+   * Load a cached cave layer.
+   *
+   * @return {@code null} if the layer was not cached
+   */
+  public CaveLayer loadCaves(ChunkPosition pos, int timestamp) {
+    ByteBuffer record = read("caves", pos, timestamp, CAVE_RECORD_SIZE);
+    if (record == null) {
+      return null;
+    }
+    return new CaveLayer(record.array());
+  }
+
+  public void storeCaves(ChunkPosition pos, int timestamp, CaveLayer layer) {
+    if (directory == null) {
+      return;
+    }
+    write("caves", pos, timestamp, ByteBuffer.wrap(layer.caves));
+  }
+
+  /**
+   * Load a cached block layer.
+   *
+   * @param layerY the Y coordinate of the layer
+   * @return {@code null} if the layer was not cached
+   */
+  public BlockLayer loadBlockLayer(ChunkPosition pos, int timestamp, int layerY) {
+    ByteBuffer record = read("layer" + layerY, pos, timestamp, BLOCK_RECORD_SIZE);
+    if (record == null) {
+      return null;
+    }
+    int avgColor = record.getInt();
+    byte[] blocks = new byte[CHUNK_AREA];
+    byte[] biomes = new byte[CHUNK_AREA];
+    record.get(blocks);
+    record.get(biomes);
+    return new BlockLayer(avgColor, blocks, biomes);
+  }
+
+  public void storeBlockLayer(ChunkPosition pos, int timestamp, int layerY, BlockLayer layer) {
+    if (directory == null) {
+      return;
+    }
+    ByteBuffer record = ByteBuffer.allocate(BLOCK_RECORD_SIZE);
+    record.putInt(layer.getAvgColor());
+    record.put(layer.blocks);
+    record.put(layer.biomes);
+    write("layer" + layerY, pos, timestamp, record);
+  }
+
+  /**
+   * Load the cached average chunk colors of a region.
+   *
+   * @param colors the cached colors are stored in this array
+   * @param timestamps the chunk timestamps of the cached colors are stored
+   * in this array, zero for chunks without a cached color
+   * @return {@code false} if the region had no cached colors
+   */
+  public synchronized boolean loadChunkColors(String layerName, ChunkPosition region,
+      int[] colors, int[] timestamps) {
+    if (directory == null || closed) {
+      return false;
+    }
+    File file = cacheFile("colors-" + layerName, ChunkPosition.get(region.x << 5, region.z << 5));
+    if (!file.isFile()) {
+      return false;
+    }
+    try {
+      RandomAccessFile access = open(file);
+      int records = (int) Math.min(Region.CHUNKS_X * Region.CHUNKS_Z, access.length() / 8);
+      byte[] data = new byte[records * 8];
+      access.seek(0);
+      access.readFully(data);
+      ByteBuffer buffer = ByteBuffer.wrap(data);
+      for (int i = 0; i < records; ++i) {
+        timestamps[i] = buffer.getInt();
+        colors[i] = buffer.getInt();
+      }
+      return true;
+    } catch (IOException e) {
+      Log.warn("Failed to read map tile cache: " + e.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * Store the average color of a chunk.
+   */
+  public void storeChunkColor(String layerName, ChunkPosition pos, int timestamp, int color) {
+    if (directory == null) {
+      return;
+    }
+    ByteBuffer record = ByteBuffer.allocate(4);
+    record.putInt(color);
+    write("colors-" + layerName, pos, timestamp, record);
+  }
+
+  /**
+   * Close all open cache files. Cache files are not opened again after the
+   * cache has been closed, so nothing is loaded or stored after this.
+   */
+  public synchronized void close() {
+    closed = true;
+    for (RandomAccessFile file : openFiles.values()) {
+      closeQuietly(file);
+    }
+    openFiles.clear();
+  }
+
+  /**
+   * Read the record for a chunk.
+   *
+   * @return the record data, or {@code null} if there was no valid record
+   * for the chunk
+   */
+  private synchronized ByteBuffer read(String layerName, ChunkPosition pos, int timestamp,
+      int recordSize) {
+    if (directory == null || closed || timestamp == 0) {
+      return null;
+    }
+    File file = cacheFile(layerName, pos);
+    if (!file.isFile()) {
+      return null;
+    }
+    try {
+      RandomAccessFile access = open(file);
+      long offset = recordOffset(pos, recordSize);
+      if (offset + 4 + recordSize > access.length()) {
+        return null;
+      }
+      access.seek(offset);
+      if (access.readInt() != timestamp) {
+        return null;
+      }
+      byte[] data = new byte[recordSize];
+      access.readFully(data);
+      return ByteBuffer.wrap(data);
+    } catch (IOException e) {
+      Log.warn("Failed to read map tile cache: " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Write the record for a chunk. The timestamp is cleared while the record
+   * data is written, and is written last, so that a partially written record
+   * is never used.
+   */
+  private synchronized void write(String layerName, ChunkPosition pos, int timestamp,
+      ByteBuffer record) {
+    if (closed || timestamp == 0) {
+      return;
+    }
+    File file = cacheFile(layerName, pos);
+    try {
+      byte[] data = record.array();
+      if (!file.isFile()) {
+        File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+          return;
+        }
+        reserve((long) Region.CHUNKS_X * Region.CHUNKS_Z * (4 + data.length));
+      }
+      RandomAccessFile access = open(file);
+      long offset = recordOffset(pos, data.length);
+      if (offset + 4 <= access.length()) {
+        access.seek(offset);
+        access.writeInt(0);
+      }
+      access.seek(offset + 4);
+      access.write(data);
+      access.seek(offset);
+      access.writeInt(timestamp);
+    } catch (IOException e) {
+      Log.warn("Failed to write map tile cache: " + e.getMessage());
+    }
+  }
+
+  private RandomAccessFile open(File file) throws IOException {
+    RandomAccessFile access = openFiles.get(file);
+    if (access == null) {
+      access = new RandomAccessFile(file, "rw");
+      openFiles.put(file, access);
+    }
+    return access;
+  }
+
+  /**
+   * Make room for a new cache file by deleting the least recently written
+   * cache files, if the new file would make the cache exceed its size limit.
+   *
+   * @param bytes the maximum size of the new file
+   */
+  private void reserve(long bytes) {
+    if (totalBytes < 0) {
+      totalBytes = 0;
+      for (File file : listFiles(root, new ArrayList<>())) {
+        totalBytes += file.length();
+      }
+    }
+    totalBytes += bytes;
+    if (totalBytes > maxBytes) {
+      List<File> files = listFiles(root, new ArrayList<>());
+      files.sort(Comparator.comparingLong(File::lastModified));
+      totalBytes = bytes;
+      for (File file : files) {
+        totalBytes += file.length();
+      }
+      for (File file : files) {
+        if (totalBytes <= maxBytes) {
+          break;
+        }
+        RandomAccessFile access = openFiles.remove(file);
+        if (access != null) {
+          closeQuietly(access);
+        }
+        long length = file.length();
+        if (file.delete()) {
+          totalBytes -= length;
+        }
+      }
+    }
+  }
+
+  private static List<File> listFiles(File directory, List<File> files) {
+    File[] children = directory.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        if (child.isDirectory()) {
+          listFiles(child, files);
+        } else {
+          files.add(child);
+        }
+      }
+    }
+    return files;
+  }
+
+  private File cacheFile(String layerName, ChunkPosition pos) {
+    int rx = pos.x >> 5;
+    int rz = pos.z >> 5;
+    return new File(directory, String.format("%s.%d.%d.dat", layerName, rx, rz));
+  }
+
+  private static long recordOffset(ChunkPosition pos, int recordSize) {
+    int index = (pos.x & 31) + (pos.z & 31) * 32;
+    return (long) index * (4 + recordSize);
+  }
+
+  private static void closeQuietly(RandomAccessFile file) {
+    try {
+      file.close();
+    } catch (IOException e) {
+      // Ignored.
+    }
+  }
+}
@@ -0,0 +1,529 @@
+/* Copyright (c) 2019 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.map;
+
+import se.llbit.chunky.resources.BitmapImage;
+import se.llbit.chunky.world.Chunk;
+import se.llbit.chunky.world.ChunkPosition;
+import se.llbit.chunky.world.DecodedChunk;
+import se.llbit.chunky.world.Heightmap;
+import se.llbit.chunky.world.Region;
+import se.llbit.chunky.world.WorldScanner;
+import se.llbit.log.Log;
+import se.llbit.png.PngFileWriter;
+import se.llbit.resources.ImageLoader;
+import se.llbit.util.TaskTracker;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * Exports the surface, biome and cave maps of a dimension as a tile pyramid
+ * of PNG images.
+ *
+ * <p>Tiles are written to {@code <layer>/<zoom>/<x>/<y>.png} in the output
+ * directory, where zoom level 0 is the most zoomed-out level. At the highest
+ * zoom level one pixel is one block, and each tile at the level below that
+ * covers exactly one region. Tile coordinates follow block coordinates, so
+ * tile (0, 0) at each zoom level has its top left corner at block (0, 0)
+ * and negative coordinates are used for the negative half of the world.
+ * This matches the simple coordinate reference system of common slippy map
+ * viewers.
+ *
+ * <p>The pyramid is traversed depth-first one region at a time, so only a
+ * small number of tiles are kept in memory regardless of the size of the
+ * world. The modification time of each exported region file is stored in
+ * the output directory, and the next export only renders regions whose
+ * modification time changed. Unchanged tiles needed to build the zoomed-out
+ * levels are read back from the output directory.
+ *
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public class MapTileExporter {
+
+  /** Width and height of a tile in pixels. */
+  public static final int TILE_SIZE = 256;
+
+  /** Default number of zoom levels in the tile pyramid. */
+  public static final int DEFAULT_ZOOM_LEVELS = 6;
+
+  private static final String[] LAYERS = { "surface", "biomes", "caves" };
+  private static final int SURFACE = 0;
+  private static final int BIOMES = 1;
+  private static final int CAVES = 2;
+
+  private static final int REGION_SIZE = Region.CHUNKS_X * Chunk.X_MAX;
+  private static final int NUM_CHUNKS = Region.CHUNKS_X * Region.CHUNKS_Z;
+
+  private static final String STATE_FILE = "export-state.txt";
+  private static final String STATE_HEADER = "chunky-map-export 1";
+
+  private static final Set<String> REQUEST = new HashSet<>(
+      Arrays.asList(Chunk.LEVEL_SECTIONS, Chunk.LEVEL_BIOMES, Chunk.LEVEL_HEIGHTMAP));
+
+  private final File regionDirectory;
+  private final File outputDirectory;
+  private final int dimension;
+  private final int maxZoom;
+  private final ForkJoinPool pool;
+
+  /** Region file modification times for the current export. */
+  private final Map<ChunkPosition, Long> regions = new HashMap<>();
+
+  /**
+   * Tiles containing at least one region, indexed by the number of zoom
+   * levels above the region level.
+   */
+  private Set<ChunkPosition>[] occupied;
+
+  /** Tiles containing at least one changed region. */
+  private Set<ChunkPosition>[] dirty;
+
+  private TaskTracker.Task task = TaskTracker.Task.NONE;
+  private int numDirtyRegions;
+  private int regionsDone;
+  private final AtomicInteger tilesWritten = new AtomicInteger();
+
+  /**
+   * @param regionDirectory the region directory of the dimension to export
+   * @param dimension the dimension to export
+   * @param outputDirectory the root directory of the tile pyramid
+   * @param threads number of threads used to decode chunks
+   * @param zoomLevels number of zoom levels, at least 2
+   */
+  public MapTileExporter(File regionDirectory, int dimension, File outputDirectory, int threads,
+      int zoomLevels) {
+    if (zoomLevels < 2) {
+      throw new IllegalArgumentException("The tile pyramid needs at least two zoom levels.");
+    }
+    this.regionDirectory = regionDirectory;
+    this.outputDirectory = outputDirectory;
+    this.dimension = dimension;
+    this.maxZoom = zoomLevels - 1;
+    this.pool = new ForkJoinPool(Math.max(1, threads));
+  }
+
+  /**
+   * Export all regions that changed since the last export to the output
+   * directory.
+   */
+  public void export(TaskTracker taskTracker) throws IOException {
+    try {
+      WorldScanner.findExistingChunks(regionDirectory, (dir, x, z) -> {
+        ChunkPosition region = ChunkPosition.get(x, z);
+        regions.put(region, new File(dir, Region.getFileName(region)).lastModified());
+      });
+      Map<ChunkPosition, Long> previous = loadState();
+
+      Set<ChunkPosition> changed = new HashSet<>();
+      for (Map.Entry<ChunkPosition, Long> entry : regions.entrySet()) {
+        if (!entry.getValue().equals(previous.get(entry.getKey()))) {
+          changed.add(entry.getKey());
+        }
+      }
+      for (ChunkPosition region : previous.keySet()) {
+        if (!regions.containsKey(region)) {
+          changed.add(region);
+        }
+      }
+      if (changed.isEmpty()) {
+        Log.info("Map tiles are up to date.");
+        return;
+      }
+
+      int regionZoom = maxZoom - 1;
+      occupied = tileSets(regions.keySet(), regionZoom);
+      dirty = tileSets(changed, regionZoom);
+      numDirtyRegions = changed.size();
+      regionsDone = 0;
+
+      try (TaskTracker.Task exportTask =
+          taskTracker.task("Exporting map tiles", numDirtyRegions)) {
+        task = exportTask;
+        for (ChunkPosition root : dirty[regionZoom]) {
+          exportTile(0, root.x, root.z);
+        }
+      } finally {
+        task = TaskTracker.Task.NONE;
+      }
+      saveState();
+      Log.infof("Exported %d changed regions (%d tiles written).", changed.size(),
+          tilesWritten.get());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Build the tile sets for each zoom level at or above the region level.
+   */
+  @SuppressWarnings("unchecked")
+  private static Set<ChunkPosition>[] tileSets(Set<ChunkPosition> regions, int regionZoom) {
+    Set<ChunkPosition>[] sets = new Set[regionZoom + 1];
+    for (int shift = 0; shift <= regionZoom; ++shift) {
+      sets[shift] = new HashSet<>();
+      for (ChunkPosition region : regions) {
+        sets[shift].add(ChunkPosition.get(region.x >> shift, region.z >> shift));
+      }
+    }
+    return sets;
+  }
+
+  /**
+   * Export a tile and all its changed descendants.
+   *
+   * @return the tile images for each layer, {@code null} entries for empty
+   * tiles
+   */
+  private int[][] exportTile(int zoom, int x, int y) throws IOException {
+    int shift = maxZoom - 1 - zoom;
+    ChunkPosition tile = ChunkPosition.get(x, y);
+    if (!dirty[shift].contains(tile)) {
+      int[][] images = new int[LAYERS.length][];
+      if (occupied[shift].contains(tile)) {
+        for (int layer = 0; layer < LAYERS.length; ++layer) {
+          images[layer] = readTile(layer, zoom, x, y);
+        }
+      }
+      return images;
+    }
+
+    if (shift == 0) {
+      return exportRegion(tile);
+    }
+
+    int[][][] children = new int[4][][];
+    for (int i = 0; i < 4; ++i) {
+      children[i] = exportTile(zoom + 1, 2 * x + (i & 1), 2 * y + (i >> 1));
+    }
+    int[][] images = new int[LAYERS.length][];
+    for (int layer = 0; layer < LAYERS.length; ++layer) {
+      images[layer] = downsample(children[0][layer], children[1][layer], children[2][layer],
+          children[3][layer]);
+      writeTile(layer, zoom, x, y, images[layer]);
+    }
+    return images;
+  }
+
+  /**
+   * Render a changed region and write its tiles.
+   */
+  private int[][] exportRegion(ChunkPosition region) throws IOException {
+    int[][] pixels = new int[LAYERS.length][];
+    if (regions.containsKey(region)) {
+      pixels = renderRegion(region);
+    }
+
+    int[][] images = new int[LAYERS.length][];
+    for (int layer = 0; layer < LAYERS.length; ++layer) {
+      int[][] quadrants = new int[4][];
+      for (int i = 0; i < 4; ++i) {
+        int dx = (i & 1) * TILE_SIZE;
+        int dy = (i >> 1) * TILE_SIZE;
+        int[] image = null;
+        if (pixels[layer] != null) {
+          image = new int[TILE_SIZE * TILE_SIZE];
+          for (int row = 0; row < TILE_SIZE; ++row) {
+            System.arraycopy(pixels[layer], (dy + row) * REGION_SIZE + dx, image, row * TILE_SIZE,
+                TILE_SIZE);
+          }
+        }
+        quadrants[i] = image;
+        writeTile(layer, maxZoom, 2 * region.x + (i & 1), 2 * region.z + (i >> 1), image);
+      }
+      images[layer] = downsample(quadrants[0], quadrants[1], quadrants[2], quadrants[3]);
+      writeTile(layer, maxZoom - 1, region.x, region.z, images[layer]);
+    }
+
+    regionsDone += 1;
+    task.update(numDirtyRegions, regionsDone);
+    return images;
+  }
+
+  /**
+   * Decode the chunks of a region in parallel and render them.
+   *
+   * @return region images for each layer
+   */
+  private int[][] renderRegion(ChunkPosition region) {
+    File regionFile = new File(regionDirectory, Region.getFileName(region));
+    int[] locations = readLocations(regionFile);
+    AbstractLayer[][] layers = new AbstractLayer[LAYERS.length][NUM_CHUNKS];
+    Heightmap heightmap = new Heightmap();
+
+    pool.invoke(ForkJoinTask.adapt(() -> {
+      IntStream.range(0, NUM_CHUNKS).parallel().forEach(i -> {
+        if (locations[i] == 0) {
+          return;
+        }
+        ChunkPosition chunk =
+            ChunkPosition.get((region.x << 5) + (i & 31), (region.z << 5) + (i >> 5));
+        DecodedChunk data = Chunk.decodeChunk(0,
+            Chunk.parseChunkData(Region.getChunkData(regionFile, chunk), REQUEST));
+        int[] heights = new int[Chunk.X_MAX * Chunk.Z_MAX];
+        layers[SURFACE][i] = Chunk.decodeSurface(data, dimension, heights);
+        layers[BIOMES][i] = Chunk.decodeBiomes(data);
+        layers[CAVES][i] = Chunk.decodeCaves(data);
+        if (layers[SURFACE][i] instanceof SurfaceLayer) {
+          Chunk.updateHeightmap(heightmap, chunk, heights);
+        }
+      });
+      loadBorderHeights(region, heightmap);
+      IntStream.range(0, NUM_CHUNKS).parallel().forEach(i -> {
+        if (layers[SURFACE][i] != null) {
+          ChunkPosition chunk =
+              ChunkPosition.get((region.x << 5) + (i & 31), (region.z << 5) + (i >> 5));
+          layers[SURFACE][i].renderTopography(chunk, heightmap);
+        }
+      });
+    }));
+
+    int[][] pixels = new int[LAYERS.length][REGION_SIZE * REGION_SIZE];
+    for (int layer = 0; layer < LAYERS.length; ++layer) {
+      for (int i = 0; i < NUM_CHUNKS; ++i) {
+        if (layers[layer][i] instanceof BitmapLayer) {
+          BitmapLayer bitmap = (BitmapLayer) layers[layer][i];
+          int x0 = (i & 31) * Chunk.X_MAX;
+          int z0 = (i >> 5) * Chunk.Z_MAX;
+          for (int z = 0; z < Chunk.Z_MAX; ++z) {
+            for (int x = 0; x < Chunk.X_MAX; ++x) {
+              pixels[layer][(z0 + z) * REGION_SIZE + x0 + x] = 0xFF000000 | bitmap.colorAt(x, z);
+            }
+          }
+        }
+      }
+    }
+    return pixels;
+  }
+
+  /**
+   * Load the heights of the chunks bordering a region. These are needed to
+   * shade the edges of the surface layer.
+   */
+  private void loadBorderHeights(ChunkPosition region, Heightmap heightmap) {
+    Map<ChunkPosition, int[]> neighbors = new HashMap<>();
+    for (int dz = -1; dz <= 1; ++dz) {
+      for (int dx = -1; dx <= 1; ++dx) {
+        ChunkPosition neighbor = ChunkPosition.get(region.x + dx, region.z + dz);
+        if ((dx != 0 || dz != 0) && regions.containsKey(neighbor)) {
+          neighbors.put(neighbor,
+              readLocations(new File(regionDirectory, Region.getFileName(neighbor))));
+        }
+      }
+    }
+    int x0 = region.x << 5;
+    int z0 = region.z << 5;
+    IntStream.range(-1, Region.CHUNKS_X + 1).parallel().forEach(i -> {
+      loadHeights(ChunkPosition.get(x0 + i, z0 - 1), neighbors, heightmap);
+      loadHeights(ChunkPosition.get(x0 + i, z0 + Region.CHUNKS_Z), neighbors, heightmap);
+      if (i >= 0 && i < Region.CHUNKS_Z) {
+        loadHeights(ChunkPosition.get(x0 - 1, z0 + i), neighbors, heightmap);
+        loadHeights(ChunkPosition.get(x0 + Region.CHUNKS_X, z0 + i), neighbors, heightmap);
+      }
+    });
+  }
+
+  private void loadHeights(ChunkPosition chunk, Map<ChunkPosition, int[]> neighbors,
+      Heightmap heightmap) {
+    ChunkPosition region = chunk.getRegionPosition();
+    int[] locations = neighbors.get(region);
+    if (locations == null || locations[(chunk.x & 31) + (chunk.z & 31) * 32] == 0) {
+      return;
+    }
+    File regionFile = new File(regionDirectory, Region.getFileName(region));
+    DecodedChunk data = Chunk.decodeChunk(0,
+        Chunk.parseChunkData(Region.getChunkData(regionFile, chunk), REQUEST));
+    int[] heights = new int[Chunk.X_MAX * Chunk.Z_MAX];
+    if (Chunk.decodeSurface(data, dimension, heights) instanceof SurfaceLayer) {
+      Chunk.updateHeightmap(heightmap, chunk, heights);
+    }
+  }
+
+  /**
+   * Read the chunk location table of a region file.
+   *
+   * @return chunk locations, zero for chunks not present in the region
+   */
+  private static int[] readLocations(File regionFile) {
+    int[] locations = new int[NUM_CHUNKS];
+    try (DataInputStream in = new DataInputStream(new FileInputStream(regionFile))) {
+      for (int i = 0; i < NUM_CHUNKS; ++i) {
+        locations[i] = in.readInt();
+      }
+    } catch (IOException e) {
+      Log.warnf("Failed to read region header of %s: %s", regionFile.getName(), e.getMessage());
+      Arrays.fill(locations, 0);
+    }
+    return locations;
+  }
+
+  /**
+   * Downsample four child tiles into their parent tile. The children are
+   * given in row order: top left, top right, bottom left, bottom right.
+   * Transparent pixels are excluded from the average.
+   *
+   * @return the parent tile, or {@code null} if all children are empty
+   */
+  static int[] downsample(int[] c0, int[] c1, int[] c2, int[] c3) {
+    if (c0 == null && c1 == null && c2 == null && c3 == null) {
+      return null;
+    }
+    int[][] children = { c0, c1, c2, c3 };
+    int half = TILE_SIZE / 2;
+    int[] parent = new int[TILE_SIZE * TILE_SIZE];
+    for (int y = 0; y < TILE_SIZE; ++y) {
+      for (int x = 0; x < TILE_SIZE; ++x) {
+        int[] child = children[(x / half) + 2 * (y / half)];
+        if (child == null) {
+          continue;
+        }
+        int sx = (x % half) * 2;
+        int sy = (y % half) * 2;
+        int r = 0, g = 0, b = 0, n = 0;
+        for (int i = 0; i < 4; ++i) {
+          int argb = child[(sy + (i >> 1)) * TILE_SIZE + sx + (i & 1)];
+          if ((argb >>> 24) != 0) {
+            r += (argb >> 16) & 0xFF;
+            g += (argb >> 8) & 0xFF;
+            b += argb & 0xFF;
+            n += 1;
+          }
+        }
+        if (n > 0) {
+          parent[y * TILE_SIZE + x] = 0xFF000000 | (r / n) << 16 | (g / n) << 8 | (b / n);
+        }
+      }
+    }
+    return parent;
+  }
+
+  private File tileFile(int layer, int zoom, int x, int y) {
+    return new File(outputDirectory,
+        String.format("%s/%d/%d/%d.png", LAYERS[layer], zoom, x, y));
+  }
+
+  /**
+   * @return the previously exported tile, or {@code null} if the tile is
+   * missing
+   */
+  private int[] readTile(int layer, int zoom, int x, int y) {
+    File file = tileFile(layer, zoom, x, y);
+    if (!file.isFile()) {
+      return null;
+    }
+    try {
+      BitmapImage image = ImageLoader.read(file);
+      if (image.width == TILE_SIZE && image.height == TILE_SIZE) {
+        return image.data;
+      }
+      Log.warnf("Ignoring map tile with wrong size: %s", file.getPath());
+    } catch (IOException e) {
+      Log.warnf("Failed to read map tile %s: %s", file.getPath(), e.getMessage());
+    }
+    return null;
+  }
+
+  /**
+   * Write a tile image. The tile file is removed if the image is empty.
+   */
+  private void writeTile(int layer, int zoom, int x, int y, int[] image) throws IOException {
+    File file = tileFile(layer, zoom, x, y);
+    boolean empty = true;
+    if (image != null) {
+      for (int argb : image) {
+        if ((argb >>> 24) != 0) {
+          empty = false;
+          break;
+        }
+      }
+    }
+    if (empty) {
+      if (file.isFile() && !file.delete()) {
+        Log.warnf("Failed to delete empty map tile %s", file.getPath());
+      }
+      return;
+    }
+    File parent = file.getParentFile();
+    if (!parent.isDirectory() && !parent.mkdirs()) {
+      throw new IOException("Failed to create directory " + parent.getPath());
+    }
+    byte[] alpha = new byte[image.length];
+    for (int i = 0; i < image.length; ++i) {
+      alpha[i] = (byte) (image[i] >>> 24);
+    }
+    try (PngFileWriter writer = new PngFileWriter(file)) {
+      writer.write(image, alpha, TILE_SIZE, TILE_SIZE, TaskTracker.Task.NONE);
+    }
+    tilesWritten.incrementAndGet();
+  }
+
+  /**
+   * Load the region modification times stored by the previous export.
+   */
+  private Map<ChunkPosition, Long> loadState() {
+    Map<ChunkPosition, Long> state = new HashMap<>();
+    File file = new File(outputDirectory, STATE_FILE);
+    if (!file.isFile()) {
+      return state;
+    }
+    try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+      if (!STATE_HEADER.equals(in.readLine())
+          || !String.format("%d %d", dimension, maxZoom + 1).equals(in.readLine())) {
+        // Different format or pyramid layout: export everything.
+        return state;
+      }
+      String line;
+      while ((line = in.readLine()) != null) {
+        String[] parts = line.split(" ");
+        if (parts.length == 3) {
+          state.put(ChunkPosition.get(Integer.parseInt(parts[0]), Integer.parseInt(parts[1])),
+              Long.parseLong(parts[2]));
+        }
+      }
+    } catch (IOException | NumberFormatException e) {
+      Log.warnf("Failed to read map export state, exporting all regions: %s", e.getMessage());
+      state.clear();
+    }
+    return state;
+  }
+
+  private void saveState() throws IOException {
+    File file = new File(outputDirectory, STATE_FILE);
+    try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+      out.println(STATE_HEADER);
+      out.format("%d %d%n", dimension, maxZoom + 1);
+      for (Map.Entry<ChunkPosition, Long> entry : regions.entrySet()) {
+        out.format("%d %d %d%n", entry.getKey().x, entry.getKey().z, entry.getValue());
+      }
+    }
+  }
+}
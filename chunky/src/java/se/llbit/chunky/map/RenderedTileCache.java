@@ -0,0 +1,163 @@
+/* Copyright (c) 2019 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.map;
+
+import se.llbit.chunky.world.ChunkPosition;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache of rendered map tiles that are not currently
+ * in the map view.
+ *
+ * <p>The cache is bounded by the total number of pixels in the cached tiles
+ * rather than by the number of tiles, because a tile at the highest zoom
+ * level uses 256 times more memory than a tile at the default zoom level.
+ * Tiles are keyed by position and tile scale, so tiles for recently visited
+ * areas are kept when zooming in and out.
+ *
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public class RenderedTileCache {
+
+  private static final class Key {
+    final ChunkPosition pos;
+    final int scale;
+
+    Key(ChunkPosition pos, int scale) {
+      this.pos = pos;
+      this.scale = scale;
+    }
+
+    @Override public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return pos == other.pos && scale == other.scale;
+    }
+
+    @Override public int hashCode() {
+      return (pos.x * 31 + pos.z) * 31 + scale;
+    }
+  }
+
+  private final long maxPixels;
+  private long pixels = 0;
+
+  private long hits = 0;
+  private long misses = 0;
+  private long evictions = 0;
+
+  private final LinkedHashMap<Key, MapTile> tiles = new LinkedHashMap<>(256, 0.75f, true);
+
+  /**
+   * @param maxPixels the maximum total number of pixels in the cached tiles
+   */
+  public RenderedTileCache(long maxPixels) {
+    this.maxPixels = maxPixels;
+  }
+
+  /**
+   * Remove a tile from the cache.
+   *
+   * @param scale the chunk scale of the tile
+   * @return the cached tile, or {@code null} if the tile was not cached
+   */
+  public synchronized MapTile take(ChunkPosition pos, int scale) {
+    MapTile tile = tiles.remove(new Key(pos, scale));
+    if (tile != null) {
+      hits += 1;
+      pixels -= tile.pixels.length;
+    } else {
+      misses += 1;
+    }
+    return tile;
+  }
+
+  /**
+   * Add a tile to the cache. The least recently used tiles are evicted if the
+   * cache grows too large.
+   */
+  public synchronized void put(MapTile tile) {
+    MapTile previous = tiles.put(new Key(tile.pos, tile.scale), tile);
+    if (previous != null) {
+      pixels -= previous.pixels.length;
+    }
+    pixels += tile.pixels.length;
+    Iterator<MapTile> iterator = tiles.values().iterator();
+    while (pixels > maxPixels && iterator.hasNext()) {
+      pixels -= iterator.next().pixels.length;
+      iterator.remove();
+      evictions += 1;
+    }
+  }
+
+  /**
+   * Remove the cached tiles that depend on a chunk. This removes the chunk
+   * tiles for the chunk and the region tile containing the chunk.
+   */
+  public synchronized void invalidate(ChunkPosition chunk) {
+    remove(new Key(chunk, 16));
+    remove(new Key(chunk, 16 * 16));
+    remove(new Key(chunk.getRegionPosition(), 1));
+  }
+
+  private void remove(Key key) {
+    MapTile tile = tiles.remove(key);
+    if (tile != null) {
+      pixels -= tile.pixels.length;
+    }
+  }
+
+  /**
+   * Remove all cached tiles.
+   */
+  public synchronized void clear() {
+    tiles.clear();
+    pixels = 0;
+  }
+
+  /**
+   * @return the number of cached tiles
+   */
+  public synchronized int size() {
+    return tiles.size();
+  }
+
+  /**
+   * @return the total number of pixels in the cached tiles
+   */
+  public synchronized long pixels() {
+    return pixels;
+  }
+
+  /**
+   * @return the fraction of tile requests that were served from the cache
+   */
+  public synchronized double hitRate() {
+    long requests = hits + misses;
+    return requests == 0 ? 0 : hits / (double) requests;
+  }
+
+  @Override public synchronized String toString() {
+    return String.format("%d tiles (%.1f MiB), %d hits, %d misses (%.1f%% hit rate), %d evictions",
+        tiles.size(), pixels * 4 / (1024.0 * 1024.0), hits, misses, 100 * hitRate(), evictions);
+  }
+}
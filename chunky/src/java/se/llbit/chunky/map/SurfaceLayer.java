@@ -32,7 +32,7 @@ import java.io.OutputStream;
 
 public class SurfaceLayer extends BitmapLayer {
 
-  private final int[] bitmap;
+  final int[] bitmap;
   private final int[] topo;
   private int avgColor = 0xFF;
 
@@ -163,6 +163,15 @@ public class SurfaceLayer extends BitmapLayer {
     avgColor = avgBitmapColor();
   }
 
+  /**
+   * Create a surface layer from a previously generated bitmap.
+   */
+  SurfaceLayer(int[] bitmap, int avgColor) {
+    this.bitmap = bitmap;
+    this.topo = bitmap.clone();
+    this.avgColor = avgColor;
+  }
+
   /**
    * Add topographical gradient to this chunk and calculate average color
    */
@@ -171,6 +180,10 @@ public class SurfaceLayer extends BitmapLayer {
     int cx = position.x * Chunk.X_MAX;
     int cz = position.z * Chunk.Z_MAX;
 
+    // Heights of the chunk and a one block border around it.
+    int[] heights = new int[18 * 18];
+    heightmap.getArea(cx - 1, cz - 1, 18, 18, heights);
+
     float[] rgb = new float[3];
     for (int x = 0; x < 16; ++x) {
 
@@ -178,10 +191,9 @@ public class SurfaceLayer extends BitmapLayer {
 
         ColorUtil.getRGBComponents(bitmap[x * 16 + z], rgb);
 
-        float gradient =
-            (heightmap.get(cx + x, cz + z) + heightmap.get(cx + x + 1, cz + z) + heightmap
-                .get(cx + x, cz + z + 1) - heightmap.get(cx + x - 1, cz + z) - heightmap
-                .get(cx + x, cz + z - 1) - heightmap.get(cx + x - 1, cz + z - 1));
+        int index = (z + 1) * 18 + x + 1;
+        float gradient = (heights[index] + heights[index + 1] + heights[index + 18]
+            - heights[index - 1] - heights[index - 18] - heights[index - 19]);
         gradient = (float) ((FastMath.atan(gradient / 15) / (Math.PI / 1.7)) + 1);
 
         rgb[0] *= gradient;
@@ -59,6 +59,9 @@ public class WorldMapLoader implements ChunkTopographyListener {
 
   private final RegionQueue regionQueue = new RegionQueue();
 
+  private volatile MapTileCache tileCache = MapTileCache.DISABLED;
+  private volatile MapPyramid pyramid = new MapPyramid(tileCache);
+
   private final ChunkTopographyUpdater topographyUpdater = new ChunkTopographyUpdater();
   private final RegionChangeMonitor refresher = new RegionChangeMonitor(this);
 
@@ -115,7 +118,8 @@ public class WorldMapLoader implements ChunkTopographyListener {
     });
 
     // Start worker threads.
-    RegionParser[] regionParsers = new RegionParser[3];
+    int numParsers = Math.max(3, Runtime.getRuntime().availableProcessors());
+    RegionParser[] regionParsers = new RegionParser[numParsers];
     for (int i = 0; i < regionParsers.length; ++i) {
       regionParsers[i] = new RegionParser(this, regionQueue);
       regionParsers[i].start();
@@ -154,6 +158,8 @@ public class WorldMapLoader implements ChunkTopographyListener {
     // Dimension must be set before chunks are loaded.
     world.setDimension(currentDimension);
 
+    updateTileCache();
+
     Vector3 playerPos = world.playerPos();
     if (playerPos != null) {
       panToPlayer();
@@ -182,6 +188,9 @@ public class WorldMapLoader implements ChunkTopographyListener {
     minimap = new ChunkView(mapView.x, mapView.z, minimapWidth, minimapHeight, 1,
         MapViewMode.BIOMES, mapView.layer);
 
+    // Drop requests that are no longer visible and load the new view center first.
+    regionQueue.setView(mapView, minimap);
+
     int rx0 = Math.min(minimap.prx0, mapView.prx0);
     int rx1 = Math.max(minimap.prx1, mapView.prx1);
     int rz0 = Math.min(minimap.prz0, mapView.prz0);
@@ -267,6 +276,20 @@ public class WorldMapLoader implements ChunkTopographyListener {
     return world;
   }
 
+  /**
+   * @return The persistent map tile cache for the current world and dimension
+   */
+  public MapTileCache getTileCache() {
+    return tileCache;
+  }
+
+  /**
+   * @return The map tile pyramid for the current world and dimension
+   */
+  public MapPyramid getMapPyramid() {
+    return pyramid;
+  }
+
   /**
    * @return The name of the current world
    */
@@ -347,10 +370,24 @@ public class WorldMapLoader implements ChunkTopographyListener {
    * for the current world.
    */
   public synchronized void reloadWorld() {
+    // The resource packs may have changed since the world was loaded.
+    updateTileCache();
     world.reload();
     notifyViewUpdated();
   }
 
+  /**
+   * Open the map tile cache for the current world, dimension and resource
+   * packs.
+   */
+  private void updateTileCache() {
+    // Region parsers may still be using the old cache. It does not open any
+    // files after it is closed, so no file handles are leaked.
+    tileCache.close();
+    tileCache = MapTileCache.forWorld(world);
+    pyramid = new MapPyramid(tileCache);
+  }
+
   /**
    * Set the current map renderer.
    */
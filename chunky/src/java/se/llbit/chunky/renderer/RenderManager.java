@@ -19,6 +19,7 @@ package se.llbit.chunky.renderer;
 import se.llbit.chunky.renderer.scene.Scene;
 import se.llbit.chunky.resources.BitmapImage;
 import se.llbit.log.Log;
+import se.llbit.math.OctreePager;
 import se.llbit.util.TaskTracker;
 
 import java.util.ArrayList;
@@ -76,6 +77,14 @@ public class RenderManager extends AbstractRenderManager implements Renderer {
   private BiConsumer<Scene, Integer> frameCompletionListener = (scene, spp) -> {};
   private TaskTracker.Task renderTask = TaskTracker.Task.NONE;
 
+  /** Minimum time between octree paging log messages, in milliseconds. */
+  private static final long PAGE_FAULT_LOG_INTERVAL = 30000;
+
+  /** Octree pager, page fault count, and time of the last paging log message. */
+  private OctreePager lastPager = null;
+  private long lastPageFaults = 0;
+  private long lastPageFaultLog = 0;
+
   /**
    * Decides if render threads shut down after reaching the target SPP.
    */
@@ -212,6 +221,7 @@ public class RenderManager extends AbstractRenderManager implements Renderer {
         waitOnWorkers();
         bufferedScene.swapBuffers();
         bufferedScene.renderTime += System.currentTimeMillis() - frameStart;
+        logPageFaults();
       }
 
       // Notify the canvas to repaint.
@@ -230,6 +240,29 @@ public class RenderManager extends AbstractRenderManager implements Renderer {
     }
   }
 
+  /**
+   * Log the number of octree bricks that were loaded from disk, if the
+   * octree is paged. The page faults are summed over an interval of several
+   * frames, so that paging is not logged for each frame.
+   */
+  private void logPageFaults() {
+    OctreePager pager = bufferedScene.getOctreePager();
+    long now = System.currentTimeMillis();
+    if (pager != lastPager) {
+      lastPager = pager;
+      lastPageFaults = pager != null ? pager.pageFaults() : 0;
+      lastPageFaultLog = now;
+    } else if (pager != null && now - lastPageFaultLog >= PAGE_FAULT_LOG_INTERVAL) {
+      long faults = pager.pageFaults();
+      if (faults > lastPageFaults) {
+        Log.infof("Octree paging: %d page faults in the last %d seconds; %s",
+            faults - lastPageFaults, (now - lastPageFaultLog) / 1000, pager);
+      }
+      lastPageFaults = faults;
+      lastPageFaultLog = now;
+    }
+  }
+
   /**
    * @return the current rendering speed in samples per second (SPS)
    */
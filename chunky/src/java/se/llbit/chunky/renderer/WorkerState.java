@@ -17,6 +17,7 @@
 package se.llbit.chunky.renderer;
 
 import se.llbit.math.Ray;
+import se.llbit.math.Vector2;
 import se.llbit.math.Vector4;
 
 import java.util.Random;
@@ -26,6 +27,12 @@ import java.util.Random;
  */
 public class WorkerState {
   public Ray ray;
+
+  /** Scratch ray used for scene intersection tests. */
+  public final Ray scratch = new Ray();
+
+  /** Scratch texture coordinates for sky sampling. */
+  public final Vector2 uv = new Vector2();
   public Vector4 attenuation = new Vector4();
   public Random random;
 }
@@ -24,15 +24,70 @@ import se.llbit.chunky.world.ChunkPosition;
 import se.llbit.math.Octree;
 import se.llbit.math.Vector3i;
 
+import java.util.Arrays;
+
 /**
  * Processes the Octree after it has been loaded and updates block states for
  * blocks that depend on neighbor blocks. Octree finalization is be done after
  * all chunks have been loaded because before then we can't reliably test for
  * neighbor blocks.
  *
+ * <p>Finalizing a chunk only reads from the octree. The updated block states
+ * are collected in a {@link WriteBuffer} which is applied to the octree
+ * afterward. This makes it possible to finalize several chunks in parallel
+ * as long as no write buffer is applied while other chunks are being
+ * finalized.
+ *
  * @author Jesper Öqvist <jesper@llbit.se>
  */
 public class OctreeFinalizer {
+
+  /**
+   * Buffered voxel updates produced by finalizing a chunk.
+   */
+  public static final class WriteBuffer {
+    /** Packed (x, y, z, type) tuples. */
+    private int[] data = new int[256];
+    private int size = 0;
+
+    /**
+     * Record a voxel update.
+     */
+    public void set(int type, int x, int y, int z) {
+      if (size + 4 > data.length) {
+        data = Arrays.copyOf(data, data.length * 2);
+      }
+      data[size] = x;
+      data[size + 1] = y;
+      data[size + 2] = z;
+      data[size + 3] = type;
+      size += 4;
+    }
+
+    /**
+     * @return the number of buffered voxel updates
+     */
+    public int size() {
+      return size / 4;
+    }
+
+    /**
+     * Write all buffered updates to the octree, in the order they were recorded.
+     */
+    public void apply(Octree octree) {
+      for (int i = 0; i < size; i += 4) {
+        octree.set(data[i + 3], data[i], data[i + 1], data[i + 2]);
+      }
+    }
+
+    /**
+     * Remove all buffered updates.
+     */
+    public void clear() {
+      size = 0;
+    }
+  }
+
   /**
    * Finalize a chunk in the octree.
    *
@@ -41,24 +96,42 @@ public class OctreeFinalizer {
    * @param cp     Position of the chunk to finalize
    */
   public static void finalizeChunk(Octree octree, Vector3i origin, ChunkPosition cp) {
+    WriteBuffer writes = new WriteBuffer();
+    finalizeChunk(octree.cursor(), origin, cp, writes);
+    writes.apply(octree);
+  }
+
+  /**
+   * Compute the finalized block states for a chunk without modifying the octree.
+   *
+   * <p>The octree must not be modified while this method runs. Each thread
+   * should use its own cursor.
+   *
+   * @param cursor Cursor for the octree to finalize
+   * @param origin Origin of the octree
+   * @param cp     Position of the chunk to finalize
+   * @param writes Updated block states are stored in this buffer
+   */
+  public static void finalizeChunk(Octree.Cursor cursor, Vector3i origin, ChunkPosition cp,
+      WriteBuffer writes) {
     for (int cy = 0 - origin.y; cy < Chunk.Y_MAX - origin.y; ++cy) {
       for (int cz = 0; cz < 16; ++cz) {
         int z = cz + cp.z * 16 - origin.z;
         for (int cx = 0; cx < 16; ++cx) {
           int x = cx + cp.x * 16 - origin.x;
-          int type = octree.get(x, cy, z);
+          int type = cursor.get(x, cy, z);
           Block block = Block.get(type);
 
           // Set non-visible blocks to be stone, in order to merge large patches.
           if ((cx == 0 || cx == 15 || cz == 0 || cz == 15) && cy > -origin.y
               && cy < Chunk.Y_MAX - origin.y - 1 && type != Block.STONE_ID && block.opaque) {
-            if (Block.get(octree.get(x - 1, cy, z)).opaque && Block
-                .get(octree.get(x + 1, cy, z)).opaque && Block
-                .get(octree.get(x, cy - 1, z)).opaque && Block
-                .get(octree.get(x, cy + 1, z)).opaque && Block
-                .get(octree.get(x, cy, z - 1)).opaque && Block
-                .get(octree.get(x, cy, z + 1)).opaque) {
-              octree.set(Block.STONE_ID, x, cy, z);
+            if (Block.get(cursor.get(x - 1, cy, z)).opaque && Block
+                .get(cursor.get(x + 1, cy, z)).opaque && Block
+                .get(cursor.get(x, cy - 1, z)).opaque && Block
+                .get(cursor.get(x, cy + 1, z)).opaque && Block
+                .get(cursor.get(x, cy, z - 1)).opaque && Block
+                .get(cursor.get(x, cy, z + 1)).opaque) {
+              writes.set(Block.STONE_ID, x, cy, z);
               continue;
             }
           }
@@ -90,9 +163,9 @@ public class OctreeFinalizer {
               data = type >> BlockData.OFFSET;
               if ((data & 8) != 0) {
                 // Get flower kind from block beneath.
-                int kind = (octree.get(x, cy - 1, z) >> BlockData.OFFSET) & 7;
+                int kind = (cursor.get(x, cy - 1, z) >> BlockData.OFFSET) & 7;
                 type = (type & ~(15 << BlockData.OFFSET)) | ((8 | kind) << BlockData.OFFSET);
-                octree.set(type, x, cy, z);
+                writes.set(type, x, cy, z);
               }
               break;
             case Block.WATER_ID:
@@ -106,7 +179,7 @@ public class OctreeFinalizer {
               corner2 = level0;
               corner3 = level0;
 
-              data = octree.get(x - 1, cy, z);
+              data = cursor.get(x - 1, cy, z);
               level = level0;
               if ((data & 0xFF) == Block.WATER_ID) {
                 fullBlock = (data >> WaterModel.FULL_BLOCK) & 1;
@@ -117,7 +190,7 @@ public class OctreeFinalizer {
               corner3 += level;
               corner0 += level;
 
-              data = octree.get(x - 1, cy, z + 1);
+              data = cursor.get(x - 1, cy, z + 1);
               level = level0;
               if ((data & 0xFF) == Block.WATER_ID) {
                 fullBlock = (data >> WaterModel.FULL_BLOCK) & 1;
@@ -127,7 +200,7 @@ public class OctreeFinalizer {
               }
               corner0 += level;
 
-              data = octree.get(x, cy, z + 1);
+              data = cursor.get(x, cy, z + 1);
               level = level0;
               if ((data & 0xFF) == Block.WATER_ID) {
                 fullBlock = (data >> WaterModel.FULL_BLOCK) & 1;
@@ -138,7 +211,7 @@ public class OctreeFinalizer {
               corner0 += level;
               corner1 += level;
 
-              data = octree.get(x + 1, cy, z + 1);
+              data = cursor.get(x + 1, cy, z + 1);
               level = level0;
               if ((data & 0xFF) == Block.WATER_ID) {
                 fullBlock = (data >> WaterModel.FULL_BLOCK) & 1;
@@ -148,7 +221,7 @@ public class OctreeFinalizer {
               }
               corner1 += level;
 
-              data = octree.get(x + 1, cy, z);
+              data = cursor.get(x + 1, cy, z);
               level = level0;
               if ((data & 0xFF) == Block.WATER_ID) {
                 fullBlock = (data >> WaterModel.FULL_BLOCK) & 1;
@@ -159,7 +232,7 @@ public class OctreeFinalizer {
               corner1 += level;
               corner2 += level;
 
-              data = octree.get(x + 1, cy, z - 1);
+              data = cursor.get(x + 1, cy, z - 1);
               level = level0;
               if ((data & 0xFF) == Block.WATER_ID) {
                 fullBlock = (data >> WaterModel.FULL_BLOCK) & 1;
@@ -169,7 +242,7 @@ public class OctreeFinalizer {
               }
               corner2 += level;
 
-              data = octree.get(x, cy, z - 1);
+              data = cursor.get(x, cy, z - 1);
               level = level0;
               if ((data & 0xFF) == Block.WATER_ID) {
                 fullBlock = (data >> WaterModel.FULL_BLOCK) & 1;
@@ -180,7 +253,7 @@ public class OctreeFinalizer {
               corner2 += level;
               corner3 += level;
 
-              data = octree.get(x - 1, cy, z - 1);
+              data = cursor.get(x - 1, cy, z - 1);
               level = level0;
               if ((data & 0xFF) == Block.WATER_ID) {
                 fullBlock = (data >> WaterModel.FULL_BLOCK) & 1;
@@ -198,7 +271,7 @@ public class OctreeFinalizer {
               type |= (corner1 << 20);
               type |= (corner2 << 24);
               type |= (corner3 << 28);
-              octree.set(type, x, cy, z);
+              writes.set(type, x, cy, z);
               break;
             case Block.LAVA_ID:
               fullBlock = (type >> WaterModel.FULL_BLOCK) & 1;
@@ -211,7 +284,7 @@ public class OctreeFinalizer {
               corner2 = level0;
               corner3 = level0;
 
-              data = octree.get(x - 1, cy, z);
+              data = cursor.get(x - 1, cy, z);
               level = level0;
               if ((data & 0xFF) == Block.LAVA_ID) {
                 fullBlock = (data >> WaterModel.FULL_BLOCK) & 1;
@@ -222,7 +295,7 @@ public class OctreeFinalizer {
               corner3 += level;
               corner0 += level;
 
-              data = octree.get(x - 1, cy, z + 1);
+              data = cursor.get(x - 1, cy, z + 1);
               level = level0;
               if ((data & 0xFF) == Block.LAVA_ID) {
                 fullBlock = (data >> WaterModel.FULL_BLOCK) & 1;
@@ -232,7 +305,7 @@ public class OctreeFinalizer {
               }
               corner0 += level;
 
-              data = octree.get(x, cy, z + 1);
+              data = cursor.get(x, cy, z + 1);
               level = level0;
               if ((data & 0xFF) == Block.LAVA_ID) {
                 fullBlock = (data >> WaterModel.FULL_BLOCK) & 1;
@@ -243,7 +316,7 @@ public class OctreeFinalizer {
               corner0 += level;
               corner1 += level;
 
-              data = octree.get(x + 1, cy, z + 1);
+              data = cursor.get(x + 1, cy, z + 1);
               level = level0;
               if ((data & 0xFF) == Block.LAVA_ID) {
                 fullBlock = (data >> WaterModel.FULL_BLOCK) & 1;
@@ -253,7 +326,7 @@ public class OctreeFinalizer {
               }
               corner1 += level;
 
-              data = octree.get(x + 1, cy, z);
+              data = cursor.get(x + 1, cy, z);
               level = level0;
               if ((data & 0xFF) == Block.LAVA_ID) {
                 fullBlock = (data >> WaterModel.FULL_BLOCK) & 1;
@@ -264,7 +337,7 @@ public class OctreeFinalizer {
               corner1 += level;
               corner2 += level;
 
-              data = octree.get(x + 1, cy, z - 1);
+              data = cursor.get(x + 1, cy, z - 1);
               level = level0;
               if ((data & 0xFF) == Block.LAVA_ID) {
                 fullBlock = (data >> WaterModel.FULL_BLOCK) & 1;
@@ -274,7 +347,7 @@ public class OctreeFinalizer {
               }
               corner2 += level;
 
-              data = octree.get(x, cy, z - 1);
+              data = cursor.get(x, cy, z - 1);
               level = level0;
               if ((data & 0xFF) == Block.LAVA_ID) {
                 fullBlock = (data >> WaterModel.FULL_BLOCK) & 1;
@@ -285,7 +358,7 @@ public class OctreeFinalizer {
               corner2 += level;
               corner3 += level;
 
-              data = octree.get(x - 1, cy, z - 1);
+              data = cursor.get(x - 1, cy, z - 1);
               level = level0;
               if ((data & 0xFF) == Block.LAVA_ID) {
                 fullBlock = (data >> WaterModel.FULL_BLOCK) & 1;
@@ -303,47 +376,47 @@ public class OctreeFinalizer {
               type |= (corner1 << 20);
               type |= (corner2 << 24);
               type |= (corner3 << 28);
-              octree.set(type, x, cy, z);
+              writes.set(type, x, cy, z);
               break;
             case Block.TRIPWIRE_ID:
-              otherId = 0xFF & octree.get(x - 1, cy, z);
+              otherId = 0xFF & cursor.get(x - 1, cy, z);
               if (otherId == Block.TRIPWIRE_ID || otherId == Block.TRIPWIREHOOK_ID) {
                 type |= 1 << 12;
               } else {
-                otherId = 0xFF & octree.get(x + 1, cy, z);
+                otherId = 0xFF & cursor.get(x + 1, cy, z);
                 if (otherId == Block.TRIPWIRE_ID || otherId == Block.TRIPWIREHOOK_ID) {
                   type |= 1 << 12;
                 }
               }
-              octree.set(type, x, cy, z);
+              writes.set(type, x, cy, z);
               break;
             case Block.REDSTONEWIRE_ID:
-              above = Block.get(octree.get(x, cy + 1, z));
-              west = Block.get(octree.get(x - 1, cy, z));
-              east = Block.get(octree.get(x + 1, cy, z));
-              north = Block.get(octree.get(x, cy, z - 1));
-              south = Block.get(octree.get(x, cy, z + 1));
+              above = Block.get(cursor.get(x, cy + 1, z));
+              west = Block.get(cursor.get(x - 1, cy, z));
+              east = Block.get(cursor.get(x + 1, cy, z));
+              north = Block.get(cursor.get(x, cy, z - 1));
+              south = Block.get(cursor.get(x, cy, z + 1));
 
               if (above == Block.AIR) {
-                int westAbove = 0xFF & octree.get(x - 1, cy + 1, z);
+                int westAbove = 0xFF & cursor.get(x - 1, cy + 1, z);
                 if (west.solid && westAbove == Block.REDSTONEWIRE_ID) {
                   // Wire on west block side.
                   type |= 1 << BlockData.RSW_WEST_CONNECTION;
                   type |= 1 << BlockData.RSW_WEST_SIDE;
                 }
-                int eastAbove = 0xFF & octree.get(x + 1, cy + 1, z);
+                int eastAbove = 0xFF & cursor.get(x + 1, cy + 1, z);
                 if (east.solid && eastAbove == Block.REDSTONEWIRE_ID) {
                   // Wire on east block side.
                   type |= 1 << BlockData.RSW_EAST_CONNECTION;
                   type |= 1 << BlockData.RSW_EAST_SIDE;
                 }
-                int northAbove = 0xFF & octree.get(x, cy + 1, z - 1);
+                int northAbove = 0xFF & cursor.get(x, cy + 1, z - 1);
                 if (north.solid && northAbove == Block.REDSTONEWIRE_ID) {
                   // Wire on north block side.
                   type |= 1 << BlockData.RSW_NORTH_CONNECTION;
                   type |= 1 << BlockData.RSW_NORTH_SIDE;
                 }
-                int southAbove = 0xFF & octree.get(x, cy + 1, z + 1);
+                int southAbove = 0xFF & cursor.get(x, cy + 1, z + 1);
                 if (south.solid && southAbove == Block.REDSTONEWIRE_ID) {
                   // Wire on south block side.
                   type |= 1 << BlockData.RSW_SOUTH_CONNECTION;
@@ -354,7 +427,7 @@ public class OctreeFinalizer {
               if (west.isRedstoneWireConnector()) {
                 type |= 1 << BlockData.RSW_WEST_CONNECTION;
               } else if (west == Block.AIR) {
-                int westBelow = 0xFF & octree.get(x - 1, cy - 1, z);
+                int westBelow = 0xFF & cursor.get(x - 1, cy - 1, z);
                 if (westBelow == Block.REDSTONEWIRE_ID) {
                   type |= 1 << BlockData.RSW_WEST_CONNECTION;
                 }
@@ -363,7 +436,7 @@ public class OctreeFinalizer {
               if (east.isRedstoneWireConnector()) {
                 type |= 1 << BlockData.RSW_EAST_CONNECTION;
               } else if (east == Block.AIR) {
-                int eastBelow = 0xFF & octree.get(x + 1, cy - 1, z);
+                int eastBelow = 0xFF & cursor.get(x + 1, cy - 1, z);
                 if (eastBelow == Block.REDSTONEWIRE_ID) {
                   type |= 1 << BlockData.RSW_EAST_CONNECTION;
                 }
@@ -372,7 +445,7 @@ public class OctreeFinalizer {
               if (north.isRedstoneWireConnector()) {
                 type |= 1 << BlockData.RSW_NORTH_CONNECTION;
               } else if (north == Block.AIR) {
-                int northBelow = 0xFF & octree.get(x, cy - 1, z - 1);
+                int northBelow = 0xFF & cursor.get(x, cy - 1, z - 1);
                 if (northBelow == Block.REDSTONEWIRE_ID) {
                   type |= 1 << BlockData.RSW_NORTH_CONNECTION;
                 }
@@ -381,141 +454,141 @@ public class OctreeFinalizer {
               if (south.isRedstoneWireConnector()) {
                 type |= 1 << BlockData.RSW_SOUTH_CONNECTION;
               } else if (south == Block.AIR) {
-                int southBelow = 0xFF & octree.get(x, cy - 1, z + 1);
+                int southBelow = 0xFF & cursor.get(x, cy - 1, z + 1);
                 if (southBelow == Block.REDSTONEWIRE_ID) {
                   type |= 1 << BlockData.RSW_SOUTH_CONNECTION;
                 }
               }
 
-              octree.set(type, x, cy, z);
+              writes.set(type, x, cy, z);
               break;
             case Block.MELONSTEM_ID:
-              if ((0xFF & octree.get(x - 1, cy, z)) == Block.MELON_ID) {
+              if ((0xFF & cursor.get(x - 1, cy, z)) == Block.MELON_ID) {
                 type |= 1 << 16;
-              } else if ((0xFF & octree.get(x + 1, cy, z)) == Block.MELON_ID) {
+              } else if ((0xFF & cursor.get(x + 1, cy, z)) == Block.MELON_ID) {
                 type |= 2 << 16;
-              } else if ((0xFF & octree.get(x, cy, z - 1)) == Block.MELON_ID) {
+              } else if ((0xFF & cursor.get(x, cy, z - 1)) == Block.MELON_ID) {
                 type |= 3 << 16;
-              } else if ((0xFF & octree.get(x, cy, z + 1)) == Block.MELON_ID) {
+              } else if ((0xFF & cursor.get(x, cy, z + 1)) == Block.MELON_ID) {
                 type |= 4 << 16;
               }
-              octree.set(type, x, cy, z);
+              writes.set(type, x, cy, z);
               break;
             case Block.PUMPKINSTEM_ID:
-              if ((0xFF & octree.get(x - 1, cy, z)) == Block.PUMPKIN_ID) {
+              if ((0xFF & cursor.get(x - 1, cy, z)) == Block.PUMPKIN_ID) {
                 type |= 1 << 16;
-              } else if ((0xFF & octree.get(x + 1, cy, z)) == Block.PUMPKIN_ID) {
+              } else if ((0xFF & cursor.get(x + 1, cy, z)) == Block.PUMPKIN_ID) {
                 type |= 2 << 16;
-              } else if ((0xFF & octree.get(x, cy, z - 1)) == Block.PUMPKIN_ID) {
+              } else if ((0xFF & cursor.get(x, cy, z - 1)) == Block.PUMPKIN_ID) {
                 type |= 3 << 16;
-              } else if ((0xFF & octree.get(x, cy, z + 1)) == Block.PUMPKIN_ID) {
+              } else if ((0xFF & cursor.get(x, cy, z + 1)) == Block.PUMPKIN_ID) {
                 type |= 4 << 16;
               }
-              octree.set(type, x, cy, z);
+              writes.set(type, x, cy, z);
               break;
             case Block.TRAPPEDCHEST_ID:
               dir = type >> 8;
               tex = 0;
               if (dir < 4) {
-                if ((0xFF & octree.get(x - 1, cy, z)) == Block.TRAPPEDCHEST_ID) {
+                if ((0xFF & cursor.get(x - 1, cy, z)) == Block.TRAPPEDCHEST_ID) {
                   tex = 1 + (dir - 1) % 2;
-                } else if ((0xFF & octree.get(x + 1, cy, z)) == Block.TRAPPEDCHEST_ID) {
+                } else if ((0xFF & cursor.get(x + 1, cy, z)) == Block.TRAPPEDCHEST_ID) {
                   tex = 1 + dir % 2;
                 }
               } else {
-                if ((0xFF & octree.get(x, cy, z - 1)) == Block.TRAPPEDCHEST_ID) {
+                if ((0xFF & cursor.get(x, cy, z - 1)) == Block.TRAPPEDCHEST_ID) {
                   tex = 1 + dir % 2;
-                } else if ((0xFF & octree.get(x, cy, z + 1)) == Block.TRAPPEDCHEST_ID) {
+                } else if ((0xFF & cursor.get(x, cy, z + 1)) == Block.TRAPPEDCHEST_ID) {
                   tex = 1 + (dir - 1) % 2;
                 }
               }
               type |= tex << 16;
-              octree.set(type, x, cy, z);
+              writes.set(type, x, cy, z);
               break;
             case Block.CHEST_ID:
               dir = type >> 8;
               tex = 0;
               if (dir < 4) {
-                if ((0xFF & octree.get(x - 1, cy, z)) == Block.CHEST_ID) {
+                if ((0xFF & cursor.get(x - 1, cy, z)) == Block.CHEST_ID) {
                   tex = 1 + (dir - 1) % 2;
-                } else if ((0xFF & octree.get(x + 1, cy, z)) == Block.CHEST_ID) {
+                } else if ((0xFF & cursor.get(x + 1, cy, z)) == Block.CHEST_ID) {
                   tex = 1 + dir % 2;
                 }
               } else {
-                if ((0xFF & octree.get(x, cy, z - 1)) == Block.CHEST_ID) {
+                if ((0xFF & cursor.get(x, cy, z - 1)) == Block.CHEST_ID) {
                   tex = 1 + dir % 2;
-                } else if ((0xFF & octree.get(x, cy, z + 1)) == Block.CHEST_ID) {
+                } else if ((0xFF & cursor.get(x, cy, z + 1)) == Block.CHEST_ID) {
                   tex = 1 + (dir - 1) % 2;
                 }
               }
               type |= tex << 16;
-              octree.set(type, x, cy, z);
+              writes.set(type, x, cy, z);
               break;
             case Block.IRONBARS_ID:
-              data = octree.get(x, cy, z - 1);
+              data = cursor.get(x, cy, z - 1);
               other = Block.get(data);
               if (other.isIronBarsConnector(data >> BlockData.OFFSET, BlockData.NORTH)) {
                 type |= BlockData.CONNECTED_NORTH << BlockData.GLASS_PANE_OFFSET;
               }
-              data = octree.get(x, cy, z + 1);
+              data = cursor.get(x, cy, z + 1);
               other = Block.get(data);
               if (other.isIronBarsConnector(data >> BlockData.OFFSET, BlockData.SOUTH)) {
                 type |= BlockData.CONNECTED_SOUTH << BlockData.GLASS_PANE_OFFSET;
               }
-              data = octree.get(x + 1, cy, z);
+              data = cursor.get(x + 1, cy, z);
               other = Block.get(data);
               if (other.isIronBarsConnector(data >> BlockData.OFFSET, BlockData.EAST)) {
                 type |= BlockData.CONNECTED_EAST << BlockData.GLASS_PANE_OFFSET;
               }
-              data = octree.get(x - 1, cy, z);
+              data = cursor.get(x - 1, cy, z);
               other = Block.get(data);
               if (other.isIronBarsConnector(data >> BlockData.OFFSET, BlockData.WEST)) {
                 type |= BlockData.CONNECTED_WEST << BlockData.GLASS_PANE_OFFSET;
               }
-              octree.set(type, x, cy, z);
+              writes.set(type, x, cy, z);
               break;
             case Block.GLASSPANE_ID:
             case Block.STAINED_GLASSPANE_ID:
-              data = octree.get(x, cy, z - 1);
+              data = cursor.get(x, cy, z - 1);
               other = Block.get(data);
               if (other.isGlassPaneConnector(data >> BlockData.OFFSET, BlockData.NORTH)) {
                 type |= BlockData.CONNECTED_NORTH << BlockData.GLASS_PANE_OFFSET;
               }
-              data = octree.get(x, cy, z + 1);
+              data = cursor.get(x, cy, z + 1);
               other = Block.get(data);
               if (other.isGlassPaneConnector(data >> BlockData.OFFSET, BlockData.SOUTH)) {
                 type |= BlockData.CONNECTED_SOUTH << BlockData.GLASS_PANE_OFFSET;
               }
-              data = octree.get(x + 1, cy, z);
+              data = cursor.get(x + 1, cy, z);
               other = Block.get(data);
               if (other.isGlassPaneConnector(data >> BlockData.OFFSET, BlockData.EAST)) {
                 type |= BlockData.CONNECTED_EAST << BlockData.GLASS_PANE_OFFSET;
               }
-              data = octree.get(x - 1, cy, z);
+              data = cursor.get(x - 1, cy, z);
               other = Block.get(data);
               if (other.isGlassPaneConnector(data >> BlockData.OFFSET, BlockData.WEST)) {
                 type |= BlockData.CONNECTED_WEST << BlockData.GLASS_PANE_OFFSET;
               }
-              octree.set(type, x, cy, z);
+              writes.set(type, x, cy, z);
               break;
             case Block.STONEWALL_ID:
               connections = 0;
-              data = octree.get(x, cy, z - 1);
+              data = cursor.get(x, cy, z - 1);
               other = Block.get(data);
               if (other.isStoneWallConnector(data >> BlockData.OFFSET, BlockData.NORTH)) {
                 connections |= BlockData.CONNECTED_NORTH;
               }
-              data = octree.get(x, cy, z + 1);
+              data = cursor.get(x, cy, z + 1);
               other = Block.get(data);
               if (other.isStoneWallConnector(data >> BlockData.OFFSET, BlockData.SOUTH)) {
                 connections |= BlockData.CONNECTED_SOUTH;
               }
-              data = octree.get(x + 1, cy, z);
+              data = cursor.get(x + 1, cy, z);
               other = Block.get(data);
               if (other.isStoneWallConnector(data >> BlockData.OFFSET, BlockData.EAST)) {
                 connections |= BlockData.CONNECTED_EAST;
               }
-              data = octree.get(x - 1, cy, z);
+              data = cursor.get(x - 1, cy, z);
               other = Block.get(data);
               if (other.isStoneWallConnector(data >> BlockData.OFFSET, BlockData.WEST)) {
                 connections |= BlockData.CONNECTED_WEST;
@@ -524,13 +597,13 @@ public class OctreeFinalizer {
               if (connections != 3 && connections != 12) {
                 type |= 1 << BlockData.STONEWALL_CORNER;
               } else if (cy + 1 < Chunk.Y_MAX) {
-                otherId = (0xFF & octree.get(x, cy + 1, z));
+                otherId = (0xFF & cursor.get(x, cy + 1, z));
                 other = Block.get(otherId);
                 if (other.isWallTopConnector()) {
                   type |= 1 << BlockData.STONEWALL_CORNER;
                 }
               }
-              octree.set(type, x, cy, z);
+              writes.set(type, x, cy, z);
               break;
             case Block.FENCE_ID:
             case Block.SPRUCEFENCE_ID:
@@ -538,50 +611,50 @@ public class OctreeFinalizer {
             case Block.JUNGLEFENCE_ID:
             case Block.DARKOAKFENCE_ID:
             case Block.ACACIAFENCE_ID:
-              data = octree.get(x, cy, z - 1);
+              data = cursor.get(x, cy, z - 1);
               other = Block.get(data);
               if (other.isFenceConnector(data >> BlockData.OFFSET, BlockData.NORTH)) {
                 type |= BlockData.CONNECTED_NORTH << BlockData.OFFSET;
               }
-              data = octree.get(x, cy, z + 1);
+              data = cursor.get(x, cy, z + 1);
               other = Block.get(data);
               if (other.isFenceConnector(data >> BlockData.OFFSET, BlockData.SOUTH)) {
                 type |= BlockData.CONNECTED_SOUTH << BlockData.OFFSET;
               }
-              data = octree.get(x + 1, cy, z);
+              data = cursor.get(x + 1, cy, z);
               other = Block.get(data);
               if (other.isFenceConnector(data >> BlockData.OFFSET, BlockData.EAST)) {
                 type |= BlockData.CONNECTED_EAST << BlockData.OFFSET;
               }
-              data = octree.get(x - 1, cy, z);
+              data = cursor.get(x - 1, cy, z);
               other = Block.get(data);
               if (other.isFenceConnector(data >> BlockData.OFFSET, BlockData.WEST)) {
                 type |= BlockData.CONNECTED_WEST << BlockData.OFFSET;
               }
-              octree.set(type, x, cy, z);
+              writes.set(type, x, cy, z);
               break;
             case Block.NETHERBRICKFENCE_ID:
-              data = octree.get(x, cy, z - 1);
+              data = cursor.get(x, cy, z - 1);
               other = Block.get(data);
               if (other.isNetherBrickFenceConnector(data >> BlockData.OFFSET, BlockData.NORTH)) {
                 type |= BlockData.CONNECTED_NORTH << BlockData.OFFSET;
               }
-              data = octree.get(x, cy, z + 1);
+              data = cursor.get(x, cy, z + 1);
               other = Block.get(data);
               if (other.isNetherBrickFenceConnector(data >> BlockData.OFFSET, BlockData.SOUTH)) {
                 type |= BlockData.CONNECTED_SOUTH << BlockData.OFFSET;
               }
-              data = octree.get(x + 1, cy, z);
+              data = cursor.get(x + 1, cy, z);
               other = Block.get(data);
               if (other.isNetherBrickFenceConnector(data >> BlockData.OFFSET, BlockData.EAST)) {
                 type |= BlockData.CONNECTED_EAST << BlockData.OFFSET;
               }
-              data = octree.get(x - 1, cy, z);
+              data = cursor.get(x - 1, cy, z);
               other = Block.get(data);
               if (other.isNetherBrickFenceConnector(data >> BlockData.OFFSET, BlockData.WEST)) {
                 type |= BlockData.CONNECTED_WEST << BlockData.OFFSET;
               }
-              octree.set(type, x, cy, z);
+              writes.set(type, x, cy, z);
               break;
             case Block.FENCEGATE_ID:
             case Block.SPRUCEFENCEGATE_ID:
@@ -593,19 +666,19 @@ public class OctreeFinalizer {
               dir = 3 & (type >> BlockData.OFFSET);
               if (dir == 0 || dir == 2) {
                 // Facing north or south.
-                int westId = (0xFF & octree.get(x - 1, cy, z));
-                int eastId = (0xFF & octree.get(x + 1, cy, z));
+                int westId = (0xFF & cursor.get(x - 1, cy, z));
+                int eastId = (0xFF & cursor.get(x + 1, cy, z));
                 if (westId == Block.STONEWALL_ID || eastId == Block.STONEWALL_ID) {
                   type |= 1 << BlockData.FENCEGATE_LOW;
-                  octree.set(type, x, cy, z);
+                  writes.set(type, x, cy, z);
                 }
               } else {
                 // Facing east or west.
-                int northId = (0xFF & octree.get(x, cy, z - 1));
-                int southId = (0xFF & octree.get(x, cy, z + 1));
+                int northId = (0xFF & cursor.get(x, cy, z - 1));
+                int southId = (0xFF & cursor.get(x, cy, z + 1));
                 if (northId == Block.STONEWALL_ID || southId == Block.STONEWALL_ID) {
                   type |= 1 << BlockData.FENCEGATE_LOW;
-                  octree.set(type, x, cy, z);
+                  writes.set(type, x, cy, z);
                 }
               }
               break;
@@ -631,26 +704,26 @@ public class OctreeFinalizer {
               switch (rotation) {
                 case 0:
                   // ascending east
-                  bd = octree.get(x + 1, cy, z);// behind
+                  bd = cursor.get(x + 1, cy, z);// behind
                   other = Block.get(bd);
-                  bd_alt = octree.get(x - 1, cy, z);// in front of
+                  bd_alt = cursor.get(x - 1, cy, z);// in front of
                   other_alt = Block.get(bd_alt);
                   if (other.isStair() && (bd & BlockData.UPSIDE_DOWN_STAIR) == upsidedown) {
                     switch (3 & (bd >> BlockData.OFFSET)) {
                       case 2:
                         // if stair behind ascends south we have outer s-e corner
                         // unless stair to the left has same orientation
-                        if (!sameStair(octree, type, x, cy, z - 1)) {
+                        if (!sameStair(cursor, type, x, cy, z - 1)) {
                           type |= BlockData.SOUTH_EAST << BlockData.CORNER_OFFSET;
-                          octree.set(type, x, cy, z);
+                          writes.set(type, x, cy, z);
                         }
                         break;
                       case 3:
                         // if stair behind ascends north we have n-e corner
                         // unless stair to the right has same orientation
-                        if (!sameStair(octree, type, x, cy, z + 1)) {
+                        if (!sameStair(cursor, type, x, cy, z + 1)) {
                           type |= BlockData.NORTH_EAST << BlockData.CORNER_OFFSET;
-                          octree.set(type, x, cy, z);
+                          writes.set(type, x, cy, z);
                         }
                         break;
                     }
@@ -660,17 +733,17 @@ public class OctreeFinalizer {
                       case 2:
                         // if stair in front ascends south we have inner s-e corner
                         // unless stair to the right has same orientation
-                        if (!sameStair(octree, type, x, cy, z + 1)) {
+                        if (!sameStair(cursor, type, x, cy, z + 1)) {
                           type |= BlockData.INNER_SOUTH_EAST << BlockData.CORNER_OFFSET;
-                          octree.set(type, x, cy, z);
+                          writes.set(type, x, cy, z);
                         }
                         break;
                       case 3:
                         // if stair in front ascends north we have inner n-e corner
                         // unless stair to the left has same orientation
-                        if (!sameStair(octree, type, x, cy, z - 1)) {
+                        if (!sameStair(cursor, type, x, cy, z - 1)) {
                           type |= BlockData.INNER_NORTH_EAST << BlockData.CORNER_OFFSET;
-                          octree.set(type, x, cy, z);
+                          writes.set(type, x, cy, z);
                         }
                         break;
                     }
@@ -678,26 +751,26 @@ public class OctreeFinalizer {
                   break;
                 case 1:
                   // ascending west
-                  bd = octree.get(x - 1, cy, z);// behind
+                  bd = cursor.get(x - 1, cy, z);// behind
                   other = Block.get(bd);
-                  bd_alt = octree.get(x + 1, cy, z);// in front of
+                  bd_alt = cursor.get(x + 1, cy, z);// in front of
                   other_alt = Block.get(bd_alt);
                   if (other.isStair() && (bd & BlockData.UPSIDE_DOWN_STAIR) == upsidedown) {
                     switch (3 & (bd >> BlockData.OFFSET)) {
                       case 2:
                         // if stair behind ascends south we have outer s-w corner
                         // unless stair to the right has same orientation
-                        if (!sameStair(octree, type, x, cy, z - 1)) {
+                        if (!sameStair(cursor, type, x, cy, z - 1)) {
                           type |= BlockData.SOUTH_WEST << BlockData.CORNER_OFFSET;
-                          octree.set(type, x, cy, z);
+                          writes.set(type, x, cy, z);
                         }
                         break;
                       case 3:
                         // if stair behind ascends north we have outer n-w corner
                         // unless stair to the left has same orientation
-                        if (!sameStair(octree, type, x, cy, z + 1)) {
+                        if (!sameStair(cursor, type, x, cy, z + 1)) {
                           type |= BlockData.NORTH_WEST << BlockData.CORNER_OFFSET;
-                          octree.set(type, x, cy, z);
+                          writes.set(type, x, cy, z);
                         }
                         break;
                     }
@@ -707,17 +780,17 @@ public class OctreeFinalizer {
                       case 2:
                         // if stair in front ascends south we have inner s-w corner
                         // unless stair to the left has same orientation
-                        if (!sameStair(octree, type, x, cy, z + 1)) {
+                        if (!sameStair(cursor, type, x, cy, z + 1)) {
                           type |= BlockData.INNER_SOUTH_WEST << BlockData.CORNER_OFFSET;
-                          octree.set(type, x, cy, z);
+                          writes.set(type, x, cy, z);
                         }
                         break;
                       case 3:
                         // if stair in front ascends north we have inner n-w corner
                         // unless stair to the right has same orientation
-                        if (!sameStair(octree, type, x, cy, z - 1)) {
+                        if (!sameStair(cursor, type, x, cy, z - 1)) {
                           type |= BlockData.INNER_NORTH_WEST << BlockData.CORNER_OFFSET;
-                          octree.set(type, x, cy, z);
+                          writes.set(type, x, cy, z);
                         }
                         break;
                     }
@@ -725,24 +798,24 @@ public class OctreeFinalizer {
                   break;
                 case 2:
                   // ascending south
-                  bd = octree.get(x, cy, z + 1);// behind
+                  bd = cursor.get(x, cy, z + 1);// behind
                   other = Block.get(bd);
-                  bd_alt = octree.get(x, cy, z - 1);// in front of
+                  bd_alt = cursor.get(x, cy, z - 1);// in front of
                   other_alt = Block.get(bd_alt);
                   if (other.isStair() && (bd & BlockData.UPSIDE_DOWN_STAIR) == upsidedown) {
                     switch (3 & (bd >> BlockData.OFFSET)) {
                       case 0:
                         // if stair behind ascends east we have outer s-e corner
-                        if (!sameStair(octree, type, x - 1, cy, z)) {
+                        if (!sameStair(cursor, type, x - 1, cy, z)) {
                           type |= BlockData.SOUTH_EAST << BlockData.CORNER_OFFSET;
-                          octree.set(type, x, cy, z);
+                          writes.set(type, x, cy, z);
                         }
                         break;
                       case 1:
                         // if stair behind ascends west we have outer s-w corner
-                        if (!sameStair(octree, type, x + 1, cy, z)) {
+                        if (!sameStair(cursor, type, x + 1, cy, z)) {
                           type |= BlockData.SOUTH_WEST << BlockData.CORNER_OFFSET;
-                          octree.set(type, x, cy, z);
+                          writes.set(type, x, cy, z);
                         }
                         break;
                     }
@@ -751,16 +824,16 @@ public class OctreeFinalizer {
                     switch (3 & (bd_alt >> BlockData.OFFSET)) {
                       case 0:
                         // if stair in front ascends east we have inner s-e corner
-                        if (!sameStair(octree, type, x + 1, cy, z)) {
+                        if (!sameStair(cursor, type, x + 1, cy, z)) {
                           type |= BlockData.INNER_SOUTH_EAST << BlockData.CORNER_OFFSET;
-                          octree.set(type, x, cy, z);
+                          writes.set(type, x, cy, z);
                         }
                         break;
                       case 1:
                         // if stair in front ascends west we have inner s-w corner
-                        if (!sameStair(octree, type, x - 1, cy, z)) {
+                        if (!sameStair(cursor, type, x - 1, cy, z)) {
                           type |= BlockData.INNER_SOUTH_WEST << BlockData.CORNER_OFFSET;
-                          octree.set(type, x, cy, z);
+                          writes.set(type, x, cy, z);
                         }
                         break;
                     }
@@ -768,24 +841,24 @@ public class OctreeFinalizer {
                   break;
                 case 3:
                   // Ascending north.
-                  bd = octree.get(x, cy, z - 1); // Behind.
+                  bd = cursor.get(x, cy, z - 1); // Behind.
                   other = Block.get(bd);
-                  bd_alt = octree.get(x, cy, z + 1); // In front of.
+                  bd_alt = cursor.get(x, cy, z + 1); // In front of.
                   other_alt = Block.get(bd_alt);
                   if (other.isStair() && (bd & BlockData.UPSIDE_DOWN_STAIR) == upsidedown) {
                     switch (3 & (bd >> BlockData.OFFSET)) {
                       case 0:
                         // If stair behind ascends east we have outer n-e corner.
-                        if (!sameStair(octree, type, x - 1, cy, z)) {
+                        if (!sameStair(cursor, type, x - 1, cy, z)) {
                           type |= BlockData.NORTH_EAST << BlockData.CORNER_OFFSET;
-                          octree.set(type, x, cy, z);
+                          writes.set(type, x, cy, z);
                         }
                         break;
                       case 1:
                         // If stair behind ascends west we have outer n-w corner.
-                        if (!sameStair(octree, type, x + 1, cy, z)) {
+                        if (!sameStair(cursor, type, x + 1, cy, z)) {
                           type |= BlockData.NORTH_WEST << BlockData.CORNER_OFFSET;
-                          octree.set(type, x, cy, z);
+                          writes.set(type, x, cy, z);
                         }
                         break;
                     }
@@ -794,16 +867,16 @@ public class OctreeFinalizer {
                     switch (3 & (bd_alt >> BlockData.OFFSET)) {
                       case 0:
                         // If stair in front ascends east we have inner n-e corner.
-                        if (!sameStair(octree, type, x + 1, cy, z)) {
+                        if (!sameStair(cursor, type, x + 1, cy, z)) {
                           type |= BlockData.INNER_NORTH_EAST << BlockData.CORNER_OFFSET;
-                          octree.set(type, x, cy, z);
+                          writes.set(type, x, cy, z);
                         }
                         break;
                       case 1:
                         // If stair in front ascends west we have inner n-w corner.
-                        if (!sameStair(octree, type, x - 1, cy, z)) {
+                        if (!sameStair(cursor, type, x - 1, cy, z)) {
                           type |= BlockData.INNER_NORTH_WEST << BlockData.CORNER_OFFSET;
-                          octree.set(type, x, cy, z);
+                          writes.set(type, x, cy, z);
                         }
                         break;
                     }
@@ -812,31 +885,31 @@ public class OctreeFinalizer {
               }
               break;
             case Block.CHORUSPLANT_ID:
-              other = Block.get(octree.get(x, cy, z - 1));
+              other = Block.get(cursor.get(x, cy, z - 1));
               if (other.isChorusPlant()) {
                 type |= BlockData.CONNECTED_NORTH << BlockData.OFFSET;
               }
-              other = Block.get(octree.get(x, cy, z + 1));
+              other = Block.get(cursor.get(x, cy, z + 1));
               if (other.isChorusPlant()) {
                 type |= BlockData.CONNECTED_SOUTH << BlockData.OFFSET;
               }
-              other = Block.get(octree.get(x + 1, cy, z));
+              other = Block.get(cursor.get(x + 1, cy, z));
               if (other.isChorusPlant()) {
                 type |= BlockData.CONNECTED_EAST << BlockData.OFFSET;
               }
-              other = Block.get(octree.get(x - 1, cy, z));
+              other = Block.get(cursor.get(x - 1, cy, z));
               if (other.isChorusPlant()) {
                 type |= BlockData.CONNECTED_WEST << BlockData.OFFSET;
               }
-              other = Block.get(octree.get(x, cy + 1, z));
+              other = Block.get(cursor.get(x, cy + 1, z));
               if (other.isChorusPlant()) {
                 type |= BlockData.CONNECTED_ABOVE << BlockData.OFFSET;
               }
-              other = Block.get(octree.get(x, cy - 1, z));
+              other = Block.get(cursor.get(x, cy - 1, z));
               if (other.isChorusPlant() || other.id == Block.ENDSTONE_ID) {
                 type |= BlockData.CONNECTED_BELOW << BlockData.OFFSET;
               }
-              octree.set(type, x, cy, z);
+              writes.set(type, x, cy, z);
               break;
             default:
               break;
@@ -849,8 +922,8 @@ public class OctreeFinalizer {
   /**
    * Check if this stair type is the same as the other stair block.
    */
-  private static boolean sameStair(Octree octree, int type, int x, int y, int z) {
-    int id = octree.get(x, y, z);
+  private static boolean sameStair(Octree.Cursor cursor, int type, int x, int y, int z) {
+    int id = cursor.get(x, y, z);
     return Block.get(id).isStair() && (type & (7 << 8)) == (id & (7 << 8));
   }
 
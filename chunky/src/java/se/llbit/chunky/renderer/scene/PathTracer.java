@@ -68,7 +68,7 @@ public class PathTracer implements RayTracer {
 
     while (true) {
 
-      if (!PreviewRayTracer.nextIntersection(scene, ray)) {
+      if (!PreviewRayTracer.nextIntersection(scene, ray, state)) {
         if (ray.getPrevMaterial().isWater()) {
           ray.color.set(0, 0, 0, 1);
           hit = true;
@@ -87,6 +87,13 @@ public class PathTracer implements RayTracer {
         } else {
           // Indirect sky hit - diffuse color.
           scene.sky.getSkyColor(ray);
+          if (ray.pdf > 0 && scene.sky.importanceSamplingEnabled()) {
+            // The sky is also sampled directly, weight this sample for MIS.
+            double weight = powerHeuristic(ray.pdf, scene.sky.skyPdf(ray.d));
+            ray.color.x *= weight;
+            ray.color.y *= weight;
+            ray.color.z *= weight;
+          }
           // Skip sky fog - likely not noticeable in diffuse reflection.
           hit = true;
         }
@@ -167,6 +174,34 @@ public class PathTracer implements RayTracer {
               hit = true;
             }
 
+            double skyLightR = 0;
+            double skyLightG = 0;
+            double skyLightB = 0;
+
+            if (scene.sky.importanceSamplingEnabled()) {
+              // Sample the skymap directly, weighted for MIS against the diffuse reflection.
+              reflected.set(ray);
+              double skyPdf = scene.sky.sampleSkyDirection(reflected, random, state.uv);
+              double cosTheta = reflected.d.dot(ray.n);
+              if (skyPdf > 0 && cosTheta > 0) {
+                reflected.setCurrentMaterial(reflected.getPrevMaterial(), reflected.getPrevData());
+
+                getDirectLightAttenuation(scene, reflected, state);
+
+                Vector4 attenuation = state.attenuation;
+                if (attenuation.w > 0) {
+                  double diffusePdf = cosTheta / Math.PI;
+                  double mult = attenuation.w * powerHeuristic(skyPdf, diffusePdf)
+                      * diffusePdf / skyPdf;
+                  scene.sky.getSkyColor(reflected);
+                  skyLightR = attenuation.x * reflected.color.x * mult;
+                  skyLightG = attenuation.y * reflected.color.y * mult;
+                  skyLightB = attenuation.z * reflected.color.z * mult;
+                  hit = true;
+                }
+              }
+            }
+
             if (scene.sunEnabled) {
               reflected.set(ray);
               scene.sun.getRandomSunDirection(reflected, random);
@@ -201,12 +236,12 @@ public class PathTracer implements RayTracer {
               reflected.diffuseReflection(ray, random);
               hit = pathTrace(scene, reflected, state, 0, false) || hit;
               if (hit) {
-                ray.color.x = ray.color.x * (emittance + directLightR * scene.sun.emittance.x + (
-                    reflected.color.x + reflected.emittance.x));
-                ray.color.y = ray.color.y * (emittance + directLightG * scene.sun.emittance.y + (
-                    reflected.color.y + reflected.emittance.y));
-                ray.color.z = ray.color.z * (emittance + directLightB * scene.sun.emittance.z + (
-                    reflected.color.z + reflected.emittance.z));
+                ray.color.x = ray.color.x * (emittance + directLightR * scene.sun.emittance.x
+                    + skyLightR + (reflected.color.x + reflected.emittance.x));
+                ray.color.y = ray.color.y * (emittance + directLightG * scene.sun.emittance.y
+                    + skyLightG + (reflected.color.y + reflected.emittance.y));
+                ray.color.z = ray.color.z * (emittance + directLightB * scene.sun.emittance.z
+                    + skyLightB + (reflected.color.z + reflected.emittance.z));
               }
 
             } else {
@@ -214,12 +249,12 @@ public class PathTracer implements RayTracer {
 
               hit = pathTrace(scene, reflected, state, 0, false) || hit;
               if (hit) {
-                ray.color.x =
-                    ray.color.x * (emittance + (reflected.color.x + reflected.emittance.x));
-                ray.color.y =
-                    ray.color.y * (emittance + (reflected.color.y + reflected.emittance.y));
-                ray.color.z =
-                    ray.color.z * (emittance + (reflected.color.z + reflected.emittance.z));
+                ray.color.x = ray.color.x
+                    * (emittance + skyLightR + (reflected.color.x + reflected.emittance.x));
+                ray.color.y = ray.color.y
+                    * (emittance + skyLightG + (reflected.color.y + reflected.emittance.y));
+                ray.color.z = ray.color.z
+                    * (emittance + skyLightB + (reflected.color.z + reflected.emittance.z));
               }
             }
           }
@@ -285,6 +320,7 @@ public class PathTracer implements RayTracer {
                   }
 
                   refracted.d.normalize();
+                  refracted.pdf = 0;
 
                   refracted.o.scaleAdd(Ray.OFFSET, refracted.d);
                 }
@@ -384,8 +420,20 @@ public class PathTracer implements RayTracer {
     return hit;
   }
 
+  /**
+   * Power heuristic weight for multiple importance sampling.
+   */
+  private static double powerHeuristic(double pdf, double otherPdf) {
+    double pdf2 = pdf * pdf;
+    return pdf2 / (pdf2 + otherPdf * otherPdf);
+  }
+
   /**
    * Calculate direct lighting attenuation.
+   *
+   * <p>Most shadow rays do not hit any entity, so the entity and actor BVHs
+   * are first tested with a single any-hit query. If that misses, the BVHs
+   * are skipped for each following step along the shadow ray.
    */
   public static void getDirectLightAttenuation(Scene scene, Ray ray, WorkerState state) {
 
@@ -394,9 +442,10 @@ public class PathTracer implements RayTracer {
     attenuation.y = 1;
     attenuation.z = 1;
     attenuation.w = 1;
+    boolean testEntities = scene.anyEntityIntersection(ray, state.scratch);
     while (attenuation.w > 0) {
       ray.o.scaleAdd(Ray.OFFSET, ray.d);
-      if (!PreviewRayTracer.nextIntersection(scene, ray)) {
+      if (!PreviewRayTracer.nextIntersection(scene, ray, state, testEntities)) {
         break;
       }
       double mult = 1 - ray.color.w;
@@ -37,7 +37,7 @@ public class PreviewRayTracer implements RayTracer {
       ray.setCurrentMaterial(Block.AIR, 0);
     }
     while (true) {
-      if (!nextIntersection(scene, ray)) {
+      if (!nextIntersection(scene, ray, state)) {
         if (mapIntersection(scene, ray)) {
           break;
         }
@@ -64,7 +64,7 @@ public class PreviewRayTracer implements RayTracer {
     Ray ray = state.ray;
     double occlusion = 1.0;
     while (true) {
-      if (!nextIntersection(scene, ray)) {
+      if (!nextIntersection(scene, ray, state)) {
         break;
       } else {
         occlusion *= (1 - ray.color.w);
@@ -78,7 +78,19 @@ public class PreviewRayTracer implements RayTracer {
    * Find next ray intersection.
    * @return Next intersection
    */
-  public static boolean nextIntersection(Scene scene, Ray ray) {
+  public static boolean nextIntersection(Scene scene, Ray ray, WorkerState state) {
+    return nextIntersection(scene, ray, state, true);
+  }
+
+  /**
+   * Find next ray intersection.
+   *
+   * @param testEntities {@code false} if the ray is known to not intersect
+   * any entity or actor
+   * @return Next intersection
+   */
+  public static boolean nextIntersection(Scene scene, Ray ray, WorkerState state,
+      boolean testEntities) {
     ray.setPrevMaterial(ray.getCurrentMaterial(), ray.getCurrentData());
     ray.t = Double.POSITIVE_INFINITY;
     boolean hit = false;
@@ -88,7 +100,7 @@ public class PreviewRayTracer implements RayTracer {
     if (scene.waterHeight > 0) {
       hit = waterIntersection(scene, ray) || hit;
     }
-    if (scene.intersect(ray)) {
+    if (scene.intersect(ray, state.scratch, testEntities)) {
       // Octree tracer handles updating distance.
       return true;
     }
@@ -28,14 +28,15 @@ import se.llbit.chunky.renderer.ResetReason;
 import se.llbit.chunky.renderer.WorkerState;
 import se.llbit.chunky.renderer.projection.ProjectionMode;
 import se.llbit.chunky.resources.BitmapImage;
+import se.llbit.chunky.world.BiomeGrid;
 import se.llbit.chunky.world.Biomes;
 import se.llbit.chunky.block.Block;
 import se.llbit.chunky.world.BlockData;
 import se.llbit.chunky.world.Chunk;
 import se.llbit.chunky.world.ChunkPosition;
 import se.llbit.chunky.world.ExtraMaterials;
-import se.llbit.chunky.world.Heightmap;
 import se.llbit.chunky.world.Material;
+import se.llbit.chunky.world.Region;
 import se.llbit.chunky.world.World;
 import se.llbit.chunky.world.WorldTexture;
 import se.llbit.chunky.entity.ArmorStand;
@@ -57,6 +58,8 @@ import se.llbit.log.Log;
 import se.llbit.math.BVH;
 import se.llbit.math.ColorUtil;
 import se.llbit.math.Octree;
+import se.llbit.math.OctreeFileFormat;
+import se.llbit.math.OctreePager;
 import se.llbit.math.QuickMath;
 import se.llbit.math.Ray;
 import se.llbit.math.Vector3;
@@ -69,8 +72,8 @@ import se.llbit.png.ITXT;
 import se.llbit.png.PngFileWriter;
 import se.llbit.tiff.TiffFileWriter;
 import se.llbit.util.JsonSerializable;
-import se.llbit.util.MCDownloader;
 import se.llbit.util.MinecraftPRNG;
+import se.llbit.util.ProfileCache;
 import se.llbit.util.TaskTracker;
 import se.llbit.util.ZipExport;
 
@@ -86,6 +89,7 @@ import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -93,7 +97,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
+import java.util.stream.IntStream;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -113,6 +119,15 @@ public class Scene implements JsonSerializable, Refreshable {
 
   protected static final double fSubSurface = 0.3;
 
+  /**
+   * Number of chunks per thread to finalize before writing the
+   * finalized block states to the octree.
+   */
+  private static final int FINALIZE_BATCH_SIZE = 16;
+
+  /** Number of chunks loaded between moving octree bricks to disk. */
+  private static final int PAGE_OUT_INTERVAL = 64;
+
   /** Minimum canvas width. */
   public static final int MIN_CANVAS_WIDTH = 20;
 
@@ -232,6 +247,24 @@ public class Scene implements JsonSerializable, Refreshable {
   protected double skyFogDensity = 1;
 
   protected boolean biomeColors = true;
+
+  /** Build an empty space skipping map for faster octree traversal. */
+  protected boolean emptySpaceSkipping = true;
+
+  /**
+   * Chunks further than this many chunks from the camera are loaded at
+   * reduced resolution. Zero disables level of detail.
+   */
+  protected int lodDistance = 0;
+
+  /** Radius, in blocks, of the box blur used to blend biome colors. */
+  protected int biomeBlurRadius = 1;
+
+  /**
+   * Octree subtrees at this level are paged out to disk while loading
+   * chunks, and paged in on demand. Zero disables paging.
+   */
+  protected int octreeBrickLevel = 0;
   protected boolean transparentSky = false;
   protected boolean renderActors = true;
   protected Collection<ChunkPosition> chunks = new ArrayList<>();
@@ -256,6 +289,9 @@ public class Scene implements JsonSerializable, Refreshable {
    */
   private Octree worldOctree;
 
+  /** The octree pager that this scene holds a reference to. */
+  private OctreePager octreePager = null;
+
   /**
    * Entities in the scene.
    */
@@ -281,11 +317,21 @@ public class Scene implements JsonSerializable, Refreshable {
   private BVH bvh = new BVH(Collections.emptyList());
   private BVH actorBvh = new BVH(Collections.emptyList());
 
+  /**
+   * Chunk timestamps and biomes from when the chunks were loaded, used to
+   * reload only the chunks that changed. This is {@code null} if the octree
+   * was not built from the world in this session.
+   */
+  private ChunkLoadState chunkLoadState = null;
+
   // Chunk loading buffers.
   private final byte[] blocks = new byte[Chunk.X_MAX * Chunk.Y_MAX * Chunk.Z_MAX];
   private final byte[] biomes = new byte[Chunk.X_MAX * Chunk.Z_MAX];
   private final byte[] data = new byte[(Chunk.X_MAX * Chunk.Y_MAX * Chunk.Z_MAX) / 2];
 
+  /** Octree voxel types for the chunk being loaded, in YZX order. */
+  private final int[] voxels = new int[Chunk.X_MAX * Chunk.Y_MAX * Chunk.Z_MAX];
+
   /**
    * Preview frame interlacing counter.
    */
@@ -389,7 +435,8 @@ public class Scene implements JsonSerializable, Refreshable {
 
     // The octree reference is overwritten to save time.
     // When the other scene is changed it must create a new octree.
-    worldOctree = other.worldOctree;
+    setWorldOctree(other.worldOctree);
+    chunkLoadState = other.chunkLoadState;
     entities = other.entities;
     actors = new LinkedList<>(other.actors); // Create a copy so that entity changes can be reset.
     profiles = other.profiles;
@@ -415,6 +462,10 @@ public class Scene implements JsonSerializable, Refreshable {
     waterColor.set(other.waterColor);
     fogColor.set(other.fogColor);
     biomeColors = other.biomeColors;
+    emptySpaceSkipping = other.emptySpaceSkipping;
+    lodDistance = other.lodDistance;
+    biomeBlurRadius = other.biomeBlurRadius;
+    octreeBrickLevel = other.octreeBrickLevel;
     sunEnabled = other.sunEnabled;
     emittersEnabled = other.emittersEnabled;
     emitterIntensity = other.emitterIntensity;
@@ -613,40 +664,82 @@ public class Scene implements JsonSerializable, Refreshable {
    * Find closest intersection between ray and scene.
    * This advances the ray by updating the ray origin if an intersection is found.
    *
+   * <p>This allocates a temporary ray for the octree traversal. Render workers
+   * should use {@link #intersect(Ray, Ray, boolean)} with a preallocated
+   * scratch ray instead.
+   *
    * @param ray ray to test against scene
    * @return <code>true</code> if an intersection was found
    */
   public boolean intersect(Ray ray) {
-    boolean hit = false;
-    if (bvh.closestIntersection(ray)) {
-      hit = true;
-    }
-    if (renderActors) {
-      if (actorBvh.closestIntersection(ray)) {
-        hit = true;
-      }
-    }
-    Ray oct = new Ray(ray);
-    oct.setCurrentMaterial(ray.getPrevMaterial(), ray.getPrevData());
-    if (worldOctree.intersect(this, oct) && oct.distance < ray.t) {
-      ray.distance += oct.distance;
-      ray.o.set(oct.o);
-      ray.n.set(oct.n);
-      ray.color.set(oct.color);
-      ray.setPrevMaterial(oct.getPrevMaterial(), oct.getPrevData());
-      ray.setCurrentMaterial(oct.getCurrentMaterial(), oct.getCurrentData());
-      updateOpacity(ray);
-      return true;
+    return intersect(ray, new Ray(), true);
+  }
+
+  /**
+   * Find closest intersection between ray and scene.
+   * This advances the ray by updating the ray origin if an intersection is found.
+   *
+   * <p>The octree is traced first, and the octree intersection distance is
+   * used to clip the entity and actor BVH traversals. The {@code ray.t} field
+   * should be the maximum intersection distance when calling this method.
+   *
+   * @param ray ray to test against scene
+   * @param scratch scratch ray used for the octree traversal
+   * @param testEntities {@code false} if the ray is known to not intersect
+   * the entity or actor BVHs, see {@link #anyEntityIntersection(Ray, Ray)}
+   * @return <code>true</code> if an intersection was found
+   */
+  public boolean intersect(Ray ray, Ray scratch, boolean testEntities) {
+    scratch.set(ray);
+    scratch.setCurrentMaterial(ray.getPrevMaterial(), ray.getPrevData());
+    boolean octreeHit = worldOctree.intersect(this, scratch) && scratch.distance < ray.t;
+    if (octreeHit) {
+      ray.t = scratch.distance;
+    }
+    if (testEntities) {
+      boolean hit = bvh.closestIntersection(ray);
+      if (renderActors) {
+        hit = actorBvh.closestIntersection(ray) || hit;
+      }
+      if (hit) {
+        // An entity was hit in front of the octree intersection.
+        ray.distance += ray.t;
+        ray.o.scaleAdd(ray.t, ray.d);
+        updateOpacity(ray);
+        return true;
+      }
     }
-    if (hit) {
-      ray.distance += ray.t;
-      ray.o.scaleAdd(ray.t, ray.d);
+    if (octreeHit) {
+      ray.distance += scratch.distance;
+      ray.o.set(scratch.o);
+      ray.n.set(scratch.n);
+      ray.color.set(scratch.color);
+      ray.setPrevMaterial(scratch.getPrevMaterial(), scratch.getPrevData());
+      ray.setCurrentMaterial(scratch.getCurrentMaterial(), scratch.getCurrentData());
       updateOpacity(ray);
       return true;
     }
     return false;
   }
 
+  /**
+   * Test if a ray intersects anything in the entity or actor BVHs, in any
+   * direction along the ray. This is cheaper than finding the closest
+   * intersection and is used to skip the BVHs for shadow rays that can not
+   * hit an entity.
+   *
+   * @param scratch scratch ray used for the test, the ray itself is not modified
+   * @return {@code true} if the ray may intersect an entity or actor
+   */
+  public boolean anyEntityIntersection(Ray ray, Ray scratch) {
+    scratch.set(ray);
+    scratch.t = Double.POSITIVE_INFINITY;
+    if (bvh.anyIntersection(scratch)) {
+      return true;
+    }
+    return renderActors && actorBvh.anyIntersection(scratch);
+  }
+
   public void updateOpacity(Ray ray) {
     if (ray.getCurrentMaterial().isWater() || (ray.getCurrentMaterial() == Block.AIR
         && ray.getPrevMaterial().isWater())) {
@@ -678,10 +771,229 @@ public class Scene implements JsonSerializable, Refreshable {
     }
     loadedWorld.setDimension(worldDimension);
     loadedWorld.reload();
-    loadChunks(progress, loadedWorld, chunks);
+    if (!reloadChangedChunks(progress)) {
+      loadChunks(progress, loadedWorld, chunks);
+    }
     refresh();
   }
 
+  /**
+   * Reload only the chunks that changed since they were loaded.
+   *
+   * <p>The changed chunks and their loaded neighbors are rewritten in a copy
+   * of the octree, because the render workers may still be using the current
+   * octree. Neighbors are rewritten because finalizing the border of a chunk
+   * depends on the blocks in adjacent chunks, and finalized blocks can not be
+   * finalized again. Biome colors are recomputed for the same chunks.
+   *
+   * @return {@code false} if the chunks can not be reloaded incrementally,
+   * and all chunks need to be loaded again
+   */
+  private boolean reloadChangedChunks(TaskTracker progress) {
+    ChunkLoadState state = chunkLoadState;
+    if (state == null || state.yClipMin != yClipMin || state.yClipMax != yClipMax
+        || state.waterHeight != waterHeight || state.lodDistance != lodDistance
+        || state.biomeBlurRadius != biomeBlurRadius
+        || (lodDistance > 0 && state.lodCenter != chunkPosition(camera.getPosition()))
+        || !state.timestamps.keySet().containsAll(chunks)) {
+      return false;
+    }
+
+    Set<ChunkPosition> changed = new HashSet<>();
+    try (TaskTracker.Task task = progress.task("Finding changed chunks", 1)) {
+      Set<ChunkPosition> regions = new HashSet<>();
+      for (ChunkPosition cp : chunks) {
+        regions.add(cp.getRegionPosition());
+      }
+      for (ChunkPosition region : regions) {
+        loadedWorld.getRegion(region).parse();
+      }
+      for (ChunkPosition cp : chunks) {
+        Region region = loadedWorld.getRegion(cp.getRegionPosition());
+        if (region.chunkChangedSince(cp, state.timestamps.get(cp))) {
+          changed.add(cp);
+        }
+      }
+      task.update(1);
+    }
+
+    if (changed.size() > chunks.size() / 2) {
+      // It is faster to load all chunks again.
+      return false;
+    }
+    if (changed.isEmpty()) {
+      Log.info("No chunks changed since they were loaded");
+      return true;
+    }
+
+    Set<ChunkPosition> chunkSet = new HashSet<>(chunks);
+    Set<ChunkPosition> rewrite = new HashSet<>();
+    for (ChunkPosition cp : changed) {
+      for (int dz = -1; dz <= 1; ++dz) {
+        for (int dx = -1; dx <= 1; ++dx) {
+          ChunkPosition neighbor = ChunkPosition.get(cp.x + dx, cp.z + dz);
+          if (chunkSet.contains(neighbor)) {
+            rewrite.add(neighbor);
+          }
+        }
+      }
+    }
+
+    setWorldOctree(new Octree(worldOctree));
+    grassTexture = new WorldTexture(grassTexture);
+    foliageTexture = new WorldTexture(foliageTexture);
+
+    // Remove entities from the changed chunks. They are added again when
+    // the chunks are reloaded.
+    Collection<Entity> keptEntities = new LinkedList<>();
+    for (Entity entity : entities) {
+      if (!changed.contains(chunkPosition(entity.position))) {
+        keptEntities.add(entity);
+      }
+    }
+    entities = keptEntities;
+    Collection<Entity> keptActors = new LinkedList<>();
+    for (Entity actor : actors) {
+      if (!(actor instanceof ArmorStand) || !changed.contains(chunkPosition(actor.position))) {
+        keptActors.add(actor);
+      }
+    }
+    actors = keptActors;
+
+    int yMin = Math.max(0, yClipMin);
+    int yMax = Math.min(256, yClipMax);
+
+    try (TaskTracker.Task task = progress.task("Reloading changed chunks")) {
+      int done = 1;
+      int target = rewrite.size();
+      for (ChunkPosition cp : rewrite) {
+        task.update(target, done);
+        done += 1;
+
+        Collection<CompoundTag> tileEntities = new LinkedList<>();
+        Collection<CompoundTag> chunkEntities = new LinkedList<>();
+        loadedWorld.getChunk(cp).getBlockData(blocks, data, biomes, tileEntities, chunkEntities);
+        state.timestamps.put(cp,
+            loadedWorld.getRegion(cp.getRegionPosition()).getChunkTimestamp(cp));
+        clearChunk(cp);
+        loadChunk(cp, tileEntities, chunkEntities, state, yMin, yMax,
+            changed.contains(cp));
+      }
+    }
+
+    try (TaskTracker.Task task = progress.task("Finalizing octree")) {
+      finalizeChunks(task, new ArrayList<>(rewrite), state);
+    }
+
+    // The biome colors of the chunks within the blur radius of a changed
+    // chunk may have changed.
+    Set<ChunkPosition> blend = new HashSet<>();
+    int blendRadius = (state.biomeBlurRadius + 15) / 16;
+    for (ChunkPosition cp : changed) {
+      for (int dz = -blendRadius; dz <= blendRadius; ++dz) {
+        for (int dx = -blendRadius; dx <= blendRadius; ++dx) {
+          ChunkPosition neighbor = ChunkPosition.get(cp.x + dx, cp.z + dz);
+          if (chunkSet.contains(neighbor)) {
+            blend.add(neighbor);
+          }
+        }
+      }
+    }
+    blendBiomeColors(progress, state, blend);
+
+    deduplicateOctree(progress);
+
+    if (emptySpaceSkipping) {
+      try (TaskTracker.Task task = progress.task("Building empty space map", 1)) {
+        worldOctree.buildEmptySpaceMap();
+        task.update(1);
+      }
+    }
+
+    buildBvh();
+    buildActorBvh();
+    Log.info(String.format("Reloaded %d changed chunks", changed.size()));
+    return true;
+  }
+
+  /**
+   * Share identical subtrees in the octree to reduce memory use.
+   */
+  private void deduplicateOctree(TaskTracker progress) {
+    try (TaskTracker.Task task = progress.task("Deduplicating octree", 1)) {
+      int nodes = worldOctree.deduplicate();
+      Log.info(String.format("Deduplicated octree: %d nodes", nodes));
+      task.update(1);
+    }
+  }
+
+  /**
+   * Move octree bricks to disk, if octree paging is enabled. The octree is
+   * deduplicated first, so that identical bricks are stored once.
+   */
+  private void pageOutOctree() {
+    if (octreeBrickLevel > 0) {
+      worldOctree.deduplicate();
+      try {
+        OctreePager pager = worldOctree.getPager();
+        if (pager == null) {
+          pager = new OctreePager(octreeBrickLevel,
+              PersistentSettings.getOctreeCacheSize() * (1L << 20));
+        }
+        worldOctree.pageOut(pager);
+      } catch (IOException e) {
+        Log.warn("Failed to page out octree bricks", e);
+      }
+      // The octree may have moved to a new pager.
+      updatePagerReference();
+    }
+  }
+
+  /**
+   * Replace the octree. Each scene holds a reference to the pager of its
+   * octree, so the brick file is deleted when no scene uses it any more.
+   */
+  private void setWorldOctree(Octree octree) {
+    worldOctree = octree;
+    updatePagerReference();
+  }
+
+  private void updatePagerReference() {
+    OctreePager pager = worldOctree.getPager();
+    if (pager != octreePager) {
+      if (pager != null) {
+        pager.acquire();
+      }
+      if (octreePager != null) {
+        octreePager.release();
+      }
+      octreePager = pager;
+    }
+  }
+
+  private static ChunkPosition chunkPosition(Vector3 position) {
+    return ChunkPosition.get((int) QuickMath.floor(position.x) >> 4,
+        (int) QuickMath.floor(position.z) >> 4);
+  }
+
+  /**
+   * Reset the voxels of a chunk to the state before any chunks were loaded.
+   */
+  private void clearChunk(ChunkPosition cp) {
+    int x0 = cp.x * 16 - origin.x;
+    int z0 = cp.z * 16 - origin.z;
+    int y0 = -origin.y;
+    int y1 = Chunk.Y_MAX - origin.y;
+    if (waterHeight > 0) {
+      int waterTop = -origin.y + waterHeight - 1;
+      worldOctree.fill(Block.WATER_ID | (1 << WaterModel.FULL_BLOCK),
+          x0, y0, z0, x0 + 16, waterTop, z0 + 16);
+      worldOctree.fill(Block.WATER_ID, x0, waterTop, z0, x0 + 16, waterTop + 1, z0 + 16);
+      y0 = waterTop + 1;
+    }
+    worldOctree.fill(0, x0, y0, z0, x0 + 16, y1, z0 + 16);
+  }
+
   /**
    * Load chunks into the octree.
    *
@@ -713,23 +1025,16 @@ public class Scene implements JsonSerializable, Refreshable {
       int requiredDepth = calculateOctreeOrigin(chunksToLoad);
 
       // Create new octree to fit all chunks.
-      worldOctree = new Octree(requiredDepth);
+      setWorldOctree(new Octree(requiredDepth));
 
       if (waterHeight > 0) {
         // Water world mode enabled, fill in water in empty blocks.
         // The water blocks are replaced later when the world chunks are loaded.
-        for (int x = 0; x < (1 << worldOctree.depth); ++x) {
-          for (int z = 0; z < (1 << worldOctree.depth); ++z) {
-            for (int y = -origin.y; y < (-origin.y) + waterHeight - 1; ++y) {
-              worldOctree.set(Block.WATER_ID | (1 << WaterModel.FULL_BLOCK), x, y, z);
-            }
-          }
-        }
-        for (int x = 0; x < (1 << worldOctree.depth); ++x) {
-          for (int z = 0; z < (1 << worldOctree.depth); ++z) {
-            worldOctree.set(Block.WATER_ID, x, (-origin.y) + waterHeight - 1, z);
-          }
-        }
+        int size = 1 << worldOctree.depth;
+        int waterTop = -origin.y + waterHeight - 1;
+        worldOctree.fill(Block.WATER_ID | (1 << WaterModel.FULL_BLOCK),
+            0, -origin.y, 0, size, waterTop, size);
+        worldOctree.fill(Block.WATER_ID, 0, waterTop, 0, size, waterTop + 1, size);
       }
 
       // Parse the regions first - force chunk lists to be populated!
@@ -743,6 +1048,8 @@ public class Scene implements JsonSerializable, Refreshable {
       }
     }
 
+    Map<PlayerEntity, CompletableFuture<ProfileCache.Profile>> profileFetches = new HashMap<>();
+
     try (TaskTracker.Task task = progress.task("Loading entities")) {
       entities = new LinkedList<>();
       if (actors.isEmpty() && PersistentSettings.getLoadPlayers()) {
@@ -751,34 +1058,58 @@ public class Scene implements JsonSerializable, Refreshable {
         actors = new LinkedList<>();
         profiles = new HashMap<>();
         Collection<PlayerEntity> players = world.playerEntities();
+        ProfileCache profileCache = ProfileCache.getDefault();
         int done = 1;
         int target = players.size();
         for (PlayerEntity entity : players) {
           entity.randomPose();
           task.update(target, done);
           done += 1;
-          JsonObject profile;
-          try {
-            profile = MCDownloader.fetchProfile(entity.uuid);
-          } catch (IOException e) {
-            Log.error(e);
-            profile = new JsonObject();
-          }
-          profiles.put(entity, profile);
+          // Use the cached profile for now. Expired profiles are fetched in
+          // the background while the chunks are loaded.
+          applyProfile(entity, profileCache.getCached(entity.uuid));
+          profileFetches.put(entity, fetchProfile(profileCache, entity));
           actors.add(entity);
         }
+      } else if (PersistentSettings.getLoadPlayers()) {
+        // Keep the existing actors, but refresh the profiles of players that
+        // still use the skin from their profile. This applies profiles that
+        // were fetched after the chunks were last loaded.
+        ProfileCache profileCache = ProfileCache.getDefault();
+        for (Entity actor : actors) {
+          if (actor instanceof PlayerEntity) {
+            PlayerEntity entity = (PlayerEntity) actor;
+            ProfileCache.Profile cached = profileCache.getCached(entity.uuid);
+            if (cached != null && (entity.skin.isEmpty()
+                || cached.skin != null && entity.skin.equals(cached.skin.getAbsolutePath()))) {
+              applyProfile(entity, cached);
+              profileFetches.put(entity, fetchProfile(profileCache, entity));
+            }
+          }
+        }
       }
     }
 
-    Heightmap biomeIdMap = new Heightmap();
+    ChunkLoadState loadState = new ChunkLoadState(yClipMin, yClipMax, waterHeight, lodDistance,
+        chunkPosition(camera.getPosition()), biomeBlurRadius, chunksToLoad);
 
     int yMin = Math.max(0, yClipMin);
     int yMax = Math.min(256, yClipMax);
 
+    List<ChunkPosition> loadOrder = new ArrayList<>(chunksToLoad);
+    if (octreeBrickLevel > 0) {
+      // Load the chunks of each octree brick together, so that the bricks
+      // are complete when they are paged out.
+      int brickLevel = octreeBrickLevel;
+      loadOrder.sort(Comparator
+          .comparingInt((ChunkPosition cp) -> (cp.x * 16 - origin.x) >> brickLevel)
+          .thenComparingInt(cp -> (cp.z * 16 - origin.z) >> brickLevel));
+    }
+
     try (TaskTracker.Task task = progress.task("Loading chunks")) {
       int done = 1;
-      int target = chunksToLoad.size();
-      for (ChunkPosition cp : chunksToLoad) {
+      int target = loadOrder.size();
+      for (ChunkPosition cp : loadOrder) {
         task.update(target, done);
         done += 1;
 
@@ -791,303 +1122,474 @@ public class Scene implements JsonSerializable, Refreshable {
         Collection<CompoundTag> tileEntities = new LinkedList<>();
         Collection<CompoundTag> chunkEntities = new LinkedList<>();
         world.getChunk(cp).getBlockData(blocks, data, biomes, tileEntities, chunkEntities);
+        loadState.timestamps.put(cp, world.getRegion(cp.getRegionPosition()).getChunkTimestamp(cp));
         numChunks += 1;
 
-        int wx0 = cp.x * 16; // Start of this chunk in world coordinates.
-        int wz0 = cp.z * 16;
-        for (int cz = 0; cz < 16; ++cz) {
-          int wz = cz + wz0;
-          for (int cx = 0; cx < 16; ++cx) {
-            int wx = cx + wx0;
-            int biomeId = 0xFF & biomes[Chunk.chunkXZIndex(cx, cz)];
-            biomeIdMap.set(biomeId, wx, wz);
-          }
+        loadChunk(cp, tileEntities, chunkEntities, loadState, yMin, yMax, true);
+        if (numChunks % PAGE_OUT_INTERVAL == 0) {
+          pageOutOctree();
         }
+      }
+    }
 
-        // Load entities from the chunk:
-        for (CompoundTag tag : chunkEntities) {
-          Tag posTag = tag.get("Pos");
-          if (posTag.isList()) {
-            ListTag pos = posTag.asList();
-            double x = pos.get(0).doubleValue();
-            double y = pos.get(1).doubleValue();
-            double z = pos.get(2).doubleValue();
-
-            if (y >= yClipMin && y <= yClipMax) {
-              String id = tag.get("id").stringValue("");
-              if (id.equals("minecraft:painting") || id.equals("Painting")) {
-                // Before 1.12 paintings had id=Painting.
-                // After 1.12 paintings had id=minecraft:painting.
-                float yaw = tag.get("Rotation").get(0).floatValue();
-                entities.add(
-                    new PaintingEntity(new Vector3(x, y, z), tag.get("Motive").stringValue(), yaw));
-              } else if (id.equals("minecraft:armor_stand")) {
-                actors.add(new ArmorStand(new Vector3(x, y, z), tag));
-              }
+    grassTexture = new WorldTexture();
+    foliageTexture = new WorldTexture();
+
+    try (TaskTracker.Task task = progress.task("Finalizing octree")) {
+      finalizeChunks(task, loadOrder, loadState);
+    }
+
+    blendBiomeColors(progress, loadState, loadOrder);
+
+    // Profiles that are still being fetched are applied the next time
+    // chunks are loaded.
+    profileFetches.forEach((entity, fetch) -> {
+      if (fetch.isDone() && !fetch.isCompletedExceptionally()) {
+        applyProfile(entity, fetch.join());
+      }
+    });
+
+    deduplicateOctree(progress);
+
+    if (emptySpaceSkipping) {
+      try (TaskTracker.Task task = progress.task("Building empty space map", 1)) {
+        worldOctree.buildEmptySpaceMap();
+        task.update(1);
+      }
+    }
+
+    chunks = loadedChunks;
+    chunkLoadState = loadState;
+    camera.setWorldSize(1 << worldOctree.depth);
+    buildBvh();
+    buildActorBvh();
+    Log.info(String.format("Loaded %d chunks", numChunks));
+  }
+
+  /**
+   * Write the voxels of a chunk into the octree. The block data for the chunk
+   * must have been loaded into the block, data and biome buffers.
+   *
+   * @param loadEntities {@code true} if entities from the chunk should be
+   * added to the scene
+   */
+  private void loadChunk(ChunkPosition cp, Collection<CompoundTag> tileEntities,
+      Collection<CompoundTag> chunkEntities, ChunkLoadState state, int yMin, int yMax,
+      boolean loadEntities) {
+    state.biomeGrid.setChunk(cp, biomes);
+    int wx0 = cp.x * 16; // Start of this chunk in world coordinates.
+    int wz0 = cp.z * 16;
+
+    if (loadEntities) {
+      // Load entities from the chunk:
+      for (CompoundTag tag : chunkEntities) {
+        Tag posTag = tag.get("Pos");
+        if (posTag.isList()) {
+          ListTag pos = posTag.asList();
+          double x = pos.get(0).doubleValue();
+          double y = pos.get(1).doubleValue();
+          double z = pos.get(2).doubleValue();
+
+          if (y >= yClipMin && y <= yClipMax) {
+            String id = tag.get("id").stringValue("");
+            if (id.equals("minecraft:painting") || id.equals("Painting")) {
+              // Before 1.12 paintings had id=Painting.
+              // After 1.12 paintings had id=minecraft:painting.
+              float yaw = tag.get("Rotation").get(0).floatValue();
+              entities.add(
+                  new PaintingEntity(new Vector3(x, y, z), tag.get("Motive").stringValue(), yaw));
+            } else if (id.equals("minecraft:armor_stand")) {
+              actors.add(new ArmorStand(new Vector3(x, y, z), tag));
             }
           }
         }
+      }
+    }
 
-        for (int cy = yMin; cy < yMax; ++cy) {
-          for (int cz = 0; cz < 16; ++cz) {
-            int z = cz + cp.z * 16 - origin.z;
-            for (int cx = 0; cx < 16; ++cx) {
-              int x = cx + cp.x * 16 - origin.x;
-              int index = Chunk.chunkIndex(cx, cy, cz);
-              int blockId = blocks[index];
-              Block block = Block.get(blockId);
-
-              if (cx > 0 && cx < 15 && cz > 0 && cz < 15 && cy > 0 && cy < 255 &&
-                  blockId != Block.STONE_ID && block.opaque) {
-
-                // Set obscured blocks to stone. This makes adjacent obscured
-                // blocks be able to be merged into larger octree nodes
-                // even if they had different block types originally.
-                if (Block.get(blocks[index - 1]).opaque &&
-                    Block.get(blocks[index + 1]).opaque &&
-                    Block.get(blocks[index - Chunk.X_MAX]).opaque &&
-                    Block.get(blocks[index + Chunk.X_MAX]).opaque &&
-                    Block.get(blocks[index - Chunk.X_MAX * Chunk.Z_MAX]).opaque &&
-                    Block.get(blocks[index + Chunk.X_MAX * Chunk.Z_MAX]).opaque) {
-                  worldOctree.set(Block.STONE_ID, x, cy - origin.y, z);
-                  continue;
+    int lod = state.lodLevel(cp);
+    if (lod > 0) {
+      loadChunkVoxelsLod(cp, yMin, yMax, lod);
+    } else {
+      loadChunkVoxels(cp, yMin, yMax);
+    }
+
+    // Block entities are also called "tile entities". These are extra bits of metadata
+    // about certain blocks or entities.
+    // Block entities are loaded after the base block data so that metadata can be updated.
+    for (CompoundTag entityTag : tileEntities) {
+      int y = entityTag.get("y").intValue(0);
+      if (y >= yClipMin && y <= yClipMax) {
+        int x = entityTag.get("x").intValue(0) - wx0; // Chunk-local coordinates.
+        int z = entityTag.get("z").intValue(0) - wz0;
+        int index = Chunk.chunkIndex(x, y, z);
+        int block = 0xFF & blocks[index];
+        if (block == Block.BED_ID ? lod > 0 : !loadEntities) {
+          // Bed colors are only stored in full resolution chunks.
+          continue;
+        }
+        // Metadata is the old block data (to be replaced in future Minecraft versions?).
+        int metadata = 0xFF & data[index / 2];
+        metadata >>= (x % 2) * 4;
+        metadata &= 0xF;
+        Vector3 position = new Vector3(x + wx0, y, z + wz0);
+        switch (block) {
+          case Block.WALLSIGN_ID:
+            entities.add(new WallSignEntity(position, entityTag, metadata));
+            break;
+          case Block.SIGNPOST_ID:
+            entities.add(new SignEntity(position, entityTag, metadata));
+            break;
+          case Block.HEAD_ID:
+            entities.add(new SkullEntity(position, entityTag, metadata));
+            break;
+          case Block.BED_ID: {
+            // Set color metadata for the bed.
+            int ox = x + wx0 - origin.x;
+            int oy = y - origin.y;
+            int oz = z + wz0 - origin.z;
+            int voxel = block
+                | (metadata << BlockData.OFFSET)
+                | (entityTag.get("color").intValue(0) << BlockData.BED_COLOR);
+            worldOctree.set(voxel, ox, oy, oz);
+            break;
+          }
+          case Block.STANDING_BANNER_ID: {
+            entities.add(new StandingBanner(position, metadata, entityTag));
+            break;
+          }
+          case Block.WALL_BANNER_ID: {
+            entities.add(new WallBanner(position, metadata, entityTag));
+            break;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Write the voxels of a chunk into the octree at full resolution.
+   */
+  private void loadChunkVoxels(ChunkPosition cp, int yMin, int yMax) {
+    for (int cy = yMin; cy < yMax; ++cy) {
+      for (int cz = 0; cz < 16; ++cz) {
+        for (int cx = 0; cx < 16; ++cx) {
+          int index = Chunk.chunkIndex(cx, cy, cz);
+          int blockId = blocks[index];
+          Block block = Block.get(blockId);
+
+          if (cx > 0 && cx < 15 && cz > 0 && cz < 15 && cy > 0 && cy < 255 &&
+              blockId != Block.STONE_ID && block.opaque) {
+
+            // Set obscured blocks to stone. This makes adjacent obscured
+            // blocks be able to be merged into larger octree nodes
+            // even if they had different block types originally.
+            if (Block.get(blocks[index - 1]).opaque &&
+                Block.get(blocks[index + 1]).opaque &&
+                Block.get(blocks[index - Chunk.X_MAX]).opaque &&
+                Block.get(blocks[index + Chunk.X_MAX]).opaque &&
+                Block.get(blocks[index - Chunk.X_MAX * Chunk.Z_MAX]).opaque &&
+                Block.get(blocks[index + Chunk.X_MAX * Chunk.Z_MAX]).opaque) {
+              voxels[((cy - yMin) * 16 + cz) * 16 + cx] = Block.STONE_ID;
+              continue;
+            }
+          }
+
+          int metadata = 0xFF & data[index / 2];
+          metadata >>= (cx % 2) * 4;
+          metadata &= 0xF;
+
+          int type = block.id;
+          // Store metadata.
+          switch (block.id) {
+            case Block.VINES_ID:
+              if (cy < 255) {
+                // Is this the top vine block?
+                index = Chunk.chunkIndex(cx, cy + 1, cz);
+                Block above = Block.get(blocks[index]);
+                if (above.solid) {
+                  type = type | (1 << BlockData.VINE_TOP);
                 }
               }
-
-              int metadata = 0xFF & data[index / 2];
-              metadata >>= (cx % 2) * 4;
-              metadata &= 0xF;
-
-              int type = block.id;
-              // Store metadata.
-              switch (block.id) {
-                case Block.VINES_ID:
-                  if (cy < 255) {
-                    // Is this the top vine block?
-                    index = Chunk.chunkIndex(cx, cy + 1, cz);
-                    Block above = Block.get(blocks[index]);
-                    if (above.solid) {
-                      type = type | (1 << BlockData.VINE_TOP);
-                    }
-                  }
-                  break;
-
-                case Block.STATIONARYWATER_ID:
-                  type = Block.WATER_ID;
-                case Block.WATER_ID:
-                  if (cy < 255) {
-                    // Is there water above?
-                    index = Chunk.chunkIndex(cx, cy + 1, cz);
-                    Block above = Block.get(blocks[index]);
-                    if (above.isWater()) {
-                      type |= (1 << WaterModel.FULL_BLOCK);
-                    } else if (above == Block.get(Block.LILY_PAD_ID)) {
-                      type |= (1 << BlockData.LILY_PAD);
-                      long wx = cp.x * 16L + cx;
-                      long wy = cy + 1;
-                      long wz = cp.z * 16L + cz;
-                      long pr = MinecraftPRNG.rand(wx, wy, wz);
-                      int dir = 3 & (int) (pr >> 16);
-                      type |= (dir << BlockData.LILY_PAD_ROTATION);
-                    }
-                  }
-                  break;
-
-                case Block.FIRE_ID: {
+              break;
+
+            case Block.STATIONARYWATER_ID:
+              type = Block.WATER_ID;
+            case Block.WATER_ID:
+              if (cy < 255) {
+                // Is there water above?
+                index = Chunk.chunkIndex(cx, cy + 1, cz);
+                Block above = Block.get(blocks[index]);
+                if (above.isWater()) {
+                  type |= (1 << WaterModel.FULL_BLOCK);
+                } else if (above == Block.get(Block.LILY_PAD_ID)) {
+                  type |= (1 << BlockData.LILY_PAD);
                   long wx = cp.x * 16L + cx;
                   long wy = cy + 1;
                   long wz = cp.z * 16L + cz;
                   long pr = MinecraftPRNG.rand(wx, wy, wz);
-                  int dir = 0xF & (int) (pr >> 16);
+                  int dir = 3 & (int) (pr >> 16);
                   type |= (dir << BlockData.LILY_PAD_ROTATION);
                 }
-                break;
-
-                case Block.STATIONARYLAVA_ID:
-                  type = Block.LAVA_ID;
-                case Block.LAVA_ID:
-                  if (cy < 255) {
-                    // Is there lava above?
-                    index = Chunk.chunkIndex(cx, cy + 1, cz);
-                    Block above = Block.get(blocks[index]);
-                    if (above.isLava()) {
-                      type = type | (1 << WaterModel.FULL_BLOCK);
-                    }
-                  }
-                  break;
-
-                case Block.GRASS_ID:
-                  if (cy < 255) {
-                    // Is it snow covered?
-                    index = Chunk.chunkIndex(cx, cy + 1, cz);
-                    int blockAbove = 0xFF & blocks[index];
-                    if (blockAbove == Block.SNOW_ID) {
-                      type = type | (1 << 8);// 9th bit is the snow bit
-                    }
-                  }
-                  // Fallthrough!
-
-                case Block.WOODENDOOR_ID:
-                case Block.IRONDOOR_ID:
-                case Block.SPRUCEDOOR_ID:
-                case Block.BIRCHDOOR_ID:
-                case Block.JUNGLEDOOR_ID:
-                case Block.ACACIADOOR_ID:
-                case Block.DARKOAKDOOR_ID: {
-                  int top = 0;
-                  int bottom = 0;
-                  if ((metadata & 8) != 0) {
-                    // This is the top part of the door.
-                    top = metadata;
-                    if (cy > 0) {
-                      bottom = 0xFF & data[Chunk.chunkIndex(cx, cy - 1, cz) / 2];
-                      bottom >>= (cx % 2) * 4; // Extract metadata.
-                      bottom &= 0xF;
-                    }
-                  } else {
-                    // This is the bottom part of the door.
-                    bottom = metadata;
-                    if (cy < 255) {
-                      top = 0xFF & data[Chunk.chunkIndex(cx, cy + 1, cz) / 2];
-                      top >>= (cx % 2) * 4; // Extract metadata.
-                      top &= 0xF;
-                    }
-                  }
-                  type |= (top << BlockData.DOOR_TOP);
-                  type |= (bottom << BlockData.DOOR_BOTTOM);
-                  break;
+              }
+              break;
+
+            case Block.FIRE_ID: {
+              long wx = cp.x * 16L + cx;
+              long wy = cy + 1;
+              long wz = cp.z * 16L + cz;
+              long pr = MinecraftPRNG.rand(wx, wy, wz);
+              int dir = 0xF & (int) (pr >> 16);
+              type |= (dir << BlockData.LILY_PAD_ROTATION);
+            }
+            break;
+
+            case Block.STATIONARYLAVA_ID:
+              type = Block.LAVA_ID;
+            case Block.LAVA_ID:
+              if (cy < 255) {
+                // Is there lava above?
+                index = Chunk.chunkIndex(cx, cy + 1, cz);
+                Block above = Block.get(blocks[index]);
+                if (above.isLava()) {
+                  type = type | (1 << WaterModel.FULL_BLOCK);
+                }
+              }
+              break;
+
+            case Block.GRASS_ID:
+              if (cy < 255) {
+                // Is it snow covered?
+                index = Chunk.chunkIndex(cx, cy + 1, cz);
+                int blockAbove = 0xFF & blocks[index];
+                if (blockAbove == Block.SNOW_ID) {
+                  type = type | (1 << 8);// 9th bit is the snow bit
                 }
-
-                case Block.BED_ID:
-                  // Set default bed color (for pre-1.12 worlds).
-                  type |= BlockData.COLOR_RED << BlockData.BED_COLOR;
-                  break;
-
-                default:
-                  break;
               }
-              type |= metadata << 8;
-              if (block.invisible) {
-                type = 0;
+              // Fallthrough!
+
+            case Block.WOODENDOOR_ID:
+            case Block.IRONDOOR_ID:
+            case Block.SPRUCEDOOR_ID:
+            case Block.BIRCHDOOR_ID:
+            case Block.JUNGLEDOOR_ID:
+            case Block.ACACIADOOR_ID:
+            case Block.DARKOAKDOOR_ID: {
+              int top = 0;
+              int bottom = 0;
+              if ((metadata & 8) != 0) {
+                // This is the top part of the door.
+                top = metadata;
+                if (cy > 0) {
+                  bottom = 0xFF & data[Chunk.chunkIndex(cx, cy - 1, cz) / 2];
+                  bottom >>= (cx % 2) * 4; // Extract metadata.
+                  bottom &= 0xF;
+                }
+              } else {
+                // This is the bottom part of the door.
+                bottom = metadata;
+                if (cy < 255) {
+                  top = 0xFF & data[Chunk.chunkIndex(cx, cy + 1, cz) / 2];
+                  top >>= (cx % 2) * 4; // Extract metadata.
+                  top &= 0xF;
+                }
               }
-              worldOctree.set(type,
-                  cx + cp.x * 16 - origin.x,
-                  cy - origin.y,
-                  cz + cp.z * 16 - origin.z);
+              type |= (top << BlockData.DOOR_TOP);
+              type |= (bottom << BlockData.DOOR_BOTTOM);
+              break;
             }
+
+            case Block.BED_ID:
+              // Set default bed color (for pre-1.12 worlds).
+              type |= BlockData.COLOR_RED << BlockData.BED_COLOR;
+              break;
+
+            default:
+              break;
+          }
+          type |= metadata << 8;
+          if (block.invisible) {
+            type = 0;
           }
+          voxels[((cy - yMin) * 16 + cz) * 16 + cx] = type;
         }
-
-        // Block entities are also called "tile entities". These are extra bits of metadata
-        // about certain blocks or entities.
-        // Block entities are loaded after the base block data so that metadata can be updated.
-        for (CompoundTag entityTag : tileEntities) {
-          int y = entityTag.get("y").intValue(0);
-          if (y >= yClipMin && y <= yClipMax) {
-            int x = entityTag.get("x").intValue(0) - wx0; // Chunk-local coordinates.
-            int z = entityTag.get("z").intValue(0) - wz0;
-            int index = Chunk.chunkIndex(x, y, z);
-            int block = 0xFF & blocks[index];
-            // Metadata is the old block data (to be replaced in future Minecraft versions?).
-            int metadata = 0xFF & data[index / 2];
-            metadata >>= (x % 2) * 4;
-            metadata &= 0xF;
-            Vector3 position = new Vector3(x + wx0, y, z + wz0);
-            switch (block) {
-              case Block.WALLSIGN_ID:
-                entities.add(new WallSignEntity(position, entityTag, metadata));
-                break;
-              case Block.SIGNPOST_ID:
-                entities.add(new SignEntity(position, entityTag, metadata));
-                break;
-              case Block.HEAD_ID:
-                entities.add(new SkullEntity(position, entityTag, metadata));
-                break;
-              case Block.BED_ID: {
-                // Set color metadata for the bed.
-                int ox = x + wx0 - origin.x;
-                int oy = y - origin.y;
-                int oz = z + wz0 - origin.z;
-                int voxel = block
-                    | (metadata << BlockData.OFFSET)
-                    | (entityTag.get("color").intValue(0) << BlockData.BED_COLOR);
-                worldOctree.set(voxel, ox, oy, oz);
-                break;
-              }
-              case Block.STANDING_BANNER_ID: {
-                entities.add(new StandingBanner(position, metadata, entityTag));
-                break;
+      }
+    }
+    if (yMax > yMin) {
+      worldOctree.insert(voxels, cp.x * 16 - origin.x, yMin - origin.y, cp.z * 16 - origin.z,
+          16, yMax - yMin, 16);
+    }
+  }
+
+  /**
+   * Write the voxels of a distant chunk into the octree at reduced resolution.
+   * Each cell of 2^lod blocks per side is filled with the most common
+   * visible block in the cell, or air if less than half of the cell is
+   * filled by visible blocks. Cells are clipped to the loaded Y range.
+   */
+  private void loadChunkVoxelsLod(ChunkPosition cp, int yMin, int yMax, int lod) {
+    int size = 1 << lod;
+    int[] types = new int[size * size * size];
+    int[] counts = new int[size * size * size];
+    for (int y0 = yMin & -size; y0 < yMax; y0 += size) {
+      int cellMin = Math.max(y0, yMin);
+      int cellMax = Math.min(y0 + size, yMax);
+      int volume = (cellMax - cellMin) * size * size;
+      for (int z0 = 0; z0 < 16; z0 += size) {
+        for (int x0 = 0; x0 < 16; x0 += size) {
+          int numTypes = 0;
+          int visible = 0;
+          for (int cy = cellMin; cy < cellMax; ++cy) {
+            for (int cz = z0; cz < z0 + size; ++cz) {
+              for (int cx = x0; cx < x0 + size; ++cx) {
+                int index = Chunk.chunkIndex(cx, cy, cz);
+                Block block = Block.get(blocks[index]);
+                if (block.invisible) {
+                  continue;
+                }
+                int metadata = 0xF & (data[index / 2] >> ((cx % 2) * 4));
+                int type = block.id | (metadata << BlockData.OFFSET);
+                if (block.isWater()) {
+                  // Full water blocks are not modified by the octree finalizer.
+                  type = Block.WATER_ID | (1 << WaterModel.FULL_BLOCK);
+                } else if (block.isLava()) {
+                  type = Block.LAVA_ID | (1 << WaterModel.FULL_BLOCK);
+                }
+                int i = 0;
+                while (i < numTypes && types[i] != type) {
+                  i += 1;
+                }
+                if (i == numTypes) {
+                  types[i] = type;
+                  counts[i] = 0;
+                  numTypes += 1;
+                }
+                counts[i] += 1;
+                visible += 1;
               }
-              case Block.WALL_BANNER_ID: {
-                entities.add(new WallBanner(position, metadata, entityTag));
-                break;
+            }
+          }
+          int type = 0;
+          if (visible * 2 >= volume) {
+            int best = 0;
+            for (int i = 1; i < numTypes; ++i) {
+              if (counts[i] > counts[best]) {
+                best = i;
               }
             }
+            type = types[best];
           }
+          // The cell is not aligned to the octree nodes if the origin is
+          // not, so it is filled as a box rather than set as a single node.
+          int x = x0 + cp.x * 16 - origin.x;
+          int z = z0 + cp.z * 16 - origin.z;
+          worldOctree.fill(type, x, cellMin - origin.y, z, x + size, cellMax - origin.y, z + size);
         }
       }
     }
+  }
 
-    grassTexture = new WorldTexture();
-    foliageTexture = new WorldTexture();
+  /**
+   * Finalize the octree for the given chunks.
+   */
+  private void finalizeChunks(TaskTracker.Task task, List<ChunkPosition> chunkList,
+      ChunkLoadState state) {
+    // Chunks are finalized in parallel batches. Finalization only reads
+    // from the octree, so the buffered results of a batch are written to
+    // the octree after all chunks in the batch are done.
+    int batchSize = FINALIZE_BATCH_SIZE * Runtime.getRuntime().availableProcessors();
+    FinalizedChunk[] batch = new FinalizedChunk[batchSize];
+    int target = chunkList.size();
+    for (int start = 0; start < target; start += batchSize) {
+      task.update(target, start);
+      int end = Math.min(target, start + batchSize);
+      int offset = start;
+      IntStream.range(start, end).parallel().forEach(i -> {
+        ChunkPosition cp = chunkList.get(i);
+        FinalizedChunk chunk = new FinalizedChunk(cp);
+        if (state.lodLevel(cp) == 0) {
+          // Reduced resolution chunks are not finalized, since writing single
+          // voxels would split up their octree leaves.
+          OctreeFinalizer.finalizeChunk(worldOctree.cursor(), origin, cp, chunk.writes);
+        }
+        batch[i - offset] = chunk;
+      });
+      for (int i = 0; i < end - start; ++i) {
+        FinalizedChunk chunk = batch[i];
+        chunk.writes.apply(worldOctree);
+        batch[i] = null;
+      }
+      pageOutOctree();
+    }
+  }
 
-    Set<ChunkPosition> chunkSet = new HashSet<>(chunksToLoad);
+  /**
+   * Blend the grass and foliage colors of the given chunks into the world
+   * textures.
+   */
+  private void blendBiomeColors(TaskTracker progress, ChunkLoadState state,
+      Collection<ChunkPosition> chunkList) {
+    try (TaskTracker.Task task = progress.task("Blending biome colors", 1)) {
+      state.biomeGrid.blur(state.biomeBlurRadius, chunkList, grassTexture, foliageTexture,
+          origin.x, origin.z);
+      task.update(1);
+    }
+  }
 
-    try (TaskTracker.Task task = progress.task("Finalizing octree")) {
-      int done = 0;
-      int target = chunksToLoad.size();
-      for (ChunkPosition cp : chunksToLoad) {
+  /**
+   * Chunk state recorded when loading chunks.
+   */
+  private static class ChunkLoadState {
+    /** Chunk timestamps from the region file headers. */
+    final Map<ChunkPosition, Integer> timestamps = new HashMap<>();
+    final BiomeGrid biomeGrid;
+    final int yClipMin;
+    final int yClipMax;
+    final int waterHeight;
+    final int lodDistance;
+    final int biomeBlurRadius;
 
-        // Finalize grass and foliage textures.
-        // 3x3 box blur.
-        for (int x = 0; x < 16; ++x) {
-          for (int z = 0; z < 16; ++z) {
-
-            int nsum = 0;
-            float[] grassMix = {0, 0, 0};
-            float[] foliageMix = {0, 0, 0};
-            for (int sx = x - 1; sx <= x + 1; ++sx) {
-              int wx = cp.x * 16 + sx;
-              for (int sz = z - 1; sz <= z + 1; ++sz) {
-                int wz = cp.z * 16 + sz;
-
-                ChunkPosition ccp = ChunkPosition.get(wx >> 4, wz >> 4);
-                if (chunkSet.contains(ccp)) {
-                  nsum += 1;
-                  int biomeId = biomeIdMap.get(wx, wz);
-                  float[] grassColor = Biomes.getGrassColorLinear(biomeId);
-                  grassMix[0] += grassColor[0];
-                  grassMix[1] += grassColor[1];
-                  grassMix[2] += grassColor[2];
-                  float[] foliageColor = Biomes.getFoliageColorLinear(biomeId);
-                  foliageMix[0] += foliageColor[0];
-                  foliageMix[1] += foliageColor[1];
-                  foliageMix[2] += foliageColor[2];
-                }
-              }
-            }
-            grassMix[0] /= nsum;
-            grassMix[1] /= nsum;
-            grassMix[2] /= nsum;
-            grassTexture.set(cp.x * 16 + x - origin.x, cp.z * 16 + z - origin.z, grassMix);
-
-            foliageMix[0] /= nsum;
-            foliageMix[1] /= nsum;
-            foliageMix[2] /= nsum;
-            foliageTexture.set(cp.x * 16 + x - origin.x, cp.z * 16 + z - origin.z, foliageMix);
-          }
-        }
-        task.update(target, done);
-        done += 1;
-        OctreeFinalizer.finalizeChunk(worldOctree, origin, cp);
+    /** The camera chunk position used to select the level of detail. */
+    final ChunkPosition lodCenter;
+
+    ChunkLoadState(int yClipMin, int yClipMax, int waterHeight, int lodDistance,
+        ChunkPosition lodCenter, int biomeBlurRadius, Collection<ChunkPosition> chunks) {
+      this.yClipMin = yClipMin;
+      this.yClipMax = yClipMax;
+      this.waterHeight = waterHeight;
+      this.lodDistance = lodDistance;
+      this.lodCenter = lodCenter;
+      this.biomeBlurRadius = biomeBlurRadius;
+      this.biomeGrid = new BiomeGrid(chunks);
+    }
+
+    /**
+     * @return the number of octree levels by which the resolution of the
+     * chunk is reduced
+     */
+    int lodLevel(ChunkPosition cp) {
+      if (lodDistance <= 0) {
+        return 0;
+      }
+      int distance = Math.max(Math.abs(cp.x - lodCenter.x), Math.abs(cp.z - lodCenter.z));
+      if (distance > 2 * lodDistance) {
+        return 2;
+      } else if (distance > lodDistance) {
+        return 1;
       }
+      return 0;
     }
+  }
 
-    chunks = loadedChunks;
-    camera.setWorldSize(1 << worldOctree.depth);
-    buildBvh();
-    buildActorBvh();
-    Log.info(String.format("Loaded %d chunks", numChunks));
+  /**
+   * Finalization results for one chunk.
+   */
+  private static class FinalizedChunk {
+    final ChunkPosition cp;
+    final OctreeFinalizer.WriteBuffer writes = new OctreeFinalizer.WriteBuffer();
+
+    FinalizedChunk(ChunkPosition cp) {
+      this.cp = cp;
+    }
   }
 
   private void buildBvh() {
@@ -1204,8 +1706,9 @@ public class Scene implements JsonSerializable, Refreshable {
     zmax *= 16;
     int xcenter = (xmax + xmin) / 2;
     int zcenter = (zmax + zmin) / 2;
+    Octree.Cursor cursor = worldOctree.cursor();
     for (int y = Chunk.Y_MAX - 1; y >= 0; --y) {
-      int block = worldOctree.get(xcenter - origin.x, y - origin.y, zcenter - origin.z);
+      int block = cursor.get(xcenter - origin.x, y - origin.y, zcenter - origin.z);
       if (block != Block.AIR_ID) {
         return new Vector3(xcenter, y + 5, zcenter);
       }
@@ -1223,6 +1726,92 @@ public class Scene implements JsonSerializable, Refreshable {
     }
   }
 
+  /**
+   * Enable or disable empty space skipping for octree traversal.
+   */
+  public synchronized void setEmptySpaceSkipping(boolean value) {
+    if (value != emptySpaceSkipping) {
+      emptySpaceSkipping = value;
+      if (value) {
+        worldOctree.buildEmptySpaceMap();
+      } else {
+        worldOctree.clearEmptySpaceMap();
+      }
+      refresh();
+    }
+  }
+
+  /**
+   * @return {@code true} if empty space skipping is enabled
+   */
+  public boolean emptySpaceSkippingEnabled() {
+    return emptySpaceSkipping;
+  }
+
+  /**
+   * Set the distance, in chunks from the camera, beyond which chunks are
+   * loaded at reduced resolution. Chunks more than twice as far away are
+   * loaded at even lower resolution. The new distance is used the next time
+   * chunks are loaded.
+   *
+   * @param value the level of detail distance, or zero to load all chunks
+   * at full resolution
+   */
+  public synchronized void setLodDistance(int value) {
+    lodDistance = Math.max(0, value);
+  }
+
+  /**
+   * @return the level of detail distance in chunks, or zero if level of
+   * detail is disabled
+   */
+  public int getLodDistance() {
+    return lodDistance;
+  }
+
+  /**
+   * Set the radius of the box blur used to blend grass and foliage colors
+   * between biomes. The new radius is used the next time chunks are loaded.
+   *
+   * @param value the blur radius in blocks, or zero to disable blending
+   */
+  public synchronized void setBiomeBlurRadius(int value) {
+    biomeBlurRadius = Math.max(0, value);
+  }
+
+  /**
+   * @return the biome color blur radius in blocks
+   */
+  public int getBiomeBlurRadius() {
+    return biomeBlurRadius;
+  }
+
+  /**
+   * Set the octree level at which subtrees are paged out to disk. Paging
+   * lets scenes with octrees larger than the Java heap be loaded. The new
+   * level is used the next time chunks are loaded.
+   *
+   * @param value the brick level, or zero to keep the whole octree in memory
+   */
+  public synchronized void setOctreeBrickLevel(int value) {
+    octreeBrickLevel = Math.max(0, value);
+  }
+
+  /**
+   * @return the octree brick level, or zero if octree paging is disabled
+   */
+  public int getOctreeBrickLevel() {
+    return octreeBrickLevel;
+  }
+
+  /**
+   * @return the pager for the paged subtrees of the octree, or {@code null}
+   * if the octree is not paged
+   */
+  public OctreePager getOctreePager() {
+    return worldOctree.getPager();
+  }
+
   /**
    * Center the camera over the loaded chunks
    */
@@ -1361,7 +1950,7 @@ public class Scene implements JsonSerializable, Refreshable {
     ray.o.x -= origin.x;
     ray.o.y -= origin.y;
     ray.o.z -= origin.z;
-    while (PreviewRayTracer.nextIntersection(this, ray)) {
+    while (PreviewRayTracer.nextIntersection(this, ray, state)) {
       if (ray.getCurrentMaterial() != Block.AIR) {
         return true;
       }
@@ -1730,8 +2319,8 @@ public class Scene implements JsonSerializable, Refreshable {
       task.update(1);
       Log.info("Saving octree " + fileName);
 
-      try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(context.getSceneFileOutputStream(fileName)))) {
-        worldOctree.store(out);
+      try (OutputStream out = new BufferedOutputStream(context.getSceneFileOutputStream(fileName))) {
+        OctreeFileFormat.store(worldOctree, out);
         worldOctree.setTimestamp(context.fileTimestamp(fileName));
 
         task.update(2);
@@ -1814,9 +2403,15 @@ public class Scene implements JsonSerializable, Refreshable {
     try (TaskTracker.Task task = progress.task("Loading octree", 2)) {
       task.update(1);
       Log.info("Loading octree " + fileName);
-      try (DataInputStream in = new DataInputStream(new GZIPInputStream(context.getSceneFileInputStream(fileName)))) {
-        worldOctree = Octree.load(in);
+      try (InputStream in = context.getSceneFileInputStream(fileName)) {
+        setWorldOctree(OctreeFileFormat.load(in));
+        chunkLoadState = null;
+        deduplicateOctree(progress);
+        pageOutOctree();
         worldOctree.setTimestamp(context.fileTimestamp(fileName));
+        if (emptySpaceSkipping) {
+          worldOctree.buildEmptySpaceMap();
+        }
         task.update(2);
         Log.info("Octree loaded");
         calculateOctreeOrigin(chunks);
@@ -2135,28 +2730,32 @@ public class Scene implements JsonSerializable, Refreshable {
   }
 
   /**
+   * Copy the foliage color for the given coordinates.
+   *
    * @param x X coordinate in octree space
    * @param z Z coordinate in octree space
-   * @return Foliage color for the given coordinates
+   * @param color destination for the RGB color components
    */
-  public float[] getFoliageColor(int x, int z) {
+  public void getFoliageColor(int x, int z, float[] color) {
     if (biomeColors) {
-      return foliageTexture.get(x, z);
+      foliageTexture.get(x, z, color);
     } else {
-      return Biomes.getFoliageColorLinear(0);
+      System.arraycopy(Biomes.getFoliageColorLinear(0), 0, color, 0, 3);
     }
   }
 
   /**
+   * Copy the grass color for the given coordinates.
+   *
    * @param x X coordinate in octree space
    * @param z Z coordinate in octree space
-   * @return Grass color for the given coordinates
+   * @param color destination for the RGB color components
    */
-  public float[] getGrassColor(int x, int z) {
+  public void getGrassColor(int x, int z, float[] color) {
     if (biomeColors) {
-      return grassTexture.get(x, z);
+      grassTexture.get(x, z, color);
     } else {
-      return Biomes.getGrassColorLinear(0);
+      System.arraycopy(Biomes.getGrassColorLinear(0), 0, color, 0, 3);
     }
   }
 
@@ -2213,6 +2812,12 @@ public class Scene implements JsonSerializable, Refreshable {
     return saveSnapshots;
   }
 
+  /**
+   * Test if the ray origin is inside a water block.
+   *
+   * <p>This is called for every primary ray by all render workers, so it uses
+   * the lock-free octree lookup.
+   */
   public boolean isInWater(Ray ray) {
     if (worldOctree.isInside(ray.o)) {
       int x = (int) QuickMath.floor(ray.o.x);
@@ -2320,6 +2925,10 @@ public class Scene implements JsonSerializable, Refreshable {
     json.add("fogColor", fogColorObj);
     json.add("fastFog", fastFog);
     json.add("biomeColorsEnabled", biomeColors);
+    json.add("emptySpaceSkipping", emptySpaceSkipping);
+    json.add("lodDistance", lodDistance);
+    json.add("biomeBlurRadius", biomeBlurRadius);
+    json.add("octreeBrickLevel", octreeBrickLevel);
     json.add("transparentSky", transparentSky);
     json.add("fogDensity", fogDensity);
     json.add("skyFogDensity", skyFogDensity);
@@ -2399,6 +3008,37 @@ public class Scene implements JsonSerializable, Refreshable {
     return actors;
   }
 
+  /**
+   * Use the name and skin from a player profile.
+   *
+   * @param profile the player profile, or {@code null} if there is no profile
+   */
+  private void applyProfile(PlayerEntity entity, ProfileCache.Profile profile) {
+    if (profile == null) {
+      profiles.put(entity, new JsonObject());
+      return;
+    }
+    profiles.put(entity, profile.json);
+    if (profile.skin != null) {
+      entity.skin = profile.skin.getAbsolutePath();
+      entity.model = profile.slim ? PlayerModel.ALEX : PlayerModel.STEVE;
+    }
+  }
+
+  /**
+   * Start fetching the profile of a player in the background.
+   */
+  private static CompletableFuture<ProfileCache.Profile> fetchProfile(ProfileCache profileCache,
+      PlayerEntity entity) {
+    CompletableFuture<ProfileCache.Profile> fetch = profileCache.fetch(entity.uuid);
+    fetch.whenComplete((profile, error) -> {
+      if (error != null) {
+        Log.info("Could not fetch player profile " + entity.uuid + ": " + error.getMessage());
+      }
+    });
+    return fetch;
+  }
+
   public JsonObject getPlayerProfile(PlayerEntity entity) {
     if (profiles.containsKey(entity)) {
       return profiles.get(entity);
@@ -2577,6 +3217,10 @@ public class Scene implements JsonSerializable, Refreshable {
     fogColor.z = fogColorObj.get("blue").doubleValue(fogColor.z);
     fastFog = json.get("fastFog").boolValue(fastFog);
     biomeColors = json.get("biomeColorsEnabled").boolValue(biomeColors);
+    emptySpaceSkipping = json.get("emptySpaceSkipping").boolValue(emptySpaceSkipping);
+    lodDistance = json.get("lodDistance").intValue(lodDistance);
+    biomeBlurRadius = json.get("biomeBlurRadius").intValue(biomeBlurRadius);
+    octreeBrickLevel = json.get("octreeBrickLevel").intValue(octreeBrickLevel);
     transparentSky = json.get("transparentSky").boolValue(transparentSky);
     fogDensity = json.get("fogDensity").doubleValue(fogDensity);
     skyFogDensity = json.get("skyFogDensity").doubleValue(skyFogDensity);
@@ -0,0 +1,154 @@
+/* Copyright (c) 2019 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.scene;
+
+import org.apache.commons.math3.util.FastMath;
+import se.llbit.math.Constants;
+import se.llbit.math.Ray;
+
+/**
+ * Lookup table for the simulated sky.
+ *
+ * <p>The Preetham sky model used by {@link Sun#calcSkyLight(Ray, double)} is
+ * expensive to evaluate, so the sky radiance is baked into an equirectangular
+ * float table which is sampled with bilinear interpolation. The table is
+ * rebuilt lazily whenever the sun position or the horizon offset changes.
+ *
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public class SimulatedSkyCache {
+
+  /** Number of table columns, spanning the full azimuth range. */
+  public static final int WIDTH = 512;
+
+  /** Number of table rows, spanning the inclination range from nadir to zenith. */
+  public static final int HEIGHT = 256;
+
+  /**
+   * Baked sky radiance. The table is immutable once built so that it can be
+   * shared between render workers without locking.
+   */
+  private static class Table {
+    final double altitude;
+    final double azimuth;
+    final double horizonOffset;
+
+    /** RGB triples in row-major order. */
+    final float[] rgb;
+
+    Table(Sun sun, double horizonOffset) {
+      this.altitude = sun.getAltitude();
+      this.azimuth = sun.getAzimuth();
+      this.horizonOffset = horizonOffset;
+      this.rgb = new float[WIDTH * HEIGHT * 3];
+      Ray ray = new Ray();
+      int index = 0;
+      for (int j = 0; j < HEIGHT; ++j) {
+        double phi = (j / (double) (HEIGHT - 1) - 0.5) * Math.PI;
+        double r = FastMath.cos(phi);
+        double y = FastMath.sin(phi);
+        for (int i = 0; i < WIDTH; ++i) {
+          double theta = (i / (double) WIDTH) * Constants.TAU;
+          ray.d.set(FastMath.cos(theta) * r, y, FastMath.sin(theta) * r);
+          sun.calcSkyLight(ray, horizonOffset);
+          rgb[index++] = (float) ray.color.x;
+          rgb[index++] = (float) ray.color.y;
+          rgb[index++] = (float) ray.color.z;
+        }
+      }
+    }
+
+    boolean isValid(Sun sun, double horizonOffset) {
+      return altitude == sun.getAltitude() && azimuth == sun.getAzimuth()
+          && this.horizonOffset == horizonOffset;
+    }
+  }
+
+  private volatile Table table = null;
+
+  /**
+   * Make this cache share the baked table of another cache.
+   */
+  public void set(SimulatedSkyCache other) {
+    table = other.table;
+  }
+
+  /**
+   * Write the simulated sky color for the ray direction into the ray color.
+   */
+  public void getColor(Sun sun, double horizonOffset, Ray ray) {
+    Table current = getTable(sun, horizonOffset);
+    float[] rgb = current.rgb;
+
+    double theta = FastMath.atan2(ray.d.z, ray.d.x) / Constants.TAU;
+    if (theta < 0) {
+      theta += 1;
+    }
+    double y = ray.d.y;
+    if (y > 1) {
+      y = 1;
+    } else if (y < -1) {
+      y = -1;
+    }
+    double phi = (FastMath.asin(y) / Math.PI + 0.5) * (HEIGHT - 1);
+    double u = theta * WIDTH;
+
+    int i0 = (int) u;
+    int j0 = (int) phi;
+    double du = u - i0;
+    double dv = phi - j0;
+    if (i0 >= WIDTH) {
+      i0 -= WIDTH;
+    }
+    int i1 = i0 + 1;
+    if (i1 >= WIDTH) {
+      i1 = 0;
+    }
+    int j1 = j0 + 1;
+    if (j1 >= HEIGHT) {
+      j1 = HEIGHT - 1;
+    }
+
+    int p00 = (j0 * WIDTH + i0) * 3;
+    int p10 = (j0 * WIDTH + i1) * 3;
+    int p01 = (j1 * WIDTH + i0) * 3;
+    int p11 = (j1 * WIDTH + i1) * 3;
+    double w00 = (1 - du) * (1 - dv);
+    double w10 = du * (1 - dv);
+    double w01 = (1 - du) * dv;
+    double w11 = du * dv;
+    ray.color.set(
+        w00 * rgb[p00] + w10 * rgb[p10] + w01 * rgb[p01] + w11 * rgb[p11],
+        w00 * rgb[p00 + 1] + w10 * rgb[p10 + 1] + w01 * rgb[p01 + 1] + w11 * rgb[p11 + 1],
+        w00 * rgb[p00 + 2] + w10 * rgb[p10 + 2] + w01 * rgb[p01 + 2] + w11 * rgb[p11 + 2],
+        1);
+  }
+
+  private Table getTable(Sun sun, double horizonOffset) {
+    Table current = table;
+    if (current == null || !current.isValid(sun, horizonOffset)) {
+      synchronized (this) {
+        current = table;
+        if (current == null || !current.isValid(sun, horizonOffset)) {
+          current = new Table(sun, horizonOffset);
+          table = current;
+        }
+      }
+    }
+    return current;
+  }
+}
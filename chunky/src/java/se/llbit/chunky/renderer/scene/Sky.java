@@ -18,7 +18,9 @@ package se.llbit.chunky.renderer.scene;
 
 import org.apache.commons.math3.util.FastMath;
 import se.llbit.chunky.block.Block;
+import se.llbit.chunky.resources.AbstractHdriTexture;
 import se.llbit.chunky.resources.HDRTexture;
+import se.llbit.chunky.resources.HdriImportanceMap;
 import se.llbit.chunky.resources.PFMTexture;
 import se.llbit.chunky.resources.Texture;
 import se.llbit.chunky.world.Clouds;
@@ -33,6 +35,7 @@ import se.llbit.math.ColorUtil;
 import se.llbit.math.Constants;
 import se.llbit.math.QuickMath;
 import se.llbit.math.Ray;
+import se.llbit.math.Vector2;
 import se.llbit.math.Vector3;
 import se.llbit.math.Vector4;
 import se.llbit.resources.ImageLoader;
@@ -45,6 +48,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Random;
 import java.util.stream.Collectors;
 
 /**
@@ -162,6 +166,15 @@ public class Sky implements JsonSerializable {
   /** Current sky rendering mode. */
   private SkyMode mode = SkyMode.DEFAULT;
 
+  /**
+   * Importance sampling distribution for HDR panoramic skymaps.
+   * This is {@code null} if the current skymap can not be importance sampled.
+   */
+  private HdriImportanceMap importanceMap = null;
+
+  /** Baked radiance table for the SIMULATED sky mode. */
+  private final SimulatedSkyCache simulatedSky = new SimulatedSkyCache();
+
   public Sky(Scene sceneDescription) {
     this.scene = sceneDescription;
     makeDefaultGradient(gradient);
@@ -195,6 +208,7 @@ public class Sky implements JsonSerializable {
   public void loadSkymap(String fileName) {
     skymapFileName = fileName;
     skymap = loadSkyTexture(fileName, skymap);
+    updateImportanceMap();
     scene.refresh();
   }
 
@@ -214,6 +228,8 @@ public class Sky implements JsonSerializable {
     gradient = new ArrayList<>(other.gradient);
     color.set(other.color);
     mode = other.mode;
+    simulatedSky.set(other.simulatedSky);
+    importanceMap = other.importanceMap;
     for (int i = 0; i < 6; ++i) {
       skybox[i] = other.skybox[i];
       skyboxFileName[i] = other.skyboxFileName[i];
@@ -251,7 +267,7 @@ public class Sky implements JsonSerializable {
         break;
       }
       case SIMULATED: {
-        scene.sun().calcSkyLight(ray, horizonOffset);
+        simulatedSky.getColor(scene.sun(), horizonOffset, ray);
         break;
       }
       case SKYMAP_PANORAMIC: {
@@ -428,6 +444,82 @@ public class Sky implements JsonSerializable {
     }
   }
 
+  /**
+   * @return {@code true} if the current skymap supports importance sampling
+   * with {@link #sampleSkyDirection(Ray, Random, Vector2)}
+   */
+  public boolean importanceSamplingEnabled() {
+    return importanceMap != null;
+  }
+
+  /**
+   * Point the ray in a random direction, distributed according to the
+   * luminance of the skymap.
+   *
+   * @param uv scratch vector for the sampled texture coordinates
+   * @return the solid angle probability density of the chosen direction,
+   * or zero if no valid direction was sampled
+   */
+  public double sampleSkyDirection(Ray ray, Random random, Vector2 uv) {
+    HdriImportanceMap map = importanceMap;
+    if (map == null) {
+      return 0;
+    }
+    double pdf = map.sample(random.nextDouble(), random.nextDouble(), uv);
+    double theta = uv.x * Constants.TAU - rotation;
+    double phi;
+    if (mirrored) {
+      phi = uv.y * Constants.HALF_PI;
+      if (random.nextBoolean()) {
+        phi = -phi;
+      }
+    } else {
+      phi = uv.y * Math.PI - Constants.HALF_PI;
+    }
+    double cosPhi = FastMath.cos(phi);
+    if (pdf <= 0 || cosPhi < Ray.EPSILON) {
+      return 0;
+    }
+    ray.d.set(FastMath.cos(theta) * cosPhi, FastMath.sin(phi), FastMath.sin(theta) * cosPhi);
+    // Both mapping modes cover 2*pi^2 steradians per unit texture area.
+    return pdf / (2 * Math.PI * Math.PI * cosPhi);
+  }
+
+  /**
+   * @return the solid angle probability density of
+   * {@link #sampleSkyDirection(Ray, Random, Vector2)} choosing the given direction
+   */
+  public double skyPdf(Vector3 d) {
+    HdriImportanceMap map = importanceMap;
+    if (map == null) {
+      return 0;
+    }
+    double cosPhi = FastMath.sqrt(QuickMath.max(0, 1 - d.y * d.y));
+    if (cosPhi < Ray.EPSILON) {
+      return 0;
+    }
+    double theta = FastMath.atan2(d.z, d.x);
+    theta += rotation;
+    theta /= Constants.TAU;
+    theta = (theta % 1 + 1) % 1;
+    double phi;
+    if (mirrored) {
+      phi = Math.abs(Math.asin(d.y)) / Constants.HALF_PI;
+    } else {
+      phi = (Math.asin(d.y) + Constants.HALF_PI) / Math.PI;
+    }
+    return map.pdf(theta, phi) / (2 * Math.PI * Math.PI * cosPhi);
+  }
+
+  private void updateImportanceMap() {
+    if (mode == SkyMode.SKYMAP_PANORAMIC && skymap instanceof AbstractHdriTexture) {
+      HdriImportanceMap map = ((AbstractHdriTexture) skymap).getImportanceMap(mirrored);
+      importanceMap = map.isEmpty() ? null : map;
+    } else {
+      importanceMap = null;
+    }
+  }
+
   /**
    * Add sun color contribution. This does not alpha blend the sun color
    * because the Minecraft sun texture has no alpha channel.
@@ -465,6 +557,7 @@ public class Sky implements JsonSerializable {
   public void setMirrored(boolean b) {
     if (b != mirrored) {
       mirrored = b;
+      updateImportanceMap();
       scene.refresh();
     }
   }
@@ -492,6 +585,7 @@ public class Sky implements JsonSerializable {
           skyboxFileName[i] = "";
         }
       }
+      updateImportanceMap();
       scene.refresh();
     }
   }
@@ -586,6 +680,10 @@ public class Sky implements JsonSerializable {
       default:
         break;
     }
+
+    // Drop the importance map of the previous skymap if the new sky mode
+    // does not use it. The skymap is only reloaded in the skymap modes.
+    updateImportanceMap();
   }
 
   /**
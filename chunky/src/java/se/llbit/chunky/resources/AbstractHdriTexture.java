@@ -21,6 +21,30 @@ import se.llbit.math.Vector4;
 public class AbstractHdriTexture extends Texture {
   public float[] buf;
 
+  /** Cached importance sampling distributions, built on demand. */
+  private HdriImportanceMap importanceMap = null;
+  private HdriImportanceMap mirroredImportanceMap = null;
+
+  /**
+   * Get the importance sampling distribution for this texture when used as
+   * a panoramic skymap. The distribution is cached with the texture.
+   *
+   * @param mirrored {@code true} if the skymap is mirrored at the horizon
+   */
+  public synchronized HdriImportanceMap getImportanceMap(boolean mirrored) {
+    if (mirrored) {
+      if (mirroredImportanceMap == null) {
+        mirroredImportanceMap = new HdriImportanceMap(this, true);
+      }
+      return mirroredImportanceMap;
+    } else {
+      if (importanceMap == null) {
+        importanceMap = new HdriImportanceMap(this, false);
+      }
+      return importanceMap;
+    }
+  }
+
   @Override public void getColorInterpolated(double u, double v, Vector4 sample) {
     double x = width * u;
     double y = height * v;
@@ -0,0 +1,185 @@
+/* Copyright (c) 2019 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.resources;
+
+import org.apache.commons.math3.util.FastMath;
+import se.llbit.math.Vector2;
+
+/**
+ * Piecewise constant 2D distribution over the luminance of a panoramic HDR
+ * skymap, used for importance sampling the sky.
+ *
+ * <p>The distribution is stored as a marginal CDF over rows and one
+ * conditional CDF per row. Large skymaps are downsampled into at most
+ * {@link #MAX_WIDTH} by {@link #MAX_HEIGHT} cells to bound memory use.
+ *
+ * <p>Texture coordinates follow the panoramic skymap mapping: {@code v = 0}
+ * is the bottom row of the texture. If the skymap is mirrored at the horizon
+ * the rows span the elevation range [0, pi/2], otherwise [-pi/2, pi/2].
+ *
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public class HdriImportanceMap {
+
+  public static final int MAX_WIDTH = 1024;
+  public static final int MAX_HEIGHT = 512;
+
+  private final int width;
+  private final int height;
+
+  /** Non-normalized cell weights. */
+  private final float[] func;
+
+  /** Marginal CDF over rows, {@code height + 1} entries. */
+  private final double[] marginalCdf;
+
+  /** Conditional CDF for each row, {@code width + 1} entries per row. */
+  private final double[] conditionalCdf;
+
+  /** Integral of the weight function over the unit square. */
+  private final double integral;
+
+  public HdriImportanceMap(AbstractHdriTexture texture, boolean mirrored) {
+    int texWidth = texture.getWidth();
+    int texHeight = texture.getHeight();
+    float[] buf = texture.buf;
+    width = Math.max(1, Math.min(texWidth, MAX_WIDTH));
+    height = Math.max(1, Math.min(texHeight, MAX_HEIGHT));
+    func = new float[width * height];
+    marginalCdf = new double[height + 1];
+    conditionalCdf = new double[height * (width + 1)];
+
+    double total = 0;
+    for (int y = 0; y < height; ++y) {
+      int y0 = y * texHeight / height;
+      int y1 = Math.max(y0 + 1, (y + 1) * texHeight / height);
+      // Weight rows by their solid angle so that we do not waste samples near the poles.
+      double elevation = mirrored
+          ? ((y + 0.5) / height) * Math.PI / 2
+          : ((y + 0.5) / height - 0.5) * Math.PI;
+      double cos = FastMath.cos(elevation);
+      double rowSum = 0;
+      int cdfOffset = y * (width + 1);
+      conditionalCdf[cdfOffset] = 0;
+      for (int x = 0; x < width; ++x) {
+        int x0 = x * texWidth / width;
+        int x1 = Math.max(x0 + 1, (x + 1) * texWidth / width);
+        double sum = 0;
+        for (int ty = y0; ty < y1; ++ty) {
+          int offset = (ty * texWidth + x0) * 3;
+          for (int tx = x0; tx < x1; ++tx) {
+            sum += 0.2126 * buf[offset] + 0.7152 * buf[offset + 1] + 0.0722 * buf[offset + 2];
+            offset += 3;
+          }
+        }
+        float value = (float) (cos * sum / ((y1 - y0) * (x1 - x0)));
+        if (!(value > 0) || Float.isInfinite(value)) {
+          value = 0;
+        }
+        func[y * width + x] = value;
+        rowSum += value;
+        conditionalCdf[cdfOffset + x + 1] = rowSum;
+      }
+      if (rowSum > 0) {
+        for (int x = 1; x <= width; ++x) {
+          conditionalCdf[cdfOffset + x] /= rowSum;
+        }
+      } else {
+        for (int x = 1; x <= width; ++x) {
+          conditionalCdf[cdfOffset + x] = x / (double) width;
+        }
+      }
+      total += rowSum;
+      marginalCdf[y + 1] = total;
+    }
+    if (total > 0) {
+      for (int y = 1; y <= height; ++y) {
+        marginalCdf[y] /= total;
+      }
+    } else {
+      for (int y = 1; y <= height; ++y) {
+        marginalCdf[y] = y / (double) height;
+      }
+    }
+    integral = total / (width * height);
+  }
+
+  /**
+   * @return {@code true} if the skymap has no light to sample
+   */
+  public boolean isEmpty() {
+    return !(integral > 0);
+  }
+
+  /**
+   * Pick a random texture coordinate distributed according to the map.
+   *
+   * @param uv the sampled texture coordinates are stored here
+   * @return the probability density of the sample with respect to texture area
+   */
+  public double sample(double r1, double r2, Vector2 uv) {
+    int y = findInterval(marginalCdf, 0, height, r1);
+    double rowStart = marginalCdf[y];
+    double rowEnd = marginalCdf[y + 1];
+    double dv = rowEnd > rowStart ? (r1 - rowStart) / (rowEnd - rowStart) : 0.5;
+
+    int cdfOffset = y * (width + 1);
+    int x = findInterval(conditionalCdf, cdfOffset, width, r2);
+    double cellStart = conditionalCdf[cdfOffset + x];
+    double cellEnd = conditionalCdf[cdfOffset + x + 1];
+    double du = cellEnd > cellStart ? (r2 - cellStart) / (cellEnd - cellStart) : 0.5;
+
+    uv.x = (x + du) / width;
+    uv.y = (y + dv) / height;
+    return func[y * width + x] / integral;
+  }
+
+  /**
+   * @return the probability density with respect to texture area of
+   * sampling the given texture coordinates
+   */
+  public double pdf(double u, double v) {
+    int x = (int) (u * width);
+    int y = (int) (v * height);
+    x = (x < 0) ? 0 : (x >= width) ? width - 1 : x;
+    y = (y < 0) ? 0 : (y >= height) ? height - 1 : y;
+    return func[y * width + x] / integral;
+  }
+
+  /**
+   * Binary search for the interval containing the value.
+   *
+   * @return index i in [0, size) such that cdf[offset + i] <= value < cdf[offset + i + 1]
+   */
+  private static int findInterval(double[] cdf, int offset, int size, double value) {
+    int lo = 0;
+    int hi = size - 1;
+    while (lo < hi) {
+      int mid = (lo + hi + 1) >>> 1;
+      if (cdf[offset + mid] <= value) {
+        lo = mid;
+      } else {
+        hi = mid - 1;
+      }
+    }
+    // Skip zero-probability cells.
+    while (lo < size - 1 && cdf[offset + lo + 1] <= cdf[offset + lo]) {
+      lo += 1;
+    }
+    return lo;
+  }
+}
@@ -34,24 +34,24 @@ import se.llbit.chunky.resources.texturepack.RotatedTextureLoader;
 import se.llbit.chunky.resources.texturepack.ShulkerTextureLoader;
 import se.llbit.chunky.resources.texturepack.SimpleTexture;
 import se.llbit.chunky.resources.texturepack.TextureLoader;
+import se.llbit.chunky.resources.texturepack.TexturePack;
+import se.llbit.chunky.resources.texturepack.TexturePackCache;
 import se.llbit.chunky.resources.texturepack.ThinArmEntityTextureLoader;
 import se.llbit.log.Log;
-import se.llbit.resources.ImageLoader;
 import se.llbit.util.NotNull;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Utility methods to load Minecraft texture packs.
@@ -1757,9 +1757,9 @@ public class TexturePackLoader {
         new SimpleTexture("assets/minecraft/textures/blocks/glass_lime", Texture.limeGlass)));
     allTextures.put("glass_magenta", new AlternateTextures(
         new SimpleTexture("assets/minecraft/textures/block/magenta_stained_glass",
-            Texture.limeGlass),
+            Texture.magentaGlass),
         new SimpleTexture("assets/minecraft/textures/blocks/magenta_stained_glass",
-            Texture.limeGlass),
+            Texture.magentaGlass),
         new SimpleTexture("assets/minecraft/textures/blocks/glass_magenta", Texture.magentaGlass)));
     allTextures.put("glass_orange", new AlternateTextures(
         new SimpleTexture("assets/minecraft/textures/block/orange_stained_glass",
@@ -1924,7 +1924,7 @@ public class TexturePackLoader {
         new SimpleTexture("assets/minecraft/textures/block/birch_log_top", Texture.birchWoodTop),
         new SimpleTexture("assets/minecraft/textures/blocks/birch_log_top", Texture.birchWoodTop),
         new SimpleTexture("assets/minecraft/textures/blocks/log_birch_top", Texture.birchWoodTop),
-        new IndexedTexture(0x15, Texture.spruceWoodTop)));
+        new IndexedTexture(0x15, Texture.birchWoodTop)));
     allTextures.put("jungle_top_log_", new AlternateTextures(
         new SimpleTexture("assets/minecraft/textures/block/jungle_log_top", Texture.jungleTreeTop),
         new SimpleTexture("assets/minecraft/textures/blocks/jungle_log_top", Texture.jungleTreeTop),
@@ -2987,6 +2987,10 @@ public class TexturePackLoader {
 
   private static String[] texturePacks = { };
 
+  /** Identity of the resource packs that textures were last loaded from. */
+  private static volatile String texturePackIdentity =
+      TexturePackCache.identity(Collections.emptyList());
+
   private static String texturePackName(File tpFile) {
     boolean isDefault = tpFile.equals(MinecraftFinder.getMinecraftJar());
     return String.format("%s (%s)",
@@ -3006,47 +3010,41 @@ public class TexturePackLoader {
    */
   public static Set<Map.Entry<String, TextureLoader>> loadTextures(File tpFile,
       Collection<Map.Entry<String, TextureLoader>> textures) {
-    Set<Map.Entry<String, TextureLoader>> notLoaded = new HashSet<>(textures);
-
-    String basename = tpFile.getName().toLowerCase();
-    if (basename.endsWith(".zip")) {
-      basename = basename.substring(0, basename.length() - 4);
+    try (TexturePack texturePack = new TexturePack(tpFile)) {
+      return loadTextures(texturePack, textures);
+    } catch (IOException e) {
+      Log.warnf("Failed to close %s: %s", texturePackName(tpFile), e.getMessage());
+      return new HashSet<>(textures);
     }
+  }
 
-    try (ZipFile texturePack = new ZipFile(tpFile)) {
-      // Seach for the assets directory in the resource pack.
-      // The assets directory can be inside a top-level directory with
-      // the same name as the resource pack zip file.
-      boolean foundAssetDirectory = false;
-      String topLevel = "";
-      Enumeration<? extends ZipEntry> entries = texturePack.entries();
-      while (entries.hasMoreElements()) {
-        String name = entries.nextElement().getName();
-        if (name.startsWith("assets/")) {
-          foundAssetDirectory = true;
-          break;
-        }
-        if (name.toLowerCase().startsWith(basename) &&
-            name.substring(basename.length()).startsWith("/assets/")) {
-          topLevel = name.substring(0, basename.length()) + "/";
-          foundAssetDirectory = true;
-          break;
-        }
-      }
-      if (!foundAssetDirectory) {
-        Log.errorf("Missing assets directory in %s", texturePackName(tpFile));
+  /**
+   * Load a set of textures from a Minecraft resource pack.
+   * The textures are loaded in parallel. Each texture loader writes to
+   * different textures, so the loaders do not need to be synchronized.
+   *
+   * @return the keys for textures that could not be loaded
+   */
+  private static Set<Map.Entry<String, TextureLoader>> loadTextures(TexturePack texturePack,
+      Collection<Map.Entry<String, TextureLoader>> textures) {
+    Set<Map.Entry<String, TextureLoader>> notLoaded = ConcurrentHashMap.newKeySet();
+    notLoaded.addAll(textures);
+    try {
+      String topLevel = texturePack.getTopLevel();
+      if (topLevel == null) {
+        Log.errorf("Missing assets directory in %s", texturePackName(texturePack.getFile()));
       } else {
-        for (Map.Entry<String, TextureLoader> texture : textures) {
+        textures.parallelStream().forEach(texture -> {
           if (texture.getValue().load(texturePack, topLevel)) {
             notLoaded.remove(texture);
           }
-        }
+        });
 
         // Fall back on the "terrain.png" texture atlas:
-        notLoaded = loadTerrainTextures(texturePack, notLoaded);
+        return loadTerrainTextures(texturePack, notLoaded);
       }
     } catch (IOException e) {
-      Log.warnf("Failed to open %s: %s", texturePackName(tpFile), e.getMessage());
+      Log.warnf("Failed to open %s: %s", texturePackName(texturePack.getFile()), e.getMessage());
     }
     return notLoaded;
   }
@@ -3078,31 +3076,60 @@ public class TexturePackLoader {
    * last used texture pack.
    */
   public static void loadTexturePacks(@NotNull String[] texturePacks, boolean remember) {
-    Set<Map.Entry<String, TextureLoader>> toLoad = allTextures.entrySet();
+    List<File> files = new ArrayList<>();
     for (String path : texturePacks) {
       if (!path.isEmpty()) {
         File file = new File(path);
         if (!file.isFile()) {
           Log.error("Could not open texture pack: " + file.getAbsolutePath());
         } else {
-          Log.infof("Loading %d textures from %s", toLoad.size(), file.getAbsolutePath());
-          toLoad = loadTextures(file, toLoad);
-          if (toLoad.isEmpty()) {
-            break;
-          }
+          files.add(file);
         }
       }
     }
-    if (!toLoad.isEmpty()) {
-      // If there are textures left to load we try to load the default textures.
-      File defaultResources = MinecraftFinder.getMinecraftJar();
-      if (defaultResources != null) {
-        Log.infof("Loading %d textures from %s", toLoad.size(), defaultResources.getAbsolutePath());
-        toLoad = loadTextures(defaultResources, toLoad);
-      } else {
-        Log.error("Minecraft Jar not found: falling back on placeholder textures.");
+    File defaultResources = MinecraftFinder.getMinecraftJar();
+    if (defaultResources != null) {
+      files.add(defaultResources);
+    }
+
+    texturePackIdentity = TexturePackCache.identity(files);
+
+    // Decoded images are cached for the current list of texture packs,
+    // so that the Zip files do not need to be read on the next launch.
+    TexturePackCache cache = TexturePackCache.getDefault();
+    List<TexturePack> packs = cache.load(files);
+    boolean cached = packs != null;
+    if (!cached) {
+      packs = new ArrayList<>(files.size());
+      for (File file : files) {
+        packs.add(new TexturePack(file));
       }
     }
+
+    Set<Map.Entry<String, TextureLoader>> toLoad = allTextures.entrySet();
+    for (TexturePack pack : packs) {
+      if (toLoad.isEmpty()) {
+        break;
+      }
+      Log.infof("Loading %d textures from %s%s", toLoad.size(),
+          pack.getFile().getAbsolutePath(), cached ? " (cached)" : "");
+      toLoad = loadTextures(pack, toLoad);
+    }
+    if (!toLoad.isEmpty() && defaultResources == null) {
+      Log.error("Minecraft Jar not found: falling back on placeholder textures.");
+    }
+    boolean modified = !cached;
+    for (TexturePack pack : packs) {
+      modified |= pack.isModified();
+      try {
+        pack.close();
+      } catch (IOException e) {
+        Log.warnf("Failed to close %s: %s", texturePackName(pack.getFile()), e.getMessage());
+      }
+    }
+    if (modified) {
+      cache.store(packs);
+    }
     if (!toLoad.isEmpty()) {
       StringBuilder message = new StringBuilder();
       message.append("Failed to load textures:");
@@ -3127,13 +3154,13 @@ public class TexturePackLoader {
     }
   }
 
-  private static Set<Map.Entry<String, TextureLoader>> loadTerrainTextures(ZipFile texturePack,
-      Set<Map.Entry<String, TextureLoader>> textures) {
+  private static Set<Map.Entry<String, TextureLoader>> loadTerrainTextures(
+      TexturePack texturePack, Set<Map.Entry<String, TextureLoader>> textures) {
     Set<Map.Entry<String, TextureLoader>> notLoaded = new HashSet<>(textures);
 
-    try (InputStream in = texturePack.getInputStream(new ZipEntry("terrain.png"))) {
-      if (in != null) {
-        BitmapImage spriteMap = ImageLoader.read(in);
+    BitmapImage spriteMap = texturePack.getImage("terrain.png");
+    if (spriteMap != null) {
+      try {
         BitmapImage[] terrainTextures = getTerrainTextures(spriteMap);
 
         for (Map.Entry<String, TextureLoader> texture : textures) {
@@ -3141,9 +3168,9 @@ public class TexturePackLoader {
             notLoaded.remove(texture);
           }
         }
+      } catch (IOException e) {
+        // Failed to load terrain textures - this is handled implicitly.
       }
-    } catch (IOException e) {
-      // Failed to load terrain textures - this is handled implicitly.
     }
     return notLoaded;
   }
@@ -3180,6 +3207,15 @@ public class TexturePackLoader {
     return tex;
   }
 
+  /**
+   * @return an identifier for the resource packs that textures were last
+   * loaded from, which changes when the resource packs or their load order
+   * change
+   */
+  public static String getTexturePackIdentity() {
+    return texturePackIdentity;
+  }
+
   /**
    * Set the resource packs to be used to load textures from.
    */
@@ -18,10 +18,6 @@ package se.llbit.chunky.resources.texturepack;
 
 import se.llbit.chunky.resources.BitmapImage;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.zip.ZipFile;
-
 /**
  * An alternate texture will try loading several textures,
  * and only fail if none of them could be loaded.
@@ -49,7 +45,7 @@ public class AlternateTextures extends TextureLoader {
         "It is pointless to create an alternative texture loader with only one alternative.");
   }
 
-  @Override public boolean load(ZipFile texturePack, String topLevelDir) {
+  @Override public boolean load(TexturePack texturePack, String topLevelDir) {
     for (TextureLoader alternative : alternatives) {
       if (alternative.load(texturePack, topLevelDir)) {
         return true;
@@ -67,7 +63,7 @@ public class AlternateTextures extends TextureLoader {
     return false;
   }
 
-  @Override protected boolean load(InputStream imageStream) throws IOException {
+  @Override protected boolean load(BitmapImage image) throws TextureFormatError {
     throw new UnsupportedOperationException("Call load(ZipFile) instead!");
   }
 
@@ -18,11 +18,6 @@ package se.llbit.chunky.resources.texturepack;
 
 import se.llbit.chunky.resources.BitmapImage;
 import se.llbit.chunky.resources.Texture;
-import se.llbit.resources.ImageLoader;
-
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.zip.ZipFile;
 
 /**
  * Animated texture loader.
@@ -39,8 +34,7 @@ public class AnimatedTextureLoader extends TextureLoader {
     this.texture = texture;
   }
 
-  @Override protected boolean load(InputStream imageStream) throws IOException, TextureFormatError {
-    BitmapImage image = ImageLoader.read(imageStream);
+  @Override protected boolean load(BitmapImage image) throws TextureFormatError {
     if (image.height < image.width) {
       throw new TextureFormatError("Block texture should have height >= width.");
     }
@@ -48,7 +42,7 @@ public class AnimatedTextureLoader extends TextureLoader {
     return true;
   }
 
-  @Override public boolean load(ZipFile texturePack, String topLevelDir) {
+  @Override public boolean load(TexturePack texturePack, String topLevelDir) {
     return load(topLevelDir + file, texturePack);
   }
 
@@ -21,10 +21,6 @@ import se.llbit.chunky.resources.BitmapImage;
 import se.llbit.chunky.resources.Texture;
 import se.llbit.log.Log;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.zip.ZipFile;
-
 /**
  * This texture loader is an adapter for the pre-1.12 bed textures.
  * It composes the post-1.12 bed texture from parts of the pre-1.12 textures.
@@ -78,7 +74,7 @@ public class BedTextureAdapter extends TextureLoader {
         new IndexedTexture(0x98, bedHeadEnd));
   }
 
-  @Override public boolean load(ZipFile texturePack, String topLevelDir) {
+  @Override public boolean load(TexturePack texturePack, String topLevelDir) {
     boolean allLoaded = true;
     int scale = 1;
     BitmapImage bitmap = new BitmapImage(64, 64);
@@ -209,7 +205,7 @@ public class BedTextureAdapter extends TextureLoader {
     return true;
   }
 
-  @Override protected boolean load(InputStream imageStream) throws IOException, TextureFormatError {
+  @Override protected boolean load(BitmapImage image) throws TextureFormatError {
     return false;
   }
 }
@@ -18,11 +18,6 @@ package se.llbit.chunky.resources.texturepack;
 
 import se.llbit.chunky.resources.BitmapImage;
 import se.llbit.chunky.world.Clouds;
-import se.llbit.resources.ImageLoader;
-
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.zip.ZipFile;
 
 /**
  * @author Jesper Öqvist <jesper@llbit.se>
@@ -34,8 +29,7 @@ public class CloudsTexture extends TextureLoader {
     this.file = file;
   }
 
-  @Override protected boolean load(InputStream imageStream) throws IOException, TextureFormatError {
-    BitmapImage texture = ImageLoader.read(imageStream);
+  @Override protected boolean load(BitmapImage texture) throws TextureFormatError {
     if (texture.width != texture.height || texture.width != 256) {
       throw new TextureFormatError("Clouds texture size must be 256 by 256 pixels!");
     }
@@ -49,7 +43,7 @@ public class CloudsTexture extends TextureLoader {
     return true;
   }
 
-  @Override public boolean load(ZipFile texturePack, String topLevelDir) {
+  @Override public boolean load(TexturePack texturePack, String topLevelDir) {
     return load(topLevelDir + file, texturePack);
   }
 }
@@ -20,12 +20,8 @@ package se.llbit.chunky.resources.texturepack;
 import se.llbit.chunky.resources.BitmapImage;
 import se.llbit.chunky.resources.Texture;
 import se.llbit.math.ColorUtil;
-import se.llbit.resources.ImageLoader;
 
-import java.io.IOException;
-import java.io.InputStream;
 import java.util.Arrays;
-import java.util.zip.ZipFile;
 
 /**
  * This works like a simple texture loader, but it colors the texture with a base color.
@@ -43,8 +39,7 @@ public class ColoredTexture extends TextureLoader {
     ColorUtil.getRGBAComponents(color, this.color);
   }
 
-  @Override protected boolean load(InputStream imageStream) throws IOException, TextureFormatError {
-    BitmapImage image = ImageLoader.read(imageStream);
+  @Override protected boolean load(BitmapImage image) throws TextureFormatError {
     float[] pixel = new float[4];
     for (int y = 0; y < image.height; ++y) {
       for (int x = 0; x < image.width; ++x) {
@@ -61,7 +56,7 @@ public class ColoredTexture extends TextureLoader {
     return true;
   }
 
-  @Override public boolean load(ZipFile texturePack, String topLevelDir) {
+  @Override public boolean load(TexturePack texturePack, String topLevelDir) {
     return load(topLevelDir + textureName, texturePack);
   }
 
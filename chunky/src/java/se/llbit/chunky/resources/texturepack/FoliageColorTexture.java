@@ -18,11 +18,6 @@ package se.llbit.chunky.resources.texturepack;
 
 import se.llbit.chunky.resources.BitmapImage;
 import se.llbit.chunky.world.Biomes;
-import se.llbit.resources.ImageLoader;
-
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.zip.ZipFile;
 
 /**
  * @author Jesper Öqvist <jesper@llbit.se>
@@ -34,8 +29,7 @@ public class FoliageColorTexture extends TextureLoader {
     this.file = file;
   }
 
-  @Override protected boolean load(InputStream imageStream) throws IOException, TextureFormatError {
-    BitmapImage foliageColor = ImageLoader.read(imageStream);
+  @Override protected boolean load(BitmapImage foliageColor) throws TextureFormatError {
     if (foliageColor.width != 256 || foliageColor.height != 256) {
       throw new TextureFormatError("Foliage color texture must be 256 by 256 pixels!");
     }
@@ -43,7 +37,7 @@ public class FoliageColorTexture extends TextureLoader {
     return true;
   }
 
-  @Override public boolean load(ZipFile texturePack, String topLevelDir) {
+  @Override public boolean load(TexturePack texturePack, String topLevelDir) {
     return load(topLevelDir + file, texturePack);
   }
 }
@@ -17,11 +17,6 @@
 package se.llbit.chunky.resources.texturepack;
 
 import se.llbit.chunky.resources.BitmapImage;
-import se.llbit.resources.ImageLoader;
-
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.zip.ZipFile;
 
 /**
  * @author Jesper Öqvist <jesper@llbit.se>
@@ -62,8 +57,7 @@ public class FontTexture extends TextureLoader {
     this.file = file;
   }
 
-  @Override protected boolean load(InputStream imageStream) throws IOException, TextureFormatError {
-    BitmapImage spritemap = ImageLoader.read(imageStream);
+  @Override protected boolean load(BitmapImage spritemap) throws TextureFormatError {
     if (spritemap.width != 128 || spritemap.height != 128) {
       throw new TextureFormatError("Font texture must be 128 by 128 pixels");
     }
@@ -111,7 +105,7 @@ public class FontTexture extends TextureLoader {
     glyphs[ch] = new Glyph(top, bot, xmin, xmax);
   }
 
-  @Override public boolean load(ZipFile texturePack, String topLevelDir) {
+  @Override public boolean load(TexturePack texturePack, String topLevelDir) {
     return load(topLevelDir + file, texturePack);
   }
 }
@@ -18,11 +18,6 @@ package se.llbit.chunky.resources.texturepack;
 
 import se.llbit.chunky.resources.BitmapImage;
 import se.llbit.chunky.world.Biomes;
-import se.llbit.resources.ImageLoader;
-
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.zip.ZipFile;
 
 /**
  * @author Jesper Öqvist <jesper@llbit.se>
@@ -34,8 +29,7 @@ public class GrassColorTexture extends TextureLoader {
     this.file = file;
   }
 
-  @Override protected boolean load(InputStream imageStream) throws IOException, TextureFormatError {
-    BitmapImage grassColor = ImageLoader.read(imageStream);
+  @Override protected boolean load(BitmapImage grassColor) throws TextureFormatError {
     if (grassColor.width != 256 || grassColor.height != 256) {
       throw new TextureFormatError("Grass color texture must be 256 by 256 pixels!");
     }
@@ -43,7 +37,7 @@ public class GrassColorTexture extends TextureLoader {
     return true;
   }
 
-  @Override public boolean load(ZipFile texturePack, String topLevelDir) {
+  @Override public boolean load(TexturePack texturePack, String topLevelDir) {
     return load(topLevelDir + file, texturePack);
   }
 }
@@ -19,10 +19,6 @@ package se.llbit.chunky.resources.texturepack;
 import se.llbit.chunky.resources.BitmapImage;
 import se.llbit.chunky.resources.Texture;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.zip.ZipFile;
-
 /**
  * A texture indexed by position in Minecraft's old terrain.png.
  *
@@ -50,11 +46,11 @@ public class IndexedTexture extends TextureLoader {
     return true;
   }
 
-  @Override public boolean load(ZipFile texturePack, String topLevelDir) {
+  @Override public boolean load(TexturePack texturePack, String topLevelDir) {
     return false;
   }
 
-  @Override protected boolean load(InputStream imageStream) throws IOException, TextureFormatError {
+  @Override protected boolean load(BitmapImage image) throws TextureFormatError {
     return false;
   }
 
@@ -18,11 +18,6 @@ package se.llbit.chunky.resources.texturepack;
 
 import se.llbit.chunky.resources.BitmapImage;
 import se.llbit.chunky.resources.Texture;
-import se.llbit.resources.ImageLoader;
-
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.zip.ZipFile;
 
 /**
  * @author Jesper Öqvist <jesper@llbit.se>
@@ -56,8 +51,7 @@ public class LargeChestTexture extends TextureLoader {
     this.backRight = backRight;
   }
 
-  @Override protected boolean load(InputStream imageStream) throws IOException, TextureFormatError {
-    BitmapImage spritemap = ImageLoader.read(imageStream);
+  @Override protected boolean load(BitmapImage spritemap) throws TextureFormatError {
     if (spritemap.width % 16 != 0 || spritemap.height % 16 != 0) {
       throw new TextureFormatError(
           "Large chest texture file must have width and height divisible by 16!");
@@ -142,7 +136,7 @@ public class LargeChestTexture extends TextureLoader {
     return img;
   }
 
-  @Override public boolean load(ZipFile texturePack, String topLevelDir) {
+  @Override public boolean load(TexturePack texturePack, String topLevelDir) {
     return load(topLevelDir + file, texturePack);
   }
 }
@@ -19,12 +19,6 @@ package se.llbit.chunky.resources.texturepack;
 
 import se.llbit.chunky.resources.BitmapImage;
 import se.llbit.chunky.resources.Texture;
-import se.llbit.log.Log;
-import se.llbit.resources.ImageLoader;
-
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.zip.ZipFile;
 
 /**
  * Loads two textures and overlays them on top of each other.
@@ -43,34 +37,29 @@ public class LayeredTextureLoader extends TextureLoader {
     this.baseTexture = baseTextureLoader;
   }
 
-  @Override protected boolean load(InputStream imageStream) throws IOException, TextureFormatError {
-    try {
-      BitmapImage overlay = ImageLoader.read(imageStream);
-      if (overlay.width != texture.getWidth() || overlay.height != texture.getHeight()) {
-        throw new TextureFormatError(String.format(
-            "Overlay texture %s has wrong size. Expected %dx%d, but was %dx%d.",
-            textureName,
-            texture.getWidth(), texture.getHeight(),
-            overlay.width, overlay.height));
-      }
+  @Override protected boolean load(BitmapImage overlay) throws TextureFormatError {
+    if (overlay.width != texture.getWidth() || overlay.height != texture.getHeight()) {
+      throw new TextureFormatError(String.format(
+          "Overlay texture %s has wrong size. Expected %dx%d, but was %dx%d.",
+          textureName,
+          texture.getWidth(), texture.getHeight(),
+          overlay.width, overlay.height));
+    }
 
-      BitmapImage result = new BitmapImage(texture.getBitmap());
-      for (int y = 0; y < overlay.height; ++y) {
-        for (int x = 0; x < overlay.width; ++x) {
-          int pixel = overlay.getPixel(x, y);
-          if (pixel != 0) {
-            result.setPixel(x, y, pixel);
-          }
+    BitmapImage result = new BitmapImage(texture.getBitmap());
+    for (int y = 0; y < overlay.height; ++y) {
+      for (int x = 0; x < overlay.width; ++x) {
+        int pixel = overlay.getPixel(x, y);
+        if (pixel != 0) {
+          result.setPixel(x, y, pixel);
         }
       }
-      texture.setTexture(result);
-    } catch (IOException e) {
-      Log.info("Missing overlay texture: " + textureName);
     }
+    texture.setTexture(result);
     return true;
   }
 
-  @Override public boolean load(ZipFile texturePack, String topLevelDir) {
+  @Override public boolean load(TexturePack texturePack, String topLevelDir) {
     return baseTexture.load(texturePack, topLevelDir)
         && load(topLevelDir + textureName, texturePack);
   }
@@ -19,10 +19,6 @@ package se.llbit.chunky.resources.texturepack;
 import se.llbit.chunky.resources.BitmapImage;
 import se.llbit.chunky.resources.Texture;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.zip.ZipFile;
-
 /**
  * Loads a single texture and rotates it 90 degrees clockwise and
  * flips it horizontally (x & z coordinate swap).
@@ -38,7 +34,7 @@ public class RotatedTextureLoader extends TextureLoader {
     loader = new SimpleTexture(file, texture);
   }
 
-  @Override public boolean load(ZipFile texturePack, String topLevelDir) {
+  @Override public boolean load(TexturePack texturePack, String topLevelDir) {
     if (!loader.load(texturePack, topLevelDir)) {
       return false;
     }
@@ -48,7 +44,7 @@ public class RotatedTextureLoader extends TextureLoader {
     return true;
   }
 
-  @Override protected boolean load(InputStream imageStream) throws IOException, TextureFormatError {
+  @Override protected boolean load(BitmapImage image) throws TextureFormatError {
     throw new TextureFormatError("Call simple texture sub-loader instead.");
   }
 
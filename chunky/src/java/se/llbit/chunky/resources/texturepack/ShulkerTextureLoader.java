@@ -18,11 +18,6 @@ package se.llbit.chunky.resources.texturepack;
 
 import se.llbit.chunky.resources.BitmapImage;
 import se.llbit.chunky.resources.ShulkerTexture;
-import se.llbit.resources.ImageLoader;
-
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.zip.ZipFile;
 
 /**
  * Loads a set of shulker textures for rendering shulker boxes.
@@ -42,8 +37,7 @@ public class ShulkerTextureLoader extends TextureLoader {
     this.texture = texture;
   }
 
-  @Override protected boolean load(InputStream imageStream) throws IOException, TextureFormatError {
-    BitmapImage image = ImageLoader.read(imageStream);
+  @Override protected boolean load(BitmapImage image) throws TextureFormatError {
     if (image.width != image.height || image.width % 16 != 0) {
       throw new TextureFormatError(
           "Shulker texture must have equal width and height, divisible by 16!");
@@ -123,7 +117,7 @@ public class ShulkerTextureLoader extends TextureLoader {
     return image;
   }
 
-  @Override public boolean load(ZipFile texturePack, String topLevelDir) {
+  @Override public boolean load(TexturePack texturePack, String topLevelDir) {
     return load(topLevelDir + entityTexture, texturePack);
   }
 }
@@ -18,11 +18,6 @@ package se.llbit.chunky.resources.texturepack;
 
 import se.llbit.chunky.resources.BitmapImage;
 import se.llbit.chunky.resources.Texture;
-import se.llbit.resources.ImageLoader;
-
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.zip.ZipFile;
 
 /**
  * Non-animated texture loader.
@@ -39,9 +34,7 @@ public class SimpleTexture extends TextureLoader {
     this.texture = texture;
   }
 
-  @Override protected boolean load(InputStream imageStream) throws IOException {
-    BitmapImage image = ImageLoader.read(imageStream);
-
+  @Override protected boolean load(BitmapImage image) throws TextureFormatError {
     if (image.height > image.width) {
       // Assuming this is an animated texture.
       // Just grab the first frame.
@@ -60,7 +53,7 @@ public class SimpleTexture extends TextureLoader {
     return true;
   }
 
-  @Override public boolean load(ZipFile texturePack, String topLevelDir) {
+  @Override public boolean load(TexturePack texturePack, String topLevelDir) {
     return load(topLevelDir + file, texturePack);
   }
 
@@ -18,13 +18,10 @@ package se.llbit.chunky.resources.texturepack;
 
 import se.llbit.chunky.resources.BitmapImage;
 import se.llbit.log.Log;
+import se.llbit.resources.ImageLoader;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 /**
  * This class loads textures from a Minecraft resource pack.
@@ -48,14 +45,14 @@ public abstract class TextureLoader {
   /**
    * Attempt to load a texture from a texture pack.
    *
-   * @param texturePack Reference to the texture pack zip file
+   * @param texturePack The texture pack to load images from
    * @param topLevelDir The top-level directory of the resource pack, with
    * trailing slash. The assets directory should be inside the top-level directory.
    * This can be empty, if the assets directory is a top-level directory of the
    * Zip file.
    * @return <code>true</code> if the texture was successfully loaded
    */
-  public abstract boolean load(ZipFile texturePack, String topLevelDir);
+  public abstract boolean load(TexturePack texturePack, String topLevelDir);
 
   /**
    * Attempt to load a texture from a PNG image file.
@@ -66,29 +63,26 @@ public abstract class TextureLoader {
    * @throws IOException
    */
   public boolean load(File file) throws IOException, TextureFormatError {
-    FileInputStream in = new FileInputStream(file);
-    boolean result = load(in);
-    in.close();
-    return result;
+    return load(ImageLoader.read(file));
   }
 
   /**
    * Attempt to load a texture from a texture pack.
    *
    * @param file        Path of texture in texture pack
-   * @param texturePack Reference to the texture pack zip file
+   * @param texturePack The texture pack to load the image from
    * @return <code>true</code> if the texture was successfully loaded
    */
-  protected boolean load(String file, ZipFile texturePack) {
-    try (InputStream in = texturePack.getInputStream(new ZipEntry(file + ".png"))) {
-      if (in != null) {
-        return load(in);
+  protected boolean load(String file, TexturePack texturePack) {
+    BitmapImage image = texturePack.getImage(file + ".png");
+    if (image != null) {
+      try {
+        return load(image);
+      } catch (TextureFormatError e) {
+        Log.info(e.getMessage());
       }
-    } catch (TextureFormatError e) {
-      Log.info(e.getMessage());
-    } catch (IOException e) {
-      // Safe to ignore - will be handled implicitly later.
     }
+    // A missing or unreadable image is handled implicitly later.
     return false;
   }
 
@@ -101,5 +95,11 @@ public abstract class TextureLoader {
     return false;
   }
 
-  protected abstract boolean load(InputStream imageStream) throws IOException, TextureFormatError;
+  /**
+   * Load this texture from a decoded image. The image is not shared, so the
+   * loader may modify it or keep a reference to it.
+   *
+   * @return <code>true</code> if the texture was successfully loaded
+   */
+  protected abstract boolean load(BitmapImage image) throws TextureFormatError;
 }
@@ -0,0 +1,182 @@
+/* Copyright (c) 2019 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.resources.texturepack;
+
+import se.llbit.chunky.resources.BitmapImage;
+import se.llbit.resources.ImageLoader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A resource pack that textures are loaded from.
+ *
+ * <p>The Zip file is opened on first use. Each image is decoded once and
+ * kept until the texture pack is discarded, so several texture loaders can
+ * read images from the same pack concurrently. The decoded images, including
+ * images that were not found, are recorded so that they can be stored in a
+ * {@link TexturePackCache}.
+ *
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public class TexturePack implements AutoCloseable {
+  /** Placeholder for images that are missing or could not be decoded. */
+  private static final BitmapImage MISSING = new BitmapImage(0, 0);
+
+  private final File file;
+  private final Map<String, BitmapImage> images = new ConcurrentHashMap<>();
+  private ZipFile zipFile = null;
+  private boolean scanned = false;
+  private String topLevel = null;
+  private volatile boolean modified = false;
+
+  public TexturePack(File file) {
+    this.file = file;
+  }
+
+  /**
+   * Create a texture pack with images restored from a cache.
+   *
+   * @param images decoded images, with {@code null} values for missing images
+   */
+  TexturePack(File file, boolean scanned, String topLevel, Map<String, BitmapImage> images) {
+    this.file = file;
+    this.scanned = scanned;
+    this.topLevel = topLevel;
+    images.forEach((name, image) -> this.images.put(name, image != null ? image : MISSING));
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Find the top-level directory of the resource pack.
+   * The assets directory can be inside a top-level directory with
+   * the same name as the resource pack zip file.
+   *
+   * @return the top-level directory with trailing slash, an empty string if
+   * the assets directory is a top-level directory of the Zip file, or
+   * {@code null} if the resource pack has no assets directory
+   * @throws IOException if the Zip file could not be opened
+   */
+  public synchronized String getTopLevel() throws IOException {
+    if (!scanned) {
+      String basename = file.getName().toLowerCase();
+      if (basename.endsWith(".zip")) {
+        basename = basename.substring(0, basename.length() - 4);
+      }
+      Enumeration<? extends ZipEntry> entries = zipFile().entries();
+      while (entries.hasMoreElements()) {
+        String name = entries.nextElement().getName();
+        if (name.startsWith("assets/")) {
+          topLevel = "";
+          break;
+        }
+        if (name.toLowerCase().startsWith(basename) &&
+            name.substring(basename.length()).startsWith("/assets/")) {
+          topLevel = name.substring(0, basename.length()) + "/";
+          break;
+        }
+      }
+      scanned = true;
+      modified = true;
+    }
+    return topLevel;
+  }
+
+  /**
+   * Get an image from the resource pack. Each image is only decoded once.
+   *
+   * @param name path of the image in the Zip file
+   * @return a copy of the image, or {@code null} if the image is missing or
+   * could not be decoded
+   */
+  public BitmapImage getImage(String name) {
+    BitmapImage image = images.get(name);
+    if (image == null) {
+      image = decode(name);
+      BitmapImage previous = images.putIfAbsent(name, image);
+      if (previous != null) {
+        image = previous;
+      }
+      modified = true;
+    }
+    return image != MISSING ? new BitmapImage(image) : null;
+  }
+
+  private BitmapImage decode(String name) {
+    try {
+      ZipFile zip = zipFile();
+      ZipEntry entry = zip.getEntry(name);
+      if (entry != null) {
+        try (InputStream in = zip.getInputStream(entry)) {
+          return ImageLoader.read(in);
+        }
+      }
+    } catch (IOException e) {
+      // Safe to ignore - will be handled implicitly later.
+    }
+    return MISSING;
+  }
+
+  private synchronized ZipFile zipFile() throws IOException {
+    if (zipFile == null) {
+      zipFile = new ZipFile(file);
+    }
+    return zipFile;
+  }
+
+  /**
+   * @return {@code true} if the Zip file was scanned or images were decoded
+   * since this texture pack was created
+   */
+  public boolean isModified() {
+    return modified;
+  }
+
+  /**
+   * @return {@code true} if the top-level directory has been searched for
+   */
+  synchronized boolean isScanned() {
+    return scanned;
+  }
+
+  /**
+   * Visit the recorded images. Missing images are passed as {@code null}.
+   */
+  void forEachImage(BiConsumer<String, BitmapImage> consumer) {
+    images.forEach((name, image) -> consumer.accept(name, image != MISSING ? image : null));
+  }
+
+  /**
+   * Close the Zip file. Images that were already decoded can still be read.
+   */
+  @Override public synchronized void close() throws IOException {
+    if (zipFile != null) {
+      zipFile.close();
+      zipFile = null;
+    }
+  }
+}
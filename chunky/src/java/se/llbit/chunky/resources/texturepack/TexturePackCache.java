@@ -0,0 +1,205 @@
+/* Copyright (c) 2019 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.resources.texturepack;
+
+import se.llbit.chunky.PersistentSettings;
+import se.llbit.chunky.resources.BitmapImage;
+import se.llbit.log.Log;
+import se.llbit.util.Util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent cache of the images decoded from a list of resource packs.
+ *
+ * <p>Loading the textures requires scanning the resource pack Zip files and
+ * decoding several hundred PNG images. The decoded images are stored
+ * uncompressed in a single cache file, so that later launches using the same
+ * resource packs do not need to open the Zip files at all. The cache is only
+ * used if the path, size, and modification time of each resource pack match,
+ * in the same load order.
+ *
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public class TexturePackCache {
+  private static final int MAGIC = 0x43545043; // "CTPC"
+  private static final int VERSION = 1;
+
+  private final File file;
+
+  /**
+   * @param file the cache file
+   */
+  public TexturePackCache(File file) {
+    this.file = file;
+  }
+
+  /**
+   * @return the texture cache in the Chunky cache directory
+   */
+  public static TexturePackCache getDefault() {
+    return new TexturePackCache(new File(PersistentSettings.cacheDirectory(), "textures.cache"));
+  }
+
+  /**
+   * Identify some resource packs by the path, size, and modification time of
+   * each resource pack, in load order. The identity changes whenever a cache
+   * for the resource packs would no longer be used.
+   *
+   * @return a short string which can be used in file names
+   */
+  public static String identity(List<File> files) {
+    int hash = 1;
+    for (File pack : files) {
+      hash = 31 * hash + pack.getAbsolutePath().hashCode();
+      hash = 31 * hash + Long.hashCode(pack.length());
+      hash = 31 * hash + Long.hashCode(pack.lastModified());
+    }
+    return Util.cacheEncode(hash);
+  }
+
+  /**
+   * Load the cached images for some resource packs.
+   *
+   * @param files the resource pack files, in load order
+   * @return the resource packs with cached images, in the same order as the
+   * files, or {@code null} if the cache does not match the resource packs
+   */
+  public List<TexturePack> load(List<File> files) {
+    if (!file.isFile()) {
+      return null;
+    }
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != files.size()) {
+        return null;
+      }
+      for (File pack : files) {
+        if (!in.readUTF().equals(pack.getAbsolutePath())
+            || in.readLong() != pack.length()
+            || in.readLong() != pack.lastModified()) {
+          return null;
+        }
+      }
+      List<TexturePack> packs = new ArrayList<>(files.size());
+      for (File pack : files) {
+        boolean scanned = in.readBoolean();
+        String topLevel = in.readBoolean() ? in.readUTF() : null;
+        int count = in.readInt();
+        Map<String, BitmapImage> images = new HashMap<>();
+        for (int i = 0; i < count; ++i) {
+          String name = in.readUTF();
+          int width = in.readInt();
+          if (width < 0) {
+            images.put(name, null);
+          } else {
+            int height = in.readInt();
+            BitmapImage image = new BitmapImage(width, height);
+            byte[] data = new byte[width * height * 4];
+            in.readFully(data);
+            ByteBuffer.wrap(data).asIntBuffer().get(image.data);
+            images.put(name, image);
+          }
+        }
+        packs.add(new TexturePack(pack, scanned, topLevel, images));
+      }
+      return packs;
+    } catch (IOException e) {
+      Log.info("Failed to read texture cache: " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Store the images decoded from some resource packs, replacing the
+   * previous cache.
+   *
+   * @param packs the resource packs, in load order
+   */
+  public void store(List<TexturePack> packs) {
+    File directory = file.getAbsoluteFile().getParentFile();
+    File temp = null;
+    try {
+      if (!directory.isDirectory() && !directory.mkdirs()) {
+        throw new IOException("Could not create cache directory " + directory);
+      }
+      temp = File.createTempFile(file.getName(), ".tmp", directory);
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(temp)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(packs.size());
+        for (TexturePack pack : packs) {
+          out.writeUTF(pack.getFile().getAbsolutePath());
+          out.writeLong(pack.getFile().length());
+          out.writeLong(pack.getFile().lastModified());
+        }
+        for (TexturePack pack : packs) {
+          boolean scanned = pack.isScanned();
+          String topLevel = scanned ? pack.getTopLevel() : null;
+          out.writeBoolean(scanned);
+          out.writeBoolean(topLevel != null);
+          if (topLevel != null) {
+            out.writeUTF(topLevel);
+          }
+          List<String> names = new ArrayList<>();
+          List<BitmapImage> images = new ArrayList<>();
+          pack.forEachImage((name, image) -> {
+            names.add(name);
+            images.add(image);
+          });
+          out.writeInt(names.size());
+          for (int i = 0; i < names.size(); ++i) {
+            BitmapImage image = images.get(i);
+            out.writeUTF(names.get(i));
+            if (image == null) {
+              out.writeInt(-1);
+            } else {
+              out.writeInt(image.width);
+              out.writeInt(image.height);
+              ByteBuffer data = ByteBuffer.allocate(image.data.length * 4);
+              data.asIntBuffer().put(image.data);
+              out.write(data.array());
+            }
+          }
+        }
+      }
+      Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      Log.warn("Failed to write texture cache: " + e.getMessage());
+    } finally {
+      if (temp != null) {
+        temp.delete();
+      }
+    }
+  }
+}
@@ -18,11 +18,6 @@ package se.llbit.chunky.resources.texturepack;
 
 import se.llbit.chunky.resources.BitmapImage;
 import se.llbit.chunky.resources.EntityTexture;
-import se.llbit.resources.ImageLoader;
-
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.zip.ZipFile;
 
 /**
  * Helper to load entity textures, i.e. creeper, zombie, skeleton etc. textures.
@@ -38,9 +33,7 @@ public class ThinArmEntityTextureLoader extends TextureLoader {
     this.texture = texture;
   }
 
-  @Override protected boolean load(InputStream imageStream) throws IOException, TextureFormatError {
-    BitmapImage image = ImageLoader.read(imageStream);
-
+  @Override protected boolean load(BitmapImage image) throws TextureFormatError {
     if (image.width != image.height && image.width != 2 * image.height) {
       throw new TextureFormatError("Entity texture should be 64x64 or 64x32 pixels, "
           + "or a multiple of those dimensions.");
@@ -125,7 +118,7 @@ public class ThinArmEntityTextureLoader extends TextureLoader {
     return true;
   }
 
-  @Override public boolean load(ZipFile texturePack, String topLevelDir) {
+  @Override public boolean load(TexturePack texturePack, String topLevelDir) {
     return load(topLevelDir + file, texturePack);
   }
 
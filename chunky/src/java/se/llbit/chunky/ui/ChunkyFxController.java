@@ -343,7 +343,8 @@ public class ChunkyFxController
         new Tooltip("Select resource packs Chunky uses to load textures."));
     editResourcePacks.setGraphic(new ImageView(Icon.pencil.fxImage()));
     editResourcePacks.setOnAction(e -> {
-      ResourceLoadOrderEditor editor = new ResourceLoadOrderEditor();
+      // Redraw the map with the colors of the new textures.
+      ResourceLoadOrderEditor editor = new ResourceLoadOrderEditor(mapLoader::reloadWorld);
       editor.show();
     });
 
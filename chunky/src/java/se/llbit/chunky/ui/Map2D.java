@@ -56,6 +56,7 @@ public class Map2D implements ChunkUpdateListener, ChunkViewListener {
   }
 
   @Override public void chunkUpdated(ChunkPosition chunk) {
+    mapBuffer.invalidateChunk(chunk);
     if (view.chunkScale >= 16) {
       mapBuffer.drawTile(mapLoader, chunk);
     } else {
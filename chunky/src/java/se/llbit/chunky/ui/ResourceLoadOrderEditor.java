@@ -43,7 +43,11 @@ public class ResourceLoadOrderEditor extends Stage {
 
   private static File prevDir = null;
 
-  public ResourceLoadOrderEditor() {
+  /**
+   * @param onApply called after the textures have been loaded from the
+   * selected resource packs
+   */
+  public ResourceLoadOrderEditor(Runnable onApply) {
     VBox content = new VBox();
     content.setSpacing(10);
     content.setPadding(new Insets(10));
@@ -58,6 +62,7 @@ public class ResourceLoadOrderEditor extends Stage {
       pathList.getItems().toArray(paths);
       TexturePackLoader.loadTexturePacks(paths, true);
       TextureCache.reset();
+      onApply.run();
       hide();
     });
     Button up = new Button("Up");
@@ -34,6 +34,7 @@ import se.llbit.chunky.renderer.scene.Scene;
 import se.llbit.chunky.ui.IntegerAdjuster;
 import se.llbit.chunky.ui.RenderControlsFxController;
 import se.llbit.chunky.ui.ShutdownAlert;
+import se.llbit.chunky.world.DecodedChunkCache;
 
 import java.io.File;
 import java.io.IOException;
@@ -48,6 +49,7 @@ public class AdvancedTab extends ScrollPane implements RenderControlsTab, Initia
   private final Tab parentTab;
   @FXML private IntegerAdjuster renderThreads;
   @FXML private IntegerAdjuster cpuLoad;
+  @FXML private IntegerAdjuster chunkCacheSize;
   @FXML private IntegerAdjuster rayDepth;
   @FXML private Button mergeRenderDump;
   @FXML private CheckBox shutdown;
@@ -72,6 +74,14 @@ public class AdvancedTab extends ScrollPane implements RenderControlsTab, Initia
       PersistentSettings.setCPULoad(value);
       controller.getRenderer().setCPULoad(value);
     });
+    chunkCacheSize.setName("Chunk cache size (MiB)");
+    chunkCacheSize.setTooltip("Memory used to keep decoded chunks for the map and scene loader.");
+    chunkCacheSize.setRange(0, 1024);
+    chunkCacheSize.clampMin();
+    chunkCacheSize.onValueChange(value -> {
+      PersistentSettings.setChunkCacheSize(value);
+      DecodedChunkCache.getInstance().setCapacity(value * (1L << 20));
+    });
     rayDepth.setName("Ray depth");
     rayDepth.setTooltip("Sets the minimum recursive ray depth.");
     rayDepth.setRange(1, 25);
@@ -117,6 +127,7 @@ public class AdvancedTab extends ScrollPane implements RenderControlsTab, Initia
     fastFog.setSelected(scene.fastFog());
     renderThreads.set(PersistentSettings.getNumThreads());
     cpuLoad.set(PersistentSettings.getCPULoad());
+    chunkCacheSize.set(PersistentSettings.getChunkCacheSize());
     rayDepth.set(scene.getRayDepth());
   }
 
@@ -0,0 +1,256 @@
+/* Copyright (c) 2019 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.world;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Dense grid of biome IDs covering the bounding rectangle of a chunk
+ * selection.
+ *
+ * <p>The grass and foliage colors are blended with a box blur over the
+ * biomes of the loaded chunks. Columns in chunks that have not been loaded
+ * do not contribute to the blur. The blur is separable, so each color is
+ * computed with a running sum along the rows followed by a running sum along
+ * the columns, independent of the blur radius.
+ *
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public class BiomeGrid {
+
+  private final int cx0;
+  private final int cz0;
+
+  /** Width of the grid in chunks. */
+  private final int chunksX;
+
+  /** Height of the grid in chunks. */
+  private final int chunksZ;
+
+  /** Width of the grid in blocks. */
+  private final int width;
+
+  /** Biome IDs indexed by {@code z * width + x}, relative to the grid corner. */
+  private final byte[] biomes;
+
+  /** Loaded flags indexed by {@code cz * chunksX + cx}, relative to the grid corner. */
+  private final boolean[] loaded;
+
+  /**
+   * Create an empty grid covering the given chunks.
+   */
+  public BiomeGrid(Collection<ChunkPosition> chunks) {
+    int xmin = Integer.MAX_VALUE;
+    int xmax = Integer.MIN_VALUE;
+    int zmin = Integer.MAX_VALUE;
+    int zmax = Integer.MIN_VALUE;
+    for (ChunkPosition cp : chunks) {
+      xmin = Math.min(xmin, cp.x);
+      xmax = Math.max(xmax, cp.x);
+      zmin = Math.min(zmin, cp.z);
+      zmax = Math.max(zmax, cp.z);
+    }
+    if (chunks.isEmpty()) {
+      xmin = xmax = zmin = zmax = 0;
+    }
+    cx0 = xmin;
+    cz0 = zmin;
+    chunksX = xmax - xmin + 1;
+    chunksZ = zmax - zmin + 1;
+    width = chunksX * 16;
+    biomes = new byte[width * chunksZ * 16];
+    loaded = new boolean[chunksX * chunksZ];
+  }
+
+  /**
+   * @return {@code true} if the chunk is inside the grid
+   */
+  public boolean contains(ChunkPosition cp) {
+    return cp.x >= cx0 && cp.x < cx0 + chunksX && cp.z >= cz0 && cp.z < cz0 + chunksZ;
+  }
+
+  /**
+   * Store the biome IDs of a chunk and mark it as loaded.
+   *
+   * @param chunkBiomes the biome IDs of the chunk, indexed by
+   * {@link Chunk#chunkXZIndex(int, int)}
+   * @throws IllegalArgumentException if the chunk is outside the grid
+   */
+  public void setChunk(ChunkPosition cp, byte[] chunkBiomes) {
+    if (!contains(cp)) {
+      throw new IllegalArgumentException("Chunk outside biome grid: " + cp);
+    }
+    int x0 = (cp.x - cx0) * 16;
+    int z0 = (cp.z - cz0) * 16;
+    for (int z = 0; z < 16; ++z) {
+      System.arraycopy(chunkBiomes, Chunk.chunkXZIndex(0, z), biomes, (z0 + z) * width + x0, 16);
+    }
+    loaded[(cp.z - cz0) * chunksX + cp.x - cx0] = true;
+  }
+
+  /**
+   * @return the biome ID at (x, z) in world coordinates
+   */
+  public int get(int x, int z) {
+    return 0xFF & biomes[(z - cz0 * 16) * width + x - cx0 * 16];
+  }
+
+  private boolean isLoaded(int cx, int cz) {
+    return loaded[cz * chunksX + cx];
+  }
+
+  /**
+   * Blend the grass and foliage colors of the given chunks and write them
+   * to the world textures. Chunk rows are blended in parallel.
+   *
+   * @param radius the blur radius in blocks, zero disables blending
+   * @param chunks the chunks to write colors for
+   * @param originX world X coordinate of the texture origin
+   * @param originZ world Z coordinate of the texture origin
+   */
+  public void blur(int radius, Collection<ChunkPosition> chunks, WorldTexture grassTexture,
+      WorldTexture foliageTexture, int originX, int originZ) {
+    float[] palette = new float[256 * 6];
+    for (int id = 0; id < 256; ++id) {
+      System.arraycopy(Biomes.getGrassColorLinear(id), 0, palette, id * 6, 3);
+      System.arraycopy(Biomes.getFoliageColorLinear(id), 0, palette, id * 6 + 3, 3);
+    }
+    List<List<ChunkPosition>> rows = new ArrayList<>(chunksZ);
+    for (int i = 0; i < chunksZ; ++i) {
+      rows.add(new ArrayList<>());
+    }
+    for (ChunkPosition cp : chunks) {
+      if (contains(cp) && isLoaded(cp.x - cx0, cp.z - cz0)) {
+        rows.get(cp.z - cz0).add(cp);
+      }
+    }
+    IntStream.range(0, chunksZ).parallel().forEach(row -> {
+      if (!rows.get(row).isEmpty()) {
+        blurRow(Math.max(0, radius), row, rows.get(row), palette, grassTexture, foliageTexture,
+            originX, originZ);
+      }
+    });
+  }
+
+  /**
+   * Blend the colors of the chunks in one chunk row.
+   */
+  private void blurRow(int radius, int row, List<ChunkPosition> chunks, float[] palette,
+      WorldTexture grassTexture, WorldTexture foliageTexture, int originX, int originZ) {
+    // Only the columns needed for the chunks in this row are blended.
+    int xmin = Integer.MAX_VALUE;
+    int xmax = Integer.MIN_VALUE;
+    for (ChunkPosition cp : chunks) {
+      xmin = Math.min(xmin, (cp.x - cx0) * 16);
+      xmax = Math.max(xmax, (cp.x - cx0) * 16 + 16);
+    }
+    int columns = xmax - xmin;
+    int zmin = Math.max(0, row * 16 - radius);
+    int zmax = Math.min(chunksZ * 16, row * 16 + 16 + radius);
+
+    // Horizontal pass: the weighted color sums and the weights for each
+    // row of the strip.
+    int rows = zmax - zmin;
+    float[] sums = new float[rows * columns * 7];
+    for (int z = zmin; z < zmax; ++z) {
+      int cz = z >> 4;
+      int out = (z - zmin) * columns * 7;
+      int lo = Math.max(0, xmin - radius);
+      int hi = Math.min(width, xmax + radius);
+      double[] sum = new double[7];
+      // Prime the window with the columns left of the first output column.
+      for (int x = lo; x < xmin + radius && x < hi; ++x) {
+        add(sum, z, x, cz, palette, 1);
+      }
+      for (int x = xmin; x < xmax; ++x) {
+        int enter = x + radius;
+        int exit = x - radius - 1;
+        if (enter < hi) {
+          add(sum, z, enter, cz, palette, 1);
+        }
+        if (exit >= lo) {
+          add(sum, z, exit, cz, palette, -1);
+        }
+        for (int i = 0; i < 7; ++i) {
+          sums[out++] = (float) sum[i];
+        }
+      }
+    }
+
+    // Vertical pass over the output rows of the strip.
+    float[] grass = new float[16 * columns * 3];
+    float[] foliage = new float[16 * columns * 3];
+    double[] sum = new double[7];
+    for (int x = 0; x < columns; ++x) {
+      Arrays.fill(sum, 0);
+      int z0 = row * 16;
+      for (int z = zmin; z < z0 + radius && z < zmax; ++z) {
+        addColumn(sum, sums, ((z - zmin) * columns + x) * 7, 1);
+      }
+      for (int z = z0; z < z0 + 16; ++z) {
+        int enter = z + radius;
+        int exit = z - radius - 1;
+        if (enter < zmax) {
+          addColumn(sum, sums, ((enter - zmin) * columns + x) * 7, 1);
+        }
+        if (exit >= zmin) {
+          addColumn(sum, sums, ((exit - zmin) * columns + x) * 7, -1);
+        }
+        int out = ((z - z0) * columns + x) * 3;
+        double weight = sum[6];
+        grass[out] = (float) (sum[0] / weight);
+        grass[out + 1] = (float) (sum[1] / weight);
+        grass[out + 2] = (float) (sum[2] / weight);
+        foliage[out] = (float) (sum[3] / weight);
+        foliage[out + 1] = (float) (sum[4] / weight);
+        foliage[out + 2] = (float) (sum[5] / weight);
+      }
+    }
+
+    for (ChunkPosition cp : chunks) {
+      int offset = (cp.x - cx0) * 16 - xmin;
+      int tx = cp.x * 16 - originX;
+      int tz = cp.z * 16 - originZ;
+      grassTexture.setArea(tx, tz, 16, 16, grass, offset, columns);
+      foliageTexture.setArea(tx, tz, 16, 16, foliage, offset, columns);
+    }
+  }
+
+  /**
+   * Add the colors of the biome at (x, z) in grid coordinates to the running
+   * sum, if the column is in a loaded chunk.
+   */
+  private void add(double[] sum, int z, int x, int cz, float[] palette, int sign) {
+    if (isLoaded(x >> 4, cz)) {
+      int color = (0xFF & biomes[z * width + x]) * 6;
+      for (int i = 0; i < 6; ++i) {
+        sum[i] += sign * palette[color + i];
+      }
+      sum[6] += sign;
+    }
+  }
+
+  private static void addColumn(double[] sum, float[] sums, int index, int sign) {
+    for (int i = 0; i < 7; ++i) {
+      sum[i] += sign * sums[index + i];
+    }
+  }
+}
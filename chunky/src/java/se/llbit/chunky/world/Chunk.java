@@ -22,7 +22,9 @@ import se.llbit.chunky.map.BiomeLayer;
 import se.llbit.chunky.map.BlockLayer;
 import se.llbit.chunky.map.CaveLayer;
 import se.llbit.chunky.map.CorruptLayer;
+import se.llbit.chunky.map.MapPyramid;
 import se.llbit.chunky.map.MapTile;
+import se.llbit.chunky.map.MapTileCache;
 import se.llbit.chunky.map.SurfaceLayer;
 import se.llbit.chunky.map.UnknownLayer;
 import se.llbit.chunky.map.WorldMapLoader;
@@ -36,9 +38,14 @@ import se.llbit.nbt.SpecificTag;
 import se.llbit.util.NotNull;
 
 import java.io.DataInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -136,7 +143,17 @@ public class Chunk {
     Region region = world.getRegion(position.getRegionPosition());
     ChunkDataSource data = region.getChunkData(position);
     dataTimestamp = data.timestamp;
-    if (data.inputStream != null) {
+    return parseChunkData(data, request);
+  }
+
+  /**
+   * Parse the requested tags from a chunk data source.
+   *
+   * @param request fresh request set
+   * @return loaded data, or null if something went wrong
+   */
+  public static Map<String, Tag> parseChunkData(ChunkDataSource data, Set<String> request) {
+    if (data != null && data.inputStream != null) {
       try (DataInputStream in = data.inputStream) {
         Map<String, Tag> result = NamedTag.quickParse(in, request);
         for (String key : request) {
@@ -191,95 +208,259 @@ public class Chunk {
 
     loadedLayer = requestedLayer;
 
-    Map<String, Tag> data = getChunkData(renderer.getRequest(view));
-
+    // Use cached layers if the chunk has not changed since they were cached.
+    MapTileCache cache = loader.getTileCache();
+    int timestamp = world.getRegion(position.getRegionPosition()).getChunkTimestamp(position);
     int layers = renderer.getLayers(view);
+    int missing = 0;
+    if ((layers & BLOCK_LAYER) != 0) {
+      AbstractLayer cached = cache.loadBlockLayer(position, timestamp, requestedLayer);
+      if (cached != null) {
+        layerTimestamp = timestamp;
+        layer = cached;
+      } else {
+        missing |= BLOCK_LAYER;
+      }
+    }
+    if ((layers & SURFACE_LAYER) != 0) {
+      int[] heights = new int[X_MAX * Z_MAX];
+      AbstractLayer cached = cache.loadSurface(position, timestamp, heights);
+      if (cached != null) {
+        surfaceTimestamp = timestamp;
+        updateHeightmap(world.heightmap(), position, heights);
+        surface = cached;
+        queueTopography();
+      } else {
+        missing |= SURFACE_LAYER;
+      }
+    }
+    if ((layers & BIOME_LAYER) != 0) {
+      AbstractLayer cached = cache.loadBiomes(position, timestamp);
+      if (cached != null) {
+        biomesTimestamp = timestamp;
+        biomes = cached;
+      } else {
+        missing |= BIOME_LAYER;
+      }
+    }
+    if ((layers & CAVE_LAYER) != 0) {
+      AbstractLayer cached = cache.loadCaves(position, timestamp);
+      if (cached != null) {
+        cavesTimestamp = timestamp;
+        caves = cached;
+      } else {
+        missing |= CAVE_LAYER;
+      }
+    }
+
+    if (missing != 0) {
+      DecodedChunk data = getDecodedChunk(renderer.getRequest(view));
+
+      if ((missing & BLOCK_LAYER) != 0) {
+        layerTimestamp = dataTimestamp;
+        loadLayer(data, requestedLayer, cache);
+      }
+      if ((missing & SURFACE_LAYER) != 0) {
+        surfaceTimestamp = dataTimestamp;
+        loadSurface(data, cache);
+      }
+      if ((missing & BIOME_LAYER) != 0) {
+        biomesTimestamp = dataTimestamp;
+        loadBiomes(data, cache);
+      }
+      if ((missing & CAVE_LAYER) != 0) {
+        cavesTimestamp = dataTimestamp;
+        loadCaves(data, cache);
+      }
+    }
+
+    // Update the average chunk colors used by the zoomed-out map.
+    MapPyramid pyramid = loader.getMapPyramid();
     if ((layers & BLOCK_LAYER) != 0) {
-      layerTimestamp = dataTimestamp;
-      loadLayer(data, requestedLayer);
+      pyramid.update(MapPyramid.layerName(BLOCK_LAYER, requestedLayer), position, layerTimestamp,
+          layer.getAvgColor());
     }
     if ((layers & SURFACE_LAYER) != 0) {
-      surfaceTimestamp = dataTimestamp;
-      loadSurface(data);
+      pyramid.update(MapPyramid.layerName(SURFACE_LAYER, requestedLayer), position,
+          surfaceTimestamp, surface.getAvgColor());
     }
     if ((layers & BIOME_LAYER) != 0) {
-      biomesTimestamp = dataTimestamp;
-      loadBiomes(data);
+      pyramid.update(MapPyramid.layerName(BIOME_LAYER, requestedLayer), position,
+          biomesTimestamp, biomes.getAvgColor());
     }
     if ((layers & CAVE_LAYER) != 0) {
-      cavesTimestamp = dataTimestamp;
-      loadCaves(data);
+      pyramid.update(MapPyramid.layerName(CAVE_LAYER, requestedLayer), position, cavesTimestamp,
+          caves.getAvgColor());
     }
 
     world.chunkUpdated(position);
   }
 
-  private void loadSurface(Map<String, Tag> data) {
-    if (data == null) {
-      surface = CorruptLayer.INSTANCE;
-      return;
+  private void loadSurface(DecodedChunk data, MapTileCache cache) {
+    int[] heights = new int[X_MAX * Z_MAX];
+    AbstractLayer surface = decodeSurface(data, world.currentDimension(), heights);
+    if (surface instanceof SurfaceLayer) {
+      updateHeightmap(world.heightmap(), position, heights);
+      cache.storeSurface(position, dataTimestamp, (SurfaceLayer) surface, heights);
+      this.surface = surface;
+      queueTopography();
+    } else {
+      this.surface = surface;
     }
+  }
 
-    Heightmap heightmap = world.heightmap();
-    Tag sections = data.get(LEVEL_SECTIONS);
-    if (sections.isList()) {
-      int[] heightmapData = extractHeightmapData(data);
-      byte[] biomeData = new byte[X_MAX * Z_MAX];
-      extractBiomeData(data.get(LEVEL_BIOMES), biomeData);
-      byte[] chunkData = new byte[CHUNK_BYTES];
-      byte[] blockData = new byte[CHUNK_BYTES];
-      extractChunkData(data, chunkData, blockData);
-      updateHeightmap(heightmap, position, chunkData, heightmapData);
-      surface = new SurfaceLayer(world.currentDimension(), chunkData, biomeData, blockData);
-      queueTopography();
+  /**
+   * Decode the surface layer of a chunk. The topography of the surface layer
+   * is not rendered.
+   *
+   * @param heights the surface heights of the chunk are stored in this array
+   * @return the surface layer, or a corrupt layer if the chunk data is invalid
+   */
+  public static AbstractLayer decodeSurface(DecodedChunk data, int dimension, int[] heights) {
+    if (data != null && data.hasSections) {
+      System.arraycopy(surfaceHeights(data.blocks, data.heightmap), 0, heights, 0, X_MAX * Z_MAX);
+      return new SurfaceLayer(dimension, data.blocks, data.biomes, data.blockData);
     } else {
-      surface = CorruptLayer.INSTANCE;
+      return CorruptLayer.INSTANCE;
     }
   }
 
-  private void loadBiomes(Map<String, Tag> data) {
+  private void loadBiomes(DecodedChunk data, MapTileCache cache) {
+    AbstractLayer biomes = decodeBiomes(data);
+    if (biomes instanceof BiomeLayer) {
+      cache.storeBiomes(position, dataTimestamp, (BiomeLayer) biomes);
+    }
+    this.biomes = biomes;
+  }
+
+  /**
+   * Decode the biome layer of a chunk.
+   *
+   * @return the biome layer, or a corrupt layer if the chunk data is invalid
+   */
+  public static AbstractLayer decodeBiomes(DecodedChunk data) {
     if (data == null) {
-      biomes = CorruptLayer.INSTANCE;
+      return CorruptLayer.INSTANCE;
     } else {
-      byte[] biomeData = new byte[X_MAX * Z_MAX];
-      extractBiomeData(data.get(LEVEL_BIOMES), biomeData);
-      biomes = new BiomeLayer(biomeData);
+      return new BiomeLayer(data.biomes);
     }
   }
 
-  private void loadLayer(Map<String, Tag> data, int requestedLayer) {
-    if (data == null) {
+  private void loadLayer(DecodedChunk data, int requestedLayer, MapTileCache cache) {
+    if (data != null && data.hasSections) {
+      BlockLayer layer = new BlockLayer(data.blocks, data.biomes, requestedLayer);
+      cache.storeBlockLayer(position, dataTimestamp, requestedLayer, layer);
+      this.layer = layer;
+    } else {
       layer = CorruptLayer.INSTANCE;
-      return;
     }
+  }
 
-    Tag sections = data.get(LEVEL_SECTIONS);
-    if (sections.isList()) {
-      byte[] biomeData = new byte[X_MAX * Z_MAX];
-      extractBiomeData(data.get(LEVEL_BIOMES), biomeData);
-      byte[] chunkData = new byte[CHUNK_BYTES];
-      extractChunkData(data, chunkData, new byte[CHUNK_BYTES]);
-      layer = new BlockLayer(chunkData, biomeData, requestedLayer);
+  private void loadCaves(DecodedChunk data, MapTileCache cache) {
+    AbstractLayer caves = decodeCaves(data);
+    if (caves instanceof CaveLayer) {
+      cache.storeCaves(position, dataTimestamp, (CaveLayer) caves);
+    }
+    this.caves = caves;
+  }
+
+  /**
+   * Decode the cave layer of a chunk.
+   *
+   * @return the cave layer, or a corrupt layer if the chunk data is invalid
+   */
+  public static AbstractLayer decodeCaves(DecodedChunk data) {
+    if (data != null && data.hasSections) {
+      return new CaveLayer(data.blocks, data.heightmap);
     } else {
-      layer = CorruptLayer.INSTANCE;
+      return CorruptLayer.INSTANCE;
     }
   }
 
-  private void loadCaves(Map<String, Tag> data) {
+  /**
+   * @return a fresh request set for all tags stored in a {@link DecodedChunk}
+   */
+  public static Set<String> decodedChunkRequest() {
+    Set<String> request = new HashSet<>();
+    request.add(LEVEL_SECTIONS);
+    request.add(LEVEL_BIOMES);
+    request.add(LEVEL_HEIGHTMAP);
+    request.add(LEVEL_ENTITIES);
+    request.add(LEVEL_TILEENTITIES);
+    return request;
+  }
+
+  /**
+   * Decode the block, biome and entity data of a chunk. Tags that were not
+   * parsed are decoded as if they were missing from the chunk.
+   *
+   * @param timestamp the timestamp of the chunk data
+   * @param data the parsed chunk tags, as returned by {@link #parseChunkData}
+   * @return the decoded chunk, or {@code null} if the chunk data is missing
+   */
+  public static DecodedChunk decodeChunk(int timestamp, Map<String, Tag> data) {
     if (data == null) {
-      caves = CorruptLayer.INSTANCE;
-      return;
+      return null;
+    }
+    Set<String> tags = new HashSet<>(data.keySet());
+    data = new HashMap<>(data);
+    for (String key : decodedChunkRequest()) {
+      data.putIfAbsent(key, new ErrorTag(""));
     }
-
     Tag sections = data.get(LEVEL_SECTIONS);
-    if (sections.isList()) {
-      int[] heightmapData = extractHeightmapData(data);
-      byte[] chunkData = new byte[CHUNK_BYTES];
-      extractChunkData(data, chunkData, new byte[CHUNK_BYTES]);
-      caves = new CaveLayer(chunkData, heightmapData);
+    Tag entitiesTag = data.get(LEVEL_ENTITIES);
+    Tag tileEntitiesTag = data.get(LEVEL_TILEENTITIES);
+    byte[] blocks = new byte[CHUNK_BYTES];
+    byte[] blockData = new byte[CHUNK_BYTES / 2];
+    byte[] biomes = new byte[X_MAX * Z_MAX];
+    extractBiomeData(data.get(LEVEL_BIOMES), biomes);
+    extractChunkData(data, blocks, blockData);
+    List<CompoundTag> entities = new ArrayList<>();
+    List<CompoundTag> tileEntities = new ArrayList<>();
+    boolean hasEntities = entitiesTag.isList() && tileEntitiesTag.isList();
+    if (hasEntities) {
+      for (SpecificTag tag : (ListTag) entitiesTag) {
+        if (tag.isCompoundTag()) {
+          entities.add((CompoundTag) tag);
+        }
+      }
+      for (SpecificTag tag : (ListTag) tileEntitiesTag) {
+        if (tag.isCompoundTag()) {
+          tileEntities.add((CompoundTag) tag);
+        }
+      }
+    }
+    return new DecodedChunk(timestamp, tags, sections.isList(), hasEntities, blocks, blockData,
+        biomes, extractHeightmapData(data), entities, tileEntities);
+  }
+
+  /**
+   * Get the decoded data for this chunk from the decoded chunk cache,
+   * or decode the chunk if it was not cached with the requested tags.
+   * A chunk that is decoded again also parses the tags of the previously
+   * cached chunk, so that it can serve the same requests.
+   *
+   * @param request fresh request set
+   * @return the decoded chunk, or {@code null} if the chunk could not be read
+   */
+  private DecodedChunk getDecodedChunk(Set<String> request) {
+    DecodedChunkCache cache = DecodedChunkCache.getInstance();
+    File regionDirectory = world.getRegionDirectory();
+    int timestamp = world.getRegion(position.getRegionPosition()).getChunkTimestamp(position);
+    DecodedChunk chunk = cache.get(regionDirectory, position, timestamp);
+    if (chunk == null || !chunk.hasTags(request)) {
+      if (chunk != null) {
+        request.addAll(chunk.getTags());
+      }
+      Map<String, Tag> data = getChunkData(request);
+      chunk = decodeChunk(dataTimestamp, data);
+      if (chunk != null) {
+        cache.put(regionDirectory, position, chunk);
+      }
     } else {
-      caves = CorruptLayer.INSTANCE;
+      dataTimestamp = chunk.timestamp;
     }
+    return chunk;
   }
 
   /**
@@ -288,7 +469,7 @@ public class Chunk {
    * @param biomesTag the .Level.Biomes NBT tag to load data from.
    * @param output a byte array of length 16x16.
    */
-  private void extractBiomeData(@NotNull Tag biomesTag, byte[] output) {
+  private static void extractBiomeData(@NotNull Tag biomesTag, byte[] output) {
     if (biomesTag.isByteArray(X_MAX * Z_MAX)) {
       System.arraycopy(biomesTag.byteArray(), 0, output, 0, X_MAX * Z_MAX);
     } else if (biomesTag.isIntArray(X_MAX * Z_MAX)) {
@@ -301,7 +482,7 @@ public class Chunk {
     }
   }
 
-  private int[] extractHeightmapData(@NotNull Map<String, Tag> data) {
+  private static int[] extractHeightmapData(@NotNull Map<String, Tag> data) {
     Tag heightmapTag = data.get(LEVEL_HEIGHTMAP);
     if (heightmapTag.isIntArray(X_MAX * Z_MAX)) {
       return heightmapTag.intArray();
@@ -314,7 +495,7 @@ public class Chunk {
     }
   }
 
-  private void extractChunkData(@NotNull Map<String, Tag> data, @NotNull byte[] blocks,
+  private static void extractChunkData(@NotNull Map<String, Tag> data, @NotNull byte[] blocks,
       @NotNull byte[] blockData) {
     Tag sections = data.get(LEVEL_SECTIONS);
     if (sections.isList()) {
@@ -341,6 +522,23 @@ public class Chunk {
    */
   public static void updateHeightmap(Heightmap heightmap, ChunkPosition pos, byte[] blocksArray,
       int[] chunkHeightmap) {
+    updateHeightmap(heightmap, pos, surfaceHeights(blocksArray, chunkHeightmap));
+  }
+
+  /**
+   * Insert surface heights computed by {@link #surfaceHeights} into a heightmap.
+   */
+  public static void updateHeightmap(Heightmap heightmap, ChunkPosition pos, int[] heights) {
+    heightmap.setChunk(pos, heights);
+  }
+
+  /**
+   * Find the topmost non-air, non-water block in each column of a chunk.
+   *
+   * @return surface heights indexed by {@code z * 16 + x}
+   */
+  public static int[] surfaceHeights(byte[] blocksArray, int[] chunkHeightmap) {
+    int[] heights = new int[X_MAX * Z_MAX];
     for (int x = 0; x < 16; ++x) {
       for (int z = 0; z < 16; ++z) {
         int y = chunkHeightmap[z * 16 + x];
@@ -350,9 +548,10 @@ public class Chunk {
           if (block != Block.AIR && !block.isWater())
             break;
         }
-        heightmap.set(y, pos.x * 16 + x, pos.z * 16 + z);
+        heights[z * 16 + x] = y;
       }
     }
+    return heights;
   }
 
   private boolean shouldReloadChunk(MapViewMode renderer, ChunkView view, int requestedLayer) {
@@ -413,48 +612,23 @@ public class Chunk {
   public synchronized void getBlockData(byte[] blocks, byte[] blockData, byte[] biomes,
       Collection<CompoundTag> tileEntities, Collection<CompoundTag> entities) {
 
-    for (int i = 0; i < CHUNK_BYTES; ++i) {
-      blocks[i] = 0;
-    }
-
-    for (int i = 0; i < X_MAX * Z_MAX; ++i) {
-      biomes[i] = 0;
-    }
-
-    for (int i = 0; i < (CHUNK_BYTES) / 2; ++i) {
-      blockData[i] = 0;
-    }
-
-    Set<String> request = new HashSet<>();
-    request.add(LEVEL_SECTIONS);
-    request.add(LEVEL_BIOMES);
-    request.add(LEVEL_ENTITIES);
-    request.add(LEVEL_TILEENTITIES);
-    Map<String, Tag> data = getChunkData(request);
+    DecodedChunk data = getDecodedChunk(decodedChunkRequest());
     // TODO: improve error handling here.
     if (data == null) {
+      Arrays.fill(blocks, 0, CHUNK_BYTES, (byte) 0);
+      Arrays.fill(blockData, 0, CHUNK_BYTES / 2, (byte) 0);
+      Arrays.fill(biomes, 0, X_MAX * Z_MAX, (byte) 0);
       return;
     }
-    Tag sections = data.get(LEVEL_SECTIONS);
-    Tag biomesTag = data.get(LEVEL_BIOMES);
-    Tag entitiesTag = data.get(LEVEL_ENTITIES);
-    Tag tileEntitiesTag = data.get(LEVEL_TILEENTITIES);
-    if (biomesTag.isByteArray(X_MAX * Z_MAX) || biomesTag.isIntArray(X_MAX * Z_MAX)) {
-      extractBiomeData(biomesTag, biomes);
-    }
-    if (sections.isList() && tileEntitiesTag.isList()
-        && entitiesTag.isList()) {
-      extractChunkData(data, blocks, blockData);
-      ListTag list = (ListTag) entitiesTag;
-      for (SpecificTag tag : list) {
-        if (tag.isCompoundTag())
-          entities.add((CompoundTag) tag);
-      }
-      list = (ListTag) tileEntitiesTag;
-      for (SpecificTag tag : list) {
-        if (tag.isCompoundTag())
-          tileEntities.add((CompoundTag) tag);
-      }
+    System.arraycopy(data.biomes, 0, biomes, 0, X_MAX * Z_MAX);
+    if (data.hasSections && data.hasEntities) {
+      System.arraycopy(data.blocks, 0, blocks, 0, CHUNK_BYTES);
+      System.arraycopy(data.blockData, 0, blockData, 0, CHUNK_BYTES / 2);
+      entities.addAll(data.entities);
+      tileEntities.addAll(data.tileEntities);
+    } else {
+      Arrays.fill(blocks, 0, CHUNK_BYTES, (byte) 0);
+      Arrays.fill(blockData, 0, CHUNK_BYTES / 2, (byte) 0);
     }
   }
 
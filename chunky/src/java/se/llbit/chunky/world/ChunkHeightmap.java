@@ -16,23 +16,33 @@
  */
 package se.llbit.chunky.world;
 
+import java.util.Arrays;
+
 /**
- * Chunk heightmap.
- * This class actually has a misleading name since it stores
- * height values for a two by two square of chunks.
+ * Height values for the columns of one chunk.
  *
  * @author Jesper Öqvist <jesper@llbit.se>
  */
 public class ChunkHeightmap {
 
-  short[] data = new short[4 * Chunk.X_MAX * Chunk.Z_MAX];
+  final short[] data = new short[Chunk.X_MAX * Chunk.Z_MAX];
 
   /**
    * Create new heightmap
    */
   public ChunkHeightmap() {
-    for (int i = 0; i < (Chunk.X_MAX * Chunk.Z_MAX); ++i)
-      data[i] = World.SEA_LEVEL;
+    Arrays.fill(data, (short) World.SEA_LEVEL);
+  }
+
+  /**
+   * Create a heightmap with the given heights.
+   *
+   * @param heights height values indexed by {@code z * 16 + x}
+   */
+  public ChunkHeightmap(int[] heights) {
+    for (int i = 0; i < data.length; ++i) {
+      data[i] = (short) heights[i];
+    }
   }
 
   /**
@@ -41,14 +51,14 @@ public class ChunkHeightmap {
    * @param y new height value
    */
   public void set(int y, int x, int z) {
-    data[x + 2 * z * Chunk.X_MAX] = (short) y;
+    data[x + z * Chunk.X_MAX] = (short) y;
   }
 
   /**
    * @return Height at (x, z)
    */
   public int get(int x, int z) {
-    return data[x + 2 * z * Chunk.X_MAX];
+    return data[x + z * Chunk.X_MAX];
   }
 
 }
@@ -16,18 +16,21 @@
  */
 package se.llbit.chunky.world;
 
-import java.util.HashMap;
-import java.util.Map;
+import se.llbit.util.LongKeyMap;
 
 /**
  * A chunk position consists of two integer coordinates x and z.
  * <p>
  * The filename of a chunk is uniquely defined by it's position.
+ * <p>
+ * Chunk positions are interned, so there is only one instance for each
+ * position. The interning table is split into stripes with separate locks
+ * so that threads looking up different positions rarely contend.
  *
  * @author Jesper Öqvist (jesper@llbit.se)
  */
 public class ChunkPosition {
-  public int x, z;
+  public final int x, z;
 
   private ChunkPosition(int x, int z) {
     this.x = x;
@@ -42,22 +45,30 @@ public class ChunkPosition {
     return get(x >> 5, z >> 5);
   }
 
-  private final static Map<Integer, Map<Integer, ChunkPosition>> map = new HashMap<>();
+  /** Number of interning table stripes. Must be a power of two. */
+  private static final int STRIPES = 64;
 
-  public synchronized static ChunkPosition get(int x, int z) {
-    Map<Integer, ChunkPosition> submap = map.get(x);
-    if (submap == null) {
-      submap = new HashMap<>();
-      map.put(x, submap);
-    }
+  @SuppressWarnings("unchecked")
+  private static final LongKeyMap<ChunkPosition>[] positions = new LongKeyMap[STRIPES];
 
-    ChunkPosition chunkPosition = submap.get(z);
-    if (chunkPosition == null) {
-      chunkPosition = new ChunkPosition(x, z);
-      submap.put(z, chunkPosition);
+  static {
+    for (int i = 0; i < STRIPES; ++i) {
+      positions[i] = new LongKeyMap<>();
     }
+  }
 
-    return chunkPosition;
+  public static ChunkPosition get(int x, int z) {
+    int hash = x * 0x9E3779B1 ^ z * 0x85EBCA6B;
+    LongKeyMap<ChunkPosition> stripe = positions[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    long key = LongKeyMap.key(x, z);
+    synchronized (stripe) {
+      ChunkPosition chunkPosition = stripe.get(key);
+      if (chunkPosition == null) {
+        chunkPosition = new ChunkPosition(x, z);
+        stripe.put(key, chunkPosition);
+      }
+      return chunkPosition;
+    }
   }
 
   /**
@@ -71,7 +82,7 @@ public class ChunkPosition {
    * @return The long representation of the chunk position
    */
   public long getLong() {
-    return (((long) x) << 32) | (0xFFFFFFFFL & z);
+    return LongKeyMap.key(x, z);
   }
 
   /**
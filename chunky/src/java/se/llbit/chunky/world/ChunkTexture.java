@@ -21,13 +21,13 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 
 /**
- * Chunk texture
+ * Chunk texture. The RGB components are packed into a single float array.
  *
  * @author Jesper Öqvist <jesper@llbit.se>
  */
 public class ChunkTexture {
 
-  float[][] data = new float[Chunk.X_MAX * Chunk.Z_MAX][3];
+  final float[] data = new float[Chunk.X_MAX * Chunk.Z_MAX * 3];
 
   /**
    * Create new texture
@@ -35,24 +35,35 @@ public class ChunkTexture {
   public ChunkTexture() {
   }
 
+  /**
+   * Create a copy of another texture.
+   */
+  public ChunkTexture(ChunkTexture other) {
+    System.arraycopy(other.data, 0, data, 0, data.length);
+  }
+
   /**
    * Set color value at (x, z).
    *
    * @param frgb RGB color components to set
    */
   public void set(int x, int z, float[] frgb) {
-    int index = x + z * Chunk.X_MAX;
-    data[index][0] = frgb[0];
-    data[index][1] = frgb[1];
-    data[index][2] = frgb[2];
+    int index = (x + z * Chunk.X_MAX) * 3;
+    data[index] = frgb[0];
+    data[index + 1] = frgb[1];
+    data[index + 2] = frgb[2];
   }
 
   /**
-   * @return RGB color components at (x, z)
+   * Copy the color value at (x, z).
+   *
+   * @param frgb destination for the RGB color components
    */
-  public float[] get(int x, int z) {
-    int index = x + z * Chunk.X_MAX;
-    return data[index];
+  public void get(int x, int z, float[] frgb) {
+    int index = (x + z * Chunk.X_MAX) * 3;
+    frgb[0] = data[index];
+    frgb[1] = data[index + 1];
+    frgb[2] = data[index + 2];
   }
 
   /**
@@ -61,10 +72,8 @@ public class ChunkTexture {
    * @throws IOException
    */
   public void store(DataOutputStream out) throws IOException {
-    for (int i = 0; i < Chunk.X_MAX * Chunk.Z_MAX; ++i) {
-      out.writeFloat(data[i][0]);
-      out.writeFloat(data[i][1]);
-      out.writeFloat(data[i][2]);
+    for (float value : data) {
+      out.writeFloat(value);
     }
   }
 
@@ -76,10 +85,8 @@ public class ChunkTexture {
    */
   public static ChunkTexture load(DataInputStream in) throws IOException {
     ChunkTexture texture = new ChunkTexture();
-    for (int i = 0; i < Chunk.X_MAX * Chunk.Z_MAX; ++i) {
-      texture.data[i][0] = in.readFloat();
-      texture.data[i][1] = in.readFloat();
-      texture.data[i][2] = in.readFloat();
+    for (int i = 0; i < texture.data.length; ++i) {
+      texture.data[i] = in.readFloat();
     }
     return texture;
   }
@@ -16,56 +16,91 @@
  */
 package se.llbit.chunky.world;
 
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
 
 /**
  * Renders topography layer for chunks on demand.
  *
+ * <p>Chunks are queued in batches per region. Several worker threads each
+ * take one region batch at a time, so that chunks in different regions are
+ * shaded in parallel.
+ *
  * @author Jesper Öqvist (jesper@llbit.se)
  */
-public class ChunkTopographyUpdater extends Thread {
+public class ChunkTopographyUpdater {
+
+  private final Map<ChunkPosition, Set<Chunk>> queue = new LinkedHashMap<>();
+
+  private final Thread[] workers;
 
-  private final Set<Chunk> queue = new HashSet<>();
+  private int busyWorkers = 0;
 
   /**
-   * Create new chunk parser
+   * Create new chunk topography updater
    */
   public ChunkTopographyUpdater() {
-    super("Chunk Topography Updater");
+    int numWorkers = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    workers = new Thread[numWorkers];
+    for (int i = 0; i < numWorkers; ++i) {
+      workers[i] = new Thread(this::work, "Chunk Topography Updater " + (i + 1));
+    }
   }
 
-  @Override public void run() {
+  /**
+   * Start the worker threads.
+   */
+  public void start() {
+    for (Thread worker : workers) {
+      worker.start();
+    }
+  }
+
+  private void work() {
     try {
-      while (!isInterrupted()) {
-        Chunk chunk = getNext();
-        chunk.renderTopography();
+      while (!Thread.currentThread().isInterrupted()) {
+        Set<Chunk> batch = getNext();
+        try {
+          for (Chunk chunk : batch) {
+            chunk.renderTopography();
+          }
+        } finally {
+          batchDone();
+        }
       }
     } catch (InterruptedException e) {
     }
   }
 
   /**
-   * Get next chunk from the parse queue
+   * Get next region batch from the queue
    *
    * @throws InterruptedException
    */
-  private synchronized Chunk getNext() throws InterruptedException {
+  private synchronized Set<Chunk> getNext() throws InterruptedException {
     while (queue.isEmpty()) {
       wait();
     }
-    Iterator<Chunk> iter = queue.iterator();
-    Chunk chunk = iter.next();
+    Iterator<Set<Chunk>> iter = queue.values().iterator();
+    Set<Chunk> batch = iter.next();
     iter.remove();
-    return chunk;
+    busyWorkers += 1;
+    return batch;
+  }
+
+  private synchronized void batchDone() {
+    busyWorkers -= 1;
   }
 
   /**
-   * Add a chunk to the parse queue.
+   * Add a chunk to the queue.
    */
   public synchronized void addChunk(Chunk chunk) {
-    queue.add(chunk);
+    queue.computeIfAbsent(chunk.getPosition().getRegionPosition(), region -> new LinkedHashSet<>())
+        .add(chunk);
     notify();
   }
 
@@ -74,7 +109,7 @@ public class ChunkTopographyUpdater extends Thread {
    */
   public synchronized boolean isWorking() {
     // TODO: add loading indicator.
-    return !queue.isEmpty();
+    return !queue.isEmpty() || busyWorkers > 0;
   }
 
 }
@@ -0,0 +1,107 @@
+/* Copyright (c) 2019 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.world;
+
+import se.llbit.nbt.CompoundTag;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Block, biome and entity data decoded from a chunk in a region file.
+ *
+ * <p>Decoded chunks are shared between the map and the scene loader through
+ * the {@link DecodedChunkCache}, so the arrays in a decoded chunk must not
+ * be modified.
+ *
+ * <p>A decoded chunk records which chunk tags it was decoded from. The map
+ * only parses the tags needed by the current map view, so a cached chunk may
+ * not have all data needed by the scene loader.
+ *
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public final class DecodedChunk {
+
+  /** Estimated memory used by an entity or tile entity tag. */
+  private static final int ENTITY_BYTES = 512;
+
+  /** The timestamp of the chunk in the region file header. */
+  public final int timestamp;
+
+  /** {@code true} if the chunk had a valid section list. */
+  public final boolean hasSections;
+
+  /** {@code true} if the chunk had valid entity and tile entity lists. */
+  public final boolean hasEntities;
+
+  /** Block IDs in YZX order. */
+  public final byte[] blocks;
+
+  /** Block data nibbles in YZX order. */
+  public final byte[] blockData;
+
+  /** Biome IDs in ZX order. */
+  public final byte[] biomes;
+
+  /** The Minecraft heightmap of the chunk. */
+  public final int[] heightmap;
+
+  public final List<CompoundTag> entities;
+  public final List<CompoundTag> tileEntities;
+
+  /** The chunk tags that were parsed to decode this chunk. */
+  private final Set<String> tags;
+
+  DecodedChunk(int timestamp, Set<String> tags, boolean hasSections, boolean hasEntities,
+      byte[] blocks, byte[] blockData, byte[] biomes, int[] heightmap,
+      List<CompoundTag> entities, List<CompoundTag> tileEntities) {
+    this.timestamp = timestamp;
+    this.tags = tags;
+    this.hasSections = hasSections;
+    this.hasEntities = hasEntities;
+    this.blocks = blocks;
+    this.blockData = blockData;
+    this.biomes = biomes;
+    this.heightmap = heightmap;
+    this.entities = entities;
+    this.tileEntities = tileEntities;
+  }
+
+  /**
+   * @return {@code true} if all the requested tags were parsed to decode
+   * this chunk
+   */
+  public boolean hasTags(Collection<String> request) {
+    return tags.containsAll(request);
+  }
+
+  /**
+   * @return the chunk tags that were parsed to decode this chunk
+   */
+  Set<String> getTags() {
+    return tags;
+  }
+
+  /**
+   * @return the estimated number of bytes used by this decoded chunk
+   */
+  public long sizeInBytes() {
+    return blocks.length + blockData.length + biomes.length + heightmap.length * 4L
+        + (entities.size() + tileEntities.size()) * (long) ENTITY_BYTES;
+  }
+}
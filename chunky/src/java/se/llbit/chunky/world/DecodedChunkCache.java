@@ -0,0 +1,190 @@
+/* Copyright (c) 2019 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.world;
+
+import se.llbit.chunky.PersistentSettings;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache of decoded chunks.
+ *
+ * <p>The cache is shared by the map loader and the scene loader, so a chunk
+ * that was decoded while browsing the map does not need to be decoded again
+ * when it is loaded into a scene, or when the scene chunks are reloaded.
+ *
+ * <p>Chunks are keyed by region directory and chunk position. Each cached
+ * chunk stores the timestamp it was decoded from, and is only used if the
+ * timestamp matches the current chunk timestamp in the region file header.
+ * The cache is bounded by the estimated memory used by the cached chunks.
+ *
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public class DecodedChunkCache {
+
+  private static final long MIB = 1 << 20;
+
+  private static DecodedChunkCache instance = null;
+
+  private static final class Key {
+    final File regionDirectory;
+    final ChunkPosition pos;
+
+    Key(File regionDirectory, ChunkPosition pos) {
+      this.regionDirectory = regionDirectory;
+      this.pos = pos;
+    }
+
+    @Override public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return pos == other.pos && regionDirectory.equals(other.regionDirectory);
+    }
+
+    @Override public int hashCode() {
+      return (regionDirectory.hashCode() * 31 + pos.x) * 31 + pos.z;
+    }
+  }
+
+  private long capacity;
+  private long bytes = 0;
+
+  private long hits = 0;
+  private long misses = 0;
+  private long evictions = 0;
+
+  private final LinkedHashMap<Key, DecodedChunk> chunks = new LinkedHashMap<>(256, 0.75f, true);
+
+  /**
+   * @param capacity the maximum estimated size of the cached chunks, in bytes
+   */
+  public DecodedChunkCache(long capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * @return the shared decoded chunk cache, with the capacity given by
+   * {@link PersistentSettings#getChunkCacheSize()}
+   */
+  public static synchronized DecodedChunkCache getInstance() {
+    if (instance == null) {
+      instance = new DecodedChunkCache(PersistentSettings.getChunkCacheSize() * MIB);
+    }
+    return instance;
+  }
+
+  /**
+   * Change the capacity of the cache. Chunks are evicted if the cache is
+   * larger than the new capacity.
+   *
+   * @param capacity the maximum estimated size of the cached chunks, in bytes
+   */
+  public synchronized void setCapacity(long capacity) {
+    this.capacity = capacity;
+    evict();
+  }
+
+  /**
+   * Look up a decoded chunk.
+   *
+   * @param timestamp the current timestamp of the chunk
+   * @return the cached chunk, or {@code null} if there was no cached chunk
+   * decoded from the given timestamp
+   */
+  public synchronized DecodedChunk get(File regionDirectory, ChunkPosition pos, int timestamp) {
+    Key key = new Key(regionDirectory, pos);
+    DecodedChunk chunk = chunks.get(key);
+    if (chunk != null) {
+      if (timestamp != 0 && chunk.timestamp == timestamp) {
+        hits += 1;
+        return chunk;
+      }
+      // The chunk has changed since it was cached.
+      chunks.remove(key);
+      bytes -= chunk.sizeInBytes();
+    }
+    misses += 1;
+    return null;
+  }
+
+  /**
+   * Add a decoded chunk to the cache. The least recently used chunks are
+   * evicted if the cache becomes too large.
+   */
+  public synchronized void put(File regionDirectory, ChunkPosition pos, DecodedChunk chunk) {
+    long size = chunk.sizeInBytes();
+    if (chunk.timestamp == 0 || size > capacity) {
+      return;
+    }
+    DecodedChunk previous = chunks.put(new Key(regionDirectory, pos), chunk);
+    if (previous != null) {
+      bytes -= previous.sizeInBytes();
+    }
+    bytes += size;
+    evict();
+  }
+
+  /**
+   * Remove all chunks from the cache.
+   */
+  public synchronized void clear() {
+    chunks.clear();
+    bytes = 0;
+  }
+
+  /**
+   * @return the number of cached chunks
+   */
+  public synchronized int size() {
+    return chunks.size();
+  }
+
+  /**
+   * @return the estimated size of the cached chunks, in bytes
+   */
+  public synchronized long bytes() {
+    return bytes;
+  }
+
+  /**
+   * @return the fraction of lookups that found a cached chunk
+   */
+  public synchronized double hitRate() {
+    long lookups = hits + misses;
+    return lookups == 0 ? 0 : hits / (double) lookups;
+  }
+
+  @Override public synchronized String toString() {
+    return String.format("%d chunks, %d MiB, hit rate %.1f%%, %d evictions",
+        chunks.size(), bytes / MIB, 100 * hitRate(), evictions);
+  }
+
+  private void evict() {
+    Iterator<Map.Entry<Key, DecodedChunk>> iterator = chunks.entrySet().iterator();
+    while (bytes > capacity && iterator.hasNext()) {
+      DecodedChunk chunk = iterator.next().getValue();
+      iterator.remove();
+      bytes -= chunk.sizeInBytes();
+      evictions += 1;
+    }
+  }
+}
@@ -16,42 +16,102 @@
  */
 package se.llbit.chunky.world;
 
-import java.util.HashMap;
-import java.util.Map;
+import se.llbit.util.LongKeyMap;
 
 /**
  * Chunk heightmap.
  *
+ * <p>Heights are stored in one array per chunk, in long-keyed hash maps.
+ * The chunk maps are split into stripes with separate locks, so the
+ * heightmap can be used from multiple threads with little contention.
+ * Columns that have not been set have height {@link World#SEA_LEVEL}.
+ *
  * @author Jesper Öqvist <jesper@llbit.se>
  */
 public class Heightmap {
 
-  private Map<ChunkPosition, ChunkHeightmap> map = new HashMap<>();
+  /** Number of stripes. Must be a power of two. */
+  private static final int STRIPES = 16;
+
+  @SuppressWarnings("unchecked")
+  private final LongKeyMap<ChunkHeightmap>[] stripes = new LongKeyMap[STRIPES];
+
+  public Heightmap() {
+    for (int i = 0; i < STRIPES; ++i) {
+      stripes[i] = new LongKeyMap<>();
+    }
+  }
+
+  private LongKeyMap<ChunkHeightmap> stripe(int cx, int cz) {
+    return stripes[(cx ^ (cz * 3)) & (STRIPES - 1)];
+  }
+
+  private ChunkHeightmap chunk(int cx, int cz) {
+    LongKeyMap<ChunkHeightmap> stripe = stripe(cx, cz);
+    synchronized (stripe) {
+      return stripe.get(LongKeyMap.key(cx, cz));
+    }
+  }
 
   /**
    * Set height y at (x, z).
    */
-  public synchronized void set(int y, int x, int z) {
-    ChunkPosition cp = ChunkPosition.get(x >> 5, z >> 5);
-    ChunkHeightmap hm = map.get(cp);
-    if (hm == null) {
-      hm = new ChunkHeightmap();
-      map.put(cp, hm);
+  public void set(int y, int x, int z) {
+    int cx = x >> 4;
+    int cz = z >> 4;
+    LongKeyMap<ChunkHeightmap> stripe = stripe(cx, cz);
+    ChunkHeightmap hm;
+    synchronized (stripe) {
+      hm = stripe.computeIfAbsent(LongKeyMap.key(cx, cz), k -> new ChunkHeightmap());
     }
-    hm.set(y, x & 0x1F, z & 0x1F);
+    hm.set(y, x & 0xF, z & 0xF);
   }
 
   /**
    * @return Height at (x, z)
    */
-  public synchronized int get(int x, int z) {
-    ChunkPosition cp = ChunkPosition.get(x >> 5, z >> 5);
-    ChunkHeightmap hm = map.get(cp);
-    if (hm == null) {
-      hm = new ChunkHeightmap();
-      map.put(cp, hm);
+  public int get(int x, int z) {
+    ChunkHeightmap hm = chunk(x >> 4, z >> 4);
+    return hm != null ? hm.get(x & 0xF, z & 0xF) : World.SEA_LEVEL;
+  }
+
+  /**
+   * Replace the heights of a whole chunk.
+   *
+   * @param heights height values indexed by {@code z * 16 + x}
+   */
+  public void setChunk(ChunkPosition pos, int[] heights) {
+    ChunkHeightmap hm = new ChunkHeightmap(heights);
+    LongKeyMap<ChunkHeightmap> stripe = stripe(pos.x, pos.z);
+    synchronized (stripe) {
+      stripe.put(pos.getLong(), hm);
+    }
+  }
+
+  /**
+   * Copy the heights of a rectangular area.
+   *
+   * @param heights destination array, indexed by
+   * {@code (z - z0) * width + (x - x0)}
+   */
+  public void getArea(int x0, int z0, int width, int height, int[] heights) {
+    int x1 = x0 + width - 1;
+    int z1 = z0 + height - 1;
+    for (int cz = z0 >> 4; cz <= z1 >> 4; ++cz) {
+      for (int cx = x0 >> 4; cx <= x1 >> 4; ++cx) {
+        ChunkHeightmap hm = chunk(cx, cz);
+        int xmin = Math.max(x0, cx << 4);
+        int xmax = Math.min(x1, (cx << 4) + 15);
+        int zmin = Math.max(z0, cz << 4);
+        int zmax = Math.min(z1, (cz << 4) + 15);
+        for (int z = zmin; z <= zmax; ++z) {
+          int index = (z - z0) * width + (xmin - x0);
+          for (int x = xmin; x <= xmax; ++x) {
+            heights[index++] = hm != null ? hm.get(x & 0xF, z & 0xF) : World.SEA_LEVEL;
+          }
+        }
+      }
     }
-    return hm.get(x & 0x1F, z & 0x1F);
   }
 
 }
@@ -343,6 +343,14 @@ public class Region implements Iterable<Chunk> {
     return regionFileTime != regionFile.lastModified();
   }
 
+  /**
+   * @return the last known timestamp of the chunk, or zero if the chunk
+   * timestamp has not been read yet
+   */
+  public int getChunkTimestamp(ChunkPosition chunkPos) {
+    return chunkTimestamps[(chunkPos.x & 31) + (chunkPos.z & 31) * 32];
+  }
+
   /**
    * @return {@code true} if the chunk has changed since the timestamp
    */
@@ -19,13 +19,58 @@ package se.llbit.chunky.world;
 import javafx.application.Platform;
 import se.llbit.chunky.PersistentSettings;
 import se.llbit.chunky.map.WorldMapLoader;
+import se.llbit.log.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Monitors filesystem for changes to region files.
  *
+ * <p>The region directory and the world directory (for level.dat) are
+ * watched with a {@link WatchService}. A server autosave writes many region
+ * files in a short burst, so file events are collected until no new events
+ * have arrived for a short while, and only the changed regions that are
+ * visible are then parsed again. If the directories can not be watched, the
+ * visible regions are polled for changes instead.
+ *
  * @author Jesper Öqvist <jesper@llbit.se>
  */
 public class RegionChangeMonitor extends Thread {
+
+  /** Interval between checks when polling for changes, in milliseconds. */
+  private static final long POLL_INTERVAL = 3000;
+
+  /**
+   * File events are processed when no new events have arrived for this many
+   * milliseconds.
+   */
+  private static final long QUIET_PERIOD = 500;
+
+  /** Maximum delay before processing file events, in milliseconds. */
+  private static final long MAX_DELAY = 3000;
+
+  private static final Pattern REGION_FILE = Pattern.compile("r\\.(-?\\d+)\\.(-?\\d+)\\.mca");
+
+  /** File changes collected from a burst of file events. */
+  private static class ChangeSet {
+    final Set<ChunkPosition> regions = new HashSet<>();
+    boolean levelChanged = false;
+    boolean overflow = false;
+  }
+
   private final WorldMapLoader mapLoader;
   private volatile ChunkView view = ChunkView.EMPTY;
 
@@ -37,31 +82,17 @@ public class RegionChangeMonitor extends Thread {
   @Override public void run() {
     try {
       while (!isInterrupted()) {
-        sleep(3000);
-        final World world = mapLoader.getWorld();
-        if (world.loadAdditionalData(true)) {
-          if (PersistentSettings.getFollowPlayer()) {
-            Platform.runLater(mapLoader::panToPlayer);
-          }
-        }
-        ChunkView theView = view;
-        for (int rx = theView.prx0; rx <= theView.prx1; ++rx) {
-          for (int rz = theView.prz0; rz <= theView.prz1; ++rz) {
-            Region region = world.getRegion(ChunkPosition.get(rx, rz));
-            if (region.isEmpty()) {
-              ChunkPosition pos = ChunkPosition.get(rx, rz);
-              if (world.regionExists(pos)) {
-                region = new Region(pos, world);
-              }
-              world.setRegion(pos, region);
-              region.parse();
-              world.regionDiscovered(pos);
-              mapLoader.regionUpdated(pos);
-            } else if (region.hasChanged()) {
-              region.parse();
-              ChunkPosition pos = region.getPosition();
-              mapLoader.regionUpdated(pos);
-            }
+        World world = mapLoader.getWorld();
+        if (world.getWorldDirectory() == null) {
+          sleep(POLL_INTERVAL);
+        } else if (!watch(world)) {
+          // Fall back on polling the visible regions.
+          File regionDirectory = world.getRegionDirectory();
+          while (world == mapLoader.getWorld()
+              && regionDirectory.equals(world.getRegionDirectory())) {
+            sleep(POLL_INTERVAL);
+            updateWorldData(world);
+            updateVisibleRegions(world);
           }
         }
       }
@@ -74,4 +105,125 @@ public class RegionChangeMonitor extends Thread {
     this.view = view;
   }
 
+  /**
+   * Watch the world directory and the region directory for changes until
+   * another world or dimension is loaded.
+   *
+   * @return {@code false} if the directories could not be watched
+   */
+  private boolean watch(World world) throws InterruptedException {
+    File worldDirectory = world.getWorldDirectory();
+    File regionDirectory = world.getRegionDirectory();
+    try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+      worldDirectory.toPath().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+          StandardWatchEventKinds.ENTRY_MODIFY);
+      regionDirectory.toPath().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+          StandardWatchEventKinds.ENTRY_MODIFY);
+
+      // Catch changes made before the directories were registered.
+      updateWorldData(world);
+      updateVisibleRegions(world);
+
+      while (world == mapLoader.getWorld()
+          && regionDirectory.equals(world.getRegionDirectory())) {
+        WatchKey key = watcher.poll(1, TimeUnit.SECONDS);
+        if (key == null) {
+          continue;
+        }
+        ChangeSet changes = new ChangeSet();
+        boolean valid = collect(key, changes);
+        long deadline = System.currentTimeMillis() + MAX_DELAY;
+        while (valid) {
+          long wait = Math.min(QUIET_PERIOD, deadline - System.currentTimeMillis());
+          if (wait <= 0 || (key = watcher.poll(wait, TimeUnit.MILLISECONDS)) == null) {
+            break;
+          }
+          valid = collect(key, changes);
+        }
+        if (changes.levelChanged) {
+          updateWorldData(world);
+        }
+        if (changes.overflow) {
+          updateVisibleRegions(world);
+        } else {
+          ChunkView theView = view;
+          for (ChunkPosition pos : changes.regions) {
+            if (theView.isRegionVisible(pos)) {
+              updateRegion(world, pos);
+            }
+          }
+        }
+        if (!valid) {
+          // A watched directory was removed: register the directories again.
+          break;
+        }
+      }
+      return true;
+    } catch (IOException | UnsupportedOperationException | ClosedWatchServiceException e) {
+      Log.infof("Can not watch the world directory for changes (%s), polling instead.",
+          e.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * Add the file events of a watch key to a change set.
+   *
+   * @return {@code false} if the watch key is no longer valid
+   */
+  private static boolean collect(WatchKey key, ChangeSet changes) {
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+        changes.overflow = true;
+        continue;
+      }
+      String name = ((Path) event.context()).getFileName().toString();
+      if (name.equals("level.dat")) {
+        changes.levelChanged = true;
+      } else {
+        Matcher matcher = REGION_FILE.matcher(name);
+        if (matcher.matches()) {
+          changes.regions.add(ChunkPosition.get(Integer.parseInt(matcher.group(1)),
+              Integer.parseInt(matcher.group(2))));
+        }
+      }
+    }
+    return key.reset();
+  }
+
+  private void updateWorldData(World world) {
+    if (world.loadAdditionalData(true)) {
+      if (PersistentSettings.getFollowPlayer()) {
+        Platform.runLater(mapLoader::panToPlayer);
+      }
+    }
+  }
+
+  private void updateVisibleRegions(World world) {
+    ChunkView theView = view;
+    for (int rx = theView.prx0; rx <= theView.prx1; ++rx) {
+      for (int rz = theView.prz0; rz <= theView.prz1; ++rz) {
+        updateRegion(world, ChunkPosition.get(rx, rz));
+      }
+    }
+  }
+
+  /**
+   * Parse a region again if it was created or modified.
+   */
+  private void updateRegion(World world, ChunkPosition pos) {
+    Region region = world.getRegion(pos);
+    if (region.isEmpty()) {
+      if (world.regionExists(pos)) {
+        region = new Region(pos, world);
+      }
+      world.setRegion(pos, region);
+      region.parse();
+      world.regionDiscovered(pos);
+      mapLoader.regionUpdated(pos);
+    } else if (region.hasChanged()) {
+      region.parse();
+      mapLoader.regionUpdated(pos);
+    }
+  }
 }
@@ -16,11 +16,13 @@
  */
 package se.llbit.chunky.world;
 
+import se.llbit.chunky.map.MapPyramid;
 import se.llbit.chunky.map.WorldMapLoader;
 import se.llbit.log.Log;
 
 /**
- * Parses regions
+ * Handles region and chunk requests for the 2D map. Several parsers may work
+ * on the same queue, so that the chunks of one region are loaded in parallel.
  *
  * @author Jesper Öqvist (jesper@llbit.se)
  */
@@ -40,19 +42,36 @@ public class RegionParser extends Thread {
 
   @Override public void run() {
     while (!isInterrupted()) {
-      ChunkPosition position = queue.poll();
-      if (position == null) {
+      RegionQueue.Request request = queue.poll();
+      if (request == null) {
         Log.warn("Region parser shutting down abnormally.");
         return;
       }
+      ChunkPosition position = request.position;
       ChunkView map = mapLoader.getMapView();
       ChunkView minimap = mapLoader.getMinimapView();
-      if (map.isRegionVisible(position) || minimap.isRegionVisible(position)) {
-        Region region = mapLoader.getWorld().getRegion(position);
+      World world = mapLoader.getWorld();
+      if (request.isChunk) {
+        if (map.isChunkVisible(position)) {
+          Chunk chunk = world.getRegion(position.regionPosition()).getChunk(position);
+          if (map.shouldPreload(chunk)) {
+            chunk.loadChunk(mapLoader);
+          }
+        }
+      } else if (map.isRegionVisible(position) || minimap.isRegionVisible(position)) {
+        Region region = world.getRegion(position);
         region.parse();
+        // When zoomed out the map is drawn from the region level of the map
+        // pyramid, so only chunks that changed since they were last loaded are needed.
+        MapPyramid pyramid = mapLoader.getMapPyramid();
+        String layer = map.chunkScale < 16 ? MapPyramid.layerName(map) : null;
+        // Queue individual chunks so that other parsers can help load this region.
         for (Chunk chunk : region) {
           if (map.shouldPreload(chunk)) {
-            chunk.loadChunk(mapLoader);
+            ChunkPosition pos = chunk.getPosition();
+            if (layer == null || !pyramid.isCurrent(layer, pos, region.getChunkTimestamp(pos))) {
+              queue.addChunk(pos);
+            }
           }
         }
       }
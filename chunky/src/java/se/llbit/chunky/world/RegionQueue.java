@@ -16,22 +16,60 @@
  */
 package se.llbit.chunky.world;
 
+import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.List;
+import java.util.PriorityQueue;
 import java.util.Set;
 
 /**
- * Queue of region positions.
+ * Priority queue of map loading requests.
+ *
+ * <p>The queue holds two kinds of requests: region requests, which parse a
+ * region file header, and chunk requests, which load a single chunk for the
+ * map view. Requests closest to the center of the current map view are
+ * handled first. When the view changes, requests that are no longer visible
+ * are dropped and the remaining requests are reordered.
  *
  * @author Jesper Öqvist <jesper@llbit.se>
  */
 public class RegionQueue {
 
-  private final Queue<ChunkPosition> queue = new LinkedList<>();
-  private final Set<ChunkPosition> set = new HashSet<>();
+  /**
+   * A region or chunk loading request.
+   */
+  public static final class Request {
+    public final ChunkPosition position;
+
+    /** {@code true} if this is a chunk request, otherwise a region request. */
+    public final boolean isChunk;
+
+    /** Squared distance from the view center, in chunks. */
+    double priority;
+
+    private Request(ChunkPosition position, boolean isChunk) {
+      this.position = position;
+      this.isChunk = isChunk;
+    }
+  }
+
+  private final PriorityQueue<Request> queue = new PriorityQueue<>(
+      (a, b) -> a.priority != b.priority
+          ? Double.compare(a.priority, b.priority)
+          : Boolean.compare(a.isChunk, b.isChunk));
+  private final Set<ChunkPosition> regions = new HashSet<>();
+  private final Set<ChunkPosition> chunks = new HashSet<>();
+
+  private ChunkView map = ChunkView.EMPTY;
+  private ChunkView minimap = ChunkView.EMPTY;
 
-  public synchronized ChunkPosition poll() {
+  /**
+   * Wait for the next request.
+   *
+   * @return the request closest to the view center, or {@code null} if the
+   * calling thread was interrupted
+   */
+  public synchronized Request poll() {
     try {
       while (queue.isEmpty()) {
         wait();
@@ -39,24 +77,98 @@ public class RegionQueue {
     } catch (InterruptedException e) {
       return null;
     }
-    ChunkPosition position = queue.poll();
-    set.remove(position);
-    return position;
+    Request request = queue.poll();
+    if (request.isChunk) {
+      chunks.remove(request.position);
+    } else {
+      regions.remove(request.position);
+    }
+    return request;
+  }
+
+  /**
+   * Add a region request.
+   *
+   * @return {@code false} if the region was already queued
+   */
+  public synchronized boolean add(ChunkPosition region) {
+    return add(new Request(region, false), regions);
+  }
+
+  /**
+   * Add a chunk request.
+   *
+   * @return {@code false} if the chunk was already queued
+   */
+  public synchronized boolean addChunk(ChunkPosition chunk) {
+    return add(new Request(chunk, true), chunks);
   }
 
-  public synchronized boolean add(ChunkPosition position) {
-    if (!set.contains(position)) {
-      queue.add(position);
-      set.add(position);
+  private boolean add(Request request, Set<ChunkPosition> set) {
+    if (set.add(request.position)) {
+      request.priority = priority(request);
+      queue.add(request);
       notifyAll();
       return true;
     }
     return false;
   }
 
+  /**
+   * Update the current views. Requests which are not visible in either
+   * view are removed, and the remaining requests are reordered by their
+   * distance to the new map view center.
+   */
+  public synchronized void setView(ChunkView map, ChunkView minimap) {
+    this.map = map;
+    this.minimap = minimap;
+    List<Request> requests = new ArrayList<>(queue);
+    queue.clear();
+    for (Request request : requests) {
+      if (isVisible(request)) {
+        request.priority = priority(request);
+        queue.add(request);
+      } else if (request.isChunk) {
+        chunks.remove(request.position);
+      } else {
+        regions.remove(request.position);
+      }
+    }
+  }
+
+  private boolean isVisible(Request request) {
+    if (request.isChunk) {
+      return map.isChunkVisible(request.position);
+    } else {
+      return map.isRegionVisible(request.position) || minimap.isRegionVisible(request.position);
+    }
+  }
+
+  /**
+   * The priority of a request is the squared distance from the map view
+   * center to the closest point of the requested region or chunk. A region
+   * is thus never ordered after any of its own chunks.
+   */
+  private double priority(Request request) {
+    double x0, z0, size;
+    if (request.isChunk) {
+      x0 = request.position.x;
+      z0 = request.position.z;
+      size = 1;
+    } else {
+      x0 = request.position.x * 32;
+      z0 = request.position.z * 32;
+      size = 32;
+    }
+    double dx = Math.max(0, Math.max(x0 - map.x, map.x - (x0 + size)));
+    double dz = Math.max(0, Math.max(z0 - map.z, map.z - (z0 + size)));
+    return dx * dx + dz * dz;
+  }
+
   public synchronized void clear() {
     queue.clear();
-    set.clear();
+    regions.clear();
+    chunks.clear();
   }
 
   public synchronized boolean isEmpty() {
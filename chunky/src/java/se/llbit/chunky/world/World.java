@@ -26,6 +26,7 @@ import se.llbit.log.Log;
 import se.llbit.math.Vector3;
 import se.llbit.nbt.NamedTag;
 import se.llbit.nbt.Tag;
+import se.llbit.util.LongKeyMap;
 import se.llbit.util.Pair;
 
 import java.io.DataInputStream;
@@ -81,7 +82,7 @@ public class World implements Comparable<World> {
   public static final int SEA_LEVEL = 63;
   private static final int DEFAULT_LAYER = SEA_LEVEL;
 
-  private final Map<ChunkPosition, Region> regionMap = new HashMap<>();
+  private final LongKeyMap<Region> regionMap = new LongKeyMap<>();
 
   private int currentLayer = DEFAULT_LAYER;
   private File worldDirectory = null;
@@ -258,8 +259,9 @@ public class World implements Comparable<World> {
    * @return The region at the given position
    */
   public synchronized Region getRegion(ChunkPosition pos) {
-    if (regionMap.containsKey(pos)) {
-      return regionMap.get(pos);
+    Region cached = regionMap.get(pos.getLong());
+    if (cached != null) {
+      return cached;
     } else {
       // check if the region is present in the world directory
       Region region = EmptyRegion.instance;
@@ -275,7 +277,7 @@ public class World implements Comparable<World> {
    * Set the region for the given position.
    */
   public synchronized void setRegion(ChunkPosition pos, Region region) {
-    regionMap.put(pos, region);
+    regionMap.put(pos.getLong(), region);
   }
 
   /**
@@ -395,10 +397,10 @@ public class World implements Comparable<World> {
    */
   public void regionDiscovered(ChunkPosition pos) {
     synchronized (this) {
-      Region region = regionMap.get(pos);
+      Region region = regionMap.get(pos.getLong());
       if (region == null) {
         region = new Region(pos, this);
-        regionMap.put(pos, region);
+        regionMap.put(pos.getLong(), region);
       }
     }
   }
@@ -654,7 +656,9 @@ public class World implements Comparable<World> {
    * Clear the chunk map and reload the additional data.
    */
   public void reload() {
-    regionMap.clear();
+    synchronized (this) {
+      regionMap.clear();
+    }
     loadAdditionalData(true);
   }
 
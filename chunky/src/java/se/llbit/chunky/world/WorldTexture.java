@@ -16,11 +16,11 @@
  */
 package se.llbit.chunky.world;
 
+import se.llbit.util.LongKeyMap;
+
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * World texture.
@@ -29,39 +29,77 @@ import java.util.Map;
  */
 public class WorldTexture {
 
-  private final Map<ChunkPosition, ChunkTexture> map = new HashMap<>();
+  private final LongKeyMap<ChunkTexture> map = new LongKeyMap<>();
 
   /**
    * Timestamp of last serialization.
    */
   private long timestamp = 0;
 
+  /**
+   * Create an empty world texture.
+   */
+  public WorldTexture() {
+  }
+
+  /**
+   * Create a deep copy of another world texture.
+   */
+  public WorldTexture(WorldTexture other) {
+    for (long key : other.map.keys()) {
+      map.put(key, new ChunkTexture(other.map.get(key)));
+    }
+  }
+
   /**
    * Set color at (x, z)
    *
    * @param frgb RGB color components
    */
   public void set(int x, int z, float[] frgb) {
-    ChunkPosition cp = ChunkPosition.get(x >> 4, z >> 4);
-    ChunkTexture ct = map.get(cp);
-    if (ct == null) {
-      ct = new ChunkTexture();
-      map.put(cp, ct);
-    }
+    ChunkTexture ct = map.computeIfAbsent(LongKeyMap.key(x >> 4, z >> 4), k -> new ChunkTexture());
     ct.set(x & 0xF, z & 0xF, frgb);
   }
 
   /**
-   * @return RGB color components at (x, z)
+   * Copy the color at (x, z). Positions outside the texture are black.
+   *
+   * @param frgb destination for the RGB color components
+   */
+  public void get(int x, int z, float[] frgb) {
+    ChunkTexture ct = map.get(LongKeyMap.key(x >> 4, z >> 4));
+    if (ct != null) {
+      ct.get(x & 0xF, z & 0xF, frgb);
+    } else {
+      frgb[0] = frgb[1] = frgb[2] = 0;
+    }
+  }
+
+  /**
+   * Set the colors of a rectangular area. This method is synchronized, so
+   * that separate areas can be written from multiple threads.
+   *
+   * @param rgb packed RGB color components, with the color for (x, z) at
+   * index {@code (offset + (z - z0) * scansize + (x - x0)) * 3}
    */
-  public float[] get(int x, int z) {
-    ChunkPosition cp = ChunkPosition.get(x >> 4, z >> 4);
-    ChunkTexture ct = map.get(cp);
-    if (ct == null) {
-      ct = new ChunkTexture();
-      map.put(cp, ct);
+  public synchronized void setArea(int x0, int z0, int width, int height, float[] rgb,
+      int offset, int scansize) {
+    int x1 = x0 + width - 1;
+    int z1 = z0 + height - 1;
+    for (int cz = z0 >> 4; cz <= z1 >> 4; ++cz) {
+      for (int cx = x0 >> 4; cx <= x1 >> 4; ++cx) {
+        ChunkTexture ct = map.computeIfAbsent(LongKeyMap.key(cx, cz), k -> new ChunkTexture());
+        int xmin = Math.max(x0, cx << 4);
+        int xmax = Math.min(x1, (cx << 4) + 15);
+        int zmin = Math.max(z0, cz << 4);
+        int zmax = Math.min(z1, (cz << 4) + 15);
+        int length = (xmax - xmin + 1) * 3;
+        for (int z = zmin; z <= zmax; ++z) {
+          System.arraycopy(rgb, (offset + (z - z0) * scansize + (xmin - x0)) * 3,
+              ct.data, ((z & 0xF) * Chunk.X_MAX + (xmin & 0xF)) * 3, length);
+        }
+      }
     }
-    return ct.get(x & 0xF, z & 0xF);
   }
 
   /**
@@ -71,12 +109,10 @@ public class WorldTexture {
    */
   public void store(DataOutputStream out) throws IOException {
     out.writeInt(map.size());
-    for (Map.Entry<ChunkPosition, ChunkTexture> entry : map.entrySet()) {
-      ChunkPosition pos = entry.getKey();
-      ChunkTexture texture = entry.getValue();
-      out.writeInt(pos.x);
-      out.writeInt(pos.z);
-      texture.store(out);
+    for (long key : map.keys()) {
+      out.writeInt(LongKeyMap.keyX(key));
+      out.writeInt(LongKeyMap.keyZ(key));
+      map.get(key).store(out);
     }
   }
 
@@ -93,7 +129,7 @@ public class WorldTexture {
       int x = in.readInt();
       int z = in.readInt();
       ChunkTexture tile = ChunkTexture.load(in);
-      texture.map.put(ChunkPosition.get(x, z), tile);
+      texture.map.put(LongKeyMap.key(x, z), tile);
     }
     return texture;
   }
@@ -101,15 +101,17 @@ public class BVH {
         t2 = ray.tNext;
       }
 
+      // Children are skipped if they are further away than the
+      // current intersection distance, ray.t.
       boolean hit;
       if (t1 < t2) {
-        hit = child1.closestIntersection(ray);
+        hit = t1 < ray.t && child1.closestIntersection(ray);
         hit = (t2 < ray.t && child2.closestIntersection(ray)) || hit;
       } else if (t2 < t1) {
-        hit = child2.closestIntersection(ray);
+        hit = t2 < ray.t && child2.closestIntersection(ray);
         hit = (t1 < ray.t && child1.closestIntersection(ray)) || hit;
       } else {
-        hit = (t1 != Double.POSITIVE_INFINITY) && child1.closestIntersection(ray);
+        hit = (t1 < ray.t) && child1.closestIntersection(ray);
         hit = ((t2 < ray.t) && child2.closestIntersection(ray)) || hit;
       }
       return hit;
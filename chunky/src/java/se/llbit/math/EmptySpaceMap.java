@@ -0,0 +1,212 @@
+/* Copyright (c) 2019 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math;
+
+import se.llbit.chunky.block.Block;
+
+import java.util.Arrays;
+
+/**
+ * Coarse Chebyshev distance field over the bricks of an octree, used to skip
+ * empty space during ray traversal.
+ *
+ * <p>The octree is divided into cubic bricks of {@code 1 << BRICK_BITS}
+ * voxels. For each brick the distance (in bricks) to the closest brick
+ * containing any non-air voxel is stored. A distance of {@code k > 0} means
+ * that all bricks in the cube of radius {@code k - 1} around the brick are
+ * empty, so a ray may jump across that cube in one step.
+ *
+ * <p>Only the vertical band of bricks containing non-air voxels is stored.
+ * Everything outside the band is empty, and the distance from a brick
+ * outside the band is bounded from below by the distance to the band plus
+ * the distance stored for the closest brick in the band.
+ *
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public class EmptySpaceMap {
+
+  /** Brick size is 16 voxels. */
+  public static final int BRICK_BITS = 4;
+
+  private static final int MAX_DISTANCE = 0xFF;
+
+  /** Number of bricks along the x and z axes. */
+  private final int size;
+
+  /** First brick y coordinate in the band. */
+  private final int yMin;
+
+  /** Number of bricks along the y axis. */
+  private final int height;
+
+  /** Unsigned distances in y-major order. */
+  private final byte[] distance;
+
+  private EmptySpaceMap(int size, int yMin, int height) {
+    this.size = size;
+    this.yMin = yMin;
+    this.height = height;
+    this.distance = new byte[size * size * height];
+  }
+
+  /**
+   * Build the empty space map for an octree.
+   *
+   * @return {@code null} if the octree is too small to benefit from empty space skipping
+   */
+  public static EmptySpaceMap build(Octree octree) {
+    if (octree.depth <= BRICK_BITS) {
+      return null;
+    }
+    int size = 1 << (octree.depth - BRICK_BITS);
+
+    // Find the vertical extent of non-empty voxels.
+    int[] band = { Integer.MAX_VALUE, Integer.MIN_VALUE };
+    octree.visit((type, x, y, z, level) -> {
+      if (Block.get(type) != Block.AIR) {
+        band[0] = Math.min(band[0], y >> BRICK_BITS);
+        band[1] = Math.max(band[1], (y + (1 << level) - 1) >> BRICK_BITS);
+      }
+    });
+    if (band[0] > band[1]) {
+      // Completely empty octree.
+      band[0] = band[1] = 0;
+    }
+    EmptySpaceMap map = new EmptySpaceMap(size, band[0], band[1] - band[0] + 1);
+    map.computeDistances(octree);
+    return map;
+  }
+
+  private void computeDistances(Octree octree) {
+    byte infinity = (byte) MAX_DISTANCE;
+    Arrays.fill(distance, infinity);
+
+    // Mark occupied bricks.
+    octree.visit((type, x, y, z, level) -> {
+      if (Block.get(type) != Block.AIR) {
+        int x0 = x >> BRICK_BITS;
+        int y0 = Math.max(yMin, y >> BRICK_BITS);
+        int z0 = z >> BRICK_BITS;
+        int x1 = (x + (1 << level) - 1) >> BRICK_BITS;
+        int y1 = Math.min(yMin + height - 1, (y + (1 << level) - 1) >> BRICK_BITS);
+        int z1 = (z + (1 << level) - 1) >> BRICK_BITS;
+        for (int by = y0; by <= y1; ++by) {
+          for (int bz = z0; bz <= z1; ++bz) {
+            for (int bx = x0; bx <= x1; ++bx) {
+              distance[index(bx, by - yMin, bz)] = 0;
+            }
+          }
+        }
+      }
+    });
+
+    // Two-pass chamfer transform with unit weights for all 26 neighbors.
+    // This gives the exact chessboard distance.
+    for (int y = 0; y < height; ++y) {
+      for (int z = 0; z < size; ++z) {
+        for (int x = 0; x < size; ++x) {
+          int d = get(x, y, z);
+          if (d == 0) {
+            continue;
+          }
+          for (int dy = -1; dy <= 0; ++dy) {
+            for (int dz = -1; dz <= 1; ++dz) {
+              for (int dx = -1; dx <= 1; ++dx) {
+                if (dy == 0 && (dz > 0 || (dz == 0 && dx >= 0))) {
+                  continue;
+                }
+                d = Math.min(d, neighbor(x + dx, y + dy, z + dz) + 1);
+              }
+            }
+          }
+          distance[index(x, y, z)] = (byte) Math.min(d, MAX_DISTANCE);
+        }
+      }
+    }
+    for (int y = height - 1; y >= 0; --y) {
+      for (int z = size - 1; z >= 0; --z) {
+        for (int x = size - 1; x >= 0; --x) {
+          int d = get(x, y, z);
+          if (d == 0) {
+            continue;
+          }
+          for (int dy = 0; dy <= 1; ++dy) {
+            for (int dz = -1; dz <= 1; ++dz) {
+              for (int dx = -1; dx <= 1; ++dx) {
+                if (dy == 0 && (dz < 0 || (dz == 0 && dx <= 0))) {
+                  continue;
+                }
+                d = Math.min(d, neighbor(x + dx, y + dy, z + dz) + 1);
+              }
+            }
+          }
+          distance[index(x, y, z)] = (byte) Math.min(d, MAX_DISTANCE);
+        }
+      }
+    }
+  }
+
+  private int index(int x, int y, int z) {
+    return (y * size + z) * size + x;
+  }
+
+  private int get(int x, int y, int z) {
+    return 0xFF & distance[index(x, y, z)];
+  }
+
+  /**
+   * Bricks outside the map are empty, but have no occupied brick to
+   * propagate distances from.
+   */
+  private int neighbor(int x, int y, int z) {
+    if (x < 0 || y < 0 || z < 0 || x >= size || y >= height || z >= size) {
+      return MAX_DISTANCE;
+    }
+    return get(x, y, z);
+  }
+
+  /**
+   * Find the radius of the empty brick cube surrounding a voxel.
+   *
+   * @return {@code k} such that all bricks within Chebyshev distance
+   * {@code k - 1} of the brick containing the voxel are empty, or zero if
+   * the voxel is in an occupied brick or outside the octree
+   */
+  public int emptyRadius(int x, int y, int z) {
+    int bx = x >> BRICK_BITS;
+    int by = (y >> BRICK_BITS) - yMin;
+    int bz = z >> BRICK_BITS;
+    if (bx < 0 || bz < 0 || bx >= size || bz >= size) {
+      return 0;
+    }
+    if (by < 0) {
+      // Below the band: no occupied brick is closer than the band, or than
+      // the closest occupied brick seen from the bottom of the band.
+      return Math.min(MAX_DISTANCE, Math.max(-by, get(bx, 0, bz)));
+    } else if (by >= height) {
+      return Math.min(MAX_DISTANCE, Math.max(by - height + 1, get(bx, height - 1, bz)));
+    }
+    return get(bx, by, bz);
+  }
+
+  /**
+   * @return the memory used by the distance field, in bytes
+   */
+  public long memoryUsage() {
+    return distance.length;
+  }
+}
@@ -19,8 +19,12 @@ package se.llbit.math;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-
-import org.apache.commons.math3.util.FastMath;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
 
 import se.llbit.chunky.model.TexturedBlockModel;
 import se.llbit.chunky.model.WaterModel;
@@ -40,7 +44,8 @@ public class Octree {
    */
   public static final class Node {
     /**
-     * The node type. Type is -1 if it's a non-leaf node.
+     * The node type. Type is -1 if it's a non-leaf node, and less than -1
+     * for a placeholder of a subtree stored in an {@link OctreePager}.
      */
     public int type;
 
@@ -49,6 +54,12 @@ public class Octree {
      */
     public Node[] children;
 
+    /**
+     * {@code true} if this node may be referenced from more than one place
+     * after deduplication. Shared nodes are never modified.
+     */
+    boolean shared = false;
+
     /**
      * Create new octree leaf node with the given type.
      */
@@ -56,6 +67,30 @@ public class Octree {
       this.type = type;
     }
 
+    /**
+     * Create a deep copy of another node. Shared subtrees are not copied,
+     * since they are never modified.
+     */
+    public Node(Node other) {
+      type = other.type;
+      if (other.children != null) {
+        children = new Node[8];
+        for (int i = 0; i < 8; ++i) {
+          Node child = other.children[i];
+          children[i] = child.shared ? child : new Node(child);
+        }
+      }
+    }
+
+    /**
+     * Create an unshared node with the given type and a copy of the given
+     * child array.
+     */
+    private Node(int type, Node[] children) {
+      this.type = type;
+      this.children = children == null ? null : children.clone();
+    }
+
     /**
      * Subdivide this leaf node.
      */
@@ -131,6 +166,77 @@ public class Octree {
   }
 
 
+  /**
+   * A cursor for point queries in an octree. The cursor caches the path of
+   * the previous query so that nearby queries do not have to descend from
+   * the root node.
+   *
+   * <p>Cursors are not thread safe; each thread should use its own cursor.
+   * Multiple cursors may read the same octree concurrently as long as the
+   * octree is not modified.
+   */
+  public static final class Cursor {
+    private final Octree octree;
+    private final Node[] cache;
+    private int cx = 0;
+    private int cy = 0;
+    private int cz = 0;
+    private int cacheLevel;
+
+    private Cursor(Octree octree) {
+      this.octree = octree;
+      cache = new Node[octree.depth + 1];
+      cache[octree.depth] = octree.root;
+      cacheLevel = octree.depth;
+    }
+
+    /**
+     * @return The voxel type at the given coordinates
+     */
+    public int get(int x, int y, int z) {
+      int depth = octree.depth;
+      // The cached nodes contain the new position if the coordinates only
+      // differ below the cache level.
+      int diff = (x ^ cx) | (y ^ cy) | (z ^ cz);
+      while (cacheLevel < depth && (diff >>> cacheLevel) != 0) {
+        cacheLevel += 1;
+      }
+      cx = x;
+      cy = y;
+      cz = z;
+
+      int type;
+      while ((type = cache[cacheLevel].type) < 0) {
+        if (type != -1) {
+          cache[cacheLevel] = octree.pager.get(type);
+          continue;
+        }
+        cacheLevel -= 1;
+        cache[cacheLevel] = cache[cacheLevel + 1].children[
+            ((1 & (x >>> cacheLevel)) << 2) | ((1 & (y >>> cacheLevel)) << 1)
+                | (1 & (z >>> cacheLevel))];
+      }
+      return type;
+    }
+
+    /**
+     * Set the voxel type at the given coordinates. This invalidates the
+     * cached path of this cursor, but not of other cursors.
+     */
+    public void set(int type, int x, int y, int z) {
+      octree.set(type, x, y, z);
+      reset();
+    }
+
+    /**
+     * Clear the cached path. This must be done if the octree has been
+     * modified since the last query.
+     */
+    public void reset() {
+      cacheLevel = octree.depth;
+    }
+  }
+
   /**
    * Recursive depth of the octree
    */
@@ -147,11 +253,15 @@ public class Octree {
   private long timestamp = 0;
 
   private final Node[] parents;
-  private final Node[] cache;
-  private int cx = 0;
-  private int cy = 0;
-  private int cz = 0;
-  private int cacheLevel;
+
+  /**
+   * Optional empty space skipping structure. This is cleared when the octree
+   * is modified.
+   */
+  private EmptySpaceMap emptySpace = null;
+
+  /** Storage for paged subtrees, or {@code null} if no subtrees are paged. */
+  private OctreePager pager = null;
 
   /**
    * Create a new Octree. The dimensions of the Octree
@@ -163,9 +273,26 @@ public class Octree {
     depth = octreeDepth;
     root = new Node(0);
     parents = new Node[depth];
-    cache = new Node[depth + 1];
-    cache[depth] = root;
-    cacheLevel = depth;
+  }
+
+  /**
+   * Create a deep copy of another Octree. Shared subtrees are not copied.
+   * The empty space map is not copied.
+   */
+  public Octree(Octree other) {
+    depth = other.depth;
+    root = new Node(other.root);
+    parents = new Node[depth];
+    pager = other.pager;
+  }
+
+  /**
+   * Create an Octree with the given root node.
+   */
+  Octree(int octreeDepth, Node root) {
+    depth = octreeDepth;
+    this.root = root;
+    parents = new Node[depth];
   }
 
   /**
@@ -173,12 +300,23 @@ public class Octree {
    *
    * @param type The new voxel type to be set
    */
-  public synchronized void set(int type, int x, int y, int z) {
+  public void set(int type, int x, int y, int z) {
+    set(type, 0, x, y, z);
+  }
+
+  /**
+   * Set the type of all voxels in the aligned cube of size 2^level which
+   * contains the given coordinates. The cube is stored as a single leaf node.
+   *
+   * @param type The new voxel type to be set
+   * @param level The level of the node to set, must be less than the
+   * octree depth
+   */
+  public synchronized void set(int type, int level, int x, int y, int z) {
+    emptySpace = null;
     Node node = root;
     int parentLvl = depth - 1;
-    int level = parentLvl;
-    for (int i = depth - 1; i >= 0; --i) {
-      level = i;
+    for (int i = depth - 1; i >= level; --i) {
       parents[i] = node;
 
       if (node.type == type) {
@@ -191,10 +329,9 @@ public class Octree {
       int xbit = 1 & (x >> i);
       int ybit = 1 & (y >> i);
       int zbit = 1 & (z >> i);
-      node = node.children[(xbit << 2) | (ybit << 1) | zbit];
-
+      node = writableChild(node, (xbit << 2) | (ybit << 1) | zbit);
     }
-    node.type = type;
+    node.merge(type);
 
     // merge nodes where all children have been set to the same type
     for (int i = level; i <= parentLvl; ++i) {
@@ -210,7 +347,6 @@ public class Octree {
 
       if (allSame) {
         parent.merge(node.type);
-        cacheLevel = FastMath.max(i, cacheLevel);
       } else {
         break;
       }
@@ -219,23 +355,364 @@ public class Octree {
   }
 
   /**
-   * @return The voxel type at the given coordinates
+   * Get a child node which can be modified. Paged and shared children are
+   * replaced by private copies.
+   */
+  private Node writableChild(Node node, int index) {
+    Node child = node.children[index];
+    if (child.type < -1) {
+      // Load a private copy of the paged subtree. The subtree is stored
+      // again on the next call to pageOut.
+      child = pager.copy(child.type);
+      node.children[index] = child;
+    } else if (child.shared) {
+      child = new Node(child.type, child.children);
+      node.children[index] = child;
+    }
+    return child;
+  }
+
+  /**
+   * An axis-aligned box of voxels, given by its minimum (inclusive) and
+   * maximum (exclusive) corners.
+   */
+  private static final class Box {
+    final int x0, y0, z0;
+    final int x1, y1, z1;
+
+    Box(int x0, int y0, int z0, int x1, int y1, int z1) {
+      this.x0 = x0;
+      this.y0 = y0;
+      this.z0 = z0;
+      this.x1 = x1;
+      this.y1 = y1;
+      this.z1 = z1;
+    }
+
+    boolean intersects(int x, int y, int z, int size) {
+      return x < x1 && y < y1 && z < z1 && x + size > x0 && y + size > y0 && z + size > z0;
+    }
+
+    boolean contains(int x, int y, int z, int size) {
+      return x >= x0 && y >= y0 && z >= z0 && x + size <= x1 && y + size <= y1 && z + size <= z1;
+    }
+  }
+
+  /**
+   * Set all voxels in a box to the given type. The box is given by its
+   * minimum (inclusive) and maximum (exclusive) corners.
+   *
+   * <p>This only visits the octree nodes on the border of the box, so it is
+   * much faster than setting each voxel in the box.
+   */
+  public synchronized void fill(int type, int x0, int y0, int z0, int x1, int y1, int z1) {
+    emptySpace = null;
+    Box box = new Box(x0, y0, z0, x1, y1, z1);
+    if (box.contains(0, 0, 0, 1 << depth)) {
+      root.merge(type);
+    } else if (box.intersects(0, 0, 0, 1 << depth)) {
+      fill(root, depth, 0, 0, 0, box, type);
+    }
+  }
+
+  private void fill(Node node, int level, int x, int y, int z, Box box, int type) {
+    if (node.type == type) {
+      return;
+    }
+    if (node.children == null) {
+      node.subdivide();
+    }
+    int half = 1 << (level - 1);
+    for (int i = 0; i < 8; ++i) {
+      int cx = x + ((i >> 2) & 1) * half;
+      int cy = y + ((i >> 1) & 1) * half;
+      int cz = z + (i & 1) * half;
+      if (box.contains(cx, cy, cz, half)) {
+        node.children[i] = new Node(type);
+      } else if (box.intersects(cx, cy, cz, half)) {
+        fill(writableChild(node, i), level - 1, cx, cy, cz, box, type);
+      }
+    }
+    mergeUniform(node);
+  }
+
+  /**
+   * Set the voxels in a box from an array of voxel types, for example the
+   * blocks of a chunk. The array is indexed by {@code (y * sz + z) * sx + x},
+   * relative to the minimum corner of the box.
+   *
+   * <p>Subtrees inside the box are built bottom-up from the array and
+   * replace the existing nodes, and uniform nodes are merged once, so this
+   * is much faster than setting each voxel in the box.
+   */
+  public synchronized void insert(int[] types, int x0, int y0, int z0, int sx, int sy, int sz) {
+    emptySpace = null;
+    Box box = new Box(x0, y0, z0, x0 + sx, y0 + sy, z0 + sz);
+    if (box.contains(0, 0, 0, 1 << depth)) {
+      Node subtree = build(types, box, depth, 0, 0, 0);
+      root.type = subtree.type;
+      root.children = subtree.children;
+    } else if (box.intersects(0, 0, 0, 1 << depth)) {
+      insert(root, depth, 0, 0, 0, box, types);
+    }
+  }
+
+  private void insert(Node node, int level, int x, int y, int z, Box box, int[] types) {
+    if (node.children == null) {
+      node.subdivide();
+    }
+    int half = 1 << (level - 1);
+    for (int i = 0; i < 8; ++i) {
+      int cx = x + ((i >> 2) & 1) * half;
+      int cy = y + ((i >> 1) & 1) * half;
+      int cz = z + (i & 1) * half;
+      if (box.contains(cx, cy, cz, half)) {
+        node.children[i] = build(types, box, level - 1, cx, cy, cz);
+      } else if (box.intersects(cx, cy, cz, half)) {
+        insert(writableChild(node, i), level - 1, cx, cy, cz, box, types);
+      }
+    }
+    mergeUniform(node);
+  }
+
+  /**
+   * Build the subtree for a cube inside the box.
+   */
+  private static Node build(int[] types, Box box, int level, int x, int y, int z) {
+    if (level == 0) {
+      return new Node(voxel(types, box, x, y, z));
+    }
+    if (level == 1) {
+      // Avoid allocating leaves for uniform 2x2x2 cubes.
+      int type = voxel(types, box, x, y, z);
+      boolean uniform = true;
+      for (int i = 1; i < 8 && uniform; ++i) {
+        uniform = voxel(types, box, x + ((i >> 2) & 1), y + ((i >> 1) & 1), z + (i & 1)) == type;
+      }
+      if (uniform) {
+        return new Node(type);
+      }
+    }
+    Node[] children = new Node[8];
+    int half = 1 << (level - 1);
+    boolean uniform = true;
+    for (int i = 0; i < 8; ++i) {
+      children[i] = build(types, box, level - 1,
+          x + ((i >> 2) & 1) * half, y + ((i >> 1) & 1) * half, z + (i & 1) * half);
+      uniform &= children[i].type != -1 && children[i].type == children[0].type;
+    }
+    if (uniform) {
+      return children[0];
+    }
+    Node node = new Node(-1);
+    node.children = children;
+    return node;
+  }
+
+  private static int voxel(int[] types, Box box, int x, int y, int z) {
+    int sx = box.x1 - box.x0;
+    int sz = box.z1 - box.z0;
+    return types[((y - box.y0) * sz + z - box.z0) * sx + x - box.x0];
+  }
+
+  /**
+   * Merge a branch node into a leaf if all its children are leaves of the
+   * same type.
+   */
+  private static void mergeUniform(Node node) {
+    int type = node.children[0].type;
+    if (type < 0) {
+      return;
+    }
+    for (int i = 1; i < 8; ++i) {
+      if (node.children[i].type != type) {
+        return;
+      }
+    }
+    node.merge(type);
+  }
+
+  /**
+   * Deduplicate identical subtrees, turning the octree into a directed
+   * acyclic graph where each distinct subtree is stored once.
+   *
+   * <p>Traversal and lookups work on the shared structure without changes.
+   * Shared nodes are copied on write when the octree is modified, so
+   * {@link #set} can still be used after deduplication.
+   *
+   * @return the number of distinct nodes in the deduplicated octree
+   */
+  public synchronized int deduplicate() {
+    if (root.type != -1) {
+      return 1;
+    }
+    Deduplicator deduplicator = new Deduplicator();
+    for (int i = 0; i < 8; ++i) {
+      root.children[i] = deduplicator.canonical(root.children[i]);
+    }
+    return 1 + deduplicator.leaves.size() + deduplicator.branches.size();
+  }
+
+  /**
+   * @return the number of distinct nodes in the octree
+   */
+  public synchronized int countNodes() {
+    return countNodes(root, Collections.newSetFromMap(new IdentityHashMap<>()));
+  }
+
+  private static int countNodes(Node node, Set<Node> visited) {
+    if (node.shared && !visited.add(node)) {
+      return 0;
+    }
+    int count = 1;
+    if (node.type == -1) {
+      for (Node child : node.children) {
+        count += countNodes(child, visited);
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Hash-conses octree nodes bottom-up. Leaf nodes are identified by type,
+   * and branch nodes by the identity of their canonical children.
    */
-  public synchronized int get(int x, int y, int z) {
-    while (cacheLevel < depth && ((x >>> cacheLevel) != cx ||
-        (y >>> cacheLevel) != cy || (z >>> cacheLevel) != cz))
-      cacheLevel += 1;
+  private static final class Deduplicator {
+    private final Map<Integer, Node> leaves = new HashMap<>();
+    private final Map<BranchKey, Node> branches = new HashMap<>();
+
+    /** Canonical nodes for nodes that were shared before this pass. */
+    private final Map<Node, Node> previouslyShared = new IdentityHashMap<>();
+
+    Node canonical(Node node) {
+      if (node.shared) {
+        Node result = previouslyShared.get(node);
+        if (result == null) {
+          result = intern(node);
+          previouslyShared.put(node, result);
+        }
+        return result;
+      }
+      return intern(node);
+    }
+
+    private Node intern(Node node) {
+      if (node.type != -1) {
+        Node leaf = leaves.get(node.type);
+        if (leaf == null) {
+          leaf = node;
+          leaf.shared = true;
+          leaves.put(node.type, leaf);
+        }
+        return leaf;
+      }
+      Node[] children = new Node[8];
+      boolean changed = false;
+      for (int i = 0; i < 8; ++i) {
+        children[i] = canonical(node.children[i]);
+        changed |= children[i] != node.children[i];
+      }
+      BranchKey key = new BranchKey(children);
+      Node branch = branches.get(key);
+      if (branch == null) {
+        if (!changed) {
+          branch = node;
+        } else if (node.shared) {
+          branch = new Node(-1, children);
+        } else {
+          node.children = children;
+          branch = node;
+        }
+        branch.shared = true;
+        branches.put(key, branch);
+      }
+      return branch;
+    }
+  }
 
-    int type;
-    while ((type = cache[cacheLevel].type) == -1) {
-      cacheLevel -= 1;
-      cx = x >>> cacheLevel;
-      cy = y >>> cacheLevel;
-      cz = z >>> cacheLevel;
-      cache[cacheLevel] =
-          cache[cacheLevel + 1].children[((cx & 1) << 2) | ((cy & 1) << 1) | (cz & 1)];
+  private static final class BranchKey {
+    private final Node[] children;
+    private final int hash;
+
+    BranchKey(Node[] children) {
+      this.children = children;
+      int hash = 0;
+      for (Node child : children) {
+        hash = hash * 31 + System.identityHashCode(child);
+      }
+      this.hash = hash;
+    }
+
+    @Override public boolean equals(Object obj) {
+      if (!(obj instanceof BranchKey)) {
+        return false;
+      }
+      Node[] other = ((BranchKey) obj).children;
+      for (int i = 0; i < 8; ++i) {
+        if (children[i] != other[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override public int hashCode() {
+      return hash;
+    }
+  }
+
+  /**
+   * Look up a single voxel by descending from the root node.
+   *
+   * <p>This does not lock the octree, so it must not be called while the
+   * octree is being modified by another thread. Use a {@link Cursor} for
+   * many nearby queries.
+   *
+   * @return The voxel type at the given coordinates
+   */
+  public int get(int x, int y, int z) {
+    Node node = root;
+    int level = depth;
+    while (node.type < 0) {
+      if (node.type != -1) {
+        node = pager.get(node.type);
+        continue;
+      }
+      level -= 1;
+      node = node.children[((1 & (x >>> level)) << 2) | ((1 & (y >>> level)) << 1)
+          | (1 & (z >>> level))];
     }
-    return type;
+    return node.type;
+  }
+
+  /**
+   * @return a new cursor for point queries in this octree
+   */
+  public Cursor cursor() {
+    return new Cursor(this);
+  }
+
+  /**
+   * Build the empty space skipping map used to speed up ray traversal
+   * through large empty areas. The map must be rebuilt after the octree
+   * has been modified.
+   */
+  public synchronized void buildEmptySpaceMap() {
+    emptySpace = EmptySpaceMap.build(this);
+  }
+
+  /**
+   * Remove the empty space skipping map.
+   */
+  public synchronized void clearEmptySpaceMap() {
+    emptySpace = null;
+  }
+
+  /**
+   * @return {@code true} if this octree has an empty space skipping map
+   */
+  public boolean hasEmptySpaceMap() {
+    return emptySpace != null;
   }
 
   /**
@@ -245,7 +722,17 @@ public class Octree {
    */
   public void store(DataOutputStream out) throws IOException {
     out.writeInt(depth);
-    root.store(out);
+    store(root, out);
+  }
+
+  private void store(Node node, DataOutputStream out) throws IOException {
+    node = resolve(node);
+    out.writeInt(node.type);
+    if (node.type == -1) {
+      for (int i = 0; i < 8; ++i) {
+        store(node.children[i], out);
+      }
+    }
   }
 
   /**
@@ -294,10 +781,23 @@ public class Octree {
   }
 
   private boolean enterBlock(Scene scene, Ray ray) {
+    return enterBlockSteps(scene, ray) > 0;
+  }
+
+  /**
+   * Step through the octree until the ray enters a different block.
+   * The number of steps is used to measure the effect of empty space skipping.
+   *
+   * @return the number of leaf nodes or empty regions stepped through plus
+   * one, negated if the ray left the octree without hitting anything
+   */
+  int enterBlockSteps(Scene scene, Ray ray) {
 
+    EmptySpaceMap emptySpace = this.emptySpace;
     int level;
     Octree.Node node;
     boolean first = true;
+    int steps = 0;
 
     int lx, ly, lz;
     int x, y, z;
@@ -371,16 +871,21 @@ public class Octree {
             tNear = Double.POSITIVE_INFINITY;
             continue;
           } else {
-            return false;// outside of octree!
+            return -(steps + 1);// outside of octree!
           }
         } else {
-          return false;// outside of octree!
+          return -(steps + 1);// outside of octree!
         }
       }
 
       first = false;
+      steps += 1;
 
-      while (node.type == -1) {
+      while (node.type < 0) {
+        if (node.type != -1) {
+          node = pager.get(node.type);
+          continue;
+        }
         level -= 1;
         lx = x >>> level;
         ly = y >>> level;
@@ -397,8 +902,9 @@ public class Octree {
       if (currentBlock.localIntersect) {
 
         if (currentBlock.intersect(ray, scene)) {
-          if (prevBlock != currentBlock)
-            return true;
+          if (prevBlock != currentBlock) {
+            return steps + 1;
+          }
 
           ray.o.scaleAdd(Ray.OFFSET, ray.d);
           continue;
@@ -410,17 +916,50 @@ public class Octree {
         }
       } else if (!currentBlock.isSameMaterial(prevBlock) && currentBlock != Block.AIR) {
         TexturedBlockModel.getIntersectionColor(ray);
-        return true;
+        return steps + 1;
       }
 
       // Exit current octree leaf.
-      t = ((lx << level) - ray.o.x) / d.x;
+      int x0 = lx << level;
+      int y0 = ly << level;
+      int z0 = lz << level;
+      int x1 = (lx + 1) << level;
+      int y1 = (ly + 1) << level;
+      int z1 = (lz + 1) << level;
+
+      if (emptySpace != null && currentBlock == Block.AIR) {
+        // Exit the surrounding empty bricks instead if that takes the ray further.
+        int radius = emptySpace.emptyRadius(x, y, z);
+        if (radius > 0) {
+          int size = 1 << depth;
+          int bx = x >> EmptySpaceMap.BRICK_BITS;
+          int by = y >> EmptySpaceMap.BRICK_BITS;
+          int bz = z >> EmptySpaceMap.BRICK_BITS;
+          int ex0 = Math.max(0, (bx - radius + 1) << EmptySpaceMap.BRICK_BITS);
+          int ey0 = Math.max(0, (by - radius + 1) << EmptySpaceMap.BRICK_BITS);
+          int ez0 = Math.max(0, (bz - radius + 1) << EmptySpaceMap.BRICK_BITS);
+          int ex1 = Math.min(size, (bx + radius) << EmptySpaceMap.BRICK_BITS);
+          int ey1 = Math.min(size, (by + radius) << EmptySpaceMap.BRICK_BITS);
+          int ez1 = Math.min(size, (bz + radius) << EmptySpaceMap.BRICK_BITS);
+          if (exitDistance(ray.o, d, ex0, ey0, ez0, ex1, ey1, ez1)
+              > exitDistance(ray.o, d, x0, y0, z0, x1, y1, z1)) {
+            x0 = ex0;
+            y0 = ey0;
+            z0 = ez0;
+            x1 = ex1;
+            y1 = ey1;
+            z1 = ez1;
+          }
+        }
+      }
+
+      t = (x0 - ray.o.x) / d.x;
       if (t > Ray.EPSILON) {
         tNear = t;
         nx = 1;
         ny = nz = 0;
       } else {
-        t = (((lx + 1) << level) - ray.o.x) / d.x;
+        t = (x1 - ray.o.x) / d.x;
         if (t < tNear && t > Ray.EPSILON) {
           tNear = t;
           nx = -1;
@@ -428,13 +967,13 @@ public class Octree {
         }
       }
 
-      t = ((ly << level) - ray.o.y) / d.y;
+      t = (y0 - ray.o.y) / d.y;
       if (t < tNear && t > Ray.EPSILON) {
         tNear = t;
         ny = 1;
         nx = nz = 0;
       } else {
-        t = (((ly + 1) << level) - ray.o.y) / d.y;
+        t = (y1 - ray.o.y) / d.y;
         if (t < tNear && t > Ray.EPSILON) {
           tNear = t;
           ny = -1;
@@ -442,13 +981,13 @@ public class Octree {
         }
       }
 
-      t = ((lz << level) - ray.o.z) / d.z;
+      t = (z0 - ray.o.z) / d.z;
       if (t < tNear && t > Ray.EPSILON) {
         tNear = t;
         nz = 1;
         nx = ny = 0;
       } else {
-        t = (((lz + 1) << level) - ray.o.z) / d.z;
+        t = (z1 - ray.o.z) / d.z;
         if (t < tNear && t > Ray.EPSILON) {
           tNear = t;
           nz = -1;
@@ -463,6 +1002,18 @@ public class Octree {
     }
   }
 
+  /**
+   * @return the distance along the ray direction from the ray origin to
+   * where the ray exits the box
+   */
+  private static double exitDistance(Vector3 o, Vector3 d, int x0, int y0, int z0,
+      int x1, int y1, int z1) {
+    double tx = ((d.x >= 0 ? x1 : x0) - o.x) / d.x;
+    double ty = ((d.y >= 0 ? y1 : y0) - o.y) / d.y;
+    double tz = ((d.z >= 0 ? z1 : z0) - o.z) / d.z;
+    return Math.min(tx, Math.min(ty, tz));
+  }
+
   private boolean exitWater(Scene scene, Ray ray) {
 
     int level;
@@ -546,7 +1097,11 @@ public class Octree {
 
       first = false;
 
-      while (node.type == -1) {
+      while (node.type < 0) {
+        if (node.type != -1) {
+          node = pager.get(node.type);
+          continue;
+        }
         level -= 1;
         lx = x >>> level;
         ly = y >>> level;
@@ -649,6 +1204,152 @@ public class Octree {
   }
 
   public void visit(OctreeVisitor visitor) {
-    root.visit(visitor, 0, 0, 0, depth);
+    visit(root, visitor, 0, 0, 0, depth);
+  }
+
+  private void visit(Node node, OctreeVisitor visitor, int x, int y, int z, int level) {
+    node = resolve(node);
+    if (node.type == -1) {
+      int cx = x << 1;
+      int cy = y << 1;
+      int cz = z << 1;
+      visit(node.children[0], visitor, cx, cy, cz, level - 1);
+      visit(node.children[1], visitor, cx, cy, cz | 1, level - 1);
+      visit(node.children[2], visitor, cx, cy | 1, cz, level - 1);
+      visit(node.children[3], visitor, cx, cy | 1, cz | 1, level - 1);
+      visit(node.children[4], visitor, cx | 1, cy, cz, level - 1);
+      visit(node.children[5], visitor, cx | 1, cy, cz | 1, level - 1);
+      visit(node.children[6], visitor, cx | 1, cy | 1, cz, level - 1);
+      visit(node.children[7], visitor, cx | 1, cy | 1, cz | 1, level - 1);
+    } else {
+      visitor.visit(node.type, x << level, y << level, z << level, level);
+    }
+  }
+
+  /**
+   * Move the subtrees at the brick level of the pager to disk, and replace
+   * them by placeholder nodes. The paged subtrees are loaded again on demand.
+   * Subtrees that are already paged are not stored again, but subtrees that
+   * were modified after paging are.
+   *
+   * <p>If more than half of the brick file is taken up by records that this
+   * octree no longer uses, the bricks of this octree are moved to a new
+   * pager. The old pager is not changed, since copies of this octree may
+   * still use it. Use {@link #getPager()} to find the current pager.
+   *
+   * @throws IllegalArgumentException if the octree is paged by another pager
+   */
+  public synchronized void pageOut(OctreePager pager) throws IOException {
+    if (this.pager != null && this.pager != pager) {
+      throw new IllegalArgumentException("The octree is already paged by another pager.");
+    }
+    if (pager.getBrickLevel() < depth) {
+      this.pager = pager;
+      pageOut(root, depth, pager.getBrickLevel(), new IdentityHashMap<>());
+
+      BitSet live = new BitSet();
+      findPlaceholders(root, depth, pager.getBrickLevel(), live);
+      long liveBytes = pager.recordBytes(live);
+      if (pager.fileSize() - liveBytes > liveBytes) {
+        OctreePager compacted = new OctreePager(pager.getBrickLevel(), pager.getCapacity());
+        if (root.type == -1) {
+          movePlaceholders(root, depth, compacted, new HashMap<>(), new IdentityHashMap<>());
+        }
+        this.pager = compacted;
+      }
+    }
+  }
+
+  /**
+   * @param paged the replacements for shared subtrees that were already
+   * paged, so that each shared brick is stored once
+   */
+  private void pageOut(Node node, int level, int brickLevel, Map<Node, Node> paged)
+      throws IOException {
+    if (node.type != -1) {
+      return;
+    }
+    for (int i = 0; i < 8; ++i) {
+      Node child = node.children[i];
+      if (child.type != -1) {
+        continue;
+      }
+      Node replacement = child.shared ? paged.get(child) : null;
+      if (replacement == null) {
+        if (level - 1 == brickLevel) {
+          replacement = new Node(pager.store(child));
+        } else {
+          replacement = child.shared ? new Node(child.type, child.children) : child;
+          pageOut(replacement, level - 1, brickLevel, paged);
+        }
+        if (child.shared) {
+          replacement.shared = true;
+          paged.put(child, replacement);
+        }
+      }
+      node.children[i] = replacement;
+    }
+  }
+
+  private static void findPlaceholders(Node node, int level, int brickLevel, BitSet placeholders) {
+    if (node.type < -1) {
+      placeholders.set(-2 - node.type);
+    } else if (node.type == -1 && level > brickLevel) {
+      for (Node child : node.children) {
+        findPlaceholders(child, level - 1, brickLevel, placeholders);
+      }
+    }
+  }
+
+  /**
+   * Copy the paged subtrees below a node to another pager, and replace the
+   * placeholders. Shared nodes are copied before they are modified.
+   *
+   * @param copied the copies of shared branches that were already moved,
+   * so that each shared branch is copied once and stays shared
+   */
+  private void movePlaceholders(Node node, int level, OctreePager target,
+      Map<Integer, Node> moved, Map<Node, Node> copied) throws IOException {
+    for (int i = 0; i < 8; ++i) {
+      Node child = node.children[i];
+      if (child.type < -1) {
+        Node placeholder = moved.get(child.type);
+        if (placeholder == null) {
+          placeholder = new Node(target.copyRecord(pager, child.type));
+          moved.put(child.type, placeholder);
+        } else {
+          placeholder.shared = true;
+        }
+        node.children[i] = placeholder;
+      } else if (child.type == -1 && level - 1 > target.getBrickLevel()) {
+        if (child.shared) {
+          Node copy = copied.get(child);
+          if (copy == null) {
+            copy = new Node(child.type, child.children);
+            copy.shared = true;
+            copied.put(child, copy);
+            movePlaceholders(copy, level - 1, target, moved, copied);
+          }
+          node.children[i] = copy;
+        } else {
+          movePlaceholders(child, level - 1, target, moved, copied);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the pager storing the paged subtrees of this octree, or
+   * {@code null} if the octree is not paged
+   */
+  public OctreePager getPager() {
+    return pager;
+  }
+
+  /**
+   * @return the given node, or the paged subtree if the node is a placeholder
+   */
+  Node resolve(Node node) {
+    return node.type < -1 ? pager.get(node.type) : node;
   }
 }
@@ -0,0 +1,353 @@
+/* Copyright (c) 2019 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Compact octree file format.
+ *
+ * <p>The nodes are stored in breadth-first order, so the children of a
+ * branch node are not stored inline but follow the children of all previous
+ * branch nodes. Each node is stored as a varint code: zero for a branch node,
+ * and otherwise one plus the index of the node type in a palette of the
+ * distinct leaf types in the tree.
+ *
+ * <p>The node codes are split into blocks that are compressed separately, so
+ * that the blocks can be compressed and decompressed in parallel.
+ *
+ * <p>File layout:
+ * <pre>
+ *   int magic, int version, int depth
+ *   int paletteSize, int[paletteSize] palette
+ *   int numNodes, int numBlocks
+ *   numBlocks * (int length, byte[length] deflated varint codes)
+ * </pre>
+ *
+ * <p>Files in the old format written by {@link Octree#store} wrapped in a
+ * GZIP stream can also be loaded.
+ *
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public final class OctreeFileFormat {
+
+  /** File magic: "OCTR". */
+  private static final int MAGIC = 0x4F435452;
+
+  public static final int VERSION = 2;
+
+  /** Number of nodes per compressed block. */
+  private static final int BLOCK_NODES = 1 << 18;
+
+  private static final int GZIP_MAGIC = 0x1F8B;
+
+  private OctreeFileFormat() {
+  }
+
+  /**
+   * Write the octree to an output stream. The stream should be buffered.
+   *
+   * <p>The octree is written in two passes: the first pass counts the nodes
+   * and builds the palette, and the second pass writes the breadth-first
+   * levels one at a time by walking the tree depth-first down to each level.
+   * Only a few blocks of node codes are kept in memory. Paged subtrees are
+   * loaded through the pager, which keeps its usual limit on resident
+   * bricks.
+   */
+  public static void store(Octree octree, OutputStream output) throws IOException {
+    Map<Integer, Integer> palette = new LinkedHashMap<>();
+    long count = countNodes(octree, octree.root, palette, new IdentityHashMap<>(),
+        new HashMap<>());
+    if (count > Integer.MAX_VALUE) {
+      throw new IOException("Octree is too large to store");
+    }
+    int numNodes = (int) count;
+    int numBlocks = (numNodes + BLOCK_NODES - 1) / BLOCK_NODES;
+
+    DataOutputStream out = new DataOutputStream(output);
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(octree.depth);
+    out.writeInt(palette.size());
+    for (int type : palette.keySet()) {
+      out.writeInt(type);
+    }
+    out.writeInt(numNodes);
+    out.writeInt(numBlocks);
+    BlockWriter writer = new BlockWriter(out, palette);
+    for (int level = 0; level <= octree.depth; ++level) {
+      writer.writeLevel(octree, octree.root, level);
+    }
+    writer.flush();
+    if (writer.numNodes != numNodes) {
+      throw new IOException("The octree was modified while it was stored");
+    }
+    out.flush();
+  }
+
+  /**
+   * Count the nodes of the octree as it is stored, with shared and paged
+   * subtrees expanded, and add the leaf types to the palette.
+   *
+   * @param sharedCounts node counts for shared subtrees that were already
+   * counted
+   * @param brickCounts node counts for paged subtrees that were already
+   * counted, by placeholder type
+   */
+  private static long countNodes(Octree octree, Octree.Node node, Map<Integer, Integer> palette,
+      Map<Octree.Node, Long> sharedCounts, Map<Integer, Long> brickCounts) {
+    if (node.type < -1) {
+      Long count = brickCounts.get(node.type);
+      if (count == null) {
+        count = countNodes(octree, octree.resolve(node), palette, sharedCounts, brickCounts);
+        brickCounts.put(node.type, count);
+      }
+      return count;
+    }
+    if (node.type != -1) {
+      palette.putIfAbsent(node.type, palette.size());
+      return 1;
+    }
+    if (node.shared) {
+      Long count = sharedCounts.get(node);
+      if (count != null) {
+        return count;
+      }
+    }
+    long count = 1;
+    for (Octree.Node child : node.children) {
+      count += countNodes(octree, child, palette, sharedCounts, brickCounts);
+    }
+    if (node.shared) {
+      sharedCounts.put(node, count);
+    }
+    return count;
+  }
+
+  /**
+   * Collects node codes into blocks. Full blocks are compressed in parallel
+   * batches and written to the output stream.
+   */
+  private static final class BlockWriter {
+    private final DataOutputStream out;
+    private final Map<Integer, Integer> palette;
+    private final int[] codes;
+    private int size = 0;
+    int numNodes = 0;
+
+    BlockWriter(DataOutputStream out, Map<Integer, Integer> palette) {
+      this.out = out;
+      this.palette = palette;
+      codes = new int[Runtime.getRuntime().availableProcessors() * BLOCK_NODES];
+    }
+
+    /**
+     * Write the nodes at the given level below a node, from left to right.
+     */
+    void writeLevel(Octree octree, Octree.Node node, int level) throws IOException {
+      if (level == 0) {
+        if (size == codes.length) {
+          flush();
+        }
+        codes[size++] = node.type == -1 ? 0 : palette.get(node.type) + 1;
+        numNodes += 1;
+      } else if (node.type == -1) {
+        for (Octree.Node child : node.children) {
+          writeLevel(octree, octree.resolve(child), level - 1);
+        }
+      }
+    }
+
+    /**
+     * Compress and write the collected codes.
+     */
+    void flush() throws IOException {
+      int numBlocks = (size + BLOCK_NODES - 1) / BLOCK_NODES;
+      byte[][] blocks = new byte[numBlocks][];
+      IntStream.range(0, numBlocks).parallel().forEach(block -> {
+        int start = block * BLOCK_NODES;
+        blocks[block] = compressBlock(codes, start, Math.min(size, start + BLOCK_NODES));
+      });
+      for (byte[] block : blocks) {
+        out.writeInt(block.length);
+        out.write(block);
+      }
+      size = 0;
+    }
+  }
+
+  /**
+   * Read an octree from an input stream. Octrees in the old GZIP-compressed
+   * format are also accepted.
+   *
+   * @throws IOException if the octree could not be read
+   */
+  public static Octree load(InputStream input) throws IOException {
+    BufferedInputStream buffered = new BufferedInputStream(input);
+    DataInputStream in = new DataInputStream(buffered);
+    buffered.mark(4);
+    int magic = in.readInt();
+    if (magic != MAGIC) {
+      buffered.reset();
+      if ((magic >>> 16) != GZIP_MAGIC) {
+        throw new IOException("Unknown octree file format");
+      }
+      return Octree.load(new DataInputStream(new GZIPInputStream(buffered)));
+    }
+    int version = in.readInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported octree format version: " + version);
+    }
+    int depth = in.readInt();
+    int paletteSize = in.readInt();
+    int[] palette = new int[paletteSize];
+    for (int i = 0; i < paletteSize; ++i) {
+      palette[i] = in.readInt();
+    }
+    int numNodes = in.readInt();
+    int numBlocks = in.readInt();
+    if (numNodes < 1 || numBlocks != (numNodes + BLOCK_NODES - 1) / BLOCK_NODES) {
+      throw new IOException("Corrupt octree file");
+    }
+    byte[][] blocks = new byte[numBlocks][];
+    for (int block = 0; block < numBlocks; ++block) {
+      blocks[block] = new byte[in.readInt()];
+      in.readFully(blocks[block]);
+    }
+
+    Octree.Node[] nodes = new Octree.Node[numNodes];
+    try {
+      IntStream.range(0, numBlocks).parallel().forEach(block -> {
+        int start = block * BLOCK_NODES;
+        int end = Math.min(numNodes, start + BLOCK_NODES);
+        try {
+          decodeBlock(blocks[block], palette, nodes, start, end);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+
+    return new Octree(depth, linkChildren(nodes));
+  }
+
+  /**
+   * Link the children of each branch node in a breadth-first node array.
+   * The children of the branch nodes are stored in the same order as the
+   * branch nodes themselves.
+   *
+   * @return the root node
+   */
+  static Octree.Node linkChildren(Octree.Node[] nodes) throws IOException {
+    int next = 1;
+    for (Octree.Node node : nodes) {
+      if (node.type == -1) {
+        if (next + 8 > nodes.length) {
+          throw new IOException("Corrupt octree data");
+        }
+        node.children = new Octree.Node[8];
+        System.arraycopy(nodes, next, node.children, 0, 8);
+        next += 8;
+      }
+    }
+    return nodes[0];
+  }
+
+  private static byte[] compressBlock(int[] codes, int start, int end) {
+    byte[] data = new byte[(end - start) * 5];
+    int length = 0;
+    for (int i = start; i < end; ++i) {
+      int code = codes[i];
+      while ((code & ~0x7F) != 0) {
+        data[length++] = (byte) ((code & 0x7F) | 0x80);
+        code >>>= 7;
+      }
+      data[length++] = (byte) code;
+    }
+    Deflater deflater = new Deflater();
+    deflater.setInput(data, 0, length);
+    deflater.finish();
+    ByteArrayOutputStream out = new ByteArrayOutputStream(length / 4 + 64);
+    byte[] buffer = new byte[8192];
+    while (!deflater.finished()) {
+      int count = deflater.deflate(buffer);
+      out.write(buffer, 0, count);
+    }
+    deflater.end();
+    return out.toByteArray();
+  }
+
+  private static void decodeBlock(byte[] block, int[] palette, Octree.Node[] nodes, int start,
+      int end) throws IOException {
+    byte[] data = new byte[(end - start) * 5];
+    int length = 0;
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(block);
+      while (!inflater.finished() && length < data.length) {
+        int count = inflater.inflate(data, length, data.length - length);
+        if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new IOException("Truncated octree block");
+        }
+        length += count;
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupt octree block", e);
+    } finally {
+      inflater.end();
+    }
+    int pos = 0;
+    for (int i = start; i < end; ++i) {
+      int code = 0;
+      int shift = 0;
+      byte b;
+      do {
+        if (pos >= length || shift > 28) {
+          throw new IOException("Corrupt octree block");
+        }
+        b = data[pos++];
+        code |= (b & 0x7F) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0);
+      if (code == 0) {
+        nodes[i] = new Octree.Node(-1);
+      } else if (code <= palette.length) {
+        nodes[i] = new Octree.Node(palette[code - 1]);
+      } else {
+        throw new IOException("Corrupt octree block");
+      }
+    }
+  }
+}
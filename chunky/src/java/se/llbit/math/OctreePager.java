@@ -0,0 +1,383 @@
+/* Copyright (c) 2019 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Disk storage for octree bricks. A brick is an octree subtree at a fixed
+ * level which has been written to a temporary file and replaced in the
+ * octree by a placeholder leaf. The placeholder type is {@code -2 - index},
+ * where index is the index of the brick record in the file.
+ *
+ * <p>Bricks are loaded on demand and kept in memory until the estimated
+ * size of the resident bricks exceeds the capacity of the pager. The least
+ * recently used bricks are then evicted. Resident bricks are looked up
+ * without locking, so the render threads can share the pager.
+ *
+ * <p>Brick records are never modified once written. A brick which is
+ * modified after loading it is written as a new record, so octree copies
+ * may share the same pager. Identical bricks share a single record. When most of the file is taken up by records
+ * that an octree no longer uses, the octree moves its bricks to a new pager
+ * (see {@link Octree#pageOut}). Pagers are reference counted by their users,
+ * and the file is deleted when the last reference is released.
+ *
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public final class OctreePager {
+
+  /** Estimated memory used per octree node, in bytes. */
+  public static final int NODE_BYTES = 32;
+
+  private final int brickLevel;
+  private final long capacity;
+  private final File file;
+  private final RandomAccessFile randomAccessFile;
+  private final FileChannel channel;
+
+  /** Resident bricks, indexed by record. Replaced when the record table grows. */
+  private volatile AtomicReferenceArray<Octree.Node> resident = new AtomicReferenceArray<>(64);
+
+  /** Page fault counter at the last use of each brick, for LRU eviction. */
+  private volatile long[] lastUse = new long[64];
+
+  // The following fields are guarded by this pager.
+  private final Map<Integer, Integer> recordsByHash = new HashMap<>();
+  private long[] offsets = new long[64];
+  private int[] lengths = new int[64];
+  private int[] nodeCounts = new int[64];
+  private int numRecords = 0;
+  private long fileSize = 0;
+  private final List<Integer> residentList = new ArrayList<>();
+  private long residentNodes = 0;
+  private volatile long pageFaults = 0;
+  private long evictions = 0;
+  private int references = 0;
+  private boolean closed = false;
+
+  /**
+   * Create a pager backed by a new temporary file. The file is deleted when
+   * the pager is closed, or when the program exits.
+   *
+   * @param brickLevel the octree level of the paged subtrees
+   * @param capacity the maximum estimated size of the resident bricks, in bytes
+   */
+  public OctreePager(int brickLevel, long capacity) throws IOException {
+    this.brickLevel = brickLevel;
+    this.capacity = capacity;
+    file = File.createTempFile("chunky-octree", ".bricks");
+    file.deleteOnExit();
+    randomAccessFile = new RandomAccessFile(file, "rw");
+    channel = randomAccessFile.getChannel();
+  }
+
+  /**
+   * @return the octree level of the paged subtrees
+   */
+  public int getBrickLevel() {
+    return brickLevel;
+  }
+
+  /**
+   * @return the maximum estimated size of the resident bricks, in bytes
+   */
+  public long getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Write a subtree to the brick file.
+   *
+   * @return the placeholder type for the stored brick
+   */
+  synchronized int store(Octree.Node brick) throws IOException {
+    List<Octree.Node> nodes = new ArrayList<>();
+    nodes.add(brick);
+    for (int i = 0; i < nodes.size(); ++i) {
+      Octree.Node node = nodes.get(i);
+      if (node.type == -1) {
+        nodes.addAll(Arrays.asList(node.children));
+      }
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(nodes.size() * 5);
+    for (Octree.Node node : nodes) {
+      // Branch nodes have type -1, so all stored codes are non-negative.
+      int code = node.type + 1;
+      while ((code & ~0x7F) != 0) {
+        buffer.put((byte) ((code & 0x7F) | 0x80));
+        code >>>= 7;
+      }
+      buffer.put((byte) code);
+    }
+    buffer.flip();
+    return -2 - append(buffer, nodes.size());
+  }
+
+  /**
+   * Copy a brick record from another pager. A resident brick stays resident
+   * in this pager.
+   *
+   * @return the placeholder type for the brick in this pager
+   */
+  synchronized int copyRecord(OctreePager source, int placeholder) throws IOException {
+    int sourceIndex = -2 - placeholder;
+    ByteBuffer buffer;
+    int nodeCount;
+    Octree.Node brick;
+    synchronized (source) {
+      buffer = source.readRecord(sourceIndex);
+      nodeCount = source.nodeCounts[sourceIndex];
+      brick = source.resident.get(sourceIndex);
+    }
+    int index = append(buffer, nodeCount);
+    if (brick != null && resident.get(index) == null) {
+      lastUse[index] = pageFaults;
+      residentNodes += nodeCount;
+      residentList.add(index);
+      evict(index);
+      resident.set(index, brick);
+    }
+    return -2 - index;
+  }
+
+  /**
+   * Append an encoded brick to the file. Identical bricks are only stored
+   * once.
+   *
+   * @return the index of the new record, or of an identical existing record
+   */
+  private int append(ByteBuffer buffer, int nodeCount) throws IOException {
+    int hash = buffer.hashCode();
+    Integer existing = recordsByHash.get(hash);
+    if (existing != null && readRecord(existing).equals(buffer)) {
+      return existing;
+    }
+    int length = buffer.remaining();
+    long offset = fileSize;
+    while (buffer.hasRemaining()) {
+      channel.write(buffer, offset + buffer.position());
+    }
+    fileSize += length;
+
+    int index = numRecords;
+    if (index == offsets.length) {
+      int size = index * 2;
+      offsets = Arrays.copyOf(offsets, size);
+      lengths = Arrays.copyOf(lengths, size);
+      nodeCounts = Arrays.copyOf(nodeCounts, size);
+      lastUse = Arrays.copyOf(lastUse, size);
+      AtomicReferenceArray<Octree.Node> grown = new AtomicReferenceArray<>(size);
+      for (int i = 0; i < index; ++i) {
+        grown.set(i, resident.get(i));
+      }
+      resident = grown;
+    }
+    offsets[index] = offset;
+    lengths[index] = length;
+    nodeCounts[index] = nodeCount;
+    numRecords += 1;
+    recordsByHash.put(hash, index);
+    return index;
+  }
+
+  /**
+   * Look up the subtree for a placeholder type. The brick is loaded from
+   * disk if it is not resident. The returned subtree must not be modified.
+   *
+   * @throws UncheckedIOException if the brick could not be read
+   */
+  Octree.Node get(int placeholder) {
+    int index = -2 - placeholder;
+    Octree.Node brick = resident.get(index);
+    if (brick != null) {
+      long[] lastUse = this.lastUse;
+      long now = pageFaults;
+      if (lastUse[index] != now) {
+        lastUse[index] = now;
+      }
+      return brick;
+    }
+    return pageIn(index);
+  }
+
+  /**
+   * Read a private copy of a brick, which may be modified.
+   *
+   * @throws UncheckedIOException if the brick could not be read
+   */
+  synchronized Octree.Node copy(int placeholder) {
+    try {
+      return read(-2 - placeholder);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private synchronized Octree.Node pageIn(int index) {
+    Octree.Node brick = resident.get(index);
+    if (brick != null) {
+      return brick;
+    }
+    try {
+      brick = read(index);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    pageFaults += 1;
+    lastUse[index] = pageFaults;
+    residentNodes += nodeCounts[index];
+    residentList.add(index);
+    evict(index);
+    resident.set(index, brick);
+    return brick;
+  }
+
+  private void evict(int keep) {
+    while (residentNodes * NODE_BYTES > capacity && residentList.size() > 1) {
+      int oldest = -1;
+      for (int i = 0; i < residentList.size(); ++i) {
+        int index = residentList.get(i);
+        if (index != keep && (oldest == -1
+            || lastUse[index] < lastUse[residentList.get(oldest)])) {
+          oldest = i;
+        }
+      }
+      int index = residentList.remove(oldest);
+      resident.set(index, null);
+      residentNodes -= nodeCounts[index];
+      evictions += 1;
+    }
+  }
+
+  private ByteBuffer readRecord(int index) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(lengths[index]);
+    long offset = offsets[index];
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, offset + buffer.position()) < 0) {
+        throw new IOException("Truncated octree brick");
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  private Octree.Node read(int index) throws IOException {
+    byte[] data = readRecord(index).array();
+    Octree.Node[] nodes = new Octree.Node[nodeCounts[index]];
+    int pos = 0;
+    for (int i = 0; i < nodes.length; ++i) {
+      int code = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = data[pos++];
+        code |= (b & 0x7F) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0);
+      nodes[i] = new Octree.Node(code - 1);
+    }
+    return OctreeFileFormat.linkChildren(nodes);
+  }
+
+  /**
+   * @return the total number of bricks loaded from disk
+   */
+  public long pageFaults() {
+    return pageFaults;
+  }
+
+  /**
+   * @return the number of bricks currently in memory
+   */
+  public synchronized int residentBricks() {
+    return residentList.size();
+  }
+
+  /**
+   * @return the size of the brick file, in bytes
+   */
+  public synchronized long fileSize() {
+    return fileSize;
+  }
+
+  /**
+   * @param placeholders the indices of brick records, as given by
+   * {@code -2 - placeholder}
+   * @return the total size of the given brick records, in bytes
+   */
+  public synchronized long recordBytes(BitSet placeholders) {
+    long bytes = 0;
+    for (int i = placeholders.nextSetBit(0); i >= 0; i = placeholders.nextSetBit(i + 1)) {
+      bytes += lengths[i];
+    }
+    return bytes;
+  }
+
+  /**
+   * Add a reference to this pager.
+   */
+  public synchronized void acquire() {
+    references += 1;
+  }
+
+  /**
+   * Remove a reference to this pager. The pager is closed when the last
+   * reference is removed.
+   */
+  public synchronized void release() {
+    references -= 1;
+    if (references == 0) {
+      close();
+    }
+  }
+
+  /**
+   * Close the brick file and delete it. The octrees using this pager can not
+   * be used after the pager has been closed.
+   */
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      channel.close();
+      randomAccessFile.close();
+    } catch (IOException e) {
+      // Ignored.
+    }
+    file.delete();
+  }
+
+  @Override public synchronized String toString() {
+    return String.format("%d bricks stored (%d MiB), %d resident (%d MiB), %d page faults, "
+            + "%d evictions", numRecords, fileSize >> 20, residentList.size(),
+        (residentNodes * NODE_BYTES) >> 20, pageFaults, evictions);
+  }
+}
@@ -67,6 +67,11 @@ public class Ray {
    */
   public Vector3 emittance = new Vector3();
 
+  /**
+   * Biome color buffer for the current block.
+   */
+  private final float[] biomeColor = new float[3];
+
   /**
    * Previous material.
    */
@@ -119,6 +124,12 @@ public class Ray {
    */
   public boolean specular;
 
+  /**
+   * Solid angle probability density of the diffuse reflection that generated
+   * this ray. Zero if the direction was not chosen by diffuse sampling.
+   */
+  public double pdf;
+
   /**
    * Builds an uninitialized ray.
    */
@@ -145,6 +156,7 @@ public class Ray {
     color.set(0, 0, 0, 0);
     emittance.set(0, 0, 0);
     specular = true;
+    pdf = 0;
   }
 
   /**
@@ -161,6 +173,7 @@ public class Ray {
     color.set(0, 0, 0, 0);
     emittance.set(0, 0, 0);
     specular = other.specular;
+    pdf = other.pdf;
   }
 
   /**
@@ -246,17 +259,21 @@ public class Ray {
   }
 
   /**
-   * @return foliage color for the current block
+   * @return foliage color for the current block. The returned array is
+   * reused by the next call.
    */
   public float[] getBiomeFoliageColor(Scene scene) {
-    return scene.getFoliageColor((int) (o.x + d.x * OFFSET), (int) (o.z + d.z * OFFSET));
+    scene.getFoliageColor((int) (o.x + d.x * OFFSET), (int) (o.z + d.z * OFFSET), biomeColor);
+    return biomeColor;
   }
 
   /**
-   * @return grass color for the current block
+   * @return grass color for the current block. The returned array is reused
+   * by the next call.
    */
   public float[] getBiomeGrassColor(Scene scene) {
-    return scene.getGrassColor((int) (o.x + d.x * OFFSET), (int) (o.z + d.z * OFFSET));
+    scene.getGrassColor((int) (o.x + d.x * OFFSET), (int) (o.z + d.z * OFFSET), biomeColor);
+    return biomeColor;
   }
 
   /**
@@ -312,6 +329,7 @@ public class Ray {
     o.scaleAdd(Ray.OFFSET, d);
     currentMaterial = prevMaterial;
     specular = false;
+    pdf = tz / Math.PI;
   }
 
   /**
@@ -322,6 +340,7 @@ public class Ray {
     d.scaleAdd(-2 * ray.d.dot(ray.n), ray.n, ray.d);
     o.scaleAdd(0.00001, ray.n);
     currentMaterial = prevMaterial;
+    pdf = 0;
   }
 
   /**
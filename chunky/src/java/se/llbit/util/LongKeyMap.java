@@ -0,0 +1,232 @@
+/* Copyright (c) 2019 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.util;
+
+import java.util.Arrays;
+import java.util.function.LongFunction;
+
+/**
+ * Hash map with primitive long keys, using open addressing with linear
+ * probing. Keys are not boxed, so lookups do not allocate.
+ *
+ * <p>This is mainly used for maps keyed by 2D positions, where the x and z
+ * coordinates are packed into one long with {@link #key(int, int)}.
+ *
+ * <p>Null values are not allowed. This class is not thread-safe.
+ *
+ * @param <V> value type
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public class LongKeyMap<V> {
+
+  private static final int MIN_CAPACITY = 16;
+
+  private long[] keys;
+  private Object[] values;
+  private int mask;
+  private int size = 0;
+
+  public LongKeyMap() {
+    this(MIN_CAPACITY / 2);
+  }
+
+  /**
+   * @param expectedSize the number of entries the map can hold before it
+   * has to grow
+   */
+  public LongKeyMap(int expectedSize) {
+    int capacity = MIN_CAPACITY;
+    while (capacity < 2 * expectedSize) {
+      capacity *= 2;
+    }
+    allocate(capacity);
+  }
+
+  /**
+   * Pack two integer coordinates into a key.
+   */
+  public static long key(int x, int z) {
+    return ((long) x << 32) | (z & 0xFFFFFFFFL);
+  }
+
+  /**
+   * @return the x coordinate of a key created by {@link #key(int, int)}
+   */
+  public static int keyX(long key) {
+    return (int) (key >>> 32);
+  }
+
+  /**
+   * @return the z coordinate of a key created by {@link #key(int, int)}
+   */
+  public static int keyZ(long key) {
+    return (int) key;
+  }
+
+  private static int hash(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    values = new Object[capacity];
+    mask = capacity - 1;
+  }
+
+  /**
+   * @return the value for the key, or {@code null} if the key is not in
+   * the map
+   */
+  @SuppressWarnings("unchecked")
+  public V get(long key) {
+    for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+      Object value = values[i];
+      if (value == null) {
+        return null;
+      }
+      if (keys[i] == key) {
+        return (V) value;
+      }
+    }
+  }
+
+  public boolean containsKey(long key) {
+    return get(key) != null;
+  }
+
+  /**
+   * Add or replace the value for a key.
+   *
+   * @return the previous value for the key, or {@code null}
+   */
+  @SuppressWarnings("unchecked")
+  public V put(long key, V value) {
+    if (value == null) {
+      throw new NullPointerException("Null values are not allowed.");
+    }
+    int i = hash(key) & mask;
+    for (; values[i] != null; i = (i + 1) & mask) {
+      if (keys[i] == key) {
+        V previous = (V) values[i];
+        values[i] = value;
+        return previous;
+      }
+    }
+    keys[i] = key;
+    values[i] = value;
+    size += 1;
+    if (2 * size > keys.length) {
+      grow();
+    }
+    return null;
+  }
+
+  /**
+   * @return the value for the key, computing and adding it if the key was
+   * not in the map
+   */
+  public V computeIfAbsent(long key, LongFunction<? extends V> function) {
+    V value = get(key);
+    if (value == null) {
+      value = function.apply(key);
+      put(key, value);
+    }
+    return value;
+  }
+
+  /**
+   * Remove a key from the map.
+   *
+   * @return the removed value, or {@code null} if the key was not in the map
+   */
+  @SuppressWarnings("unchecked")
+  public V remove(long key) {
+    int i = hash(key) & mask;
+    for (; values[i] != null; i = (i + 1) & mask) {
+      if (keys[i] == key) {
+        V previous = (V) values[i];
+        values[i] = null;
+        size -= 1;
+        // Move following entries in the probe sequence into the free slot.
+        int j = i;
+        while (true) {
+          j = (j + 1) & mask;
+          if (values[j] == null) {
+            break;
+          }
+          int home = hash(keys[j]) & mask;
+          boolean inPlace = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+          if (!inPlace) {
+            keys[i] = keys[j];
+            values[i] = values[j];
+            values[j] = null;
+            i = j;
+          }
+        }
+        return previous;
+      }
+    }
+    return null;
+  }
+
+  private void grow() {
+    long[] oldKeys = keys;
+    Object[] oldValues = values;
+    allocate(keys.length * 2);
+    for (int i = 0; i < oldKeys.length; ++i) {
+      if (oldValues[i] != null) {
+        int j = hash(oldKeys[i]) & mask;
+        while (values[j] != null) {
+          j = (j + 1) & mask;
+        }
+        keys[j] = oldKeys[i];
+        values[j] = oldValues[i];
+      }
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Remove all entries from the map.
+   */
+  public void clear() {
+    Arrays.fill(values, null);
+    size = 0;
+  }
+
+  /**
+   * @return an array containing the keys in the map
+   */
+  public long[] keys() {
+    long[] result = new long[size];
+    int index = 0;
+    for (int i = 0; i < keys.length; ++i) {
+      if (values[i] != null) {
+        result[index++] = keys[i];
+      }
+    }
+    return result;
+  }
+}
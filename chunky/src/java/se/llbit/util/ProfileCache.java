@@ -0,0 +1,298 @@
+/* Copyright (c) 2019 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.util;
+
+import se.llbit.chunky.PersistentSettings;
+import se.llbit.json.JsonObject;
+import se.llbit.json.JsonParser;
+import se.llbit.json.JsonValue;
+import se.llbit.json.PrettyPrinter;
+import se.llbit.log.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Persistent cache of Minecraft player profiles and skins.
+ *
+ * <p>Profiles are fetched from the session server on background threads, so
+ * that callers never wait on the network. Each profile is stored in the
+ * cache directory as {@code <uuid>.json}, together with the player skin as
+ * {@code <uuid>.png}. Cached profiles younger than the time to live are
+ * used without contacting the server. Older profiles are still returned by
+ * {@link #getCached(String)}, so offline runs can use the cached skins.
+ *
+ * @author Jesper Öqvist <jesper@llbit.se>
+ */
+public class ProfileCache {
+
+  /** The Mojang session server profile URL. */
+  public static final String SESSION_SERVER =
+      "https://sessionserver.mojang.com/session/minecraft/profile/";
+
+  /** Connect and read timeout for profile and skin requests, in milliseconds. */
+  private static final int TIMEOUT = 5000;
+
+  private static final int THREADS = 4;
+
+  private static final Pattern UUID_PATTERN = Pattern.compile("[0-9a-fA-F-]{1,64}");
+
+  private static ProfileCache defaultCache = null;
+
+  private final File directory;
+  private final String sessionServer;
+  private final long ttl;
+  private final ExecutorService executor;
+
+  /** Fetches in progress, so that each profile is only requested once at a time. */
+  private final Map<String, CompletableFuture<Profile>> pending = new ConcurrentHashMap<>();
+
+  /**
+   * A cached player profile.
+   */
+  public static class Profile {
+    /** The profile JSON from the session server. */
+    public final JsonObject json;
+
+    /** The skin file, or {@code null} if the player has no custom skin. */
+    public final File skin;
+
+    /** {@code true} if the skin uses the slim (Alex) player model. */
+    public final boolean slim;
+
+    /** Time when the profile was fetched, in milliseconds since the epoch. */
+    public final long fetched;
+
+    Profile(JsonObject json, File skin, boolean slim, long fetched) {
+      this.json = json;
+      this.skin = skin;
+      this.slim = slim;
+      this.fetched = fetched;
+    }
+  }
+
+  /**
+   * @param directory the cache directory
+   * @param sessionServer the profile URL prefix, the player UUID is appended
+   * @param ttl the time to live for cached profiles, in milliseconds
+   */
+  public ProfileCache(File directory, String sessionServer, long ttl) {
+    this.directory = directory;
+    this.sessionServer = sessionServer;
+    this.ttl = ttl;
+    executor = Executors.newFixedThreadPool(THREADS, runnable -> {
+      Thread thread = new Thread(runnable, "Profile Fetcher");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * @return the profile cache in the Chunky cache directory
+   */
+  public static synchronized ProfileCache getDefault() {
+    if (defaultCache == null) {
+      defaultCache = new ProfileCache(new File(PersistentSettings.cacheDirectory(), "profiles"),
+          SESSION_SERVER, TimeUnit.HOURS.toMillis(PersistentSettings.getProfileCacheTtl()));
+    }
+    return defaultCache;
+  }
+
+  /**
+   * Read a profile from the cache directory, regardless of its age.
+   *
+   * @return the cached profile, or {@code null} if the profile is not cached
+   */
+  public Profile getCached(String uuid) {
+    if (!UUID_PATTERN.matcher(uuid).matches()) {
+      return null;
+    }
+    File file = new File(directory, uuid + ".json");
+    if (!file.isFile()) {
+      return null;
+    }
+    try (InputStream in = new FileInputStream(file)) {
+      JsonObject entry = new JsonParser(in).parse().object();
+      File skin = new File(directory, uuid + ".png");
+      return new Profile(entry.get("profile").object(), skin.isFile() ? skin : null,
+          entry.get("slim").boolValue(false), entry.get("fetched").longValue(0));
+    } catch (IOException | JsonParser.SyntaxError e) {
+      Log.info("Failed to read cached player profile " + uuid, e);
+      return null;
+    }
+  }
+
+  /**
+   * Get a profile, fetching it from the session server in the background if
+   * the cached profile is missing or has expired.
+   *
+   * <p>The returned future completes exceptionally if the profile could not
+   * be fetched. The cached profile is not changed in that case.
+   */
+  public CompletableFuture<Profile> fetch(String uuid) {
+    Profile cached = getCached(uuid);
+    if (cached != null && System.currentTimeMillis() - cached.fetched < ttl) {
+      return CompletableFuture.completedFuture(cached);
+    }
+    if (!UUID_PATTERN.matcher(uuid).matches()) {
+      CompletableFuture<Profile> result = new CompletableFuture<>();
+      result.completeExceptionally(new IOException("Invalid player UUID: " + uuid));
+      return result;
+    }
+    CompletableFuture<Profile> future = pending.computeIfAbsent(uuid, key -> {
+      CompletableFuture<Profile> result = new CompletableFuture<>();
+      try {
+        executor.execute(() -> {
+          try {
+            result.complete(download(key));
+          } catch (Throwable e) {
+            result.completeExceptionally(e);
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        result.completeExceptionally(e);
+      }
+      return result;
+    });
+    future.whenComplete((profile, error) -> pending.remove(uuid, future));
+    return future;
+  }
+
+  private Profile download(String uuid) throws IOException, JsonParser.SyntaxError {
+    JsonObject profile;
+    HttpURLConnection conn = open(sessionServer + uuid);
+    try {
+      int responseCode = conn.getResponseCode();
+      if (responseCode == 200) {
+        try (InputStream in = conn.getInputStream()) {
+          profile = new JsonParser(in).parse().object();
+        }
+      } else if (responseCode == 204 || responseCode == 404) {
+        // Unknown player.
+        profile = new JsonObject();
+      } else {
+        throw new IOException("Profile request failed with HTTP status " + responseCode);
+      }
+    } finally {
+      conn.disconnect();
+    }
+
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create cache directory " + directory);
+    }
+    long now = System.currentTimeMillis();
+    File skin = new File(directory, uuid + ".png");
+    JsonObject textures = skinTextures(profile);
+    String skinUrl = textures.get("url").stringValue("");
+    boolean slim = textures.get("metadata").object().get("model").stringValue("").equals("slim");
+    if (skinUrl.isEmpty()) {
+      Files.deleteIfExists(skin.toPath());
+    } else {
+      Profile cached = getCached(uuid);
+      String cachedUrl = cached != null ? skinTextures(cached.json).get("url").stringValue("") : "";
+      if (!skin.isFile() || !skinUrl.equals(cachedUrl)) {
+        HttpURLConnection skinConn = open(skinUrl);
+        try (InputStream in = skinConn.getInputStream()) {
+          writeAtomically(skin, in);
+        } finally {
+          skinConn.disconnect();
+        }
+      }
+    }
+
+    JsonObject entry = new JsonObject();
+    entry.add("fetched", now);
+    entry.add("slim", slim);
+    entry.add("profile", profile);
+    File temp = File.createTempFile(uuid, ".tmp", directory);
+    try (FileOutputStream out = new FileOutputStream(temp)) {
+      PrettyPrinter pp = new PrettyPrinter("", new PrintStream(out));
+      entry.prettyPrint(pp);
+    }
+    move(temp, new File(directory, uuid + ".json"));
+    return new Profile(profile, skinUrl.isEmpty() ? null : skin, slim, now);
+  }
+
+  /**
+   * Decode the skin texture object from the base64 encoded textures property
+   * of a profile.
+   */
+  private static JsonObject skinTextures(JsonObject profile) {
+    for (JsonValue property : profile.get("properties").array()) {
+      if (property.object().get("name").stringValue("").equals("textures")) {
+        try {
+          byte[] decoded = Base64.getDecoder()
+              .decode(property.object().get("value").stringValue("").getBytes(StandardCharsets.UTF_8));
+          JsonObject textures = new JsonParser(new ByteArrayInputStream(decoded)).parse().object();
+          return textures.get("textures").object().get("SKIN").object();
+        } catch (IllegalArgumentException | IOException | JsonParser.SyntaxError e) {
+          Log.info("Failed to decode player textures", e);
+        }
+      }
+    }
+    return new JsonObject();
+  }
+
+  private static HttpURLConnection open(String url) throws IOException {
+    HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+    conn.setConnectTimeout(TIMEOUT);
+    conn.setReadTimeout(TIMEOUT);
+    return conn;
+  }
+
+  private void writeAtomically(File file, InputStream in) throws IOException {
+    File temp = File.createTempFile(file.getName(), ".tmp", directory);
+    try {
+      Files.copy(in, temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      move(temp, file);
+    } finally {
+      Files.deleteIfExists(temp.toPath());
+    }
+  }
+
+  private static void move(File from, File to) throws IOException {
+    Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Stop the background threads. Fetches that have not started are
+   * cancelled.
+   */
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+}
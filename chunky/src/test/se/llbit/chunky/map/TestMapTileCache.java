@@ -0,0 +1,117 @@
+/* Copyright (c) 2019 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import se.llbit.chunky.world.ChunkPosition;
+
+import java.io.File;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestMapTileCache {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test public void testSurfaceRoundTrip() throws Exception {
+    MapTileCache cache = new MapTileCache(folder.newFolder());
+    ChunkPosition pos = ChunkPosition.get(-3, 40);
+    int[] bitmap = new int[256];
+    int[] heights = new int[256];
+    for (int i = 0; i < 256; ++i) {
+      bitmap[i] = 0xFF000000 | (i * 0x010203);
+      heights[i] = i;
+    }
+    cache.storeSurface(pos, 1234, new SurfaceLayer(bitmap, 0xFF112233), heights);
+
+    int[] cachedHeights = new int[256];
+    SurfaceLayer layer = cache.loadSurface(pos, 1234, cachedHeights);
+    assertNotNull(layer);
+    assertEquals(0xFF112233, layer.getAvgColor());
+    assertArrayEquals(bitmap, layer.bitmap);
+    assertArrayEquals(heights, cachedHeights);
+    cache.close();
+  }
+
+  /**
+   * Records must only be used if the chunk timestamp matches.
+   */
+  @Test public void testTimestampValidation() throws Exception {
+    MapTileCache cache = new MapTileCache(folder.newFolder());
+    ChunkPosition pos = ChunkPosition.get(5, 7);
+    byte[] caves = new byte[256];
+    caves[17] = 12;
+    cache.storeCaves(pos, 100, new CaveLayer(caves));
+
+    assertNotNull(cache.loadCaves(pos, 100));
+    assertNull(cache.loadCaves(pos, 101));
+    assertNull(cache.loadCaves(pos, 0));
+    assertNull(cache.loadCaves(ChunkPosition.get(6, 7), 100));
+    assertNull(cache.loadBiomes(pos, 100));
+
+    CaveLayer layer = cache.loadCaves(pos, 100);
+    assertArrayEquals(caves, layer.caves);
+    cache.close();
+  }
+
+  /**
+   * The least recently written cache files are deleted to keep the cache
+   * below its size limit.
+   */
+  @Test public void testSizeLimit() throws Exception {
+    File directory = folder.newFolder();
+    long fileSize = 32 * 32 * (4 + 256);
+    MapTileCache cache = new MapTileCache(directory, directory, 3 * fileSize);
+    for (int i = 0; i < 6; ++i) {
+      // The last chunk of each region, so that each cache file has full size.
+      ChunkPosition pos = ChunkPosition.get(i * 32 + 31, 31);
+      cache.storeCaves(pos, 100, new CaveLayer(new byte[256]));
+    }
+    File[] files = directory.listFiles();
+    assertNotNull(files);
+    assertTrue(files.length <= 3);
+    assertNotNull(cache.loadCaves(ChunkPosition.get(5 * 32 + 31, 31), 100));
+    cache.close();
+  }
+
+  /**
+   * Nothing is loaded or stored after the cache is closed.
+   */
+  @Test public void testClosed() throws Exception {
+    File directory = folder.newFolder();
+    MapTileCache cache = new MapTileCache(directory);
+    ChunkPosition pos = ChunkPosition.get(1, 2);
+    cache.storeCaves(pos, 100, new CaveLayer(new byte[256]));
+    cache.close();
+    assertNull(cache.loadCaves(pos, 100));
+    cache.storeBiomes(pos, 100, new BiomeLayer(new byte[256]));
+    File[] files = directory.listFiles();
+    assertNotNull(files);
+    assertEquals(1, files.length);
+  }
+
+  @Test public void testDisabled() {
+    ChunkPosition pos = ChunkPosition.get(0, 0);
+    MapTileCache.DISABLED.storeCaves(pos, 100, new CaveLayer(new byte[256]));
+    assertNull(MapTileCache.DISABLED.loadCaves(pos, 100));
+  }
+}
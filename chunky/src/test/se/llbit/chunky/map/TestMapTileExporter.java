@@ -0,0 +1,58 @@
+/* Copyright (c) 2019 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.map;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestMapTileExporter {
+  private static final int SIZE = MapTileExporter.TILE_SIZE;
+
+  @Test public void testDownsampleEmpty() {
+    assertNull(MapTileExporter.downsample(null, null, null, null));
+  }
+
+  /**
+   * Each child tile is scaled into one quadrant of the parent tile.
+   */
+  @Test public void testDownsampleQuadrants() {
+    int[] child = new int[SIZE * SIZE];
+    Arrays.fill(child, 0xFF204060);
+    int[] parent = MapTileExporter.downsample(null, child, null, null);
+    assertEquals(0, parent[0]);
+    assertEquals(0xFF204060, parent[SIZE / 2]);
+    assertEquals(0xFF204060, parent[SIZE - 1]);
+    assertEquals(0, parent[(SIZE / 2) * SIZE + SIZE / 2]);
+  }
+
+  /**
+   * Transparent pixels do not contribute to the average color.
+   */
+  @Test public void testDownsampleTransparent() {
+    int[] child = new int[SIZE * SIZE];
+    child[0] = 0xFF000000;
+    child[1] = 0xFF000064;
+    child[SIZE] = 0;
+    child[SIZE + 1] = 0xFF0000C8;
+    int[] parent = MapTileExporter.downsample(child, null, null, null);
+    assertEquals(0xFF000064, parent[0]);
+  }
+}
@@ -0,0 +1,64 @@
+/* Copyright (c) 2019 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.map;
+
+import org.junit.Test;
+import se.llbit.chunky.ui.MapViewMode;
+import se.llbit.chunky.world.ChunkPosition;
+import se.llbit.chunky.world.ChunkView;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class TestRenderedTileCache {
+  /** View with 16 pixels per chunk. */
+  private static final ChunkView VIEW = new ChunkView(0, 0, 100, 100, 16, MapViewMode.AUTO, 64);
+
+  @Test public void testTake() {
+    RenderedTileCache cache = new RenderedTileCache(16 * 16 * 10);
+    MapTile tile = new MapTile(ChunkPosition.get(1, 2), VIEW);
+    cache.put(tile);
+    assertNull(cache.take(ChunkPosition.get(1, 2), 256));
+    assertSame(tile, cache.take(ChunkPosition.get(1, 2), 16));
+    assertNull(cache.take(ChunkPosition.get(1, 2), 16));
+    assertEquals(0, cache.pixels());
+    assertEquals(1 / 3.0, cache.hitRate(), 1e-9);
+  }
+
+  /**
+   * The least recently used tiles are evicted when the pixel limit is exceeded.
+   */
+  @Test public void testEviction() {
+    RenderedTileCache cache = new RenderedTileCache(16 * 16 * 2);
+    cache.put(new MapTile(ChunkPosition.get(0, 0), VIEW));
+    cache.put(new MapTile(ChunkPosition.get(1, 0), VIEW));
+    cache.put(new MapTile(ChunkPosition.get(2, 0), VIEW));
+    assertEquals(2, cache.size());
+    assertEquals(16 * 16 * 2, cache.pixels());
+    assertNull(cache.take(ChunkPosition.get(0, 0), 16));
+  }
+
+  @Test public void testInvalidate() {
+    RenderedTileCache cache = new RenderedTileCache(16 * 16 * 10);
+    cache.put(new MapTile(ChunkPosition.get(33, 0), VIEW));
+    cache.put(new MapTile(ChunkPosition.get(34, 0), VIEW));
+    cache.invalidate(ChunkPosition.get(33, 0));
+    assertEquals(1, cache.size());
+    assertNull(cache.take(ChunkPosition.get(33, 0), 16));
+  }
+}
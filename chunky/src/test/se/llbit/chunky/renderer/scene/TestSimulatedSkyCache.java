@@ -0,0 +1,86 @@
+/* Copyright (c) 2019 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.scene;
+
+import org.junit.Test;
+import se.llbit.math.Ray;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestSimulatedSkyCache {
+  private static final double[] ALTITUDES = { 0.05, Math.PI / 8, Math.PI / 3, Math.PI / 2 };
+  private static final double[] HORIZON_OFFSETS = { 0, 0.1, 0.5 };
+
+  /**
+   * The interpolated sky color should stay close to the analytic sky model
+   * for random directions.
+   */
+  @Test public void testAccuracy() {
+    Random random = new Random(1);
+    Sun sun = new Sun(() -> {});
+    SimulatedSkyCache cache = new SimulatedSkyCache();
+    Ray expected = new Ray();
+    Ray actual = new Ray();
+    for (double altitude : ALTITUDES) {
+      sun.setAltitude(altitude);
+      for (double horizonOffset : HORIZON_OFFSETS) {
+        double sumRelError = 0;
+        int samples = 10000;
+        for (int i = 0; i < samples; ++i) {
+          randomDirection(random, expected);
+          actual.d.set(expected.d);
+          sun.calcSkyLight(expected, horizonOffset);
+          cache.getColor(sun, horizonOffset, actual);
+          assertEquals(expected.color.x, actual.color.x, 0.02);
+          assertEquals(expected.color.y, actual.color.y, 0.02);
+          assertEquals(expected.color.z, actual.color.z, 0.02);
+          sumRelError += Math.abs(expected.color.y - actual.color.y)
+              / Math.max(Math.abs(expected.color.y), 1e-3);
+        }
+        assertTrue(sumRelError / samples < 1e-3);
+      }
+    }
+  }
+
+  /**
+   * The cache must be rebuilt when the sun moves.
+   */
+  @Test public void testSunChange() {
+    Sun sun = new Sun(() -> {});
+    SimulatedSkyCache cache = new SimulatedSkyCache();
+    Ray expected = new Ray();
+    Ray actual = new Ray();
+    expected.d.set(0, 1, 0);
+    actual.d.set(0, 1, 0);
+
+    sun.setAltitude(Math.PI / 2);
+    cache.getColor(sun, 0.1, actual);
+
+    sun.setAltitude(0.1);
+    sun.calcSkyLight(expected, 0.1);
+    cache.getColor(sun, 0.1, actual);
+    assertEquals(expected.color.y, actual.color.y, 1e-3);
+  }
+
+  private static void randomDirection(Random random, Ray ray) {
+    ray.d.set(random.nextGaussian(), random.nextGaussian(), random.nextGaussian());
+    ray.d.normalize();
+  }
+}
@@ -0,0 +1,97 @@
+/* Copyright (c) 2019 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.resources;
+
+import org.junit.Test;
+import se.llbit.math.Vector2;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestHdriImportanceMap {
+  private static final int WIDTH = 16;
+  private static final int HEIGHT = 8;
+  private static final int BRIGHT_X = 5;
+  private static final int BRIGHT_Y = 5;
+
+  /**
+   * A dim panorama with one bright cell.
+   */
+  private static AbstractHdriTexture panorama() {
+    AbstractHdriTexture texture = new AbstractHdriTexture();
+    texture.width = WIDTH;
+    texture.height = HEIGHT;
+    texture.buf = new float[WIDTH * HEIGHT * 3];
+    for (int i = 0; i < texture.buf.length; ++i) {
+      texture.buf[i] = 0.01f;
+    }
+    int offset = (BRIGHT_Y * WIDTH + BRIGHT_X) * 3;
+    texture.buf[offset] = 100;
+    texture.buf[offset + 1] = 100;
+    texture.buf[offset + 2] = 100;
+    return texture;
+  }
+
+  @Test public void testSamplesConcentrate() {
+    HdriImportanceMap map = new HdriImportanceMap(panorama(), false);
+    assertFalse(map.isEmpty());
+    Random random = new Random(1);
+    Vector2 uv = new Vector2();
+    int samples = 10000;
+    int bright = 0;
+    for (int i = 0; i < samples; ++i) {
+      double pdf = map.sample(random.nextDouble(), random.nextDouble(), uv);
+      assertTrue(uv.x >= 0 && uv.x < 1);
+      assertTrue(uv.y >= 0 && uv.y < 1);
+      assertEquals(map.pdf(uv.x, uv.y), pdf, 1e-9);
+      if ((int) (uv.x * WIDTH) == BRIGHT_X && (int) (uv.y * HEIGHT) == BRIGHT_Y) {
+        bright += 1;
+      }
+    }
+    assertTrue(bright > 0.95 * samples);
+  }
+
+  /**
+   * The solid angle density, using the panoramic skymap mapping, integrates
+   * to one over the sphere.
+   */
+  @Test public void testPdfIntegral() {
+    for (boolean mirrored : new boolean[] {false, true}) {
+      HdriImportanceMap map = new HdriImportanceMap(panorama(), mirrored);
+      int steps = 512;
+      double dTheta = 2 * Math.PI / steps;
+      double dPhi = Math.PI / steps;
+      double sum = 0;
+      for (int i = 0; i < steps; ++i) {
+        double phi = (i + 0.5) * dPhi - Math.PI / 2;
+        double cosPhi = Math.cos(phi);
+        double v = mirrored
+            ? Math.abs(phi) / (Math.PI / 2)
+            : (phi + Math.PI / 2) / Math.PI;
+        for (int j = 0; j < steps; ++j) {
+          double u = (j + 0.5) / steps;
+          double pdf = map.pdf(u, v) / (2 * Math.PI * Math.PI * cosPhi);
+          sum += pdf * cosPhi * dTheta * dPhi;
+        }
+      }
+      assertEquals(1, sum, 1e-3);
+    }
+  }
+}
@@ -0,0 +1,160 @@
+/* Copyright (c) 2019 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.resources.texturepack;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import se.llbit.chunky.resources.BitmapImage;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestTexturePackCache {
+  private static final String STONE = "assets/minecraft/textures/block/stone.png";
+  private static final String DIRT = "assets/minecraft/textures/block/dirt.png";
+  private static final String MISSING = "assets/minecraft/textures/block/missing.png";
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * Write a resource pack with two 2x2 images.
+   */
+  private File writePack(String name, String topLevel) throws IOException {
+    File file = folder.newFile(name);
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file))) {
+      for (String path : new String[] {STONE, DIRT}) {
+        BufferedImage image = new BufferedImage(2, 2, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, 0xFF112233);
+        image.setRGB(1, 1, path.hashCode() | 0xFF000000);
+        out.putNextEntry(new ZipEntry(topLevel + path));
+        ImageIO.write(image, "png", out);
+        out.closeEntry();
+      }
+    }
+    return file;
+  }
+
+  @Test public void testTopLevel() throws IOException {
+    try (TexturePack pack = new TexturePack(writePack("pack.zip", ""))) {
+      assertEquals("", pack.getTopLevel());
+    }
+    try (TexturePack pack = new TexturePack(writePack("nested.zip", "nested/"))) {
+      assertEquals("nested/", pack.getTopLevel());
+    }
+    try (TexturePack pack = new TexturePack(writePack("other.zip", "nested/"))) {
+      assertNull(pack.getTopLevel());
+    }
+  }
+
+  /**
+   * Each caller gets its own copy of an image.
+   */
+  @Test public void testImageCopy() throws IOException {
+    try (TexturePack pack = new TexturePack(writePack("pack.zip", ""))) {
+      BitmapImage image = pack.getImage(STONE);
+      assertNotNull(image);
+      assertEquals(0xFF112233, image.getPixel(0, 0));
+      image.setPixel(0, 0, 0);
+      assertEquals(0xFF112233, pack.getImage(STONE).getPixel(0, 0));
+      assertNull(pack.getImage(MISSING));
+    }
+  }
+
+  @Test public void testCache() throws IOException {
+    File file = writePack("pack.zip", "");
+    TexturePackCache cache = new TexturePackCache(new File(folder.getRoot(), "textures.cache"));
+    List<File> files = Collections.singletonList(file);
+    assertNull(cache.load(files));
+
+    try (TexturePack pack = new TexturePack(file)) {
+      pack.getTopLevel();
+      pack.getImage(STONE);
+      pack.getImage(MISSING);
+      assertTrue(pack.isModified());
+      cache.store(Collections.singletonList(pack));
+    }
+
+    List<TexturePack> packs = cache.load(files);
+    assertNotNull(packs);
+    assertEquals(1, packs.size());
+    try (TexturePack pack = packs.get(0)) {
+      assertEquals("", pack.getTopLevel());
+      BitmapImage image = pack.getImage(STONE);
+      assertEquals(0xFF112233, image.getPixel(0, 0));
+      assertEquals(STONE.hashCode() | 0xFF000000, image.getPixel(1, 1));
+      assertNull(pack.getImage(MISSING));
+      // Nothing was read from the Zip file.
+      assertFalse(pack.isModified());
+
+      // Images that were not cached are read from the Zip file.
+      image = pack.getImage(DIRT);
+      assertEquals(DIRT.hashCode() | 0xFF000000, image.getPixel(1, 1));
+      assertTrue(pack.isModified());
+    }
+  }
+
+  /**
+   * The cache is not used if a resource pack changes or the load order
+   * changes.
+   */
+  @Test public void testInvalidation() throws IOException {
+    File first = writePack("first.zip", "");
+    File second = writePack("second.zip", "");
+    TexturePackCache cache = new TexturePackCache(new File(folder.getRoot(), "textures.cache"));
+    try (TexturePack a = new TexturePack(first); TexturePack b = new TexturePack(second)) {
+      cache.store(Arrays.asList(a, b));
+    }
+    assertNotNull(cache.load(Arrays.asList(first, second)));
+    assertNull(cache.load(Arrays.asList(second, first)));
+    assertNull(cache.load(Collections.singletonList(first)));
+
+    assertTrue(second.setLastModified(second.lastModified() - 10000));
+    assertNull(cache.load(Arrays.asList(first, second)));
+  }
+
+  /**
+   * The identity of the resource packs changes in the same cases as the
+   * cache is invalidated.
+   */
+  @Test public void testIdentity() throws IOException {
+    File first = writePack("first.zip", "");
+    File second = writePack("second.zip", "");
+    String identity = TexturePackCache.identity(Arrays.asList(first, second));
+    assertEquals(identity, TexturePackCache.identity(Arrays.asList(first, second)));
+    assertNotEquals(identity, TexturePackCache.identity(Arrays.asList(second, first)));
+    assertNotEquals(identity, TexturePackCache.identity(Collections.singletonList(first)));
+
+    assertTrue(second.setLastModified(second.lastModified() - 10000));
+    assertNotEquals(identity, TexturePackCache.identity(Arrays.asList(first, second)));
+  }
+}
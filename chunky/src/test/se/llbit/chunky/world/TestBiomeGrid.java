@@ -0,0 +1,156 @@
+/* Copyright (c) 2019 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.world;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TestBiomeGrid {
+
+  /**
+   * The separable blur must give the same colors as a box blur over the
+   * loaded chunks.
+   */
+  @Test public void testBlur() {
+    Random random = new Random(7);
+    List<ChunkPosition> chunks = new ArrayList<>();
+    Map<ChunkPosition, byte[]> chunkBiomes = new HashMap<>();
+    // An L-shaped selection, so that some neighbors are not loaded.
+    for (int cz = -2; cz <= 1; ++cz) {
+      for (int cx = 3; cx <= 5; ++cx) {
+        if (cx < 5 || cz < 0) {
+          ChunkPosition cp = ChunkPosition.get(cx, cz);
+          byte[] biomes = new byte[Chunk.X_MAX * Chunk.Z_MAX];
+          for (int i = 0; i < biomes.length; ++i) {
+            biomes[i] = (byte) random.nextInt(40);
+          }
+          chunks.add(cp);
+          chunkBiomes.put(cp, biomes);
+        }
+      }
+    }
+    BiomeGrid grid = new BiomeGrid(chunks);
+    for (ChunkPosition cp : chunks) {
+      grid.setChunk(cp, chunkBiomes.get(cp));
+    }
+    for (int radius : new int[] {0, 1, 3, 20}) {
+      WorldTexture grass = new WorldTexture();
+      WorldTexture foliage = new WorldTexture();
+      grid.blur(radius, chunks, grass, foliage, 40, -24);
+      float[] color = new float[3];
+      for (ChunkPosition cp : chunks) {
+        for (int z = cp.z * 16; z < cp.z * 16 + 16; ++z) {
+          for (int x = cp.x * 16; x < cp.x * 16 + 16; ++x) {
+            float[] expected = new float[6];
+            int count = 0;
+            for (int sz = z - radius; sz <= z + radius; ++sz) {
+              for (int sx = x - radius; sx <= x + radius; ++sx) {
+                if (chunkBiomes.containsKey(ChunkPosition.get(sx >> 4, sz >> 4))) {
+                  int biome = grid.get(sx, sz);
+                  float[] grassColor = Biomes.getGrassColorLinear(biome);
+                  float[] foliageColor = Biomes.getFoliageColorLinear(biome);
+                  for (int i = 0; i < 3; ++i) {
+                    expected[i] += grassColor[i];
+                    expected[i + 3] += foliageColor[i];
+                  }
+                  count += 1;
+                }
+              }
+            }
+            grass.get(x - 40, z + 24, color);
+            for (int i = 0; i < 3; ++i) {
+              assertEquals(expected[i] / count, color[i], 1e-5);
+            }
+            foliage.get(x - 40, z + 24, color);
+            for (int i = 0; i < 3; ++i) {
+              assertEquals(expected[i + 3] / count, color[i], 1e-5);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Only the requested chunks are written to the textures.
+   */
+  @Test public void testBlurSubset() {
+    ChunkPosition a = ChunkPosition.get(0, 0);
+    ChunkPosition b = ChunkPosition.get(1, 0);
+    BiomeGrid grid = new BiomeGrid(Arrays.asList(a, b));
+    byte[] biomes = new byte[Chunk.X_MAX * Chunk.Z_MAX];
+    Arrays.fill(biomes, (byte) 2);
+    grid.setChunk(a, biomes);
+    grid.setChunk(b, biomes);
+    WorldTexture grass = new WorldTexture();
+    WorldTexture foliage = new WorldTexture();
+    grid.blur(1, Arrays.asList(b), grass, foliage, 0, 0);
+    float[] color = new float[3];
+    grass.get(5, 5, color);
+    assertArrayEquals(new float[3], color, 0);
+    grass.get(21, 5, color);
+    assertArrayEquals(Biomes.getGrassColorLinear(2), color, 1e-6f);
+  }
+
+  /**
+   * Textures written with setArea are stored in the same format as textures
+   * written one block at a time.
+   */
+  @Test public void testTextureFormat() throws IOException {
+    Random random = new Random(3);
+    WorldTexture area = new WorldTexture();
+    WorldTexture single = new WorldTexture();
+    float[] rgb = new float[20 * 20 * 3];
+    for (int i = 0; i < rgb.length; ++i) {
+      rgb[i] = random.nextFloat();
+    }
+    // The area is not aligned to the texture tiles.
+    area.setArea(-8, 24, 16, 16, rgb, 2, 20);
+    float[] color = new float[3];
+    for (int z = 0; z < 16; ++z) {
+      for (int x = 0; x < 16; ++x) {
+        System.arraycopy(rgb, (2 + z * 20 + x) * 3, color, 0, 3);
+        single.set(x - 8, z + 24, color);
+      }
+    }
+    ByteArrayOutputStream areaBytes = new ByteArrayOutputStream();
+    area.store(new DataOutputStream(areaBytes));
+    ByteArrayOutputStream singleBytes = new ByteArrayOutputStream();
+    single.store(new DataOutputStream(singleBytes));
+    assertArrayEquals(singleBytes.toByteArray(), areaBytes.toByteArray());
+
+    WorldTexture loaded = WorldTexture.load(
+        new DataInputStream(new ByteArrayInputStream(areaBytes.toByteArray())));
+    loaded.get(-1, 30, color);
+    assertArrayEquals(Arrays.copyOfRange(rgb, (2 + 6 * 20 + 7) * 3, (2 + 6 * 20 + 8) * 3),
+        color, 0);
+  }
+}
@@ -0,0 +1,108 @@
+/* Copyright (c) 2019 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.world;
+
+import org.junit.Test;
+import se.llbit.nbt.ErrorTag;
+import se.llbit.nbt.Tag;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestDecodedChunkCache {
+  private static final File REGION_DIR = new File("world/region");
+
+  private static DecodedChunk decode(int timestamp) {
+    Map<String, Tag> data = new HashMap<>();
+    for (String key : Chunk.decodedChunkRequest()) {
+      data.put(key, new ErrorTag(""));
+    }
+    return Chunk.decodeChunk(timestamp, data);
+  }
+
+  @Test public void testHit() {
+    DecodedChunkCache cache = new DecodedChunkCache(1 << 20);
+    ChunkPosition pos = ChunkPosition.get(3, -4);
+    DecodedChunk chunk = decode(100);
+    cache.put(REGION_DIR, pos, chunk);
+    assertSame(chunk, cache.get(REGION_DIR, pos, 100));
+    assertSame(chunk, cache.get(new File("world/region"), pos, 100));
+    assertNull(cache.get(new File("world/DIM-1/region"), pos, 100));
+    assertNull(cache.get(REGION_DIR, ChunkPosition.get(4, -4), 100));
+  }
+
+  /**
+   * Cached chunks must not be used after the chunk has changed.
+   */
+  @Test public void testTimestampValidation() {
+    DecodedChunkCache cache = new DecodedChunkCache(1 << 20);
+    ChunkPosition pos = ChunkPosition.get(0, 0);
+    cache.put(REGION_DIR, pos, decode(100));
+    assertNull(cache.get(REGION_DIR, pos, 101));
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.bytes());
+
+    // Chunks without a valid timestamp are not cached.
+    cache.put(REGION_DIR, pos, decode(0));
+    assertEquals(0, cache.size());
+  }
+
+  /**
+   * A chunk decoded for the map only has the tags requested by the map view.
+   */
+  @Test public void testTags() {
+    Map<String, Tag> data = new HashMap<>();
+    data.put(Chunk.LEVEL_SECTIONS, new ErrorTag(""));
+    data.put(Chunk.LEVEL_BIOMES, new ErrorTag(""));
+    DecodedChunk chunk = Chunk.decodeChunk(100, data);
+    assertTrue(chunk.hasTags(Collections.singleton(Chunk.LEVEL_BIOMES)));
+    assertFalse(chunk.hasTags(Chunk.decodedChunkRequest()));
+    assertFalse(chunk.hasEntities);
+    assertTrue(decode(100).hasTags(Chunk.decodedChunkRequest()));
+  }
+
+  @Test public void testEviction() {
+    long chunkSize = decode(1).sizeInBytes();
+    DecodedChunkCache cache = new DecodedChunkCache(3 * chunkSize);
+    ChunkPosition a = ChunkPosition.get(0, 0);
+    ChunkPosition b = ChunkPosition.get(1, 0);
+    ChunkPosition c = ChunkPosition.get(2, 0);
+    ChunkPosition d = ChunkPosition.get(3, 0);
+    cache.put(REGION_DIR, a, decode(1));
+    cache.put(REGION_DIR, b, decode(1));
+    cache.put(REGION_DIR, c, decode(1));
+    cache.get(REGION_DIR, a, 1);
+    cache.put(REGION_DIR, d, decode(1));
+
+    // B was the least recently used chunk.
+    assertEquals(3, cache.size());
+    assertEquals(3 * chunkSize, cache.bytes());
+    assertNull(cache.get(REGION_DIR, b, 1));
+
+    cache.setCapacity(chunkSize);
+    assertEquals(1, cache.size());
+    assertEquals(chunkSize, cache.bytes());
+  }
+}
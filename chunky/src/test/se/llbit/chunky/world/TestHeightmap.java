@@ -0,0 +1,58 @@
+/* Copyright (c) 2019 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.world;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestHeightmap {
+  @Test public void testDefaultHeight() {
+    Heightmap heightmap = new Heightmap();
+    assertEquals(World.SEA_LEVEL, heightmap.get(-100, 37));
+  }
+
+  @Test public void testSetGet() {
+    Heightmap heightmap = new Heightmap();
+    heightmap.set(100, -1, -1);
+    heightmap.set(12, 31, 16);
+    assertEquals(100, heightmap.get(-1, -1));
+    assertEquals(12, heightmap.get(31, 16));
+    assertEquals(World.SEA_LEVEL, heightmap.get(0, 0));
+  }
+
+  /**
+   * Reading an area must work across chunk borders.
+   */
+  @Test public void testGetArea() {
+    Heightmap heightmap = new Heightmap();
+    int[] chunk = new int[16 * 16];
+    for (int i = 0; i < chunk.length; ++i) {
+      chunk[i] = i % 200;
+    }
+    heightmap.setChunk(ChunkPosition.get(-1, 0), chunk);
+    int[] area = new int[18 * 18];
+    heightmap.getArea(-17, -1, 18, 18, area);
+    for (int z = -1; z < 17; ++z) {
+      for (int x = -17; x < 1; ++x) {
+        assertEquals(heightmap.get(x, z), area[(z + 1) * 18 + x + 17]);
+      }
+    }
+    assertEquals(chunk[15], area[18 + 16]);
+    assertEquals(World.SEA_LEVEL, area[0]);
+  }
+}
@@ -0,0 +1,112 @@
+/* Copyright (c) 2019 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math;
+
+import org.junit.Test;
+import se.llbit.chunky.block.Block;
+import se.llbit.chunky.renderer.scene.Scene;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestEmptySpaceMap {
+  @Test public void testDistances() {
+    Octree octree = new Octree(8);
+    octree.set(Block.STONE_ID, 128, 100, 128);
+    EmptySpaceMap map = EmptySpaceMap.build(octree);
+
+    assertEquals(0, map.emptyRadius(128, 100, 128));
+    assertEquals(0, map.emptyRadius(143, 111, 143));
+    assertEquals(1, map.emptyRadius(144, 100, 128));
+    assertEquals(8, map.emptyRadius(0, 100, 0));
+    assertEquals(7, map.emptyRadius(255, 100, 255));
+
+    // Outside the vertical band of non-empty bricks.
+    assertEquals(8, map.emptyRadius(0, 0, 0));
+    assertEquals(8, map.emptyRadius(0, 200, 0));
+    assertEquals(6, map.emptyRadius(128, 0, 128));
+    assertEquals(9, map.emptyRadius(128, 255, 128));
+  }
+
+  /**
+   * Rays must hit the same voxels with and without empty space skipping,
+   * and empty space skipping must reduce the number of traversal steps by
+   * at least 10% for rays starting in the open air above the terrain.
+   */
+  @Test public void testSameIntersection() {
+    Scene scene = new Scene();
+    Octree octree = buildTestOctree();
+    octree.buildEmptySpaceMap();
+    assertTrue(octree.hasEmptySpaceMap());
+    Octree plain = buildTestOctree();
+
+    Random random = new Random(2);
+    long steps = 0;
+    long plainSteps = 0;
+    for (int i = 0; i < 1000; ++i) {
+      Vector3 o = new Vector3(random.nextDouble() * 256, 100 + random.nextDouble() * 150,
+          random.nextDouble() * 256);
+      Vector3 d = new Vector3(random.nextDouble() - 0.5, -random.nextDouble(),
+          random.nextDouble() - 0.5);
+      d.normalize();
+      Ray ray1 = new Ray();
+      ray1.set(o, d);
+      Ray ray2 = new Ray();
+      ray2.set(o, d);
+      int steps1 = octree.enterBlockSteps(scene, ray1);
+      int steps2 = plain.enterBlockSteps(scene, ray2);
+      steps += Math.abs(steps1);
+      plainSteps += Math.abs(steps2);
+      assertEquals(steps2 > 0, steps1 > 0);
+      if (steps1 > 0) {
+        assertEquals(ray2.o.x, ray1.o.x, 1e-6);
+        assertEquals(ray2.o.y, ray1.o.y, 1e-6);
+        assertEquals(ray2.o.z, ray1.o.z, 1e-6);
+        assertEquals(ray2.distance, ray1.distance, 1e-6);
+      }
+    }
+    assertTrue(steps < 0.9 * plainSteps);
+  }
+
+  /**
+   * Rolling terrain with a few tall pillars, which split the air above the
+   * terrain into many small octree nodes.
+   */
+  private static Octree buildTestOctree() {
+    Octree octree = new Octree(8);
+    for (int x = 0; x < 256; ++x) {
+      for (int z = 0; z < 256; ++z) {
+        int height = 64 + (int) (8 * Math.sin(x / 13.0) + 8 * Math.cos(z / 17.0));
+        for (int y = 60; y <= height; ++y) {
+          octree.set(Block.STONE_ID, x, y, z);
+        }
+      }
+    }
+    Random random = new Random(1);
+    for (int i = 0; i < 20; ++i) {
+      int x = random.nextInt(256);
+      int z = random.nextInt(256);
+      int height = 80 + random.nextInt(120);
+      for (int y = 60; y < height; ++y) {
+        octree.set(Block.STONE_ID, x, y, z);
+      }
+    }
+    return octree;
+  }
+}
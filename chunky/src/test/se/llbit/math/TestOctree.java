@@ -0,0 +1,249 @@
+/* Copyright (c) 2019 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestOctree {
+  @Test public void testCursorGet() {
+    Octree octree = new Octree(5);
+    int[] voxels = new int[32 * 32 * 32];
+    Random random = new Random(1);
+    for (int i = 0; i < 2000; ++i) {
+      int x = random.nextInt(32);
+      int y = random.nextInt(32);
+      int z = random.nextInt(32);
+      int type = 1 + random.nextInt(3);
+      octree.set(type, x, y, z);
+      voxels[(y * 32 + z) * 32 + x] = type;
+    }
+    Octree.Cursor cursor = octree.cursor();
+    for (int y = 0; y < 32; ++y) {
+      for (int z = 0; z < 32; ++z) {
+        for (int x = 0; x < 32; ++x) {
+          assertEquals(voxels[(y * 32 + z) * 32 + x], cursor.get(x, y, z));
+          assertEquals(voxels[(y * 32 + z) * 32 + x], octree.get(x, y, z));
+        }
+      }
+    }
+  }
+
+  /**
+   * The cursor must not return stale data after merging and re-subdividing
+   * nodes through the cursor.
+   */
+  @Test public void testCursorSet() {
+    Octree octree = new Octree(2);
+    Octree.Cursor cursor = octree.cursor();
+    for (int x = 0; x < 2; ++x) {
+      for (int y = 0; y < 2; ++y) {
+        for (int z = 0; z < 2; ++z) {
+          cursor.set(1, x, y, z);
+          assertEquals(1, cursor.get(x, y, z));
+        }
+      }
+    }
+    cursor.set(2, 1, 1, 1);
+    assertEquals(2, cursor.get(1, 1, 1));
+    assertEquals(1, cursor.get(0, 0, 0));
+    assertEquals(0, cursor.get(3, 3, 3));
+  }
+
+  /**
+   * Modifying a copy of an octree must not change the original octree.
+   */
+  @Test public void testCopy() {
+    Octree octree = new Octree(3);
+    for (int x = 0; x < 4; ++x) {
+      for (int y = 0; y < 4; ++y) {
+        for (int z = 0; z < 4; ++z) {
+          octree.set(1, x, y, z);
+        }
+      }
+    }
+    octree.set(2, 7, 7, 7);
+    Octree copy = new Octree(octree);
+    copy.set(3, 0, 0, 0);
+    copy.set(0, 7, 7, 7);
+    assertEquals(1, octree.get(0, 0, 0));
+    assertEquals(2, octree.get(7, 7, 7));
+    assertEquals(3, copy.get(0, 0, 0));
+    assertEquals(1, copy.get(1, 0, 0));
+    assertEquals(0, copy.get(7, 7, 7));
+  }
+
+  /**
+   * Deduplication must not change the voxels, and identical subtrees must
+   * be shared.
+   */
+  @Test public void testDeduplicate() {
+    Octree octree = new Octree(4);
+    for (int x = 0; x < 16; x += 4) {
+      for (int z = 0; z < 16; z += 4) {
+        // Repeated pattern of identical 2x2x2 blocks.
+        octree.set(1, x, 0, z);
+        octree.set(2, x + 1, 1, z);
+      }
+    }
+    octree.set(3, 15, 15, 15);
+    int[] voxels = new int[16 * 16 * 16];
+    for (int i = 0; i < voxels.length; ++i) {
+      voxels[i] = octree.get(i & 15, i >> 8, (i >> 4) & 15);
+    }
+    int nodes = octree.countNodes();
+    int deduplicated = octree.deduplicate();
+    assertTrue(deduplicated < nodes);
+    assertEquals(octree.countNodes(), deduplicated);
+    for (int i = 0; i < voxels.length; ++i) {
+      assertEquals(voxels[i], octree.get(i & 15, i >> 8, (i >> 4) & 15));
+    }
+  }
+
+  /**
+   * Modifying a deduplicated octree must not change other voxels that
+   * share the modified subtree.
+   */
+  @Test public void testSetAfterDeduplicate() {
+    Octree octree = new Octree(3);
+    octree.set(1, 0, 0, 0);
+    octree.set(1, 4, 0, 0);
+    octree.set(1, 0, 4, 0);
+    octree.deduplicate();
+    Octree copy = new Octree(octree);
+
+    octree.set(2, 1, 0, 0);
+    assertEquals(2, octree.get(1, 0, 0));
+    assertEquals(0, octree.get(5, 0, 0));
+    assertEquals(0, octree.get(1, 4, 0));
+    assertEquals(1, octree.get(4, 0, 0));
+
+    octree.set(1, 7, 7, 7);
+    assertEquals(1, octree.get(7, 7, 7));
+    assertEquals(0, octree.get(3, 3, 3));
+
+    assertEquals(0, copy.get(1, 0, 0));
+    assertEquals(0, copy.get(7, 7, 7));
+    assertEquals(1, copy.get(4, 0, 0));
+
+    // Deduplicating again must keep the modified voxels.
+    octree.deduplicate();
+    assertEquals(2, octree.get(1, 0, 0));
+    assertEquals(1, octree.get(0, 4, 0));
+    assertEquals(0, octree.get(1, 4, 0));
+  }
+
+  @Test public void testSetLevel() {
+    Octree octree = new Octree(3);
+    octree.set(1, 5, 0, 0);
+    octree.set(2, 2, 4, 1, 2);
+    for (int x = 0; x < 8; ++x) {
+      for (int y = 0; y < 8; ++y) {
+        for (int z = 0; z < 8; ++z) {
+          int expected = (x >= 4 && y < 4 && z < 4) ? 2 : 0;
+          assertEquals(expected, octree.get(x, y, z));
+        }
+      }
+    }
+    octree.set(3, 1, 0, 0, 0);
+    assertEquals(3, octree.get(1, 1, 1));
+    assertEquals(0, octree.get(2, 0, 0));
+    octree.set(3, 0, 2, 0, 0);
+    assertEquals(3, octree.get(2, 0, 0));
+    assertEquals(0, octree.get(3, 0, 0));
+  }
+
+  /**
+   * Filling a box must give the same voxels as setting each voxel.
+   */
+  @Test public void testFill() {
+    Random random = new Random(4);
+    for (int i = 0; i < 20; ++i) {
+      Octree expected = new Octree(5);
+      Octree actual = new Octree(5);
+      for (int j = 0; j < 200; ++j) {
+        int type = random.nextInt(3);
+        int x = random.nextInt(32);
+        int y = random.nextInt(32);
+        int z = random.nextInt(32);
+        expected.set(type, x, y, z);
+        actual.set(type, x, y, z);
+      }
+      int type = random.nextInt(3);
+      int x0 = random.nextInt(32);
+      int y0 = random.nextInt(32);
+      int z0 = random.nextInt(32);
+      int x1 = x0 + random.nextInt(33 - x0);
+      int y1 = y0 + random.nextInt(33 - y0);
+      int z1 = z0 + random.nextInt(33 - z0);
+      for (int x = x0; x < x1; ++x) {
+        for (int y = y0; y < y1; ++y) {
+          for (int z = z0; z < z1; ++z) {
+            expected.set(type, x, y, z);
+          }
+        }
+      }
+      actual.fill(type, x0, y0, z0, x1, y1, z1);
+      assertSameVoxels(expected, actual, 32);
+    }
+    Octree octree = new Octree(4);
+    octree.set(1, 3, 3, 3);
+    octree.fill(2, 0, 0, 0, 16, 16, 16);
+    assertEquals(1, octree.countNodes());
+  }
+
+  /**
+   * Inserting an array of voxels must give the same voxels as setting each
+   * voxel.
+   */
+  @Test public void testInsert() {
+    Random random = new Random(5);
+    Octree expected = new Octree(6);
+    Octree actual = new Octree(6);
+    expected.set(3, 0, 0, 0);
+    actual.set(3, 0, 0, 0);
+    // A chunk-like column which is not aligned to its size.
+    int[] types = new int[16 * 40 * 16];
+    for (int i = 0; i < types.length; ++i) {
+      types[i] = (i / 256) < 20 ? 1 : random.nextInt(4) / 3 * 2;
+    }
+    for (int y = 0; y < 40; ++y) {
+      for (int z = 0; z < 16; ++z) {
+        for (int x = 0; x < 16; ++x) {
+          expected.set(types[(y * 16 + z) * 16 + x], x + 8, y + 4, z + 24);
+        }
+      }
+    }
+    actual.insert(types, 8, 4, 24, 16, 40, 16);
+    assertSameVoxels(expected, actual, 64);
+    assertEquals(expected.countNodes(), actual.countNodes());
+  }
+
+  private static void assertSameVoxels(Octree expected, Octree actual, int size) {
+    for (int x = 0; x < size; ++x) {
+      for (int y = 0; y < size; ++y) {
+        for (int z = 0; z < size; ++z) {
+          assertEquals(expected.get(x, y, z), actual.get(x, y, z));
+        }
+      }
+    }
+  }
+}
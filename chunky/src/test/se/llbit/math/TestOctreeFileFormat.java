@@ -0,0 +1,110 @@
+/* Copyright (c) 2019 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TestOctreeFileFormat {
+  private static Octree randomOctree(int depth, int voxels) {
+    Octree octree = new Octree(depth);
+    Random random = new Random(1);
+    int size = 1 << depth;
+    for (int i = 0; i < voxels; ++i) {
+      // Use some large types to test multi-byte palette codes.
+      int type = random.nextBoolean() ? 1 + random.nextInt(3) : random.nextInt(1 << 20);
+      octree.set(type, random.nextInt(size), random.nextInt(size), random.nextInt(size));
+    }
+    return octree;
+  }
+
+  private static void assertSameVoxels(Octree expected, Octree actual) {
+    assertEquals(expected.depth, actual.depth);
+    int size = 1 << expected.depth;
+    for (int y = 0; y < size; ++y) {
+      for (int z = 0; z < size; ++z) {
+        for (int x = 0; x < size; ++x) {
+          assertEquals(expected.get(x, y, z), actual.get(x, y, z));
+        }
+      }
+    }
+  }
+
+  @Test public void testRoundTrip() throws IOException {
+    Octree octree = randomOctree(5, 2000);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    OctreeFileFormat.store(octree, out);
+    Octree loaded = OctreeFileFormat.load(new ByteArrayInputStream(out.toByteArray()));
+    assertSameVoxels(octree, loaded);
+  }
+
+  /**
+   * Octrees larger than one compressed block.
+   */
+  @Test public void testRoundTripMultipleBlocks() throws IOException {
+    Octree octree = randomOctree(8, 12000);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    OctreeFileFormat.store(octree, out);
+    Octree loaded = OctreeFileFormat.load(new ByteArrayInputStream(out.toByteArray()));
+    assertSameVoxels(octree, loaded);
+  }
+
+  /**
+   * Shared subtrees are expanded when stored, so a deduplicated octree is
+   * stored the same way as the original octree.
+   */
+  @Test public void testStoreDeduplicated() throws IOException {
+    Octree octree = randomOctree(6, 3000);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    OctreeFileFormat.store(octree, out);
+    Octree deduplicated = new Octree(octree);
+    deduplicated.deduplicate();
+    ByteArrayOutputStream deduplicatedOut = new ByteArrayOutputStream();
+    OctreeFileFormat.store(deduplicated, deduplicatedOut);
+    assertArrayEquals(out.toByteArray(), deduplicatedOut.toByteArray());
+    Octree loaded = OctreeFileFormat.load(new ByteArrayInputStream(deduplicatedOut.toByteArray()));
+    assertSameVoxels(octree, loaded);
+  }
+
+  @Test public void testLoadOldFormat() throws IOException {
+    Octree octree = randomOctree(5, 2000);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes))) {
+      octree.store(out);
+    }
+    Octree loaded = OctreeFileFormat.load(new ByteArrayInputStream(bytes.toByteArray()));
+    assertSameVoxels(octree, loaded);
+  }
+
+  @Test(expected = IOException.class)
+  public void testCorruptFile() throws IOException {
+    Octree octree = randomOctree(5, 2000);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    OctreeFileFormat.store(octree, out);
+    byte[] data = out.toByteArray();
+    OctreeFileFormat.load(new ByteArrayInputStream(data, 0, data.length / 2));
+  }
+}
@@ -0,0 +1,259 @@
+/* Copyright (c) 2019 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestOctreePager {
+  private static final int DEPTH = 6;
+  private static final int SIZE = 1 << DEPTH;
+
+  private static int[] fill(Octree octree, long seed) {
+    int[] voxels = new int[SIZE * SIZE * SIZE];
+    Random random = new Random(seed);
+    for (int i = 0; i < 5000; ++i) {
+      int x = random.nextInt(SIZE);
+      int y = random.nextInt(SIZE);
+      int z = random.nextInt(SIZE);
+      int type = 1 + random.nextInt(4);
+      octree.set(type, x, y, z);
+      voxels[(y * SIZE + z) * SIZE + x] = type;
+    }
+    return voxels;
+  }
+
+  private static void assertVoxels(int[] voxels, Octree octree) {
+    Octree.Cursor cursor = octree.cursor();
+    for (int y = 0; y < SIZE; ++y) {
+      for (int z = 0; z < SIZE; ++z) {
+        for (int x = 0; x < SIZE; ++x) {
+          assertEquals(voxels[(y * SIZE + z) * SIZE + x], octree.get(x, y, z));
+          assertEquals(voxels[(y * SIZE + z) * SIZE + x], cursor.get(x, y, z));
+        }
+      }
+    }
+  }
+
+  @Test public void testPageOut() throws IOException {
+    Octree octree = new Octree(DEPTH);
+    int[] voxels = fill(octree, 1);
+    // Room for a few bricks.
+    OctreePager pager = new OctreePager(3, 1000 * OctreePager.NODE_BYTES);
+    try {
+      octree.pageOut(pager);
+      assertTrue(octree.countNodes() <= 1 + 8 + 64 + 512);
+      assertVoxels(voxels, octree);
+      assertTrue(pager.pageFaults() > 512);
+      assertTrue(pager.residentBricks() < 512);
+
+      int[] visited = new int[SIZE * SIZE * SIZE];
+      octree.visit((type, x, y, z, level) -> {
+        int size = 1 << level;
+        for (int vy = y; vy < y + size; ++vy) {
+          for (int vz = z; vz < z + size; ++vz) {
+            for (int vx = x; vx < x + size; ++vx) {
+              visited[(vy * SIZE + vz) * SIZE + vx] = type;
+            }
+          }
+        }
+      });
+      for (int i = 0; i < voxels.length; ++i) {
+        assertEquals(voxels[i], visited[i]);
+      }
+    } finally {
+      pager.close();
+    }
+  }
+
+  /**
+   * Paged subtrees must be loaded again when they are modified, and must not
+   * change in copies of the octree.
+   */
+  @Test public void testSetAfterPageOut() throws IOException {
+    Octree octree = new Octree(DEPTH);
+    int[] voxels = fill(octree, 2);
+    OctreePager pager = new OctreePager(2, 1 << 20);
+    try {
+      octree.pageOut(pager);
+      Octree copy = new Octree(octree);
+      int[] copyVoxels = voxels.clone();
+      Random random = new Random(3);
+      for (int i = 0; i < 2000; ++i) {
+        int x = random.nextInt(SIZE);
+        int y = random.nextInt(SIZE);
+        int z = random.nextInt(SIZE);
+        int type = random.nextInt(5);
+        octree.set(type, x, y, z);
+        voxels[(y * SIZE + z) * SIZE + x] = type;
+        if (i % 500 == 0) {
+          octree.pageOut(octree.getPager());
+        }
+      }
+      assertVoxels(voxels, octree);
+      octree.pageOut(octree.getPager());
+      assertVoxels(voxels, octree);
+      assertVoxels(copyVoxels, copy);
+    } finally {
+      pager.close();
+      octree.getPager().close();
+    }
+  }
+
+  /**
+   * Paging out a modified octree repeatedly must not grow the brick file
+   * without bound: at most half of the file can be taken up by records that
+   * are no longer used.
+   */
+  @Test public void testCompaction() throws IOException {
+    Octree octree = new Octree(DEPTH);
+    int[] voxels = fill(octree, 5);
+    OctreePager pager = new OctreePager(2, 1 << 20);
+    octree.pageOut(pager);
+    Random random = new Random(6);
+    try {
+      for (int i = 0; i < 20; ++i) {
+        for (int j = 0; j < 1000; ++j) {
+          int x = random.nextInt(SIZE);
+          int y = random.nextInt(SIZE);
+          int z = random.nextInt(SIZE);
+          int type = 1 + random.nextInt(4);
+          octree.set(type, x, y, z);
+          voxels[(y * SIZE + z) * SIZE + x] = type;
+        }
+        octree.pageOut(octree.getPager());
+        assertTrue(octree.getPager().fileSize() <= 2 * pagedSize(octree));
+      }
+      assertTrue(octree.getPager() != pager);
+      assertVoxels(voxels, octree);
+    } finally {
+      pager.close();
+      octree.getPager().close();
+    }
+  }
+
+  /**
+   * Compacting the brick file must keep deduplicated branches shared.
+   */
+  @Test public void testCompactionKeepsSharing() throws IOException {
+    Octree octree = new Octree(DEPTH);
+    int[] voxels = new int[SIZE * SIZE * SIZE];
+    for (int x = 0; x < SIZE; ++x) {
+      for (int y = 0; y < SIZE; ++y) {
+        for (int z = 0; z < SIZE; ++z) {
+          int type = ((x & 15) * 7 + (y & 15) * 3 + (z & 15)) % 3;
+          octree.set(type, x, y, z);
+          voxels[(y * SIZE + z) * SIZE + x] = type;
+        }
+      }
+    }
+    octree.deduplicate();
+    OctreePager pager = new OctreePager(2, 1 << 20);
+    octree.pageOut(pager);
+    Random random = new Random(7);
+    try {
+      // Modify only the first 16x16x16 region until the brick file is compacted.
+      for (int i = 0; i < 20 && octree.getPager() == pager; ++i) {
+        for (int j = 0; j < 200; ++j) {
+          int x = random.nextInt(16);
+          int y = random.nextInt(16);
+          int z = random.nextInt(16);
+          int type = 1 + random.nextInt(4);
+          octree.set(type, x, y, z);
+          voxels[(y * SIZE + z) * SIZE + x] = type;
+        }
+        octree.pageOut(octree.getPager());
+      }
+      assertTrue(octree.getPager() != pager);
+      // Fewer nodes than the branches of an octree without sharing.
+      assertTrue(octree.countNodes() < 1 + 8 + 64 + 512);
+      assertVoxels(voxels, octree);
+    } finally {
+      pager.close();
+      octree.getPager().close();
+    }
+  }
+
+  /**
+   * @return the size of the brick file when the octree is paged out to a new pager
+   */
+  private static long pagedSize(Octree octree) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    OctreeFileFormat.store(octree, out);
+    Octree copy = OctreeFileFormat.load(new ByteArrayInputStream(out.toByteArray()));
+    OctreePager pager = new OctreePager(2, 1 << 20);
+    try {
+      copy.pageOut(pager);
+      return pager.fileSize();
+    } finally {
+      pager.close();
+    }
+  }
+
+  /**
+   * Identical bricks are stored once, also when they were not deduplicated
+   * before paging.
+   */
+  @Test public void testIdenticalBricks() throws IOException {
+    Octree single = new Octree(DEPTH);
+    Octree repeated = new Octree(DEPTH);
+    single.set(1, 0, 0, 0);
+    single.set(2, 1, 2, 3);
+    for (int x = 0; x < SIZE; x += 4) {
+      for (int y = 0; y < SIZE; y += 4) {
+        for (int z = 0; z < SIZE; z += 4) {
+          repeated.set(1, x, y, z);
+          repeated.set(2, x + 1, y + 2, z + 3);
+        }
+      }
+    }
+    OctreePager singlePager = new OctreePager(2, 1 << 20);
+    OctreePager repeatedPager = new OctreePager(2, 1 << 20);
+    try {
+      single.pageOut(singlePager);
+      repeated.pageOut(repeatedPager);
+      assertEquals(singlePager.fileSize(), repeatedPager.fileSize());
+      assertEquals(1, repeated.get(4, 8, 12));
+      assertEquals(2, repeated.get(5, 10, 15));
+      assertEquals(0, repeated.get(6, 10, 15));
+    } finally {
+      singlePager.close();
+      repeatedPager.close();
+    }
+  }
+
+  @Test public void testStorePagedOctree() throws IOException {
+    Octree octree = new Octree(DEPTH);
+    int[] voxels = fill(octree, 4);
+    OctreePager pager = new OctreePager(3, 1 << 20);
+    try {
+      octree.pageOut(pager);
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      OctreeFileFormat.store(octree, out);
+      assertVoxels(voxels, OctreeFileFormat.load(new ByteArrayInputStream(out.toByteArray())));
+    } finally {
+      pager.close();
+    }
+  }
+}
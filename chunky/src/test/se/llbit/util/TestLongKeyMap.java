@@ -0,0 +1,66 @@
+/* Copyright (c) 2019 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.util;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestLongKeyMap {
+  @Test public void testKey() {
+    long key = LongKeyMap.key(-5, 7);
+    assertEquals(-5, LongKeyMap.keyX(key));
+    assertEquals(7, LongKeyMap.keyZ(key));
+  }
+
+  @Test public void testPutGet() {
+    LongKeyMap<String> map = new LongKeyMap<>();
+    assertNull(map.put(LongKeyMap.key(1, 2), "a"));
+    assertEquals("a", map.put(LongKeyMap.key(1, 2), "b"));
+    assertEquals("b", map.get(LongKeyMap.key(1, 2)));
+    assertNull(map.get(LongKeyMap.key(2, 1)));
+    assertEquals(1, map.size());
+  }
+
+  /**
+   * Compare against a HashMap with many random insertions and removals.
+   * This exercises growing and removal from probe sequences.
+   */
+  @Test public void testRandomOperations() {
+    LongKeyMap<Integer> map = new LongKeyMap<>();
+    Map<Long, Integer> expected = new HashMap<>();
+    Random random = new Random(1234);
+    for (int i = 0; i < 20000; ++i) {
+      long key = LongKeyMap.key(random.nextInt(64) - 32, random.nextInt(64) - 32);
+      if (random.nextInt(3) == 0) {
+        assertEquals(expected.remove(key), map.remove(key));
+      } else {
+        assertEquals(expected.put(key, i), map.put(key, i));
+      }
+      assertEquals(expected.size(), map.size());
+    }
+    for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+      assertEquals(entry.getValue(), map.get(entry.getKey()));
+    }
+    assertEquals(expected.size(), map.keys().length);
+  }
+}
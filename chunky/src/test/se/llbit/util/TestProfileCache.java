@@ -0,0 +1,178 @@
+/* Copyright (c) 2019 Jesper Öqvist <jesper@llbit.se>
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the profile cache against a local stub session server.
+ */
+public class TestProfileCache {
+  private static final String UUID = "069A79F444E94726A5BEFCA90E38AAF5";
+  private static final byte[] SKIN = {(byte) 0x89, 'P', 'N', 'G', 1, 2, 3};
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private HttpServer server;
+  private String sessionServer;
+  private final AtomicInteger profileRequests = new AtomicInteger();
+  private final AtomicInteger skinRequests = new AtomicInteger();
+
+  @Before public void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    String base = "http://127.0.0.1:" + server.getAddress().getPort();
+    sessionServer = base + "/profile/";
+    server.createContext("/profile/", exchange -> {
+      profileRequests.incrementAndGet();
+      String uuid = exchange.getRequestURI().getPath().substring("/profile/".length());
+      if (!uuid.equals(UUID)) {
+        respond(exchange, 204, new byte[0]);
+        return;
+      }
+      String textures = "{\"textures\":{\"SKIN\":{\"url\":\"" + base + "/skin.png\","
+          + "\"metadata\":{\"model\":\"slim\"}}}}";
+      String profile = "{\"id\":\"" + UUID + "\",\"name\":\"Alex\",\"properties\":[{"
+          + "\"name\":\"textures\",\"value\":\""
+          + Base64.getEncoder().encodeToString(textures.getBytes(StandardCharsets.UTF_8))
+          + "\"}]}";
+      respond(exchange, 200, profile.getBytes(StandardCharsets.UTF_8));
+    });
+    server.createContext("/skin.png", exchange -> {
+      skinRequests.incrementAndGet();
+      respond(exchange, 200, SKIN);
+    });
+    server.start();
+  }
+
+  @After public void stopServer() {
+    server.stop(0);
+  }
+
+  private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+    exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+  private static ProfileCache.Profile get(CompletableFuture<ProfileCache.Profile> future)
+      throws Exception {
+    return future.get(10, TimeUnit.SECONDS);
+  }
+
+  @Test public void testFetch() throws Exception {
+    File directory = folder.newFolder();
+    ProfileCache cache = new ProfileCache(directory, sessionServer, TimeUnit.HOURS.toMillis(1));
+    assertNull(cache.getCached(UUID));
+
+    ProfileCache.Profile profile = get(cache.fetch(UUID));
+    assertEquals("Alex", profile.json.get("name").stringValue(""));
+    assertTrue(profile.slim);
+    assertNotNull(profile.skin);
+    assertArrayEquals(SKIN, Files.readAllBytes(profile.skin.toPath()));
+    assertEquals(1, profileRequests.get());
+    assertEquals(1, skinRequests.get());
+
+    // The cached profile has not expired, so the server is not contacted.
+    CompletableFuture<ProfileCache.Profile> cached = cache.fetch(UUID);
+    assertTrue(cached.isDone());
+    assertEquals("Alex", get(cached).json.get("name").stringValue(""));
+    assertEquals(1, profileRequests.get());
+    cache.shutdown();
+
+    // The cache is persistent.
+    cache = new ProfileCache(directory, sessionServer, TimeUnit.HOURS.toMillis(1));
+    profile = cache.getCached(UUID);
+    assertNotNull(profile);
+    assertEquals("Alex", profile.json.get("name").stringValue(""));
+    assertArrayEquals(SKIN, Files.readAllBytes(profile.skin.toPath()));
+    cache.shutdown();
+  }
+
+  /**
+   * Expired profiles are fetched again, but an unchanged skin is not
+   * downloaded again.
+   */
+  @Test public void testExpired() throws Exception {
+    ProfileCache cache = new ProfileCache(folder.newFolder(), sessionServer, 0);
+    get(cache.fetch(UUID));
+    ProfileCache.Profile profile = get(cache.fetch(UUID));
+    assertEquals("Alex", profile.json.get("name").stringValue(""));
+    assertEquals(2, profileRequests.get());
+    assertEquals(1, skinRequests.get());
+    cache.shutdown();
+  }
+
+  @Test public void testUnknownPlayer() throws Exception {
+    ProfileCache cache = new ProfileCache(folder.newFolder(), sessionServer, 0);
+    ProfileCache.Profile profile = get(cache.fetch("00000000000000000000000000000000"));
+    assertNull(profile.skin);
+    assertEquals("", profile.json.get("name").stringValue(""));
+    assertEquals(0, skinRequests.get());
+    cache.shutdown();
+  }
+
+  /**
+   * Cached profiles and skins are used when the server can not be reached.
+   */
+  @Test public void testOffline() throws Exception {
+    File directory = folder.newFolder();
+    ProfileCache cache = new ProfileCache(directory, sessionServer, 0);
+    get(cache.fetch(UUID));
+    cache.shutdown();
+    server.stop(0);
+
+    cache = new ProfileCache(directory, sessionServer, 0);
+    ProfileCache.Profile profile = cache.getCached(UUID);
+    assertNotNull(profile);
+    assertArrayEquals(SKIN, Files.readAllBytes(profile.skin.toPath()));
+    try {
+      get(cache.fetch(UUID));
+      fail("Expected the fetch to fail");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IOException);
+    }
+    assertNotNull(cache.getCached(UUID));
+    cache.shutdown();
+  }
+}
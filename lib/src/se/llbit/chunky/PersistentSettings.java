@@ -163,6 +163,58 @@ public final class PersistentSettings {
     save();
   }
 
+  /**
+   * @return the capacity, in MiB, of the in-memory cache of decoded chunks
+   */
+  public static int getChunkCacheSize() {
+    return settings.getInt("chunkCacheSize", 128);
+  }
+
+  /**
+   * Change the capacity of the in-memory cache of decoded chunks.
+   * A capacity of zero disables the cache.
+   *
+   * @param size the cache capacity in MiB
+   */
+  public static void setChunkCacheSize(int size) {
+    settings.setInt("chunkCacheSize", Math.max(0, size));
+    save();
+  }
+
+  /**
+   * @return the memory budget, in MiB, for paged octree bricks kept in memory
+   */
+  public static int getOctreeCacheSize() {
+    return settings.getInt("octreeCacheSize", 1024);
+  }
+
+  /**
+   * Change the memory budget for paged octree bricks kept in memory.
+   *
+   * @param size the cache capacity in MiB
+   */
+  public static void setOctreeCacheSize(int size) {
+    settings.setInt("octreeCacheSize", Math.max(1, size));
+    save();
+  }
+
+  /**
+   * @return the time, in hours, before cached player profiles are fetched again
+   */
+  public static int getProfileCacheTtl() {
+    return settings.getInt("profileCacheTtl", 24);
+  }
+
+  /**
+   * Change the time to live for cached player profiles.
+   *
+   * @param hours the time in hours before a cached profile is fetched again
+   */
+  public static void setProfileCacheTtl(int hours) {
+    settings.setInt("profileCacheTtl", Math.max(0, hours));
+    save();
+  }
+
   public static void setLastWorld(File worldDirectory) {
     settings.setString("lastWorld", worldDirectory.getAbsolutePath());
     save();